@@ -0,0 +1,859 @@
+//package twoogle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves one Message Service to many users at once over HTTP with JSON responses, on the JDK's built-in HTTP
+ * server (see MessageService.serve() and the connectmode=server command-line parameter).
+ *
+ * Endpoints:
+ *
+ * 		POST /api/register                  {"username", "password"} and optionally the profile: {"gender",
+ * 		                                    "birthDate", "email", "aboutMe", "profileVisible"}
+ * 		POST /api/login                     {"username", "password"}
+ * 		POST /api/logout
+ * 		GET  /api/me                        the logged in user
+ * 		POST /api/messages                  {"message"}, ie {"message": "@david #movies *private Great movie!"}
+ * 		GET  /api/messages/{id}             the conversation of a message, in reading order
+ * 		GET  /api/messages/{id}/thread      the same as a reply tree
+ * 		GET  /api/timeline                  the logged in user's subscribed to messages
+ * 		GET  /api/replies                   replies to the logged in user
+ * 		GET  /api/users/{username}/messages
+ * 		GET  /api/users/{username}/profile  the profile and the numbers of subscriptions and subscribers
+ * 		POST /api/subscriptions             {"username"}
+ * 		GET  /api/tags                      the most used tags, ?limit=
+ * 		GET  /api/tags/trending             the most used tags of the last ?window=15m, 1h (default) or 1d, ?limit=
+ * 		GET  /api/tags/{tag}/messages       the tag without its #
+ * 		GET  /api/search                    messages containing every word of ?q=
+ * 		GET  /api/events                    waits for new messages, ?timeout= in seconds
+ * 		POST /api/watches                   {"tag"}, adds the tag's messages to the events
+ * 		DELETE /api/watches/{tag}
+ * 		GET  /api/metrics
+ *
+ * Message lists are newest first and take ?limit=. The response's nextCursor is passed back as ?cursor= for the
+ * next (older) page, or, on the timelines, as ?since= for the messages posted after the newest one received (see
+ * MessageService.viewUserMessagesSince()). Errors are answered with an HTTP error status and {"error": "..."}.
+ *
+ * Login and register answer a session token, which is sent back with each request as
+ * "Authorization: Bearer token". Each request looks up its own user from its token and passes it to the Message
+ * Service, so requests of different users never share state; the Message Service's myUser is not used. Requests
+ * without a token are served as the guest user. Sessions end on logout or after SESSION_IDLE_MILLIS without a
+ * request.
+ *
+ * GET /api/events is a long poll: it answers as soon as the logged in user's session receives new messages from the
+ * Message Service's event bus (messages of the users subscribed to, his own and the replies to him, plus the
+ * public messages of watched tags), or after the timeout with none. The answer is {"messages": [...], "dropped": n},
+ * oldest first; a non-zero dropped means the client fell behind and should catch up with ?since= on the timelines.
+ *
+ * Each request runs on its own virtual thread when the JDK has them (Java 21 and up), otherwise on a fixed pool
+ * of platform threads. Either way the database work is limited by the connection pool, so many waiting requests
+ * cost little.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class ApiServer {
+
+	/**
+	 * @param service The Message Service served.
+	 * @param port The port to listen on.
+	 * @param threads The number of request threads when virtual threads are not available.
+	 */
+	ApiServer(MessageService service, int port, int threads) throws IOException {
+		this.service = service;
+
+		ExecutorService virtual = newVirtualThreadExecutor();
+		if (virtual != null) {
+			executor = virtual;
+			executorName = "a virtual thread per request";
+			longPolls = null;
+		} else {
+			executor = Executors.newFixedThreadPool(threads, daemonThreads("twoogle-api-"));
+			executorName = threads + " request threads";
+			longPolls = new Semaphore(Math.max(1, threads / 2)); //leave threads for the other requests.
+		}
+
+		server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+		server.setExecutor(executor);
+		server.createContext(PREFIX, new HttpHandler() {
+			public void handle(HttpExchange ex) throws IOException {
+				ApiServer.this.handle(ex);
+			}
+		});
+
+		sweeper = Executors.newSingleThreadScheduledExecutor(daemonThreads("twoogle-sessions-"));
+	}
+
+	/**
+	 * Starts answering requests.
+	 */
+	public void start() {
+		server.start();
+		sweeper.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				expireSessions();
+			}
+		}, SESSION_SWEEP_MILLIS, SESSION_SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops answering requests, giving the ones in flight a moment to finish.
+	 */
+	public void stop() {
+		for (Session s: sessions.values()) {
+			s.end(); //wakes up the long polls.
+		}
+		server.stop(STOP_DELAY_SECONDS);
+		sweeper.shutdownNow();
+		executor.shutdown();
+	}
+
+	/**
+	 * Describes what the requests run on, ie "a virtual thread per request".
+	 */
+	public String executorName() {
+		return executorName;
+	}
+
+	/**
+	 * Returns the server statistics as a formatted string.
+	 */
+	public String metrics() {
+		return "API server: " + sessions.size() + " sessions, " + waitingPolls.get() + " waiting for events | " + requests.get() + " requests, " + errors.get()
+				+ " server errors";
+	}
+
+	/**
+	 * Answers one request.
+	 */
+	private void handle(HttpExchange ex) throws IOException {
+		requests.incrementAndGet();
+		int status = 200;
+		String json;
+
+		try {
+			json = route(ex);
+		} catch (ApiException ae) {
+			status = ae.status;
+			json = error(ae.getMessage());
+		} catch (RuntimeException re) {
+			errors.incrementAndGet();
+			System.err.println("DEBUG: The API request " + ex.getRequestMethod() + " " + ex.getRequestURI() + " failed: " + re);
+			status = 500;
+			json = error("internal error");
+		}
+
+		try {
+			byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+			ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+			ex.sendResponseHeaders(status, bytes.length);
+			OutputStream out = ex.getResponseBody();
+			out.write(bytes);
+			out.close();
+		} finally {
+			ex.close();
+		}
+	}
+
+	/**
+	 * Calls the endpoint the request is for and returns its JSON answer.
+	 */
+	private String route(HttpExchange ex) throws IOException, ApiException {
+		String[] path = ex.getRequestURI().getPath().substring(PREFIX.length()).split("/");
+		String method = ex.getRequestMethod();
+		Map<String, String> query = parseQuery(ex.getRequestURI().getRawQuery());
+		Session session = session(ex);
+		User me = session != null ? session.user : GUEST;
+
+		switch (path[0]) {
+		case "register":
+			requireMethod(method, "POST");
+			return register(readBody(ex));
+		case "login":
+			requireMethod(method, "POST");
+			return login(readBody(ex));
+		case "logout":
+			requireMethod(method, "POST");
+			if (session != null && sessions.remove(session.token) != null)
+				session.end();
+			return "{\"loggedOut\":true}";
+		case "me":
+			requireMethod(method, "GET");
+			return userJson(new StringBuilder(), requireLogin(session)).toString();
+		case "messages":
+			if (path.length == 1) {
+				requireMethod(method, "POST");
+				return post(me, readBody(ex));
+			}
+			requireMethod(method, "GET");
+			if (path.length == 2)
+				return message(me, path[1]);
+			if (path.length == 3 && path[2].equals("thread"))
+				return thread(me, path[1]);
+			break;
+		case "timeline":
+			requireMethod(method, "GET");
+			requireLogin(session);
+			return timeline(me, query);
+		case "replies":
+			requireMethod(method, "GET");
+			requireLogin(session);
+			return replies(me, query);
+		case "users":
+			requireMethod(method, "GET");
+			if (path.length == 3 && path[2].equals("messages"))
+				return userMessages(me, path[1].toLowerCase(), query);
+			if (path.length == 3 && path[2].equals("profile"))
+				return profile(me, path[1].toLowerCase());
+			break;
+		case "subscriptions":
+			requireMethod(method, "POST");
+			return subscribe(requireLogin(session), readBody(ex));
+		case "tags":
+			requireMethod(method, "GET");
+			if (path.length == 1)
+				return tags(query);
+			if (path.length == 2 && path[1].equals("trending"))
+				return trendingTags(query);
+			if (path.length == 3 && path[2].equals("messages"))
+				return tagMessages(path[1], query);
+			break;
+		case "search":
+			requireMethod(method, "GET");
+			return search(me, query);
+		case "events":
+			requireMethod(method, "GET");
+			requireLogin(session);
+			return events(session, query);
+		case "watches":
+			requireLogin(session);
+			if (path.length == 1) {
+				requireMethod(method, "POST");
+				session.events(service).watchTag(tag(required(readBody(ex), "tag")));
+				return "{\"watching\":true}";
+			}
+			requireMethod(method, "DELETE");
+			session.events(service).unwatchTag(tag(path[1]));
+			return "{\"watching\":false}";
+		case "metrics":
+			requireMethod(method, "GET");
+			StringBuilder sb = new StringBuilder("{\"server\":");
+			Json.appendString(sb, metrics()).append(",\"service\":");
+			return Json.appendString(sb, service.metrics()).append('}').toString();
+		}
+		throw new ApiException(404, "no such endpoint");
+	}
+
+	/**
+	 * POST /api/register
+	 */
+	private String register(Map<String, String> body) throws ApiException {
+		String username = required(body, "username").toLowerCase();
+		String password = required(body, "password");
+		if (username.length() > MAX_NAME_LENGTH || password.length() > MAX_NAME_LENGTH)
+			throw new ApiException(400, "username and password can have at most " + MAX_NAME_LENGTH + " characters");
+
+		User u = new User(username, password);
+		if (body.containsKey("gender") || body.containsKey("birthDate") || body.containsKey("email") || body.containsKey("aboutMe")) {
+			u.hasProfile = 1;
+			u.gender = optional(body, "gender", MAX_GENDER_LENGTH);
+			u.birthDate = optional(body, "birthDate", MAX_BIRTH_DATE_LENGTH);
+			u.email = optional(body, "email", MAX_EMAIL_LENGTH);
+			u.aboutMeMessage = optional(body, "aboutMe", MAX_ABOUT_ME_LENGTH);
+			u.profileVisible = "false".equals(body.get("profileVisible")) || "0".equals(body.get("profileVisible")) ? 0 : 1;
+		}
+
+		if (service.userExists(username))
+			throw new ApiException(409, "the username is already taken");
+
+		switch (service.addUser(u)) {
+		case MessageService.ADD_USER_ADDED:
+			return loggedIn(u);
+		case MessageService.ADD_USER_TAKEN:
+			throw new ApiException(409, "the username is already taken");
+		default:
+			throw new ApiException(500, "could not register");
+		}
+	}
+
+	/**
+	 * POST /api/login
+	 */
+	private String login(Map<String, String> body) throws ApiException {
+		User u = new User(required(body, "username").toLowerCase(), required(body, "password"));
+		if (!service.authenticate(u))
+			throw new ApiException(401, "username and password do not match");
+		return loggedIn(u);
+	}
+
+	/**
+	 * Starts a session for a user and returns its token along with the user.
+	 */
+	private String loggedIn(User u) {
+		byte[] bytes = new byte[TOKEN_BYTES];
+		RANDOM.nextBytes(bytes);
+		Session s = new Session(Base64.getUrlEncoder().withoutPadding().encodeToString(bytes), u);
+		sessions.put(s.token, s);
+
+		StringBuilder sb = new StringBuilder("{\"token\":");
+		Json.appendString(sb, s.token).append(",\"user\":");
+		return userJson(sb, u).append('}').toString();
+	}
+
+	/**
+	 * POST /api/messages
+	 */
+	private String post(User me, Map<String, String> body) throws ApiException {
+		String message = required(body, "message");
+		if (message.length() > MAX_MESSAGE_LENGTH)
+			throw new ApiException(400, "the size limit for a post is " + MAX_MESSAGE_LENGTH + " characters");
+		if (!service.postMessage(me, message))
+			throw new ApiException(500, "could not post the message");
+		return "{\"posted\":true}";
+	}
+
+	/**
+	 * GET /api/messages/{id}
+	 */
+	private String message(User me, String id) throws ApiException {
+		StringBuilder sb = new StringBuilder("{\"messages\":");
+		return messagesJson(sb, readThread(me, id).messages()).append('}').toString();
+	}
+
+	/**
+	 * GET /api/messages/{id}/thread, the reply tree: each message with its replyCount and its replies nested.
+	 */
+	private String thread(User me, String id) throws ApiException {
+		final StringBuilder sb = new StringBuilder("{\"thread\":[");
+		final int[] open = {-1}; //depth of the deepest message whose replies array is still open.
+
+		//walk() visits each message right after its parent or its previous sibling, so the open messages down to its
+		//depth are closed first.
+		readThread(me, id).walk(new MessageThread.Visitor() {
+			public void visit(MessageThread.Node n, int depth) {
+				for (; open[0] >= depth; open[0]--) {
+					sb.append("]}");
+				}
+				if (sb.charAt(sb.length() - 1) != '[')
+					sb.append(',');
+				sb.append('{');
+				appendMessage(sb, n.message).append(",\"replyCount\":").append(n.message.replyCount).append(",\"replies\":[");
+				open[0] = depth;
+			}
+		});
+		for (; open[0] >= 0; open[0]--) {
+			sb.append("]}");
+		}
+		return sb.append("]}").toString();
+	}
+
+	/**
+	 * Reads the thread of a message as the logged in user may see it.
+	 */
+	private MessageThread readThread(User me, String id) throws ApiException {
+		MessageThread thread = service.thread(id.toLowerCase(), me.username);
+		if (thread == null)
+			throw new ApiException(500, "could not read the message");
+		if (thread.isEmpty())
+			throw new ApiException(404, "no such message");
+		return thread;
+	}
+
+	/**
+	 * GET /api/timeline
+	 */
+	private String timeline(User me, Map<String, String> query) throws ApiException {
+		int limit = limit(query);
+		String since = cursor(query, "since");
+		Page p = since != null ? service.viewSubscribedToMessagesSince(me, since, limit) : service.viewSubscribedToMessages(me, limit, cursor(query, "cursor"));
+		return pageJson(p);
+	}
+
+	/**
+	 * GET /api/replies
+	 */
+	private String replies(User me, Map<String, String> query) throws ApiException {
+		int limit = limit(query);
+		String since = cursor(query, "since");
+		Page p = since != null ? service.viewReplyMessagesSince(me, since, limit) : service.viewReplyMessages(me, limit, cursor(query, "cursor"));
+		return pageJson(p);
+	}
+
+	/**
+	 * GET /api/users/{username}/messages
+	 */
+	private String userMessages(User me, String username, Map<String, String> query) throws ApiException {
+		int limit = limit(query);
+		String since = cursor(query, "since");
+		String cursor = cursor(query, "cursor");
+		if (!service.userExists(username))
+			throw new ApiException(404, "no such user");
+
+		Page p = since != null ? service.viewUserMessagesSince(me, username, since, limit) : service.viewUserMessages(me, username, limit, cursor);
+		return pageJson(p);
+	}
+
+	/**
+	 * GET /api/users/{username}/profile
+	 */
+	private String profile(User me, String username) throws ApiException {
+		User u = service.findUser(username);
+		if (u == null)
+			throw new ApiException(404, "no such user");
+		if (!MessageService.isProfileVisible(u, me))
+			throw new ApiException(403, "the profile is private");
+
+		StringBuilder sb = userJson(new StringBuilder(), u);
+		sb.setLength(sb.length() - 1); //reopen the user object for the counts.
+		return sb.append(",\"subscribedTo\":").append(service.subscribedToCount(u.username)).append(",\"subscribers\":")
+				.append(service.subscriberCount(u.username)).append('}').toString();
+	}
+
+	/**
+	 * POST /api/subscriptions
+	 */
+	private String subscribe(User me, Map<String, String> body) throws ApiException {
+		String username = required(body, "username").toLowerCase();
+		if (!service.userExists(username))
+			throw new ApiException(404, "no such user");
+		if (!service.subscribeToUser(me, username))
+			throw new ApiException(500, "could not subscribe");
+		return "{\"subscribed\":true}";
+	}
+
+	/**
+	 * GET /api/tags
+	 */
+	private String tags(Map<String, String> query) throws ApiException {
+		return tagsJson(service.topTags(limit(query)));
+	}
+
+	/**
+	 * GET /api/tags/trending
+	 */
+	private String trendingTags(Map<String, String> query) throws ApiException {
+		TrendingTags.Window window = TrendingTags.Window.HOUR;
+		if (query.containsKey("window")) {
+			window = TrendingTags.Window.parse(query.get("window"));
+			if (window == null)
+				throw new ApiException(400, "window must be 15m, 1h or 1d");
+		}
+		return tagsJson(service.trendingTags(window, limit(query)));
+	}
+
+	private static String tagsJson(List<Map.Entry<String, Integer>> tags) throws ApiException {
+		if (tags == null)
+			throw new ApiException(500, "could not read the tags");
+
+		StringBuilder sb = new StringBuilder("{\"tags\":[");
+		for (int i = 0; i < tags.size(); i++) {
+			if (i > 0)
+				sb.append(',');
+			sb.append("{\"tag\":");
+			Json.appendString(sb, tags.get(i).getKey()).append(",\"count\":").append(tags.get(i).getValue()).append('}');
+		}
+		return sb.append("]}").toString();
+	}
+
+	/**
+	 * GET /api/tags/{tag}/messages
+	 */
+	private String tagMessages(String tag, Map<String, String> query) throws ApiException {
+		return pageJson(service.viewMessageByTag(tag(tag), limit(query), cursor(query, "cursor")));
+	}
+
+	/**
+	 * GET /api/search
+	 */
+	private String search(User me, Map<String, String> query) throws ApiException {
+		String q = required(query, "q");
+		if (SearchIndex.terms(q).isEmpty())
+			throw new ApiException(400, "q must contain at least one word");
+		return pageJson(service.searchMessages(me, q, limit(query), cursor(query, "cursor")));
+	}
+
+	/**
+	 * GET /api/events
+	 *
+	 * On platform threads, at most half of them wait in long polls at once; beyond that a poll answers at once, so
+	 * waiting clients cannot starve the other requests.
+	 */
+	private String events(Session session, Map<String, String> query) throws ApiException {
+		long timeoutMillis = timeoutSeconds(query) * 1000L;
+		boolean waiting = timeoutMillis > 0 && (longPolls == null || longPolls.tryAcquire());
+		if (waiting)
+			waitingPolls.incrementAndGet();
+
+		EventBus.Subscription events = session.events(service);
+		List<Message> messages;
+		try {
+			messages = events.poll(waiting ? timeoutMillis : 0);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new ApiException(503, "the server is stopping");
+		} finally {
+			if (waiting) {
+				waitingPolls.decrementAndGet();
+				if (longPolls != null)
+					longPolls.release();
+			}
+		}
+
+		StringBuilder sb = new StringBuilder("{\"messages\":");
+		messagesJson(sb, messages).append(",\"dropped\":").append(events.takeDropped());
+		return sb.append('}').toString();
+	}
+
+	/**
+	 * Returns the session of the request's token, or null if there is none.
+	 */
+	private Session session(HttpExchange ex) throws ApiException {
+		String header = ex.getRequestHeaders().getFirst("Authorization");
+		if (header == null)
+			return null;
+		if (!header.startsWith(BEARER))
+			throw new ApiException(401, "expected Authorization: Bearer token");
+
+		Session s = sessions.get(header.substring(BEARER.length()).trim());
+		if (s == null)
+			throw new ApiException(401, "the session has ended, please log in again");
+		s.lastUsed = System.currentTimeMillis();
+		return s;
+	}
+
+	/**
+	 * Ends the sessions that have not been used for SESSION_IDLE_MILLIS.
+	 */
+	private void expireSessions() {
+		long oldest = System.currentTimeMillis() - SESSION_IDLE_MILLIS;
+		for (Iterator<Session> i = sessions.values().iterator(); i.hasNext();) {
+			Session s = i.next();
+			if (s.lastUsed < oldest) {
+				i.remove();
+				s.end();
+			}
+		}
+	}
+
+	private static User requireLogin(Session session) throws ApiException {
+		if (session == null)
+			throw new ApiException(401, "please log in");
+		return session.user;
+	}
+
+	private static void requireMethod(String method, String expected) throws ApiException {
+		if (!method.equals(expected))
+			throw new ApiException(405, "use " + expected);
+	}
+
+	private static String required(Map<String, String> body, String name) throws ApiException {
+		String value = body.get(name);
+		if (value == null || value.length() == 0)
+			throw new ApiException(400, name + " is required");
+		return value;
+	}
+
+	/**
+	 * Returns a field that may be left out (null then), if it fits its column.
+	 */
+	private static String optional(Map<String, String> body, String name, int maxLength) throws ApiException {
+		String value = body.get(name);
+		if (value != null && value.length() > maxLength)
+			throw new ApiException(400, name + " can have at most " + maxLength + " characters");
+		return value;
+	}
+
+	/**
+	 * Returns the ?limit= of a request, PAGE_SIZE if not given.
+	 */
+	private static int limit(Map<String, String> query) throws ApiException {
+		String value = query.get("limit");
+		if (value == null)
+			return MessageService.PAGE_SIZE;
+		try {
+			int limit = Integer.parseInt(value);
+			if (limit >= 1 && limit <= MAX_LIMIT)
+				return limit;
+		} catch (NumberFormatException ne) {
+			//answered below.
+		}
+		throw new ApiException(400, "limit must be a number from 1 to " + MAX_LIMIT);
+	}
+
+	/**
+	 * Returns the ?timeout= of an events request, in seconds, DEFAULT_POLL_SECONDS if not given.
+	 */
+	private static int timeoutSeconds(Map<String, String> query) throws ApiException {
+		String value = query.get("timeout");
+		if (value == null)
+			return DEFAULT_POLL_SECONDS;
+		try {
+			int timeout = Integer.parseInt(value);
+			if (timeout >= 0 && timeout <= MAX_POLL_SECONDS)
+				return timeout;
+		} catch (NumberFormatException ne) {
+			//answered below.
+		}
+		throw new ApiException(400, "timeout must be a number of seconds from 0 to " + MAX_POLL_SECONDS);
+	}
+
+	/**
+	 * Returns a tag as stored, ie "#movies" for "Movies".
+	 */
+	private static String tag(String tag) throws ApiException {
+		tag = tag.toLowerCase();
+		if (!tag.startsWith("#"))
+			tag = "#" + tag;
+		if (tag.length() == 1)
+			throw new ApiException(400, "tag is required");
+		return tag;
+	}
+
+	/**
+	 * Returns a cursor parameter of a request, or null if not given.
+	 */
+	private static String cursor(Map<String, String> query, String name) throws ApiException {
+		String cursor = query.get(name);
+		if (cursor == null)
+			return null;
+		try {
+			Page.cursorTimestamp(cursor);
+			Page.cursorMessageId(cursor);
+			return cursor;
+		} catch (RuntimeException re) {
+			throw new ApiException(400, name + " is not a cursor from a previous response");
+		}
+	}
+
+	/**
+	 * Reads the request body as a flat JSON object.
+	 */
+	private static Map<String, String> readBody(HttpExchange ex) throws IOException, ApiException {
+		InputStream in = ex.getRequestBody();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+			if (out.size() > MAX_BODY_BYTES)
+				throw new ApiException(413, "the request body is too large");
+		}
+
+		try {
+			return Json.parseObject(new String(out.toByteArray(), StandardCharsets.UTF_8));
+		} catch (IllegalArgumentException ie) {
+			throw new ApiException(400, ie.getMessage());
+		}
+	}
+
+	private static Map<String, String> parseQuery(String rawQuery) throws ApiException {
+		HashMap<String, String> query = new HashMap<String, String>();
+		if (rawQuery == null)
+			return query;
+
+		try {
+			for (String pair: rawQuery.split("&")) {
+				int x = pair.indexOf('=');
+				if (x > 0)
+					query.put(URLDecoder.decode(pair.substring(0, x), "UTF-8"), URLDecoder.decode(pair.substring(x + 1), "UTF-8"));
+			}
+		} catch (UnsupportedEncodingException | IllegalArgumentException e) {
+			throw new ApiException(400, "bad query string");
+		}
+		return query;
+	}
+
+	private static String pageJson(Page p) throws ApiException {
+		if (p.messages == null)
+			throw new ApiException(500, "could not read the messages");
+
+		StringBuilder sb = new StringBuilder("{\"messages\":");
+		messagesJson(sb, p.messages).append(",\"nextCursor\":");
+		return Json.appendString(sb, p.nextCursor).append('}').toString();
+	}
+
+	private static StringBuilder messagesJson(StringBuilder sb, List<Message> messages) {
+		sb.append('[');
+		for (int i = 0; i < messages.size(); i++) {
+			if (i > 0)
+				sb.append(',');
+			sb.append('{');
+			appendMessage(sb, messages.get(i)).append('}');
+		}
+		return sb.append(']');
+	}
+
+	/**
+	 * Appends the members of a message object, without the braces.
+	 */
+	private static StringBuilder appendMessage(StringBuilder sb, Message m) {
+		sb.append("\"id\":");
+		Json.appendString(sb, m.id).append(",\"username\":");
+		Json.appendString(sb, m.username).append(",\"repliedTo\":");
+		Json.appendString(sb, m.repliedToUsername).append(",\"parentId\":");
+		Json.appendString(sb, m.parentId).append(",\"threadId\":");
+		Json.appendString(sb, m.threadId).append(",\"tag\":");
+		Json.appendString(sb, m.tag).append(",\"contents\":");
+		Json.appendString(sb, m.contents).append(",\"private\":").append(m.isPrivate == 1).append(",\"timestamp\":");
+		return Json.appendString(sb, m.timestamp == null ? null : m.timestamp.toInstant().toString());
+	}
+
+	/**
+	 * Appends a user and his profile, never his password.
+	 */
+	private static StringBuilder userJson(StringBuilder sb, User u) {
+		sb.append("{\"username\":");
+		Json.appendString(sb, u.username).append(",\"hasProfile\":").append(u.hasProfile == 1);
+		if (u.hasProfile == 1) {
+			sb.append(",\"profileVisible\":").append(u.profileVisible == 1).append(",\"gender\":");
+			Json.appendString(sb, u.gender).append(",\"birthDate\":");
+			Json.appendString(sb, u.birthDate).append(",\"email\":");
+			Json.appendString(sb, u.email).append(",\"aboutMe\":");
+			Json.appendString(sb, u.aboutMeMessage);
+		}
+		return sb.append('}');
+	}
+
+	private static String error(String message) {
+		return Json.appendString(new StringBuilder("{\"error\":"), message).append('}').toString();
+	}
+
+	/**
+	 * Returns Executors.newVirtualThreadPerTaskExecutor() on Java 21 and up, otherwise null. Looked up by
+	 * reflection so the program still builds and runs on older JDKs.
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	private static ThreadFactory daemonThreads(final String prefix) {
+		final AtomicInteger n = new AtomicInteger();
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, prefix + n.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * A logged in user.
+	 */
+	private static class Session {
+
+		Session(String token, User user) {
+			this.token = token;
+			this.user = user;
+			lastUsed = System.currentTimeMillis();
+		}
+
+		/**
+		 * Returns the session's live feed, opening it on first use.
+		 */
+		synchronized EventBus.Subscription events(MessageService service) throws ApiException {
+			if (ended)
+				throw new ApiException(401, "the session has ended, please log in again");
+			if (events == null)
+				events = service.subscribeToEvents(user);
+			return events;
+		}
+
+		/**
+		 * Closes the session's live feed, waking up a poll waiting on it.
+		 */
+		synchronized void end() {
+			ended = true;
+			if (events != null)
+				events.close();
+		}
+
+		final String token;
+		final User user;
+		volatile long lastUsed;
+		private EventBus.Subscription events; //null until the first events or watches request.
+		private boolean ended;
+	}
+
+	/**
+	 * Ends a request with an HTTP error status.
+	 */
+	private static class ApiException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		ApiException(int status, String message) {
+			super(message);
+			this.status = status;
+		}
+
+		final int status;
+	}
+
+	private final MessageService service;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final String executorName;
+	private final ScheduledExecutorService sweeper; //ends idle sessions.
+	private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+	private final Semaphore longPolls; //limits the waiting events requests on platform threads, null on virtual threads.
+
+	//statistics
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong waitingPolls = new AtomicLong();
+
+	/**
+	 * The user requests without a session are served as.
+	 */
+	private static final User GUEST = new User();
+
+	private static final String PREFIX = "/api/";
+	private static final String BEARER = "Bearer ";
+	private static final SecureRandom RANDOM = new SecureRandom();
+	private static final int TOKEN_BYTES = 24;
+
+	private static final long SESSION_IDLE_MILLIS = 30 * 60 * 1000;
+	private static final long SESSION_SWEEP_MILLIS = 60 * 1000;
+	private static final int STOP_DELAY_SECONDS = 2;
+	private static final int BACKLOG = 1024; //connections waiting to be accepted.
+
+	private static final int MAX_BODY_BYTES = 16 * 1024;
+	private static final int MAX_LIMIT = 100;
+	private static final int DEFAULT_POLL_SECONDS = 25; //below the usual 30 second proxy timeouts.
+	private static final int MAX_POLL_SECONDS = 30;
+	private static final int MAX_NAME_LENGTH = 20; //see MessageService.TABLE_USERS.
+	private static final int MAX_GENDER_LENGTH = 1;
+	private static final int MAX_BIRTH_DATE_LENGTH = 15;
+	private static final int MAX_EMAIL_LENGTH = 50;
+	private static final int MAX_ABOUT_ME_LENGTH = 100;
+	private static final int MAX_MESSAGE_LENGTH = 140;
+}
@@ -0,0 +1,182 @@
+//package twoogle;
+
+import java.awt.Cursor;
+import java.awt.Window;
+import java.util.HashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.JOptionPane;
+import javax.swing.JProgressBar;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+
+/**
+ * Runs the GUI's Message Service calls on a small pool of worker threads, so the Swing event dispatch thread (EDT)
+ * never waits for the database and the window keeps repainting while a slow query runs. Each call is a Task, a
+ * SwingWorker whose result is handed back on the EDT, where it is safe to update components.
+ *
+ * Tasks may be submitted on a named channel, ie "output" for everything that fills the home screen's output area.
+ * Submitting a task cancels the task still pending on the same channel, and the result of a superseded task is
+ * thrown away, so clicking "Go" twice only ever shows the answer to the second click. A running task is not
+ * interrupted: a thread interrupted inside Derby may lose its connection. Its result is just ignored.
+ *
+ * While tasks are in flight the indicator progress bar runs and the window shows the wait cursor.
+ *
+ * All methods must be called on the EDT.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class BackgroundTasks {
+
+	/**
+	 * @param threads The number of worker threads.
+	 */
+	BackgroundTasks(int threads) {
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "twoogle-gui-" + THREADS.incrementAndGet());
+				t.setDaemon(true); //do not keep the program running for the GUI.
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Sets the progress bar that runs while tasks are in flight, ie the one of the frame currently showing.
+	 *
+	 * @param indicator The progress bar, or null for none.
+	 */
+	public void setIndicator(JProgressBar indicator) {
+		if (this.indicator != null)
+			showBusy(this.indicator, false);
+		this.indicator = indicator;
+		if (indicator != null)
+			showBusy(indicator, inFlight > 0);
+	}
+
+	/**
+	 * Runs a task that nothing supersedes, ie posting a message.
+	 */
+	public <T> Task<T> submit(Task<T> task) {
+		return submit(null, task);
+	}
+
+	/**
+	 * Runs a task, cancelling the task still pending on the same channel.
+	 *
+	 * @param channel Name of the channel, or null if the task is never superseded.
+	 * @param task The task to run.
+	 */
+	public <T> Task<T> submit(String channel, Task<T> task) {
+		if (channel != null) {
+			Task<?> previous = current.put(channel, task);
+			if (previous != null)
+				previous.cancel(false);
+		}
+
+		task.tasks = this;
+		task.channel = channel;
+		setInFlight(inFlight + 1);
+		executor.execute(task);
+		return task;
+	}
+
+	/**
+	 * Cancels the task pending on a channel, if any, ie when the view it was loading is closed.
+	 */
+	public void cancel(String channel) {
+		Task<?> previous = current.remove(channel);
+		if (previous != null)
+			previous.cancel(false);
+	}
+
+	/**
+	 * Stops the worker threads. Tasks already running finish, queued ones are dropped.
+	 */
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	private void setInFlight(int n) {
+		inFlight = n;
+		if (indicator != null)
+			showBusy(indicator, n > 0);
+	}
+
+	private static void showBusy(JProgressBar indicator, boolean busy) {
+		indicator.setIndeterminate(busy);
+		indicator.setString(busy ? "Loading..." : "");
+
+		Window w = SwingUtilities.getWindowAncestor(indicator);
+		if (w != null)
+			w.setCursor(busy ? Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR) : null);
+	}
+
+	/**
+	 * A call into the Message Service. call() runs on a worker thread; succeeded() or failed() then run on the EDT,
+	 * unless the task was cancelled or superseded, in which case neither does.
+	 */
+	public abstract static class Task<T> extends SwingWorker<T, Void> {
+
+		/**
+		 * Does the work off the EDT. Must not touch Swing components.
+		 */
+		protected abstract T call() throws Exception;
+
+		/**
+		 * Shows the result, on the EDT.
+		 */
+		protected abstract void succeeded(T result);
+
+		/**
+		 * Reports an unexpected error, on the EDT. The Message Service reports database errors itself, so this is
+		 * only reached on a bug.
+		 */
+		protected void failed(Throwable t) {
+			t.printStackTrace();
+			JOptionPane.showMessageDialog(null, "Something went wrong: " + t, "Error", JOptionPane.ERROR_MESSAGE);
+		}
+
+		protected final T doInBackground() throws Exception {
+			return call();
+		}
+
+		protected final void done() {
+			tasks.setInFlight(tasks.inFlight - 1);
+
+			if (channel != null) {
+				if (tasks.current.get(channel) != this)
+					return; //superseded, a newer task owns the channel.
+				tasks.current.remove(channel);
+			}
+			if (isCancelled())
+				return;
+
+			T result;
+			try {
+				result = get();
+			} catch (ExecutionException e) {
+				failed(e.getCause());
+				return;
+			} catch (InterruptedException | CancellationException e) {
+				return;
+			}
+			succeeded(result);
+		}
+
+		private BackgroundTasks tasks;
+		private String channel;
+	}
+
+	private final ExecutorService executor;
+	private final HashMap<String, Task<?>> current = new HashMap<String, Task<?>>(); //pending task of each channel.
+	private JProgressBar indicator;
+	private int inFlight; //tasks submitted and not done yet.
+
+	private static final AtomicInteger THREADS = new AtomicInteger();
+}
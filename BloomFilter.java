@@ -0,0 +1,170 @@
+//package twoogle;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter of strings: answers whether a string might have been added, with no false negatives and a false
+ * positive rate set by its size. It is the bit array and hashing shared by the Bloom filter of the keys of each
+ * SSTable, which LsmTree asks before reading a block of the table, and by the UsernameFilter of the registered
+ * usernames.
+ *
+ * The k bit positions of a string are derived from one 64 bit hash by double hashing (h1 + i * h2). They are part of
+ * the format of the filters stored in SSTables (see toBytes()), so changing them makes existing tables unreadable.
+ *
+ * Safe for use by several threads at once.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class BloomFilter {
+
+	/**
+	 * @param expectedKeys The number of keys that will be added.
+	 * @param bitsPerKey Bits of the filter per key, ie 10 for about 1% false positives.
+	 */
+	BloomFilter(int expectedKeys, int bitsPerKey) {
+		this(Math.max(64L, (long) Math.max(expectedKeys, 1) * bitsPerKey), Math.round(bitsPerKey * Math.log(2)));
+	}
+
+	/**
+	 * @param bits The number of bits of the filter, rounded up to a whole number of 64 bit words.
+	 * @param hashes The number of bit positions of each key.
+	 */
+	private BloomFilter(long bits, long hashes) {
+		this(new AtomicLongArray((int) Math.min((bits + 63) / 64, Integer.MAX_VALUE / 64)), (int) Math.max(1, Math.min(MAX_HASHES, hashes)));
+	}
+
+	private BloomFilter(AtomicLongArray words, int hashes) {
+		this.words = words;
+		this.hashes = hashes;
+		this.bits = (long) words.length() * 64;
+	}
+
+	/**
+	 * Returns a filter sized for a false positive rate: m = -n ln(p) / ln(2)^2 bits and k = m / n ln(2) hashes.
+	 *
+	 * @param expectedKeys The number of keys that will be added.
+	 * @param falsePositiveRate The wanted chance that mightContain() returns true for a key that was never added,
+	 * 		while the filter holds no more than expectedKeys keys, ie 0.01.
+	 */
+	static BloomFilter withFalsePositiveRate(int expectedKeys, double falsePositiveRate) {
+		int n = Math.max(1, expectedKeys);
+		long bits = Math.max(64L, (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2))));
+		return new BloomFilter(bits, Math.round((double) ((bits + 63) / 64 * 64) / n * Math.log(2)));
+	}
+
+	public void add(String key) {
+		long h = hash(key);
+		int h1 = (int) h, h2 = (int) (h >>> 32);
+		for (int i = 0; i < hashes; i++) {
+			long bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bits;
+			int word = (int) (bit >>> 6);
+			long mask = 1L << bit;
+
+			long old;
+			do {
+				old = words.get(word);
+				if ((old & mask) != 0)
+					break;
+			} while (!words.compareAndSet(word, old, old | mask));
+		}
+	}
+
+	/**
+	 * @return False if the key was surely not added, true if it may have been.
+	 */
+	public boolean mightContain(String key) {
+		long h = hash(key);
+		int h1 = (int) h, h2 = (int) (h >>> 32);
+		for (int i = 0; i < hashes; i++) {
+			long bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bits;
+			if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the expected false positive rate once a number of keys were added: (1 - e^(-kn/m))^k.
+	 */
+	public double expectedFalsePositiveRate(long keys) {
+		return Math.pow(1 - Math.exp(-(double) hashes * keys / bits), hashes);
+	}
+
+	/**
+	 * Returns the number of bit positions of each key.
+	 */
+	int hashes() {
+		return hashes;
+	}
+
+	/**
+	 * Returns the filter as stored in an SSTable: the number of hashes, the number of words and the words.
+	 */
+	byte[] toBytes() {
+		byte[] b = new byte[8 + words.length() * 8];
+		putInt(b, 0, hashes);
+		putInt(b, 4, words.length());
+		for (int i = 0; i < words.length(); i++) {
+			long w = words.get(i);
+			putInt(b, 8 + i * 8, (int) (w >>> 32));
+			putInt(b, 12 + i * 8, (int) w);
+		}
+		return b;
+	}
+
+	/**
+	 * Reads a filter written by toBytes().
+	 */
+	static BloomFilter fromBytes(byte[] b) {
+		int hashes = getInt(b, 0);
+		AtomicLongArray words = new AtomicLongArray(getInt(b, 4));
+		for (int i = 0; i < words.length(); i++) {
+			words.set(i, ((long) getInt(b, 8 + i * 8) << 32) | (getInt(b, 12 + i * 8) & 0xffffffffL));
+		}
+		return new BloomFilter(words, hashes);
+	}
+
+	/**
+	 * Returns the size of the filter in bytes.
+	 */
+	int size() {
+		return words.length() * 8;
+	}
+
+	/**
+	 * FNV-1a over the chars of the key, finished with the 64 bit mix of MurmurHash3 so both halves are well spread.
+	 */
+	private static long hash(String key) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private static void putInt(byte[] b, int i, int v) {
+		b[i] = (byte) (v >>> 24);
+		b[i + 1] = (byte) (v >>> 16);
+		b[i + 2] = (byte) (v >>> 8);
+		b[i + 3] = (byte) v;
+	}
+
+	private static int getInt(byte[] b, int i) {
+		return (b[i] << 24) | ((b[i + 1] & 0xff) << 16) | ((b[i + 2] & 0xff) << 8) | (b[i + 3] & 0xff);
+	}
+
+	private final AtomicLongArray words;
+	private final long bits;
+	private final int hashes;
+
+	/**
+	 * The most bit positions of a key, which bounds the cost of add() and mightContain() for tiny false positive rates.
+	 */
+	private static final int MAX_HASHES = 30;
+}
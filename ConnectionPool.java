@@ -0,0 +1,262 @@
+//package twoogle;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of database connections so that several requests (GUI actions, background work, several users in
+ * client/server mode) can run against the database at the same time instead of taking turns on one connection.
+ *
+ * Connections are borrowed with borrow() and given back by closing the returned PooledConnection, ie:
+ *
+ * 		PooledConnection c = null;
+ * 		try {
+ * 			c = pool.borrow();
+ * 			...
+ * 		} finally {
+ * 			MessageService.closeSqlResource(c);
+ * 		}
+ *
+ * At most maxSize connections are open at once. borrow() waits up to maxWaitMillis for one to be given back and
+ * then throws a SQLException. A connection that has been idle for longer than VALIDATE_AFTER_MILLIS is checked
+ * with Connection.isValid() before it is handed out, and connections idle for longer than idleTimeoutMillis are
+ * closed by a background thread (one connection is always kept open).
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class ConnectionPool {
+
+	/**
+	 * Opens the first connection to the database, which also creates the database if the url asks for it.
+	 *
+	 * @param url JDBC url of the database, ie jdbc:derby:somedatabase;create=true
+	 * @param maxSize The maximum number of open connections.
+	 * @param maxWaitMillis How long borrow() waits for a connection before giving up.
+	 * @param idleTimeoutMillis How long a connection can sit unused in the pool before it is closed.
+	 * @throws SQLException if the first connection can not be opened.
+	 */
+	ConnectionPool(String url, int maxSize, long maxWaitMillis, long idleTimeoutMillis) throws SQLException {
+		if (maxSize < 1)
+			throw new IllegalArgumentException("The pool size must be at least 1: " + maxSize);
+
+		this.url = url;
+		this.maxSize = maxSize;
+		this.maxWaitMillis = maxWaitMillis;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		permits = new Semaphore(maxSize, true);
+
+		idle.push(open());
+
+		evictor = new Thread(new Runnable() {
+			public void run() {
+				while (!closed) {
+					try {
+						Thread.sleep(Math.max(1000, ConnectionPool.this.idleTimeoutMillis / 2));
+					} catch (InterruptedException ie) {
+						return;
+					}
+					evictIdle();
+				}
+			}
+		}, "ConnectionPool idle evictor");
+		evictor.setDaemon(true);
+		evictor.start();
+	}
+
+	/**
+	 * Borrows a connection, opening a new one if none are idle and the pool is not full. Close the returned
+	 * PooledConnection to give it back.
+	 *
+	 * @throws SQLException if no connection was given back within maxWaitMillis, or a new connection could not be opened.
+	 */
+	public PooledConnection borrow() throws SQLException {
+		if (closed)
+			throw new SQLException("The connection pool is closed.");
+
+		long start = System.nanoTime();
+		try {
+			if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+				timeouts.incrementAndGet();
+				throw new SQLException("Timed out after " + maxWaitMillis + "ms waiting for a database connection. " + metrics());
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a database connection.", ie);
+		}
+		waitNanos.addAndGet(System.nanoTime() - start);
+
+		try {
+			PooledConnection pc;
+			while ((pc = idle.pollFirst()) != null) {
+				if (isHealthy(pc))
+					break;
+				destroy(pc);
+			}
+			if (pc == null)
+				pc = open();
+
+			pc.borrowed = true;
+			borrows.incrementAndGet();
+			return pc;
+		} catch (SQLException se) {
+			permits.release();
+			throw se;
+		} catch (RuntimeException re) {
+			permits.release();
+			throw re;
+		}
+	}
+
+	/**
+	 * Gives a borrowed connection back to the pool. Called by PooledConnection.close(). Rolls back any unfinished
+	 * transaction and turns auto commit back on. The connection's prepared statements are kept for the next borrow.
+	 */
+	void release(PooledConnection pc) {
+		if (!pc.borrowed)
+			return; //already given back.
+		pc.borrowed = false;
+
+		try {
+			if (!pc.connection.getAutoCommit()) {
+				pc.connection.rollback();
+				pc.connection.setAutoCommit(true);
+			}
+			pc.lastUsed = System.currentTimeMillis();
+
+			if (closed)
+				destroy(pc);
+			else
+				idle.offerFirst(pc); //most recently used first, so rarely needed connections go idle and get evicted.
+		} catch (SQLException se) {
+			System.err.println(MessageService.processSqlException(se, "ConnectionPool.release(PooledConnection pc)"));
+			destroy(pc);
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Returns the pool statistics as a formatted string.
+	 */
+	public String metrics() {
+		long b = borrows.get();
+		return "Connection pool: " + (maxSize - permits.availablePermits()) + " in use, " + idle.size() + " idle, " + maxSize + " max"
+				+ " | borrowed " + b + " times, average wait " + (b == 0 ? 0 : waitNanos.get() / b / 1000) + "us, " + timeouts.get() + " timeouts"
+				+ " | opened " + opened.get() + ", closed " + destroyed.get() + " connections (" + evicted.get() + " idle)"
+				+ " | prepared " + statementsPrepared.get() + " statements, reused " + statementsReused.get() + " times";
+	}
+
+	/**
+	 * Counts a statement compiled by PooledConnection.prepare().
+	 */
+	void statementPrepared() {
+		statementsPrepared.incrementAndGet();
+	}
+
+	/**
+	 * Counts a statement PooledConnection.prepare() found in its registry.
+	 */
+	void statementReused() {
+		statementsReused.incrementAndGet();
+	}
+
+	/**
+	 * Closes the idle connections and stops the idle evictor. Borrowed connections are closed when they are given back.
+	 */
+	public void close() {
+		closed = true;
+		evictor.interrupt();
+
+		PooledConnection pc;
+		while ((pc = idle.pollFirst()) != null) {
+			destroy(pc);
+		}
+	}
+
+	/**
+	 * Closes the connections that have been idle for longer than idleTimeoutMillis, always leaving one open.
+	 */
+	private void evictIdle() {
+		long cutoff = System.currentTimeMillis() - idleTimeoutMillis;
+		ArrayList<PooledConnection> expired = new ArrayList<PooledConnection>();
+
+		Iterator<PooledConnection> it = idle.descendingIterator(); //least recently used first.
+		while (it.hasNext() && idle.size() - expired.size() > 1) {
+			PooledConnection pc = it.next();
+			if (pc.lastUsed < cutoff)
+				expired.add(pc);
+		}
+
+		for (PooledConnection pc: expired) {
+			if (idle.remove(pc)) { //it may have been borrowed in the mean time.
+				destroy(pc);
+				evicted.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Checks that an idle connection still works before it is handed out. Connections used recently are trusted.
+	 */
+	private boolean isHealthy(PooledConnection pc) {
+		try {
+			if (pc.connection.isClosed())
+				return false;
+			if (System.currentTimeMillis() - pc.lastUsed < VALIDATE_AFTER_MILLIS)
+				return true;
+			return pc.connection.isValid(VALIDATE_TIMEOUT_SECONDS);
+		} catch (SQLException se) {
+			return false;
+		}
+	}
+
+	private PooledConnection open() throws SQLException {
+		PooledConnection pc = new PooledConnection(this, DriverManager.getConnection(url));
+		opened.incrementAndGet();
+		return pc;
+	}
+
+	private void destroy(PooledConnection pc) {
+		pc.closeAll();
+		destroyed.incrementAndGet();
+	}
+
+	private final String url;
+	private final int maxSize;
+	private final long maxWaitMillis;
+	private final long idleTimeoutMillis;
+
+	/**
+	 * One permit per connection that may still be borrowed.
+	 */
+	private final Semaphore permits;
+
+	/**
+	 * Connections that are open and not borrowed, most recently used first.
+	 */
+	private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<PooledConnection>();
+
+	private final Thread evictor;
+	private volatile boolean closed = false;
+
+	//statistics
+	private final AtomicLong borrows = new AtomicLong();
+	private final AtomicLong waitNanos = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong opened = new AtomicLong();
+	private final AtomicLong destroyed = new AtomicLong();
+	private final AtomicLong evicted = new AtomicLong();
+	private final AtomicLong statementsPrepared = new AtomicLong();
+	private final AtomicLong statementsReused = new AtomicLong();
+
+	/**
+	 * Idle connections unused for longer than this are validated before they are handed out.
+	 */
+	private static final long VALIDATE_AFTER_MILLIS = 30 * 1000;
+	private static final int VALIDATE_TIMEOUT_SECONDS = 2;
+}
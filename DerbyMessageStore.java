@@ -0,0 +1,705 @@
+//package twoogle;
+
+import java.sql.*;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the messages in MessageService.TABLE_MESSAGES, with a copy of each in the home timeline of every subscriber of
+ * its author (TABLE_TIMELINES), its tags in TABLE_TAGS and TABLE_MESSAGE_TAGS and the tag counts in
+ * TABLE_TAG_COUNTS. See DerbyStorage.
+ *
+ * Every page is a range read of an index sorted like the page, so it takes the same time however far back it is.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class DerbyMessageStore implements MessageStore {
+
+	/**
+	 * @param pool Pool of connections to the database, shared with the other stores.
+	 */
+	DerbyMessageStore(ConnectionPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Stores the messages, their home timeline copies, the reply counts of their parents, their tags and the tag
+	 * counts in one transaction.
+	 */
+	public void insert(List<Message> batch) throws SQLException {
+		PooledConnection c = null;
+
+		try {
+			c = pool.borrow();
+			c.connection.setAutoCommit(false); //The messages, their timeline copies and their tag counts are committed together.
+
+			HashMap<String, Integer> newTagIds = new HashMap<String, Integer>();
+			insertMessages(c, batch, newTagIds);
+
+			c.connection.commit();
+			cacheTagIds(newTagIds);
+
+		} catch (SQLException se) {
+			MessageService.rollback(c);
+			throw se;
+		} finally {
+			MessageService.closeSqlResource(c);
+		}
+	}
+
+	/**
+	 * Adds the inserts for a group of messages to jdbc batches and runs them: the messages, a copy of each message in
+	 * the home timeline of every subscriber of its author, the reply counts of their parents, the message tags and the
+	 * tag counts. Runs inside the caller's transaction.
+	 *
+	 * @param c Connection borrowed from the pool, with the transaction open.
+	 * @param batch Messages from newMessage().
+	 * @param newTagIds Receives the ids of the tags added to TABLE_TAGS, to cache once committed.
+	 */
+	private void insertMessages(PooledConnection c, List<Message> batch, Map<String, Integer> newTagIds) throws SQLException {
+		PreparedStatement psPostMessage = c.prepare(SQL_INSERT_MESSAGE);
+		PreparedStatement psTimelineFanOut = c.prepare(SQL_TIMELINE_FAN_OUT);
+		PreparedStatement psCountReply = c.prepare(SQL_COUNT_REPLY);
+		PreparedStatement psMessageTag = c.prepare(SQL_INSERT_MESSAGE_TAG);
+		HashMap<String, Integer> tagUses = new HashMap<String, Integer>();
+
+		for (Message m: batch) {
+			psPostMessage.setString(1, m.id);
+			psPostMessage.setTimestamp(2, m.timestamp);
+			psPostMessage.setString(3, m.username); //user posting a message or a reply
+			psPostMessage.setString(4, m.tag);
+			psPostMessage.setInt(5, m.returnReplyFlag());
+			psPostMessage.setString(6, m.repliedToUsername); //user being replied to, ie parent message to this reply message.
+			psPostMessage.setString(7, m.contents);
+			psPostMessage.setInt(8, m.isPrivate);
+			psPostMessage.setString(9, m.parentId);
+			psPostMessage.setString(10, m.threadId);
+			psPostMessage.addBatch();
+
+			if (m.parentId != null) {
+				psCountReply.setString(1, m.parentId);
+				psCountReply.setString(2, m.repliedToUsername);
+				psCountReply.addBatch();
+			}
+
+			//Fan out a copy of the message to the home timeline of every subscriber.
+			psTimelineFanOut.setString(1, m.username);
+			psTimelineFanOut.setString(2, m.id);
+			psTimelineFanOut.setString(3, m.username);
+			psTimelineFanOut.setTimestamp(4, m.timestamp);
+			psTimelineFanOut.addBatch();
+
+			if (m.tags != null) {
+				for (String tag: m.tags) {
+					psMessageTag.setInt(1, tagId(c, tag, newTagIds));
+					psMessageTag.setTimestamp(2, m.timestamp);
+					psMessageTag.setString(3, m.id);
+					psMessageTag.setString(4, m.username);
+					psMessageTag.setInt(5, m.isPrivate);
+					psMessageTag.addBatch();
+
+					//Only public messages are counted, since private tags are not listed.
+					if (m.isPrivate == 0) {
+						Integer uses = tagUses.get(tag);
+						tagUses.put(tag, uses == null ? 1 : uses + 1);
+					}
+				}
+			}
+		}
+
+		psPostMessage.executeBatch(); //content pushed to database.
+		psTimelineFanOut.executeBatch(); //the fan out selects the messages inserted above.
+		psCountReply.executeBatch();
+		psMessageTag.executeBatch();
+
+		for (Map.Entry<String, Integer> e: tagUses.entrySet()) {
+			addTagCount(c, e.getKey(), e.getValue());
+		}
+	}
+
+	/**
+	 * Adds uses of a tag to TABLE_TAG_COUNTS. Called within the transaction that posts the messages.
+	 *
+	 * @param c Connection borrowed from the pool, with the transaction open.
+	 * @param tag The tag, including the leading #.
+	 * @param uses The number of new public messages with the tag.
+	 */
+	private static void addTagCount(PooledConnection c, String tag, int uses) throws SQLException {
+		PreparedStatement psTagCountAdd = c.prepare(SQL_TAG_COUNT_ADD);
+		psTagCountAdd.setInt(1, uses);
+		psTagCountAdd.setString(2, tag);
+		if (psTagCountAdd.executeUpdate() == 0) { //first use of the tag.
+			PreparedStatement psTagCountInsert = c.prepare(SQL_TAG_COUNT_INSERT);
+			psTagCountInsert.setString(1, tag);
+			psTagCountInsert.setInt(2, uses);
+			psTagCountInsert.executeUpdate();
+		}
+	}
+
+	/**
+	 * Returns the id of a tag in TABLE_TAGS, adding the tag if it is new. Runs inside the caller's transaction.
+	 *
+	 * @param c Connection borrowed from the pool, with the transaction open.
+	 * @param tag The tag, as returned by normalizeTag().
+	 * @param newTagIds Ids of the tags added in this transaction, which may still be rolled back so are not cached.
+	 */
+	private int tagId(PooledConnection c, String tag, Map<String, Integer> newTagIds) throws SQLException {
+		Integer id = tagIds.get(tag);
+		if (id == null)
+			id = newTagIds.get(tag);
+		if (id != null)
+			return id;
+
+		id = readTagId(c, tag);
+		if (id != null) {
+			cacheTagId(tag, id);
+			return id;
+		}
+
+		PreparedStatement psInsertTag = c.prepare(SQL_INSERT_TAG);
+		psInsertTag.setString(1, tag);
+		try {
+			psInsertTag.executeUpdate();
+		} catch (SQLException se) {
+			if (!"23505".equals(MessageService.sqlState(se))) //Duplicate key, another program added the tag meanwhile.
+				throw se;
+		}
+		id = readTagId(c, tag);
+		newTagIds.put(tag, id);
+		return id;
+	}
+
+	/**
+	 * Reads the id of a tag from TABLE_TAGS.
+	 *
+	 * @return The id, or null if the tag is not there.
+	 */
+	private static Integer readTagId(PooledConnection c, String tag) throws SQLException {
+		ResultSet rs = null;
+
+		try {
+			PreparedStatement psTagId = c.prepare(SQL_TAG_ID);
+			psTagId.setString(1, tag);
+			rs = psTagId.executeQuery();
+			return rs.next() ? rs.getInt(1) : null;
+		} finally {
+			MessageService.closeSqlResource(rs);
+		}
+	}
+
+	/**
+	 * Remembers the ids of committed tags. Tag ids never change, so the cache stays valid in client mode too.
+	 */
+	private void cacheTagIds(Map<String, Integer> committed) {
+		for (Map.Entry<String, Integer> e: committed.entrySet()) {
+			cacheTagId(e.getKey(), e.getValue());
+		}
+	}
+
+	private void cacheTagId(String tag, int id) {
+		if (tagIds.size() < TAG_ID_CACHE_SIZE)
+			tagIds.put(tag, id);
+	}
+
+	public List<Message> userMessages(String username, boolean includePrivate, String cursor, int limit) throws SQLException {
+		PooledConnection c = null;
+		ResultSet rs = null;
+
+		try {
+			c = pool.borrow();
+			PreparedStatement psUserMessagesPage = c.prepare(SQL_USER_MESSAGES_PAGE);
+			psUserMessagesPage.setString(1, username);
+			psUserMessagesPage.setInt(2, includePrivate ? 1 : 0);
+			setCursor(psUserMessagesPage, 3, cursor);
+			psUserMessagesPage.setInt(6, limit);
+			rs = psUserMessagesPage.executeQuery();
+
+			return readMessages(rs);
+		} finally {
+			MessageService.closeSqlResource(rs);
+			MessageService.closeSqlResource(c);
+		}
+	}
+
+	public List<Message> userMessagesSince(String username, boolean includePrivate, String since, int limit) throws SQLException {
+		PooledConnection c = null;
+		ResultSet rs = null;
+
+		try {
+			c = pool.borrow();
+			PreparedStatement psUserMessagesSince = c.prepare(SQL_USER_MESSAGES_SINCE);
+			psUserMessagesSince.setString(1, username);
+			psUserMessagesSince.setInt(2, includePrivate ? 1 : 0);
+			setSinceCursor(psUserMessagesSince, 3, since);
+			psUserMessagesSince.setInt(6, limit);
+			rs = psUserMessagesSince.executeQuery();
+
+			return readMessages(rs);
+		} finally {
+			MessageService.closeSqlResource(rs);
+			MessageService.closeSqlResource(c);
+		}
+	}
+
+	public List<Message> replies(String username, String cursor, int limit) throws SQLException {
+		PooledConnection c = null;
+		ResultSet rs = null;
+
+		try {
+			c = pool.borrow();
+			PreparedStatement psReplyMessagesPage = c.prepare(SQL_REPLY_MESSAGES_PAGE);
+			psReplyMessagesPage.setString(1, username);
+			setCursor(psReplyMessagesPage, 2, cursor);
+			psReplyMessagesPage.setInt(5, limit);
+			rs = psReplyMessagesPage.executeQuery();
+
+			return readMessages(rs);
+		} finally {
+			MessageService.closeSqlResource(rs);
+			MessageService.closeSqlResource(c);
+		}
+	}
+
+	public List<Message> repliesSince(String username, String since, int limit) throws SQLException {
+		PooledConnection c = null;
+		ResultSet rs = null;
+
+		try {
+			c = pool.borrow();
+			PreparedStatement psReplyMessagesSince = c.prepare(SQL_REPLY_MESSAGES_SINCE);
+			psReplyMessagesSince.setString(1, username);
+			setSinceCursor(psReplyMessagesSince, 2, since);
+			psReplyMessagesSince.setInt(5, limit);
+			rs = psReplyMessagesSince.executeQuery();
+
+			return readMessages(rs);
+		} finally {
+			MessageService.closeSqlResource(rs);
+			MessageService.closeSqlResource(c);
+		}
+	}
+
+	/**
+	 * Reads the user's materialized home timeline (see MessageService.TABLE_TIMELINES), a single indexed read no matter
+	 * how many users he is subscribed to.
+	 */
+	public List<Message> homeTimeline(String owner, String cursor, int limit) throws SQLException {
+		PooledConnection c = null;
+		ResultSet rs = null;
+
+		try {
+			c = pool.borrow();
+			PreparedStatement psHomeTimeline = c.prepare(SQL_HOME_TIMELINE_PAGE);
+			psHomeTimeline.setString(1, owner);
+			setCursor(psHomeTimeline, 2, cursor);
+			psHomeTimeline.setInt(5, limit);
+			rs = psHomeTimeline.executeQuery();
+
+			return readMessages(rs);
+		} finally {
+			MessageService.closeSqlResource(rs);
+			MessageService.closeSqlResource(c);
+		}
+	}
+
+	public List<Message> homeTimelineSince(String owner, String since, int limit) throws SQLException {
+		PooledConnection c = null;
+		ResultSet rs = null;
+
+		try {
+			c = pool.borrow();
+			PreparedStatement psHomeTimelineSince = c.prepare(SQL_HOME_TIMELINE_SINCE);
+			psHomeTimelineSince.setString(1, owner);
+			setSinceCursor(psHomeTimelineSince, 2, since);
+			psHomeTimelineSince.setInt(5, limit);
+			rs = psHomeTimelineSince.executeQuery();
+
+			return readMessages(rs);
+		} finally {
+			MessageService.closeSqlResource(rs);
+			MessageService.closeSqlResource(c);
+		}
+	}
+
+	/**
+	 * Reads the page from TABLE_MESSAGE_TAGS.
+	 */
+	public List<Message> taggedMessages(String tag, String cursor, int limit) throws SQLException {
+		PooledConnection c = null;
+		ResultSet rs = null;
+
+		try {
+			c = pool.borrow();
+
+			//With the id bound (rather than joined from TABLE_TAGS), the page is read in index order instead of sorting all the tag's messages.
+			Integer id = tagIds.get(tag);
+			if (id == null) {
+				id = readTagId(c, tag);
+				if (id == null)
+					return new ArrayList<Message>(); //no message has it.
+				cacheTagId(tag, id);
+			}
+
+			PreparedStatement psTagMessagesPage = c.prepare(SQL_TAG_MESSAGES_PAGE);
+			psTagMessagesPage.setInt(1, id);
+			psTagMessagesPage.setTimestamp(2, Page.cursorTimestamp(cursor)); //lets the index scan start at the cursor.
+			setCursor(psTagMessagesPage, 3, cursor);
+			psTagMessagesPage.setInt(6, limit);
+			rs = psTagMessagesPage.executeQuery();
+
+			return readMessages(rs);
+		} finally {
+			MessageService.closeSqlResource(rs);
+			MessageService.closeSqlResource(c);
+		}
+	}
+
+	/**
+	 * Scans table_messages for the words, which so also match inside longer words.
+	 */
+	public List<Message> search(String viewer, List<String> words, String cursor, int limit) throws SQLException {
+		PooledConnection c = null;
+		ResultSet rs = null;
+
+		try {
+			c = pool.borrow();
+			PreparedStatement psSearchPage = c.prepare(SQL_SEARCH_MESSAGES_PAGE[words.size()]);
+			psSearchPage.setString(1, viewer);
+			for (int i = 0; i < words.size(); i++) {
+				psSearchPage.setString(2 + i, "%" + words.get(i).replace("!", "!!").replace("%", "!%").replace("_", "!_") + "%");
+			}
+			setCursor(psSearchPage, 2 + words.size(), cursor);
+			psSearchPage.setInt(5 + words.size(), limit);
+			rs = psSearchPage.executeQuery();
+
+			return readMessages(rs);
+		} finally {
+			MessageService.closeSqlResource(rs);
+			MessageService.closeSqlResource(c);
+		}
+	}
+
+	/**
+	 * Reads the thread with one indexed query.
+	 */
+	public List<Message> thread(String id, String viewer) throws SQLException {
+		PooledConnection c = null;
+		ResultSet rs = null;
+
+		try {
+			c = pool.borrow();
+			PreparedStatement psThread = c.prepare(SQL_THREAD);
+			psThread.setString(1, id);
+			psThread.setString(2, viewer);
+			rs = psThread.executeQuery();
+
+			return readMessages(rs);
+		} finally {
+			MessageService.closeSqlResource(rs);
+			MessageService.closeSqlResource(c);
+		}
+	}
+
+	public Message latestMessage(String username) throws SQLException {
+		PooledConnection c = null;
+		ResultSet rs = null;
+
+		try {
+			c = pool.borrow();
+			PreparedStatement psLatestMessage = c.prepare(SQL_LATEST_MESSAGE);
+			psLatestMessage.setString(1, username);
+			rs = psLatestMessage.executeQuery();
+
+			return rs.next() ? readMessage(rs) : null;
+		} finally {
+			MessageService.closeSqlResource(rs);
+			MessageService.closeSqlResource(c);
+		}
+	}
+
+	public List<Message> allMessages() throws SQLException {
+		PooledConnection c = null;
+		ResultSet rs = null;
+
+		try {
+			c = pool.borrow();
+			rs = c.prepare(SQL_ALL_MESSAGES).executeQuery();
+
+			return readMessages(rs);
+		} finally {
+			MessageService.closeSqlResource(rs);
+			MessageService.closeSqlResource(c);
+		}
+	}
+
+	public List<Map.Entry<String, Integer>> tagCounts() throws SQLException {
+		PooledConnection c = null;
+		ResultSet rs = null;
+
+		try {
+			c = pool.borrow();
+			rs = c.prepare(SQL_TAG_COUNTS).executeQuery();
+
+			return readTagCounts(rs);
+		} finally {
+			MessageService.closeSqlResource(rs);
+			MessageService.closeSqlResource(c);
+		}
+	}
+
+	public List<Map.Entry<String, Integer>> topTags(int limit) throws SQLException {
+		PooledConnection c = null;
+		ResultSet rs = null;
+
+		try {
+			c = pool.borrow();
+			PreparedStatement psTopTags = c.prepare(SQL_TOP_TAGS);
+			psTopTags.setInt(1, limit);
+			rs = psTopTags.executeQuery();
+
+			return readTagCounts(rs);
+		} finally {
+			MessageService.closeSqlResource(rs);
+			MessageService.closeSqlResource(c);
+		}
+	}
+
+	/**
+	 * Counts the uses within the window from TABLE_MESSAGE_TAGS.
+	 */
+	public List<Map.Entry<String, Integer>> trendingTags(long since, int limit) throws SQLException {
+		PooledConnection c = null;
+		ResultSet rs = null;
+
+		try {
+			c = pool.borrow();
+			PreparedStatement psTrendingTags = c.prepare(SQL_TRENDING_TAGS);
+			psTrendingTags.setTimestamp(1, new Timestamp(since));
+			psTrendingTags.setInt(2, limit);
+			rs = psTrendingTags.executeQuery();
+
+			return readTagCounts(rs);
+		} finally {
+			MessageService.closeSqlResource(rs);
+			MessageService.closeSqlResource(c);
+		}
+	}
+
+	public List<Map.Entry<String, Long>> tagUsesSince(long since) throws SQLException {
+		PooledConnection c = null;
+		ResultSet rs = null;
+
+		try {
+			c = pool.borrow();
+			PreparedStatement psRecentTagUses = c.prepare(SQL_RECENT_TAG_USES);
+			psRecentTagUses.setTimestamp(1, new Timestamp(since));
+			rs = psRecentTagUses.executeQuery();
+
+			ArrayList<Map.Entry<String, Long>> uses = new ArrayList<Map.Entry<String, Long>>();
+			while (rs.next()) {
+				uses.add(new AbstractMap.SimpleImmutableEntry<String, Long>(rs.getString(1), rs.getTimestamp(2).getTime()));
+			}
+			return uses;
+		} finally {
+			MessageService.closeSqlResource(rs);
+			MessageService.closeSqlResource(c);
+		}
+	}
+
+	/**
+	 * Recounts TABLE_TAG_COUNTS from TABLE_MESSAGE_TAGS in one transaction.
+	 */
+	public void rebuildTagCounts() throws SQLException {
+		PooledConnection c = null;
+
+		try {
+			c = pool.borrow();
+			c.connection.setAutoCommit(false);
+			c.prepare(SQL_DELETE_TAG_COUNTS).executeUpdate();
+			c.prepare(SQL_REBUILD_TAG_COUNTS).executeUpdate();
+			c.connection.commit();
+		} catch (SQLException se) {
+			MessageService.rollback(c);
+			throw se;
+		} finally {
+			MessageService.closeSqlResource(c);
+		}
+	}
+
+	/**
+	 * Reads every row of a query on TABLE_MESSAGES or TABLE_TIMELINES, in the order of the query.
+	 */
+	private static ArrayList<Message> readMessages(ResultSet rs) throws SQLException {
+		ArrayList<Message> messages = new ArrayList<Message>();
+
+		while(rs.next()) {
+			messages.add(readMessage(rs));
+		}
+		return messages;
+	}
+
+	/**
+	 * Reads the message on the current row of a query on TABLE_MESSAGES or TABLE_TIMELINES.
+	 */
+	private static Message readMessage(ResultSet rs) throws SQLException {
+		Message m = new Message();
+		m.id = rs.getString("messageid");
+		m.timestamp = rs.getTimestamp("timestamp");
+		m.username = rs.getString("username");
+		m.tag = rs.getString("tag");
+		m.isReply = rs.getInt("isreply") == 1;
+		m.repliedToUsername = rs.getString("repliedtousername");
+		m.contents = rs.getString("contents");
+		m.isPrivate = rs.getInt("isprivate");
+		m.parentId = rs.getString("parentid");
+		m.threadId = rs.getString("threadid");
+		m.replyCount = rs.getInt("replycount");
+		return m;
+	}
+
+	/**
+	 * Reads the (tag, count) rows of a query.
+	 */
+	private static ArrayList<Map.Entry<String, Integer>> readTagCounts(ResultSet rs) throws SQLException {
+		ArrayList<Map.Entry<String, Integer>> tags = new ArrayList<Map.Entry<String, Integer>>();
+		while(rs.next()) {
+			tags.add(new AbstractMap.SimpleImmutableEntry<String, Integer>(rs.getString(1), rs.getInt(2)));
+		}
+		return tags;
+	}
+
+	/**
+	 * Binds a message cursor to the three parameters of the "(timestamp<? or (timestamp=? and messageid<?))"
+	 * predicate used by the message page queries.
+	 *
+	 * @param ps Prepared page query.
+	 * @param index Index of the first of the three parameters.
+	 * @param cursor Cursor token from the previous page, or null for the first page.
+	 */
+	private static void setCursor(PreparedStatement ps, int index, String cursor) throws SQLException {
+		Timestamp t = Page.cursorTimestamp(cursor);
+		ps.setTimestamp(index, t);
+		ps.setTimestamp(index + 1, t);
+		ps.setString(index + 2, Page.cursorMessageId(cursor));
+	}
+
+	/**
+	 * Binds the three cursor parameters of SINCE_PREDICATE, starting at index. A null cursor matches every message.
+	 */
+	private static void setSinceCursor(PreparedStatement ps, int index, String since) throws SQLException {
+		Timestamp t = since == null ? new Timestamp(0) : Page.cursorTimestamp(since);
+		ps.setTimestamp(index, t);
+		ps.setTimestamp(index + 1, t);
+		ps.setString(index + 2, since == null ? "" : Page.cursorMessageId(since));
+	}
+
+	private final ConnectionPool pool;
+
+	/**
+	 * Ids of the tags in TABLE_TAGS, at most TAG_ID_CACHE_SIZE of them. See tagId().
+	 */
+	private final ConcurrentHashMap<String, Integer> tagIds = new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * The most tag ids kept in memory.
+	 */
+	public static final int TAG_ID_CACHE_SIZE = 100000;
+
+	/**
+	 * Sql commands run through prepared statements. Every query with a value in it is listed here and bound with ? so
+	 * that each connection compiles it only once (see PooledConnection.prepare()).
+	 */
+	static final String SQL_INSERT_MESSAGE = "insert into " + MessageService.TABLE_MESSAGES + " values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0)";
+	static final String SQL_COUNT_REPLY = "update " + MessageService.TABLE_MESSAGES + " set replycount=replycount+1 where messageid=? and username=?";
+
+	/**
+	 * Copies a new message into the home timeline of each of its author's subscribers.
+	 */
+	static final String SQL_TIMELINE_FAN_OUT = "insert into " + MessageService.TABLE_TIMELINES + " select sub.username, msg.* from " + MessageService.TABLE_SUBSCRIPTIONS + " sub, "
+			+ MessageService.TABLE_MESSAGES + " msg where sub.subscribedtousername=? and msg.messageid=? and msg.username=? and msg.timestamp=?";
+
+	/**
+	 * Keyset pagination predicate and ordering shared by the message page queries. The three cursor parameters are
+	 * bound by setCursor() and the last parameter is the number of rows to fetch.
+	 */
+	private static final String CURSOR_PREDICATE = "(timestamp<? or (timestamp=? and messageid<?))";
+	private static final String PAGE_ORDER = " order by timestamp desc, messageid desc fetch first ? rows only";
+
+	/**
+	 * Read one page of a timeline (see Page).
+	 */
+	static final String SQL_HOME_TIMELINE_PAGE = "select * from " + MessageService.TABLE_TIMELINES + " where ownerusername=? and " + CURSOR_PREDICATE + PAGE_ORDER;
+	static final String SQL_USER_MESSAGES_PAGE = "select * from " + MessageService.TABLE_MESSAGES + " where username=? and isprivate<=? and " + CURSOR_PREDICATE + PAGE_ORDER;
+	static final String SQL_REPLY_MESSAGES_PAGE = "select * from " + MessageService.TABLE_MESSAGES + " where repliedtousername=? and isreply=1 and " + CURSOR_PREDICATE + PAGE_ORDER;
+	static final String SQL_TAG_MESSAGES_PAGE = "select msg.* from " + MessageService.TABLE_MESSAGE_TAGS + " mt, " + MessageService.TABLE_MESSAGES + " msg where mt.tagid=? and mt.isprivate=0 and mt.timestamp<=? and (mt.timestamp<? or (mt.timestamp=? and mt.messageid<?)) and msg.messageid=mt.messageid and msg.username=mt.username"
+			+ " and msg.timestamp=mt.timestamp order by mt.timestamp desc, mt.messageid desc fetch first ? rows only";
+
+	/**
+	 * Search table_messages for 1 to MAX_SEARCH_WORDS words (see search()), indexed by the number of words.
+	 * Parameters: the viewer, a like pattern per word, the cursor and the limit.
+	 */
+	static final String[] SQL_SEARCH_MESSAGES_PAGE = new String[MessageService.MAX_SEARCH_WORDS + 1];
+	static {
+		String sql = "select * from " + MessageService.TABLE_MESSAGES + " where (isprivate=0 or username=?)";
+		for (int words = 1; words <= MessageService.MAX_SEARCH_WORDS; words++) {
+			sql += " and lower(contents) like ? escape '!'";
+			SQL_SEARCH_MESSAGES_PAGE[words] = sql + " and " + CURSOR_PREDICATE + PAGE_ORDER;
+		}
+	}
+
+	/**
+	 * Read all messages, to build the searchIndex.
+	 */
+	static final String SQL_ALL_MESSAGES = "select * from " + MessageService.TABLE_MESSAGES;
+
+	/**
+	 * Read the messages of a timeline posted after a cursor, newest first. Same parameters as the page queries, with
+	 * the cursor bound by setSinceCursor().
+	 */
+	private static final String SINCE_PREDICATE = "(timestamp>? or (timestamp=? and messageid>?))";
+	static final String SQL_HOME_TIMELINE_SINCE = "select * from " + MessageService.TABLE_TIMELINES + " where ownerusername=? and " + SINCE_PREDICATE + PAGE_ORDER;
+	static final String SQL_USER_MESSAGES_SINCE = "select * from " + MessageService.TABLE_MESSAGES + " where username=? and isprivate<=? and " + SINCE_PREDICATE + PAGE_ORDER;
+	static final String SQL_REPLY_MESSAGES_SINCE = "select * from " + MessageService.TABLE_MESSAGES + " where repliedtousername=? and isreply=1 and " + SINCE_PREDICATE + PAGE_ORDER;
+
+	/**
+	 * Maintain and read the tag counts (see TABLE_TAG_COUNTS).
+	 */
+	static final String SQL_TAG_ID = "select tagid from " + MessageService.TABLE_TAGS + " where tag=?";
+	static final String SQL_INSERT_TAG = "insert into " + MessageService.TABLE_TAGS + " (tag) values (?)";
+	static final String SQL_INSERT_MESSAGE_TAG = "insert into " + MessageService.TABLE_MESSAGE_TAGS + " values (?, ?, ?, ?, ?)";
+	static final String SQL_TAG_COUNT_ADD = "update " + MessageService.TABLE_TAG_COUNTS + " set usecount=usecount+? where tag=?";
+	static final String SQL_TAG_COUNT_INSERT = "insert into " + MessageService.TABLE_TAG_COUNTS + " values (?, ?)";
+	static final String SQL_TAG_COUNTS = "select tag, usecount from " + MessageService.TABLE_TAG_COUNTS;
+	static final String SQL_DELETE_TAG_COUNTS = "delete from " + MessageService.TABLE_TAG_COUNTS;
+	static final String SQL_TOP_TAGS = "select tag, usecount from " + MessageService.TABLE_TAG_COUNTS + " order by usecount desc, tag fetch first ? rows only";
+
+	/**
+	 * Fills an empty TABLE_TAG_COUNTS by counting the public tagged messages.
+	 */
+	static final String SQL_REBUILD_TAG_COUNTS = "insert into " + MessageService.TABLE_TAG_COUNTS + " select t.tag, count(*) from " + MessageService.TABLE_MESSAGE_TAGS + " mt, "
+			+ MessageService.TABLE_TAGS + " t where mt.tagid=t.tagid and mt.isprivate=0 group by t.tag";
+
+	/**
+	 * Read the public tag uses since a time: each use to load the trendingTags, or counted per tag in client mode.
+	 */
+	static final String SQL_RECENT_TAG_USES = "select t.tag, mt.timestamp from " + MessageService.TABLE_MESSAGE_TAGS + " mt, " + MessageService.TABLE_TAGS
+			+ " t where mt.timestamp>? and mt.isprivate=0 and t.tagid=mt.tagid";
+	static final String SQL_TRENDING_TAGS = "select t.tag, count(*) as uses from " + MessageService.TABLE_MESSAGE_TAGS + " mt, " + MessageService.TABLE_TAGS
+			+ " t where mt.timestamp>? and mt.isprivate=0 and t.tagid=mt.tagid group by t.tag order by uses desc, t.tag fetch first ? rows only";
+
+	/**
+	 * Finds a user's most recent message, which a reply to that user answers.
+	 */
+	static final String SQL_LATEST_MESSAGE = "select * from " + MessageService.TABLE_MESSAGES + " where username=? order by timestamp desc, messageid desc fetch first 1 rows only";
+
+	/**
+	 * Read a whole thread in one range of idx_messages_thread, oldest first: the thread of the message with the id, as
+	 * much of it as the viewer may see. Parameters: the message id, the viewer.
+	 */
+	static final String SQL_THREAD = "select * from " + MessageService.TABLE_MESSAGES + " where threadid in (select threadid from " + MessageService.TABLE_MESSAGES
+			+ " where messageid=?) and (isprivate=0 or username=?) order by timestamp, messageid fetch first " + MessageService.MAX_THREAD_MESSAGES + " rows only";
+}
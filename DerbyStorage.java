@@ -0,0 +1,155 @@
+//package twoogle;
+
+import java.sql.*;
+
+/**
+ * Keeps the Message Service's data in an Apache Derby database, either embedded in this program or served to several
+ * programs by the Derby Network Server (client mode). The stores share one pool of connections, which every store
+ * method borrows from to run its sql commands (see ConnectionPool).
+ *
+ * Opening the storage creates the database and its tables if needed and upgrades them to the schema version this
+ * program expects (see SchemaMigration). The tables are described in MessageService.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class DerbyStorage implements Storage {
+
+	/**
+	 * Connects to (and creates if necessary) the database and creates the tables that don't already exist.
+	 *
+	 * @param yourDatabase The name of the database.
+	 * @param isEmbedded True to open the database in this program, false to connect to the Derby Network Server.
+	 * @param poolSize The maximum number of open connections to the database.
+	 * @throws IllegalStateException If the database could not be connected to or its tables created, or its schema
+	 * 		could not be migrated to the version this program expects.
+	 */
+	DerbyStorage(String yourDatabase, boolean isEmbedded, int poolSize) {
+		PooledConnection c = null;
+
+		try {
+
+			//Connect (and create if necessary) (to) the database in embedded or client/server model mode.
+			if (isEmbedded)
+				pool = new ConnectionPool(protocolEmbedded + yourDatabase + ";create=true", poolSize, MessageService.POOL_MAX_WAIT_MILLIS, MessageService.POOL_IDLE_TIMEOUT_MILLIS);
+			else
+				pool = new ConnectionPool(protocolClient + yourDatabase + ";create=true", poolSize, MessageService.POOL_MAX_WAIT_MILLIS, MessageService.POOL_IDLE_TIMEOUT_MILLIS);
+
+			c = pool.borrow();
+			System.err.println("DEBUG: We have connected to the database, which was created if needed: " + c.connection.toString());
+
+			//Open a statement connection for running sql commands on the database.
+			Statement s = c.statement(); //kept open with the pooled connection.
+
+
+			//Create tables if they don't already exists. A table is created for users, messages, and subscriptions.
+
+			//Table to store registered users and the system guest account.
+			if (!checkIfTableExist(s, MessageService.TABLE_USERS)) {
+				s.execute("create table " + MessageService.TABLE_USERS + "(username varchar(20), password varchar(20), messagecount int, hasprofile int, profilevisible int, gender char, birthdate varchar(15), email varchar(50), aboutme varchar(100))");
+				System.err.println("DEBUG: The table for users was created");
+			}
+
+			//Table to store messages for all users.
+			if (!checkIfTableExist(s, MessageService.TABLE_MESSAGES)) {
+				s.execute("create table " + MessageService.TABLE_MESSAGES + "(messageid varchar(30), timestamp timestamp, username varchar(20), tag varchar(10), isreply int, repliedtousername varchar(20), contents varchar(140), isprivate int)");
+				System.err.println("DEBUG: The table for messages was created");
+			}
+
+			//Table to store subscriptions of registered users.
+			if (!checkIfTableExist(s, MessageService.TABLE_SUBSCRIPTIONS)) {
+				s.execute("create table " + MessageService.TABLE_SUBSCRIPTIONS + "(username varchar(20), subscribedtousername varchar(20))");
+				System.err.println("DEBUG: The table for user subscriptions was created");
+			}
+
+			//Upgrade the tables (keys, indexes, etc.) to the schema version this program expects.
+			new SchemaMigration(c.connection).migrate();
+
+		} catch (SQLException se) {
+			System.err.println(MessageService.processSqlException(se, "DerbyStorage(String yourDatabase, boolean isEmbedded, int poolSize)"));
+			close(c);
+			c = null;
+			throw new IllegalStateException("The database " + yourDatabase + " could not be opened: " + se.getMessage(), se);
+		} catch (IllegalStateException ise) {
+			close(c);
+			c = null;
+			throw ise;
+		} finally {
+			MessageService.closeSqlResource(c);
+		}
+
+		messages = new DerbyMessageStore(pool);
+		users = new DerbyUserStore(pool);
+		//The social graph is only kept by the program the database is embedded in, since client programs don't see each other's subscriptions.
+		if (isEmbedded)
+			subscriptions = GraphSubscriptionStore.open(new DerbySubscriptionStore(pool));
+		else
+			subscriptions = new DerbySubscriptionStore(pool);
+	}
+
+	public MessageStore messages() {
+		return messages;
+	}
+
+	public UserStore users() {
+		return users;
+	}
+
+	public SubscriptionStore subscriptions() {
+		return subscriptions;
+	}
+
+	public String metrics() {
+		return pool.metrics() + GraphSubscriptionStore.metrics(subscriptions);
+	}
+
+	/**
+	 * Closes all pooled connections (and their statements).
+	 */
+	public void close() {
+		pool.close();
+	}
+
+	/**
+	 * Gives back the connection and closes the partly opened pool, if any, when the storage can not be opened.
+	 */
+	private void close(PooledConnection c) {
+		MessageService.closeSqlResource(c);
+		if (pool != null)
+			pool.close();
+	}
+
+	/*
+	 * Check if a table has already been created within the database.
+	 *
+	 * @param s Open statement connection to the database for running sql commands.
+	 */
+	private static boolean checkIfTableExist(Statement s, String tableName) {
+		boolean r = true;
+		ResultSet rs = null;
+
+		try {
+			rs = s.executeQuery("select * from " + tableName);
+		} catch (SQLException se) {
+			if (se.getSQLState().equals("42X05"))
+				r = false;
+			else
+				System.err.println(MessageService.processSqlException(se, "checkIfTableExist(Connection c, String tableName)"));
+		} finally {
+			MessageService.closeSqlResource(rs);
+		}
+
+		return r;
+	}
+
+	private static final String protocolEmbedded = "jdbc:derby:";
+	private static final String protocolClient = "jdbc:derby://localhost:1527/";
+
+	/**
+	 * Pool of connections to the database, shared by the stores.
+	 */
+	ConnectionPool pool;
+
+	private final DerbyMessageStore messages;
+	private final DerbyUserStore users;
+	private final SubscriptionStore subscriptions;
+}
@@ -0,0 +1,145 @@
+//package twoogle;
+
+import java.sql.*;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the subscriptions in MessageService.TABLE_SUBSCRIPTIONS. See DerbyStorage.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class DerbySubscriptionStore implements SubscriptionStore {
+
+	/**
+	 * @param pool Pool of connections to the database, shared with the other stores.
+	 */
+	DerbySubscriptionStore(ConnectionPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Adds the subscription and copies the subscribed to user's most recent messages (up to
+	 * MessageService.TIMELINE_BACKFILL_LIMIT) into the subscriber's home timeline in the same transaction. Later
+	 * messages are copied in when they are posted (see DerbyMessageStore.insert()).
+	 */
+	public boolean subscribe(String username, String subscribeToUsername) throws SQLException {
+		PooledConnection c = null;
+
+		try {
+			c = pool.borrow();
+			c.connection.setAutoCommit(false);
+
+			PreparedStatement psUserSubscribe = c.prepare(SQL_INSERT_SUBSCRIPTION);
+			psUserSubscribe.setString(1, username);
+			psUserSubscribe.setString(2, subscribeToUsername);
+
+			psUserSubscribe.executeUpdate();
+
+			//Backfill the home timeline with the messages posted before the subscription.
+			PreparedStatement psTimelineBackfill = c.prepare(SQL_TIMELINE_BACKFILL);
+			psTimelineBackfill.setString(1, username);
+			psTimelineBackfill.setString(2, subscribeToUsername);
+			psTimelineBackfill.executeUpdate();
+
+			c.connection.commit();
+			return true;
+
+		} catch (SQLException se) {
+			MessageService.rollback(c);
+
+			if ("23505".equals(MessageService.sqlState(se))) //Duplicate key, the user is already subscribed.
+				return false;
+			throw se;
+		} finally {
+			MessageService.closeSqlResource(c); //gives the connection back, which also ends the transaction.
+		}
+	}
+
+	public List<String> subscribedTo(String username) throws SQLException {
+		PooledConnection c = null;
+		ResultSet rs = null;
+
+		try {
+			c = pool.borrow();
+			PreparedStatement psSubscribedTo = c.prepare(SQL_SUBSCRIBED_TO_USERNAMES);
+			psSubscribedTo.setString(1, username);
+			rs = psSubscribedTo.executeQuery();
+
+			ArrayList<String> usernames = new ArrayList<String>();
+			while (rs.next()) {
+				usernames.add(rs.getString(1));
+			}
+			return usernames;
+		} finally {
+			MessageService.closeSqlResource(rs);
+			MessageService.closeSqlResource(c);
+		}
+	}
+
+	public int subscribedToCount(String username) throws SQLException {
+		return count(SQL_SUBSCRIBED_TO_COUNT, username);
+	}
+
+	/**
+	 * Scans the subscriptions table, which is indexed by subscriber only. Embedded databases answer from the social
+	 * graph instead (see DerbyStorage).
+	 */
+	public int subscriberCount(String username) throws SQLException {
+		return count(SQL_SUBSCRIBER_COUNT, username);
+	}
+
+	private int count(String sql, String username) throws SQLException {
+		PooledConnection c = null;
+		ResultSet rs = null;
+
+		try {
+			c = pool.borrow();
+			PreparedStatement psCount = c.prepare(sql);
+			psCount.setString(1, username);
+			rs = psCount.executeQuery();
+			return rs.next() ? rs.getInt(1) : 0;
+		} finally {
+			MessageService.closeSqlResource(rs);
+			MessageService.closeSqlResource(c);
+		}
+	}
+
+	public List<Map.Entry<String, String>> allSubscriptions() throws SQLException {
+		PooledConnection c = null;
+		ResultSet rs = null;
+
+		try {
+			c = pool.borrow();
+			rs = c.prepare(SQL_ALL_SUBSCRIPTIONS).executeQuery();
+
+			ArrayList<Map.Entry<String, String>> subscriptions = new ArrayList<Map.Entry<String, String>>();
+			while (rs.next()) {
+				subscriptions.add(new AbstractMap.SimpleImmutableEntry<String, String>(rs.getString(1), rs.getString(2)));
+			}
+			return subscriptions;
+		} finally {
+			MessageService.closeSqlResource(rs);
+			MessageService.closeSqlResource(c);
+		}
+	}
+
+	private final ConnectionPool pool;
+
+	/**
+	 * Sql commands run through prepared statements (see PooledConnection.prepare()).
+	 */
+	static final String SQL_INSERT_SUBSCRIPTION = "insert into " + MessageService.TABLE_SUBSCRIPTIONS + " values (?, ?)";
+	static final String SQL_SUBSCRIBED_TO_USERNAMES = "select subscribedtousername from " + MessageService.TABLE_SUBSCRIPTIONS + " where username=?";
+	static final String SQL_SUBSCRIBED_TO_COUNT = "select count(*) from " + MessageService.TABLE_SUBSCRIPTIONS + " where username=?";
+	static final String SQL_SUBSCRIBER_COUNT = "select count(*) from " + MessageService.TABLE_SUBSCRIPTIONS + " where subscribedtousername=?";
+	static final String SQL_ALL_SUBSCRIPTIONS = "select username, subscribedtousername from " + MessageService.TABLE_SUBSCRIPTIONS;
+
+	/**
+	 * Copies the most recent messages of a newly subscribed to user into the subscriber's home timeline.
+	 */
+	static final String SQL_TIMELINE_BACKFILL = "insert into " + MessageService.TABLE_TIMELINES + " select sub.username, msg.* from " + MessageService.TABLE_SUBSCRIPTIONS + " sub, "
+			+ MessageService.TABLE_MESSAGES + " msg where sub.username=? and sub.subscribedtousername=? and msg.username=sub.subscribedtousername order by msg.timestamp desc fetch first " + MessageService.TIMELINE_BACKFILL_LIMIT + " rows only";
+}
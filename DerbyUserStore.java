@@ -0,0 +1,146 @@
+//package twoogle;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the users in MessageService.TABLE_USERS. See DerbyStorage.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class DerbyUserStore implements UserStore {
+
+	/**
+	 * @param pool Pool of connections to the database, shared with the other stores.
+	 */
+	DerbyUserStore(ConnectionPool pool) {
+		this.pool = pool;
+	}
+
+	public User find(String username) throws SQLException {
+		PooledConnection c = null;
+		ResultSet rs = null;
+
+		try {
+			c = pool.borrow();
+			PreparedStatement psUserByName = c.prepare(SQL_USER_BY_NAME);
+			psUserByName.setString(1, username);
+			rs = psUserByName.executeQuery();
+
+			if (!rs.next())
+				return null;
+
+			User u = new User(rs.getString("username"), rs.getString("password"));
+			u.hasProfile = rs.getInt("hasprofile");
+			u.profileVisible = rs.getInt("profilevisible");
+			u.gender = rs.getString("gender");
+			u.birthDate = rs.getString("birthdate");
+			u.email = rs.getString("email");
+			u.aboutMeMessage = rs.getString("aboutme");
+			return u;
+		} finally {
+			MessageService.closeSqlResource(rs);
+			MessageService.closeSqlResource(c);
+		}
+	}
+
+	public boolean insert(User u) throws SQLException {
+		PooledConnection c = null;
+
+		try {
+			c = pool.borrow();
+			PreparedStatement psInsertUser = c.prepare(SQL_INSERT_USER);
+			psInsertUser.setString(1, u.username);
+			psInsertUser.setString(2, u.password);
+			psInsertUser.setInt(3, 0); //New users have not posted any messages.
+			psInsertUser.setInt(4, u.hasProfile);
+			psInsertUser.setInt(5, u.profileVisible);
+			psInsertUser.setString(6, u.gender);
+			psInsertUser.setString(7, u.birthDate);
+			psInsertUser.setString(8, u.email);
+			psInsertUser.setString(9, u.aboutMeMessage);
+
+			psInsertUser.executeUpdate();
+			return true;
+		} catch (SQLException se) {
+			if ("23505".equals(MessageService.sqlState(se))) //Duplicate key, the username is taken.
+				return false;
+			throw se;
+		} finally {
+			MessageService.closeSqlResource(c);
+		}
+	}
+
+	public void updateProfile(User u) throws SQLException {
+		PooledConnection c = null;
+
+		try {
+			c = pool.borrow();
+			PreparedStatement psProfileUpdate = c.prepare(SQL_UPDATE_PROFILE);
+			psProfileUpdate.setInt(1, u.hasProfile);
+			psProfileUpdate.setInt(2, u.profileVisible);
+			psProfileUpdate.setString(3, u.gender);
+			psProfileUpdate.setString(4, u.birthDate);
+			psProfileUpdate.setString(5, u.email);
+			psProfileUpdate.setString(6, u.aboutMeMessage);
+			psProfileUpdate.setString(7, u.username);
+
+			psProfileUpdate.executeUpdate();
+		} finally {
+			MessageService.closeSqlResource(c);
+		}
+	}
+
+	public List<String> usernames(String after, int limit) throws SQLException {
+		PooledConnection c = null;
+		ResultSet rs = null;
+
+		try {
+			c = pool.borrow();
+			PreparedStatement psUsersPage = c.prepare(SQL_USERS_PAGE);
+			psUsersPage.setString(1, after);
+			psUsersPage.setInt(2, limit);
+			rs = psUsersPage.executeQuery();
+
+			ArrayList<String> usernames = new ArrayList<String>(limit);
+			while (rs.next()) {
+				usernames.add(rs.getString(1));
+			}
+			return usernames;
+		} finally {
+			MessageService.closeSqlResource(rs);
+			MessageService.closeSqlResource(c);
+		}
+	}
+
+	public List<String> allUsernames() throws SQLException {
+		PooledConnection c = null;
+		ResultSet rs = null;
+
+		try {
+			c = pool.borrow();
+			rs = c.prepare(SQL_ALL_USERNAMES).executeQuery();
+
+			ArrayList<String> usernames = new ArrayList<String>();
+			while (rs.next()) {
+				usernames.add(rs.getString(1));
+			}
+			return usernames;
+		} finally {
+			MessageService.closeSqlResource(rs);
+			MessageService.closeSqlResource(c);
+		}
+	}
+
+	private final ConnectionPool pool;
+
+	/**
+	 * Sql commands run through prepared statements (see PooledConnection.prepare()).
+	 */
+	static final String SQL_ALL_USERNAMES = "select username from " + MessageService.TABLE_USERS;
+	static final String SQL_USER_BY_NAME = "select * from " + MessageService.TABLE_USERS + " where username=?";
+	static final String SQL_INSERT_USER = "insert into " + MessageService.TABLE_USERS + " values (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+	static final String SQL_UPDATE_PROFILE = "update " + MessageService.TABLE_USERS + " set hasprofile=?, profilevisible=?, gender=?, birthdate=?, email=?, aboutme=? where username=?";
+	static final String SQL_USERS_PAGE = "select username from " + MessageService.TABLE_USERS + " where username>? order by username fetch first ? rows only";
+}
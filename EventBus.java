@@ -0,0 +1,355 @@
+//package twoogle;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+
+/**
+ * Delivers newly posted messages to the users who are online and interested in them, so they do not have to poll
+ * the database for new posts. The MessageService publishes each message once it is committed (see
+ * MessageService.commitMessages()), and tells the bus about new subscriptions (see followed()).
+ *
+ * Each online user (a GUI or an ApiServer session) holds a Subscription. A message goes to the subscriptions of:
+ * the users subscribed to its author, the author himself, the user it replies to and, if it is public, the users
+ * watching one of its tags. Each subscription has a bounded queue. When a slow reader lets it fill up, messages are
+ * dropped according to the overflow policy and counted, so the reader knows to catch up from the database (see
+ * MessageService.viewUserMessagesSince()). Publishing never waits for a reader.
+ *
+ * When the bus is given the SocialGraph of the subscriptions (embedded storages, see GraphSubscriptionStore), the
+ * users subscribed to an author are read from the followers of the author in the graph, so an online user does not
+ * have to follow() each user he is subscribed to. follow() is then only needed for other authors, ie the guest.
+ *
+ * Only messages posted by this program are published, so in client mode posts of other programs sharing the
+ * database still have to be read from it.
+ *
+ * Safe for use by several threads at once.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class EventBus {
+
+	/**
+	 * What a full subscription queue does with one more message.
+	 */
+	public enum Overflow {
+		/**
+		 * Drops the oldest queued message, so a reader that falls behind sees the latest ones.
+		 */
+		DROP_OLDEST,
+
+		/**
+		 * Drops the new message, so a reader that falls behind sees an unbroken run of the oldest ones.
+		 */
+		DROP_NEWEST
+	}
+
+	/**
+	 * @param queueCapacity The number of messages each subscription queues before it overflows.
+	 * @param overflow What a full queue does with one more message.
+	 * @param graph The subscriptions, or null if the online users follow() the users they are subscribed to.
+	 */
+	EventBus(int queueCapacity, Overflow overflow, SocialGraph graph) {
+		this.queueCapacity = Math.max(1, queueCapacity);
+		this.overflow = overflow;
+		this.graph = graph;
+	}
+
+	/**
+	 * True if the bus reads the users subscribed to an author from the SocialGraph, so online users do not need to
+	 * follow() the users they are subscribed to.
+	 */
+	public boolean followsSubscriptions() {
+		return graph != null;
+	}
+
+	/**
+	 * Opens a subscription for an online user. It receives the messages of its user and the replies to him;
+	 * follow() and watchTag() add more.
+	 *
+	 * @param username The online user.
+	 */
+	public Subscription subscribe(String username) {
+		Subscription s = new Subscription(username);
+		add(byUser, username, s);
+		return s;
+	}
+
+	/**
+	 * Delivers a committed message to every interested subscription.
+	 */
+	public void publish(Message m) {
+		published.incrementAndGet();
+
+		LinkedHashSet<Subscription> targets = new LinkedHashSet<Subscription>();
+		addTo(targets, byAuthor.get(m.username));
+		if (graph != null)
+			addSubscribers(targets, m.username);
+		addTo(targets, byUser.get(m.username));
+		if (m.isReply && m.repliedToUsername != null)
+			addTo(targets, byUser.get(m.repliedToUsername));
+		if (m.isPrivate == 0 && m.tags != null) { //tag views only show public messages.
+			for (String tag: m.tags) {
+				addTo(targets, byTag.get(tag));
+			}
+		}
+
+		for (Subscription s: targets) {
+			s.offer(m);
+		}
+	}
+
+	/**
+	 * Tells the bus a user subscribed to an author, so the user's open subscriptions receive the author's messages.
+	 */
+	public void followed(String username, String author) {
+		if (graph != null)
+			return; //the graph has the subscription already.
+
+		Set<Subscription> subscriptions = byUser.get(username);
+		if (subscriptions != null) {
+			for (Subscription s: subscriptions) {
+				s.follow(author);
+			}
+		}
+	}
+
+	/**
+	 * Returns the bus statistics as a formatted string.
+	 */
+	public String metrics() {
+		return "Event bus: " + open.get() + " subscriptions, " + queueCapacity + " messages each (" + overflow + ") | " + published.get() + " published, "
+				+ delivered.get() + " delivered, " + dropped.get() + " dropped";
+	}
+
+	/**
+	 * Adds a subscription to an index. Adding and removing run atomically per key, so a subscription is never added
+	 * to a set that remove() is dropping from the index.
+	 */
+	private static void add(ConcurrentHashMap<String, Set<Subscription>> index, String key, final Subscription s) {
+		index.compute(key, new BiFunction<String, Set<Subscription>, Set<Subscription>>() {
+			public Set<Subscription> apply(String k, Set<Subscription> set) {
+				if (set == null)
+					set = ConcurrentHashMap.<Subscription>newKeySet();
+				set.add(s);
+				return set;
+			}
+		});
+	}
+
+	private static void remove(ConcurrentHashMap<String, Set<Subscription>> index, String key, final Subscription s) {
+		index.computeIfPresent(key, new BiFunction<String, Set<Subscription>, Set<Subscription>>() {
+			public Set<Subscription> apply(String k, Set<Subscription> set) {
+				set.remove(s);
+				return set.isEmpty() ? null : set; //null drops the key.
+			}
+		});
+	}
+
+	/**
+	 * Adds the subscriptions of the online users subscribed to an author. Walks the author's followers in the graph,
+	 * or the online users if there are fewer of them, ie for an author with many subscribers.
+	 */
+	private void addSubscribers(Set<Subscription> targets, String author) {
+		if (graph.followerCount(author) <= byUser.size()) {
+			for (String username: graph.followers(author)) {
+				addTo(targets, byUser.get(username));
+			}
+		} else {
+			for (Map.Entry<String, Set<Subscription>> e: byUser.entrySet()) {
+				if (graph.isFollowing(e.getKey(), author))
+					targets.addAll(e.getValue());
+			}
+		}
+	}
+
+	private static void addTo(Set<Subscription> targets, Set<Subscription> subscriptions) {
+		if (subscriptions != null)
+			targets.addAll(subscriptions);
+	}
+
+	/**
+	 * The messages delivered to one online user. Read with poll(); close() when the user goes offline.
+	 *
+	 * Guarded by a ReentrantLock rather than synchronized, so a virtual thread waiting in poll() does not hold on to
+	 * its carrier thread.
+	 */
+	public class Subscription {
+
+		Subscription(String username) {
+			this.username = username;
+			open.incrementAndGet();
+		}
+
+		/**
+		 * Receives the messages of an author from now on, ie the users subscribed to.
+		 */
+		public void follow(String author) {
+			lock.lock();
+			try {
+				if (!closed && authors.add(author))
+					add(byAuthor, author, this);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Receives the public messages with a tag from now on.
+		 *
+		 * @param tag The tag, ie "#movies".
+		 */
+		public void watchTag(String tag) {
+			lock.lock();
+			try {
+				if (!closed && tags.add(tag))
+					add(byTag, tag, this);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Stops receiving the messages with a tag.
+		 */
+		public void unwatchTag(String tag) {
+			lock.lock();
+			try {
+				if (tags.remove(tag))
+					remove(byTag, tag, this);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Waits until messages arrive, the timeout passes or the subscription is closed, and returns the queued
+		 * messages, oldest first.
+		 *
+		 * @param timeoutMillis The longest wait; 0 returns at once.
+		 * @return The messages, or an empty list if none arrived or the subscription is closed.
+		 */
+		public List<Message> poll(long timeoutMillis) throws InterruptedException {
+			lock.lock();
+			try {
+				long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+				while (queue.isEmpty() && !closed && nanos > 0) {
+					nanos = arrived.awaitNanos(nanos);
+				}
+
+				ArrayList<Message> messages = new ArrayList<Message>(queue);
+				queue.clear();
+				return messages;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Returns the number of messages dropped since the last call, when the queue was full. Non-zero means the
+		 * reader has to catch up from the database.
+		 */
+		public int takeDropped() {
+			lock.lock();
+			try {
+				int n = droppedSinceTaken;
+				droppedSinceTaken = 0;
+				return n;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Stops receiving messages and wakes up a waiting poll().
+		 */
+		public void close() {
+			lock.lock();
+			try {
+				if (closed)
+					return;
+				closed = true;
+				queue.clear();
+				arrived.signalAll();
+
+				remove(byUser, username, this);
+				for (String a: authors) {
+					remove(byAuthor, a, this);
+				}
+				for (String t: tags) {
+					remove(byTag, t, this);
+				}
+				open.decrementAndGet();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		public boolean isClosed() {
+			lock.lock();
+			try {
+				return closed;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Queues a message, applying the overflow policy if the queue is full.
+		 */
+		void offer(Message m) {
+			lock.lock();
+			try {
+				if (closed)
+					return;
+
+				if (queue.size() >= queueCapacity) {
+					droppedSinceTaken++;
+					dropped.incrementAndGet();
+					if (overflow == Overflow.DROP_NEWEST)
+						return;
+					queue.pollFirst();
+				}
+				queue.addLast(m);
+				delivered.incrementAndGet();
+				arrived.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private final String username;
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition arrived = lock.newCondition(); //signalled when a message is queued or on close.
+		private final ArrayDeque<Message> queue = new ArrayDeque<Message>();
+		private final Set<String> authors = new LinkedHashSet<String>(); //followed authors.
+		private final Set<String> tags = new LinkedHashSet<String>(); //watched tags.
+		private int droppedSinceTaken;
+		private boolean closed;
+	}
+
+	private final int queueCapacity;
+	private final Overflow overflow;
+	private final SocialGraph graph; //null if the online users follow() their subscriptions.
+
+	/**
+	 * Subscriptions by their user, by the authors they follow() and by the tags they watch.
+	 */
+	private final ConcurrentHashMap<String, Set<Subscription>> byUser = new ConcurrentHashMap<String, Set<Subscription>>();
+	private final ConcurrentHashMap<String, Set<Subscription>> byAuthor = new ConcurrentHashMap<String, Set<Subscription>>();
+	private final ConcurrentHashMap<String, Set<Subscription>> byTag = new ConcurrentHashMap<String, Set<Subscription>>();
+
+	//statistics
+	private final AtomicLong open = new AtomicLong();
+	private final AtomicLong published = new AtomicLong();
+	private final AtomicLong delivered = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+}
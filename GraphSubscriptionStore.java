@@ -0,0 +1,94 @@
+//package twoogle;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answers the subscription lookups of another SubscriptionStore from a SocialGraph of all subscriptions, so they are
+ * read from memory instead of the store. Subscribing still goes to the store first, and then to the graph if it was
+ * new.
+ *
+ * The graph is only right while this program is the only one writing the subscriptions, so it is only put in front
+ * of an embedded storage (see DerbyStorage and LsmStorage).
+ *
+ * Safe for use by several threads at once, if the store is.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class GraphSubscriptionStore implements SubscriptionStore {
+
+	private GraphSubscriptionStore(SubscriptionStore store, SocialGraph graph) {
+		this.store = store;
+		this.graph = graph;
+	}
+
+	/**
+	 * Builds the graph of a store's subscriptions (on as many threads as there are processors) and puts it in front of
+	 * the store.
+	 *
+	 * @return The store itself if its subscriptions could not be read, so they are read from the store as before.
+	 */
+	static SubscriptionStore open(SubscriptionStore store) {
+		try {
+			List<Map.Entry<String, String>> all = store.allSubscriptions();
+			SocialGraph graph = SocialGraph.build(all, Runtime.getRuntime().availableProcessors());
+			System.err.println("DEBUG: The social graph was built from " + all.size() + " subscriptions.");
+			return new GraphSubscriptionStore(store, graph);
+		} catch (SQLException se) {
+			System.err.println(MessageService.processSqlException(se, "GraphSubscriptionStore.open(SubscriptionStore store)"));
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+		return store;
+	}
+
+	/**
+	 * Synchronized so the graph gets the subscriptions in the order the store does.
+	 */
+	public synchronized boolean subscribe(String username, String subscribeToUsername) throws SQLException {
+		if (!store.subscribe(username, subscribeToUsername))
+			return false;
+
+		graph.add(username, subscribeToUsername);
+		return true;
+	}
+
+	public List<String> subscribedTo(String username) {
+		return graph.following(username);
+	}
+
+	public int subscribedToCount(String username) {
+		return graph.followingCount(username);
+	}
+
+	public int subscriberCount(String username) {
+		return graph.followerCount(username);
+	}
+
+	public List<Map.Entry<String, String>> allSubscriptions() {
+		return graph.subscriptions();
+	}
+
+	/**
+	 * Returns the graph a store answers from, or null if it reads the subscriptions from storage, ie for the
+	 * EventBus.
+	 */
+	static SocialGraph graphOf(SubscriptionStore store) {
+		if (store instanceof GraphSubscriptionStore)
+			return ((GraphSubscriptionStore) store).graph;
+		if (store instanceof MemorySubscriptionStore)
+			return ((MemorySubscriptionStore) store).graph();
+		return null;
+	}
+
+	/**
+	 * Returns the metrics of the graph of a store on a line of its own, or the empty string if the store has no graph.
+	 */
+	static String metrics(SubscriptionStore store) {
+		return store instanceof GraphSubscriptionStore ? "\n" + ((GraphSubscriptionStore) store).graph.metrics() : "";
+	}
+
+	private final SubscriptionStore store;
+	private final SocialGraph graph;
+}
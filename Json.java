@@ -0,0 +1,191 @@
+//package twoogle;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The little JSON the ApiServer needs, without a library: writing strings into a response being built, and
+ * reading request bodies, which are flat objects of strings, numbers, booleans and nulls, ie
+ * {"username": "bob", "password": "secret"}.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class Json {
+
+	private Json() {
+	}
+
+	/**
+	 * Appends a string as a quoted JSON string, or null.
+	 */
+	public static StringBuilder appendString(StringBuilder sb, String s) {
+		if (s == null)
+			return sb.append("null");
+
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char ch = s.charAt(i);
+			switch (ch) {
+			case '"': sb.append("\\\""); break;
+			case '\\': sb.append("\\\\"); break;
+			case '\n': sb.append("\\n"); break;
+			case '\r': sb.append("\\r"); break;
+			case '\t': sb.append("\\t"); break;
+			default:
+				if (ch < 0x20) { //other control characters.
+					sb.append("\\u00");
+					sb.append(HEX[ch >> 4]).append(HEX[ch & 0xF]);
+				}
+				else
+					sb.append(ch);
+			}
+		}
+		return sb.append('"');
+	}
+
+	/**
+	 * Reads a flat JSON object. Values are returned as strings: numbers and booleans as written, null as null.
+	 *
+	 * @param json The object, ie a request body. An empty body is read as an empty object.
+	 * @return The members by name.
+	 * @throws IllegalArgumentException If json is not a flat object.
+	 */
+	public static Map<String, String> parseObject(String json) {
+		HashMap<String, String> members = new HashMap<String, String>();
+		Reader r = new Reader(json);
+
+		r.skipSpace();
+		if (r.atEnd())
+			return members;
+
+		r.expect('{');
+		r.skipSpace();
+		if (r.peek() == '}') {
+			r.next();
+		} else {
+			while (true) {
+				r.skipSpace();
+				String name = r.string();
+				r.skipSpace();
+				r.expect(':');
+				r.skipSpace();
+				members.put(name, r.value());
+				r.skipSpace();
+				char ch = r.next();
+				if (ch == '}')
+					break;
+				if (ch != ',')
+					throw r.error("expected , or }");
+			}
+		}
+
+		r.skipSpace();
+		if (!r.atEnd())
+			throw r.error("unexpected text after the object");
+		return members;
+	}
+
+	/**
+	 * Reads JSON text one character at a time.
+	 */
+	private static class Reader {
+
+		Reader(String s) {
+			this.s = s;
+		}
+
+		boolean atEnd() {
+			return i >= s.length();
+		}
+
+		char peek() {
+			if (atEnd())
+				throw error("unexpected end");
+			return s.charAt(i);
+		}
+
+		char next() {
+			char ch = peek();
+			i++;
+			return ch;
+		}
+
+		void expect(char ch) {
+			if (next() != ch)
+				throw error("expected " + ch);
+		}
+
+		void skipSpace() {
+			while (!atEnd() && Character.isWhitespace(s.charAt(i))) {
+				i++;
+			}
+		}
+
+		/**
+		 * Reads a string, a number, a boolean or null.
+		 */
+		String value() {
+			char ch = peek();
+			if (ch == '"')
+				return string();
+			if (ch == '{' || ch == '[')
+				throw error("nested objects and arrays are not supported");
+
+			int start = i;
+			while (!atEnd() && ",}] \t\r\n".indexOf(s.charAt(i)) == -1) {
+				i++;
+			}
+			String literal = s.substring(start, i);
+			if (literal.equals("null"))
+				return null;
+			if (literal.equals("true") || literal.equals("false") || NUMBER.matcher(literal).matches())
+				return literal;
+			throw error("unexpected value " + literal);
+		}
+
+		String string() {
+			expect('"');
+			StringBuilder sb = new StringBuilder();
+			while (true) {
+				char ch = next();
+				if (ch == '"')
+					return sb.toString();
+				if (ch != '\\') {
+					sb.append(ch);
+					continue;
+				}
+
+				ch = next();
+				switch (ch) {
+				case 'b': sb.append('\b'); break;
+				case 'f': sb.append('\f'); break;
+				case 'n': sb.append('\n'); break;
+				case 'r': sb.append('\r'); break;
+				case 't': sb.append('\t'); break;
+				case 'u':
+					if (i + 4 > s.length())
+						throw error("unexpected end");
+					try {
+						sb.append((char) Integer.parseInt(s.substring(i, i + 4), 16));
+					} catch (NumberFormatException ne) {
+						throw error("bad \\u escape");
+					}
+					i += 4;
+					break;
+				default: sb.append(ch); //" \ and /
+				}
+			}
+		}
+
+		IllegalArgumentException error(String what) {
+			return new IllegalArgumentException("Bad JSON at character " + i + ": " + what);
+		}
+
+		private final String s;
+		private int i;
+	}
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private static final Pattern NUMBER = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+}
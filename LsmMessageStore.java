@@ -0,0 +1,422 @@
+//package twoogle;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Keeps the messages in an LsmTree, keyed by author and time (see LsmStorage for the keys). Each message is stored
+ * once; the replies to a user, the threads, the tags and the list of all messages are indexes holding the key of the
+ * message. A page is a scan from its cursor, like an index range read of DerbyMessageStore, so it takes the same time
+ * however far back it is.
+ *
+ * Home timelines are not copied, they are merged from the messages of the users the owner is subscribed to, like in
+ * MemoryMessageStore.
+ *
+ * Safe for use by several threads at once. Writes are synchronized, since storing a reply changes the reply count of
+ * the message it answers and storing a tag changes its count.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class LsmMessageStore implements MessageStore {
+
+	/**
+	 * @param subscriptions The subscriptions the home timelines are read from.
+	 */
+	LsmMessageStore(LsmTree tree, SubscriptionStore subscriptions) {
+		this.tree = tree;
+		this.subscriptions = subscriptions;
+	}
+
+	/**
+	 * Writes the messages, their index entries, the new reply counts and the new tag counts in one batch.
+	 */
+	public synchronized void insert(List<Message> batch) throws SQLException {
+		LsmTree.WriteBatch w = new LsmTree.WriteBatch();
+		HashMap<String, Message> changed = new HashMap<String, Message>(); //by key, the messages to write.
+		HashMap<String, String> ids = new HashMap<String, String>(); //the id keys of this batch, for replies within it.
+		HashMap<String, Integer> tagUses = new HashMap<String, Integer>();
+
+		try {
+			for (Message m: batch) {
+				String order = LsmStorage.newestFirst(m.timestamp, m.id);
+				String key = MESSAGE + m.username + LsmStorage.SEPARATOR + order;
+				byte[] pointer = LsmStorage.bytes(key);
+				changed.put(key, MemoryMessageStore.copy(m));
+
+				String idKey = ID + m.id + LsmStorage.SEPARATOR + m.username;
+				w.put(idKey, pointer);
+				ids.put(idKey, key);
+				w.put(ALL + order, pointer);
+				if (m.isReply)
+					w.put(REPLY + m.repliedToUsername + LsmStorage.SEPARATOR + order, pointer);
+				if (m.threadId != null)
+					w.put(THREAD + m.threadId + LsmStorage.SEPARATOR + LsmStorage.oldestFirst(m.timestamp, m.id), pointer);
+
+				if (m.parentId != null) {
+					String parentIdKey = ID + m.parentId + LsmStorage.SEPARATOR + m.repliedToUsername;
+					String parentKey = ids.get(parentIdKey);
+					if (parentKey == null) {
+						byte[] b = tree.get(parentIdKey);
+						parentKey = b == null ? null : LsmStorage.string(b);
+					}
+					Message parent = parentKey == null ? null : changed.get(parentKey);
+					if (parent == null && parentKey != null) {
+						byte[] b = tree.get(parentKey);
+						parent = b == null ? null : readMessage(b);
+					}
+					if (parent != null) {
+						parent.replyCount++;
+						changed.put(parentKey, parent);
+					}
+				}
+
+				//Only public messages are listed by tag and counted, like in TABLE_MESSAGE_TAGS and TABLE_TAG_COUNTS.
+				if (m.tags != null && m.isPrivate == 0) {
+					for (String tag: m.tags) {
+						w.put(TAG + tag + LsmStorage.SEPARATOR + order, pointer);
+						Integer uses = tagUses.get(tag);
+						tagUses.put(tag, uses == null ? 1 : uses + 1);
+					}
+				}
+			}
+
+			for (Map.Entry<String, Message> e: changed.entrySet()) {
+				w.put(e.getKey(), messageBytes(e.getValue()));
+			}
+			for (Map.Entry<String, Integer> e: tagUses.entrySet()) {
+				w.put(COUNT + e.getKey(), intBytes(readCount(tree.get(COUNT + e.getKey())) + e.getValue()));
+			}
+			tree.write(w);
+
+		} catch (IOException ioe) {
+			throw LsmStorage.sqlException(ioe);
+		}
+	}
+
+	public List<Message> userMessages(String username, boolean includePrivate, String cursor, int limit) throws SQLException {
+		return older(MESSAGE + username + LsmStorage.SEPARATOR, false, cursor, limit, includePrivate ? null : PUBLIC);
+	}
+
+	public List<Message> userMessagesSince(String username, boolean includePrivate, String since, int limit) throws SQLException {
+		return newer(MESSAGE + username + LsmStorage.SEPARATOR, false, since, limit, includePrivate ? null : PUBLIC);
+	}
+
+	public List<Message> replies(String username, String cursor, int limit) throws SQLException {
+		return older(REPLY + username + LsmStorage.SEPARATOR, true, cursor, limit, null);
+	}
+
+	public List<Message> repliesSince(String username, String since, int limit) throws SQLException {
+		return newer(REPLY + username + LsmStorage.SEPARATOR, true, since, limit, null);
+	}
+
+	/**
+	 * Merges the pages of the users the owner is subscribed to, private messages included.
+	 */
+	public List<Message> homeTimeline(String owner, String cursor, int limit) throws SQLException {
+		ArrayList<Message> merged = new ArrayList<Message>();
+		for (String username: subscriptions.subscribedTo(owner)) {
+			merged.addAll(userMessages(username, true, cursor, limit));
+		}
+		return MemoryMessageStore.newest(merged, limit);
+	}
+
+	public List<Message> homeTimelineSince(String owner, String since, int limit) throws SQLException {
+		ArrayList<Message> merged = new ArrayList<Message>();
+		for (String username: subscriptions.subscribedTo(owner)) {
+			merged.addAll(userMessagesSince(username, true, since, limit));
+		}
+		return MemoryMessageStore.newest(merged, limit);
+	}
+
+	public List<Message> taggedMessages(String tag, String cursor, int limit) throws SQLException {
+		return older(TAG + tag + LsmStorage.SEPARATOR, true, cursor, limit, null);
+	}
+
+	/**
+	 * Scans all messages for the words, which so also match inside longer words, like DerbyMessageStore.search().
+	 */
+	public List<Message> search(final String viewer, final List<String> words, String cursor, int limit) throws SQLException {
+		return older(ALL, true, cursor, limit, new Filter() {
+			public boolean accept(Message m) {
+				if (m.isPrivate != 0 && !m.username.equals(viewer))
+					return false;
+
+				String contents = m.contents.toLowerCase(Locale.ROOT);
+				for (String word: words) {
+					if (!contents.contains(word))
+						return false;
+				}
+				return true;
+			}
+		});
+	}
+
+	public List<Message> thread(String id, final String viewer) throws SQLException {
+		List<Message> first = read(ID + id + LsmStorage.SEPARATOR, true, 1, null);
+		if (first.isEmpty() || first.get(0).threadId == null)
+			return first;
+
+		return read(THREAD + first.get(0).threadId + LsmStorage.SEPARATOR, true, MessageService.MAX_THREAD_MESSAGES, new Filter() {
+			public boolean accept(Message m) {
+				return m.isPrivate == 0 || m.username.equals(viewer);
+			}
+		});
+	}
+
+	public Message latestMessage(String username) throws SQLException {
+		List<Message> latest = read(MESSAGE + username + LsmStorage.SEPARATOR, false, 1, null);
+		return latest.isEmpty() ? null : latest.get(0);
+	}
+
+	public List<Message> allMessages() throws SQLException {
+		return read(MESSAGE, false, Integer.MAX_VALUE, null);
+	}
+
+	public List<Map.Entry<String, Integer>> tagCounts() throws SQLException {
+		final ArrayList<Map.Entry<String, Integer>> counts = new ArrayList<Map.Entry<String, Integer>>();
+
+		try {
+			tree.scan(COUNT, LsmStorage.end(COUNT), new LsmTree.Visitor() {
+				public boolean visit(String key, byte[] value) {
+					counts.add(new AbstractMap.SimpleImmutableEntry<String, Integer>(key.substring(COUNT.length()), readCount(value)));
+					return true;
+				}
+			});
+		} catch (IOException ioe) {
+			throw LsmStorage.sqlException(ioe);
+		}
+		return counts;
+	}
+
+	public List<Map.Entry<String, Integer>> topTags(int limit) throws SQLException {
+		return MemoryMessageStore.mostUsed(tagCounts(), limit);
+	}
+
+	/**
+	 * Counts the newest entries of each tag's index, up to the time.
+	 */
+	public List<Map.Entry<String, Integer>> trendingTags(long since, int limit) throws SQLException {
+		ArrayList<Map.Entry<String, Integer>> counts = new ArrayList<Map.Entry<String, Integer>>();
+		for (Map.Entry<String, Long> e: tagUses(since, true)) {
+			counts.add(new AbstractMap.SimpleImmutableEntry<String, Integer>(e.getKey(), e.getValue().intValue()));
+		}
+		return MemoryMessageStore.mostUsed(counts, limit);
+	}
+
+	public List<Map.Entry<String, Long>> tagUsesSince(long since) throws SQLException {
+		return tagUses(since, false);
+	}
+
+	/**
+	 * Counts the public messages of every tag in the tag indexes again, replacing the stored counts in one batch.
+	 */
+	public synchronized void rebuildTagCounts() throws SQLException {
+		final HashMap<String, Integer> counts = new HashMap<String, Integer>();
+		LsmTree.WriteBatch w = new LsmTree.WriteBatch();
+
+		try {
+			tree.scan(TAG, LsmStorage.end(TAG), new LsmTree.Visitor() {
+				public boolean visit(String key, byte[] value) {
+					String tag = key.substring(TAG.length(), key.indexOf(LsmStorage.SEPARATOR));
+					Integer uses = counts.get(tag);
+					counts.put(tag, uses == null ? 1 : uses + 1);
+					return true;
+				}
+			});
+
+			for (Map.Entry<String, Integer> e: tagCounts()) {
+				if (!counts.containsKey(e.getKey()))
+					w.delete(COUNT + e.getKey());
+			}
+			for (Map.Entry<String, Integer> e: counts.entrySet()) {
+				w.put(COUNT + e.getKey(), intBytes(e.getValue()));
+			}
+			tree.write(w);
+
+		} catch (IOException ioe) {
+			throw LsmStorage.sqlException(ioe);
+		}
+	}
+
+	/**
+	 * Returns the uses of each counted tag by public messages posted after a time, read from the tag indexes newest
+	 * first up to the time.
+	 *
+	 * @param isCounted True to return each tag once with its number of uses, false to return each use with its time.
+	 */
+	private List<Map.Entry<String, Long>> tagUses(long since, final boolean isCounted) throws SQLException {
+		final Timestamp t = new Timestamp(since);
+		final ArrayList<Map.Entry<String, Long>> uses = new ArrayList<Map.Entry<String, Long>>();
+
+		try {
+			for (Map.Entry<String, Integer> count: tagCounts()) {
+				final String tag = count.getKey();
+				final String prefix = TAG + tag + LsmStorage.SEPARATOR;
+				final long[] n = new long[1];
+				tree.scan(prefix, LsmStorage.end(prefix), new LsmTree.Visitor() {
+					public boolean visit(String key, byte[] value) {
+						Timestamp posted = LsmStorage.newestFirstTimestamp(key, prefix.length());
+						if (!posted.after(t))
+							return false;
+
+						n[0]++;
+						if (!isCounted)
+							uses.add(new AbstractMap.SimpleImmutableEntry<String, Long>(tag, posted.getTime()));
+						return true;
+					}
+				});
+				if (isCounted && n[0] > 0)
+					uses.add(new AbstractMap.SimpleImmutableEntry<String, Long>(tag, n[0]));
+			}
+		} catch (IOException ioe) {
+			throw LsmStorage.sqlException(ioe);
+		}
+		return uses;
+	}
+
+	/**
+	 * Returns up to limit messages under a prefix older than a cursor, newest first.
+	 *
+	 * @param isIndex True if the values under the prefix are the keys of the messages rather than the messages.
+	 * @param filter Which messages to return, or null for all.
+	 */
+	private List<Message> older(String prefix, boolean isIndex, String cursor, int limit, Filter filter) throws SQLException {
+		String from = prefix;
+		if (cursor != null)
+			from = prefix + LsmStorage.newestFirst(Page.cursorTimestamp(cursor), Page.cursorMessageId(cursor)) + LsmStorage.SEPARATOR; //just after the cursor.
+		return read(from, LsmStorage.end(prefix), isIndex, limit, filter);
+	}
+
+	/**
+	 * Returns the newest messages under a prefix, up to limit, that are newer than a cursor, newest first.
+	 *
+	 * @param since The cursor, or null to return the newest messages.
+	 */
+	private List<Message> newer(String prefix, boolean isIndex, String since, int limit, Filter filter) throws SQLException {
+		String to = LsmStorage.end(prefix);
+		if (since != null)
+			to = prefix + LsmStorage.newestFirst(Page.cursorTimestamp(since), Page.cursorMessageId(since));
+		return read(prefix, to, isIndex, limit, filter);
+	}
+
+	private List<Message> read(String prefix, boolean isIndex, int limit, Filter filter) throws SQLException {
+		return read(prefix, LsmStorage.end(prefix), isIndex, limit, filter);
+	}
+
+	/**
+	 * Returns up to limit messages of the keys from one key up to another, in key order.
+	 */
+	private List<Message> read(String from, String to, final boolean isIndex, final int limit, final Filter filter) throws SQLException {
+		final ArrayList<Message> r = new ArrayList<Message>(Math.min(Math.max(limit, 0), MessageService.PAGE_SIZE + 1));
+		if (limit <= 0)
+			return r;
+
+		try {
+			tree.scan(from, to, new LsmTree.Visitor() {
+				public boolean visit(String key, byte[] value) throws IOException {
+					byte[] b = isIndex ? tree.get(LsmStorage.string(value)) : value;
+					if (b != null) {
+						Message m = readMessage(b);
+						if (filter == null || filter.accept(m))
+							r.add(m);
+					}
+					return r.size() < limit;
+				}
+			});
+		} catch (IOException ioe) {
+			throw LsmStorage.sqlException(ioe);
+		}
+		return r;
+	}
+
+	private static byte[] messageBytes(Message m) throws IOException {
+		ByteArrayOutputStream b = new ByteArrayOutputStream(96 + m.contents.length());
+		DataOutputStream out = new DataOutputStream(b);
+		out.writeByte(FORMAT);
+		out.writeUTF(m.id);
+		out.writeLong(m.timestamp.getTime());
+		out.writeInt(m.timestamp.getNanos());
+		out.writeUTF(m.username);
+		LsmStorage.writeNullable(out, m.tag);
+		out.writeBoolean(m.isReply);
+		LsmStorage.writeNullable(out, m.repliedToUsername);
+		out.writeUTF(m.contents);
+		out.writeInt(m.isPrivate);
+		LsmStorage.writeNullable(out, m.parentId);
+		LsmStorage.writeNullable(out, m.threadId);
+		out.writeInt(m.replyCount);
+		return b.toByteArray();
+	}
+
+	private static Message readMessage(byte[] b) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(b));
+		if (in.readByte() != FORMAT)
+			throw new IOException("A message is stored in an unknown format.");
+
+		Message m = new Message();
+		m.id = in.readUTF();
+		m.timestamp = new Timestamp(in.readLong());
+		m.timestamp.setNanos(in.readInt());
+		m.username = in.readUTF();
+		m.tag = LsmStorage.readNullable(in);
+		m.isReply = in.readBoolean();
+		m.repliedToUsername = LsmStorage.readNullable(in);
+		m.contents = in.readUTF();
+		m.isPrivate = in.readInt();
+		m.parentId = LsmStorage.readNullable(in);
+		m.threadId = LsmStorage.readNullable(in);
+		m.replyCount = in.readInt();
+		return m;
+	}
+
+	private static byte[] intBytes(int v) {
+		return new byte[] {(byte) (v >>> 24), (byte) (v >>> 16), (byte) (v >>> 8), (byte) v};
+	}
+
+	/**
+	 * Reads a tag count written by intBytes(), or 0 for no count.
+	 */
+	private static int readCount(byte[] b) {
+		return b == null ? 0 : (b[0] << 24) | ((b[1] & 0xff) << 16) | ((b[2] & 0xff) << 8) | (b[3] & 0xff);
+	}
+
+	/**
+	 * Chooses the messages of a scan to return.
+	 */
+	private interface Filter {
+		boolean accept(Message m);
+	}
+
+	private static final Filter PUBLIC = new Filter() {
+		public boolean accept(Message m) {
+			return m.isPrivate == 0;
+		}
+	};
+
+	private static final String MESSAGE = "m";
+	private static final String ID = "i";
+	private static final String REPLY = "r";
+	private static final String THREAD = "g";
+	private static final String TAG = "t";
+	private static final String ALL = "a";
+	private static final String COUNT = "c";
+
+	/**
+	 * Version of the format messages are stored in.
+	 */
+	private static final byte FORMAT = 1;
+
+	private final LsmTree tree;
+	private final SubscriptionStore subscriptions;
+}
@@ -0,0 +1,167 @@
+//package twoogle;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * Keeps the Message Service's data in an embedded log-structured merge tree (see LsmTree) in a directory, for
+ * write-heavy use ("MessageService connectmode=lsm"): posting a batch of messages or subscribing is one append to a
+ * log instead of a Derby transaction over several indexed tables. Only one program may open the directory at a time
+ * (the tree locks it, like Derby's db.lck).
+ *
+ * All stores share one tree, each under its own key prefix, so a batch written by one store is atomic:
+ * 	u<username>								a user (LsmUserStore).
+ * 	s<username>\0<subscribed to username>	a subscription (LsmSubscriptionStore).
+ * 	m<author>\0<newest first order>			a message (LsmMessageStore).
+ * 	i<message id>\0<author>					the key of a message by its id.
+ * 	r<replied to username>\0<order>			the key of a reply.
+ * 	g<thread id>\0<oldest first order>		the key of a message of a thread.
+ * 	t<tag>\0<order>							the key of a public message with a tag.
+ * 	a<order>								the key of every message.
+ * 	c<tag>									the number of public messages with a tag.
+ * The order of a message (see newestFirst()) sorts the keys of a user's messages, ie, newest first by timestamp and
+ * id, so a page is read with a single scan starting at its cursor.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class LsmStorage implements Storage {
+
+	/**
+	 * Opens (and creates if necessary) the tree in a directory.
+	 *
+	 * @throws IllegalStateException If the tree could not be opened, ie it is open in another program, since there is
+	 * nowhere to keep the data then.
+	 */
+	LsmStorage(String directory) {
+		try {
+			tree = new LsmTree(new File(directory), MEMTABLE_BYTES, true);
+		} catch (IOException ioe) {
+			throw new IllegalStateException("The LSM tree in " + directory + " could not be opened: " + ioe.getMessage(), ioe);
+		}
+		System.err.println("DEBUG: We have opened the LSM tree, which was created if needed: " + directory);
+
+		subscriptions = GraphSubscriptionStore.open(new LsmSubscriptionStore(tree));
+		messages = new LsmMessageStore(tree, subscriptions);
+		users = new LsmUserStore(tree);
+	}
+
+	public MessageStore messages() {
+		return messages;
+	}
+
+	public UserStore users() {
+		return users;
+	}
+
+	public SubscriptionStore subscriptions() {
+		return subscriptions;
+	}
+
+	public String metrics() {
+		return tree.metrics() + GraphSubscriptionStore.metrics(subscriptions);
+	}
+
+	/**
+	 * Closes the tree, waiting for a flush or compaction in progress.
+	 */
+	public void close() {
+		tree.close();
+	}
+
+	/**
+	 * Returns the part of a message key that sorts messages newest first by timestamp and then by id: the
+	 * milliseconds and nanoseconds of the timestamp, complemented, in fixed width hex, then the complemented chars
+	 * of the id ended by the char 0xffff, so a longer id sorts before an id it starts with.
+	 */
+	static String newestFirst(Timestamp t, String id) {
+		StringBuilder sb = new StringBuilder(25 + id.length());
+		hex(sb, ~(t.getTime() ^ Long.MIN_VALUE), 16);
+		hex(sb, 999999999 - t.getNanos(), 8);
+		for (int i = 0; i < id.length(); i++) {
+			sb.append((char) (0xffff - id.charAt(i)));
+		}
+		return sb.append((char) 0xffff).toString();
+	}
+
+	/**
+	 * Returns the part of a message key that sorts messages oldest first by timestamp and then by id.
+	 */
+	static String oldestFirst(Timestamp t, String id) {
+		StringBuilder sb = new StringBuilder(24 + id.length());
+		hex(sb, t.getTime() ^ Long.MIN_VALUE, 16);
+		hex(sb, t.getNanos(), 8);
+		return sb.append(id).toString();
+	}
+
+	/**
+	 * Returns the timestamp of a newestFirst() order in a key.
+	 *
+	 * @param start Where the order starts in the key.
+	 */
+	static Timestamp newestFirstTimestamp(String key, int start) {
+		Timestamp t = new Timestamp(~Long.parseUnsignedLong(key.substring(start, start + 16), 16) ^ Long.MIN_VALUE);
+		t.setNanos(999999999 - Integer.parseInt(key.substring(start + 16, start + 24), 16));
+		return t;
+	}
+
+	/**
+	 * Returns the first key after all keys starting with a prefix, to end a scan of the prefix.
+	 */
+	static String end(String prefix) {
+		int last = prefix.length() - 1;
+		return prefix.substring(0, last) + (char) (prefix.charAt(last) + 1);
+	}
+
+	static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	static String string(byte[] b) {
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	static void writeNullable(DataOutput out, String s) throws IOException {
+		out.writeBoolean(s != null);
+		if (s != null)
+			out.writeUTF(s);
+	}
+
+	static String readNullable(DataInput in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	/**
+	 * Reports a failed read or write of the tree like a failed sql command, so the MessageService handles it the same
+	 * way. The SQL state is 58030, an I/O error.
+	 */
+	static SQLException sqlException(IOException ioe) {
+		return new SQLException("The LSM tree could not be read or written: " + ioe.getMessage(), "58030", ioe);
+	}
+
+	private static void hex(StringBuilder sb, long v, int digits) {
+		for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+			sb.append(Character.forDigit((int) (v >>> shift) & 0xf, 16));
+		}
+	}
+
+	/**
+	 * Separates the variable parts of a key, ie the username from the order of his messages. Sorts before any char
+	 * of a username, so the keys of "al" all come before the keys of "alice".
+	 */
+	static final char SEPARATOR = '\0';
+
+	/**
+	 * About how many bytes of writes are held in memory before they are flushed to a table.
+	 */
+	static final long MEMTABLE_BYTES = 4 * 1024 * 1024;
+
+	private final LsmTree tree;
+	private final LsmMessageStore messages;
+	private final LsmUserStore users;
+	private final SubscriptionStore subscriptions;
+}
@@ -0,0 +1,98 @@
+//package twoogle;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the subscriptions in an LsmTree, each under the key "s" + username + "\0" + the username subscribed to, so
+ * the subscriptions of a user are read with one scan. See LsmStorage.
+ *
+ * Safe for use by several threads at once.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class LsmSubscriptionStore implements SubscriptionStore {
+
+	LsmSubscriptionStore(LsmTree tree) {
+		this.tree = tree;
+	}
+
+	/**
+	 * The subscribed to user's messages are in the subscriber's home timeline from then on, since LsmMessageStore
+	 * reads the home timelines from the subscriptions. Synchronized so the check and the write are not separated.
+	 */
+	public synchronized boolean subscribe(String username, String subscribeToUsername) throws SQLException {
+		String key = SUBSCRIPTION + username + LsmStorage.SEPARATOR + subscribeToUsername;
+
+		try {
+			if (tree.get(key) != null)
+				return false;
+
+			LsmTree.WriteBatch batch = new LsmTree.WriteBatch();
+			batch.put(key, new byte[0]);
+			tree.write(batch);
+			return true;
+		} catch (IOException ioe) {
+			throw LsmStorage.sqlException(ioe);
+		}
+	}
+
+	public List<String> subscribedTo(String username) throws SQLException {
+		final String prefix = SUBSCRIPTION + username + LsmStorage.SEPARATOR;
+		final ArrayList<String> to = new ArrayList<String>();
+
+		try {
+			tree.scan(prefix, LsmStorage.end(prefix), new LsmTree.Visitor() {
+				public boolean visit(String key, byte[] value) {
+					to.add(key.substring(prefix.length()));
+					return true;
+				}
+			});
+		} catch (IOException ioe) {
+			throw LsmStorage.sqlException(ioe);
+		}
+		return to;
+	}
+
+	public int subscribedToCount(String username) throws SQLException {
+		return subscribedTo(username).size();
+	}
+
+	/**
+	 * Scans all subscriptions, since they are only keyed by subscriber. LsmStorage answers from the social graph
+	 * instead (see GraphSubscriptionStore).
+	 */
+	public int subscriberCount(String username) throws SQLException {
+		int count = 0;
+		for (Map.Entry<String, String> s: allSubscriptions()) {
+			if (s.getValue().equals(username))
+				count++;
+		}
+		return count;
+	}
+
+	public List<Map.Entry<String, String>> allSubscriptions() throws SQLException {
+		final ArrayList<Map.Entry<String, String>> subscriptions = new ArrayList<Map.Entry<String, String>>();
+
+		try {
+			tree.scan(SUBSCRIPTION, LsmStorage.end(SUBSCRIPTION), new LsmTree.Visitor() {
+				public boolean visit(String key, byte[] value) {
+					int separator = key.indexOf(LsmStorage.SEPARATOR);
+					subscriptions.add(new AbstractMap.SimpleImmutableEntry<String, String>(key.substring(SUBSCRIPTION.length(), separator), key.substring(separator + 1)));
+					return true;
+				}
+			});
+		} catch (IOException ioe) {
+			throw LsmStorage.sqlException(ioe);
+		}
+		return subscriptions;
+	}
+
+	private static final String SUBSCRIPTION = "s";
+
+	private final LsmTree tree;
+}
@@ -0,0 +1,700 @@
+//package twoogle;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A log-structured merge tree: a sorted key-value store in a directory of files, built for many small writes, which
+ * LsmStorage keeps the Message Service's data in.
+ *
+ * A write batch is appended to the write-ahead log (see WriteAheadLog) and then applied to the memtable, a sorted map
+ * in memory; no file is rewritten in place, so a write costs one append to the log. Once the memtable holds
+ * memtableBytes it is frozen and a background thread flushes it to an immutable SSTable, while writes go on into a
+ * new memtable with a new log. A delete writes a tombstone that hides the key in older tables.
+ *
+ * A read looks in the memtable, the frozen memtable and then the tables, newest first, and stops at the first one
+ * holding the key; the Bloom filter of a table skips it without reading it unless it may hold the key. A scan merges
+ * all of them in key order, the newest value of each key winning.
+ *
+ * Compaction merges tables in the background so reads do not have to look into more and more of them. Tables are in
+ * tiers by size, each COMPACTION_TRIGGER times the size of the one below it. Once the newest COMPACTION_TRIGGER tables
+ * are in the same tier they are merged into one table of the next tier, dropping overwritten values, and tombstones
+ * too if the merge reaches the oldest table. The tables in use are listed in the MANIFEST file, which is replaced
+ * atomically, so after a crash the tree opens with either the tables before a flush or compaction or the ones after.
+ * Files that are not listed are left over from an interrupted flush or compaction and are deleted when the tree opens.
+ *
+ * Opening the tree replays the logs of the memtables that were not flushed yet and flushes them. An open tree holds an
+ * exclusive lock on the LOCK file of its directory until it is closed, so a second program (or a second tree in this
+ * one) can not open the directory and interleave its writes with the tree's.
+ *
+ * Reads never wait for writes. A read or scan may see some of the entries of a batch being applied, and a scan sees
+ * the writes that happen while it runs in part; a batch is only atomic with respect to crashes. Writers wait if the
+ * memtable fills up while the previous one is still being flushed.
+ *
+ * Safe for use by several threads at once.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class LsmTree {
+
+	/**
+	 * Opens the tree in a directory, creating it if needed.
+	 *
+	 * @param directory The directory of the tree's files.
+	 * @param memtableBytes About how many bytes the memtable holds before it is flushed to a table.
+	 * @param sync True to force the log to disk on every write, see WriteAheadLog.
+	 * @throws IllegalStateException If the directory is locked by another open tree.
+	 */
+	LsmTree(File directory, long memtableBytes, boolean sync) throws IOException {
+		this.directory = directory;
+		this.memtableBytes = memtableBytes;
+		this.sync = sync;
+
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("The directory " + directory + " could not be created.");
+
+		//A second tree in this program must not even open the LOCK file: closing it would release the lock of the first.
+		lockPath = directory.getCanonicalPath();
+		if (!LOCKED.add(lockPath))
+			throw new IllegalStateException("The LSM tree in " + directory + " is already open in this program.");
+
+		try {
+			lockFile = new RandomAccessFile(new File(directory, LOCK), "rw").getChannel();
+		} catch (IOException ioe) {
+			LOCKED.remove(lockPath);
+			throw ioe;
+		}
+		directoryLock = lockFile.tryLock();
+		if (directoryLock == null) {
+			lockFile.close();
+			LOCKED.remove(lockPath);
+			throw new IllegalStateException("The LSM tree in " + directory + " is already open in another program.");
+		}
+
+		try {
+			open();
+		} catch (IOException ioe) {
+			unlock();
+			throw ioe;
+		} catch (RuntimeException re) {
+			unlock();
+			throw re;
+		}
+
+		background = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "twoogle-lsm-" + THREADS.incrementAndGet());
+				t.setDaemon(true); //close() waits for a flush in progress.
+				return t;
+			}
+		});
+		background.execute(new Runnable() {
+			public void run() {
+				compact();
+			}
+		});
+	}
+
+	/**
+	 * Opens the files of the tree, once its directory is locked.
+	 */
+	private void open() throws IOException {
+		//Open the tables of the manifest and delete the files of interrupted flushes and compactions.
+		HashSet<String> live = new HashSet<String>();
+		ArrayList<SSTable> opened = new ArrayList<SSTable>();
+		File manifest = new File(directory, MANIFEST);
+		if (manifest.exists()) {
+			for (String name: Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+				if (name.isEmpty())
+					continue;
+				live.add(name);
+				opened.add(SSTable.open(new File(directory, name)));
+			}
+		}
+		tables = opened;
+
+		ArrayList<File> logs = new ArrayList<File>();
+		long maxFileNumber = 0;
+		File[] files = directory.listFiles();
+		if (files != null) {
+			Arrays.sort(files);
+			for (File f: files) {
+				String name = f.getName();
+				if (name.endsWith(SSTable.TMP_SUFFIX) || (name.endsWith(TABLE_SUFFIX) && !live.contains(name))) {
+					if (!f.delete())
+						System.err.println("ERROR: The unused file " + f + " could not be deleted.");
+					continue;
+				}
+				if (name.endsWith(LOG_SUFFIX))
+					logs.add(f);
+				if (name.endsWith(TABLE_SUFFIX) || name.endsWith(LOG_SUFFIX))
+					maxFileNumber = Math.max(maxFileNumber, Long.parseLong(name.substring(0, name.indexOf('.'))));
+			}
+		}
+		nextFileNumber.set(maxFileNumber + 1);
+
+		//Rebuild the memtables that were not flushed from their logs, oldest first, and flush them now.
+		int batches = 0;
+		for (File log: logs) {
+			batches += WriteAheadLog.replay(log, memtable);
+		}
+		if (!memtable.isEmpty()) {
+			SSTable t = SSTable.write(newFile(TABLE_SUFFIX), memtable.entrySet().iterator(), memtable.size());
+			ArrayList<SSTable> withFlushed = new ArrayList<SSTable>(tables);
+			withFlushed.add(0, t);
+			tables = withFlushed;
+			writeManifest();
+			memtable.clear();
+			System.err.println("DEBUG: " + batches + " logged write batches were replayed into " + t);
+		}
+		for (File log: logs) {
+			if (!log.delete())
+				System.err.println("ERROR: The replayed log " + log + " could not be deleted.");
+		}
+
+		log = new WriteAheadLog(newFile(LOG_SUFFIX), sync);
+	}
+
+	/**
+	 * Returns the value of a key, or null if the key is not in the tree.
+	 */
+	public byte[] get(String key) throws IOException {
+		gets.incrementAndGet();
+		lock.readLock().lock();
+
+		try {
+			byte[] value = memtable.get(key);
+			if (value == null && immutable != null)
+				value = immutable.get(key);
+			if (value == null) {
+				for (SSTable t: tables) {
+					if (!t.mightContain(key)) {
+						bloomSkips.incrementAndGet();
+						continue;
+					}
+					value = t.get(key);
+					if (value != null)
+						break;
+				}
+			}
+			return value == TOMBSTONE ? null : value;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Visits the keys from one key up to another in key order, with their values.
+	 *
+	 * @param from The first key visited if it is in the tree.
+	 * @param to The key the scan stops at, which is not visited.
+	 * @param v Visits each key, and may read the tree but not write it.
+	 */
+	public void scan(String from, String to, Visitor v) throws IOException {
+		if (from.compareTo(to) >= 0)
+			return;
+
+		scans.incrementAndGet();
+		lock.readLock().lock();
+
+		try {
+			ArrayList<Iterator<Map.Entry<String, byte[]>>> sources = new ArrayList<Iterator<Map.Entry<String, byte[]>>>();
+			sources.add(memtable.subMap(from, to).entrySet().iterator());
+			if (immutable != null)
+				sources.add(immutable.subMap(from, to).entrySet().iterator());
+			for (SSTable t: tables) {
+				sources.add(t.iterator(from));
+			}
+
+			Iterator<Map.Entry<String, byte[]>> merged = new MergingIterator(sources, true);
+			while (merged.hasNext()) {
+				Map.Entry<String, byte[]> e = merged.next();
+				if (e.getKey().compareTo(to) >= 0 || !v.visit(e.getKey(), e.getValue()))
+					break;
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Writes a batch: appends it to the log as one record and applies it to the memtable.
+	 */
+	public void write(WriteBatch batch) throws IOException {
+		if (batch.entries.isEmpty())
+			return;
+
+		synchronized (writeLock) {
+			if (log == null)
+				throw new IOException("The tree in " + directory + " is closed.");
+
+			log.append(batch.entries);
+			for (Map.Entry<String, byte[]> e: batch.entries) {
+				byte[] previous = memtable.put(e.getKey(), e.getValue());
+				memtableSize += e.getValue().length - (previous == null ? -ENTRY_OVERHEAD - e.getKey().length() * 2 : previous.length);
+			}
+			writes.incrementAndGet();
+
+			if (memtableSize >= memtableBytes)
+				freezeMemtable();
+		}
+	}
+
+	/**
+	 * Returns the statistics of the tree on one line.
+	 */
+	public String metrics() {
+		List<SSTable> t = tables;
+		long bytes = 0, blocks = 0;
+		for (SSTable table: t) {
+			bytes += table.length();
+			blocks += table.blocksRead();
+		}
+		return "LSM tree: " + t.size() + " tables (" + bytes / 1024 + " KB) " + t
+				+ " | memtable " + memtableSize / 1024 + " KB" + (immutable == null ? "" : ", one being flushed")
+				+ " | " + writes.get() + " write batches, " + gets.get() + " gets, " + scans.get() + " scans, " + blocks + " blocks read, "
+				+ bloomSkips.get() + " tables skipped by Bloom filters"
+				+ " | " + flushes.get() + " flushes, " + compactions.get() + " compactions";
+	}
+
+	/**
+	 * Waits for a flush or compaction in progress and closes the files. Writes still in the memtable are in the log,
+	 * which is replayed the next time the tree is opened.
+	 */
+	public void close() {
+		synchronized (writeLock) {
+			if (log == null)
+				return;
+			try {
+				log.close();
+			} catch (IOException ioe) {
+				System.err.println("ERROR: The log " + log.file + " could not be closed: " + ioe.getMessage());
+			}
+			log = null;
+		}
+
+		background.shutdown();
+		try {
+			background.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+
+		lock.writeLock().lock();
+		try {
+			for (SSTable t: tables) {
+				t.close();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+		unlock();
+	}
+
+	/**
+	 * Releases the lock on the directory.
+	 */
+	private void unlock() {
+		try {
+			directoryLock.release();
+			lockFile.close();
+		} catch (IOException ioe) {
+			System.err.println("ERROR: The lock on " + directory + " could not be released: " + ioe.getMessage());
+		} finally {
+			LOCKED.remove(lockPath);
+		}
+	}
+
+	/**
+	 * Freezes the full memtable and has the background thread flush it. Called while holding the write lock.
+	 */
+	private void freezeMemtable() throws IOException {
+		while (immutable != null) { //the previous memtable is still being flushed.
+			if (backgroundError != null)
+				throw new IOException("The memtable could not be flushed: " + backgroundError.getMessage(), backgroundError);
+			try {
+				writeLock.wait();
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the memtable to be flushed.");
+			}
+		}
+
+		final ConcurrentSkipListMap<String, byte[]> frozen = memtable;
+		final WriteAheadLog frozenLog = log;
+		WriteAheadLog next = new WriteAheadLog(newFile(LOG_SUFFIX), sync);
+		lock.writeLock().lock();
+		try {
+			immutable = frozen;
+			memtable = new ConcurrentSkipListMap<String, byte[]>();
+			log = next;
+			memtableSize = 0;
+		} finally {
+			lock.writeLock().unlock();
+		}
+		frozenLog.close();
+
+		background.execute(new Runnable() {
+			public void run() {
+				flush(frozen, frozenLog);
+			}
+		});
+	}
+
+	/**
+	 * Writes the frozen memtable to a new table, then deletes its log. Runs on the background thread.
+	 */
+	private void flush(ConcurrentSkipListMap<String, byte[]> frozen, WriteAheadLog frozenLog) {
+		try {
+			SSTable t = SSTable.write(newFile(TABLE_SUFFIX), frozen.entrySet().iterator(), frozen.size());
+
+			lock.writeLock().lock();
+			try {
+				ArrayList<SSTable> withFlushed = new ArrayList<SSTable>(tables);
+				withFlushed.add(0, t);
+				tables = withFlushed;
+				immutable = null;
+			} finally {
+				lock.writeLock().unlock();
+			}
+			writeManifest();
+			if (!frozenLog.file.delete())
+				System.err.println("ERROR: The flushed log " + frozenLog.file + " could not be deleted.");
+			flushes.incrementAndGet();
+
+		} catch (IOException ioe) {
+			backgroundError = ioe;
+			System.err.println("ERROR: The memtable could not be flushed to a table in " + directory + ": " + ioe.getMessage());
+		} finally {
+			synchronized (writeLock) {
+				writeLock.notifyAll();
+			}
+		}
+
+		compact();
+	}
+
+	/**
+	 * Merges the newest tables while COMPACTION_TRIGGER of them are in the same tier. Runs on the background thread,
+	 * which is the only one changing the list of tables.
+	 */
+	private void compact() {
+		try {
+			while (true) {
+				List<SSTable> current = tables;
+				if (current.isEmpty())
+					return;
+
+				int tier = tier(current.get(0));
+				int n = 1;
+				while (n < current.size() && tier(current.get(n)) <= tier) {
+					n++;
+				}
+				if (n < COMPACTION_TRIGGER)
+					return;
+
+				List<SSTable> inputs = current.subList(0, n);
+				long expectedKeys = 0;
+				ArrayList<Iterator<Map.Entry<String, byte[]>>> sources = new ArrayList<Iterator<Map.Entry<String, byte[]>>>();
+				for (SSTable t: inputs) {
+					expectedKeys += t.count();
+					sources.add(t.iterator(""));
+				}
+				SSTable merged;
+				try {
+					merged = SSTable.write(newFile(TABLE_SUFFIX), new MergingIterator(sources, n == current.size()), expectedKeys);
+				} catch (UncheckedIOException e) {
+					throw e.getCause();
+				}
+
+				lock.writeLock().lock();
+				try {
+					ArrayList<SSTable> compacted = new ArrayList<SSTable>(tables.size() - n + 1);
+					compacted.add(merged);
+					compacted.addAll(tables.subList(n, tables.size()));
+					tables = compacted;
+					writeManifest();
+					for (SSTable t: inputs) {
+						t.delete(); //no read is running, they all hold the read lock.
+					}
+				} finally {
+					lock.writeLock().unlock();
+				}
+				compactions.incrementAndGet();
+			}
+		} catch (IOException ioe) {
+			System.err.println("ERROR: The tables in " + directory + " could not be compacted: " + ioe.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the size tier of a table: 0 up to memtableBytes, 1 up to COMPACTION_TRIGGER times that and so on.
+	 */
+	private int tier(SSTable t) {
+		int tier = 0;
+		for (long size = memtableBytes; t.length() > size && tier < 30; size *= COMPACTION_TRIGGER) {
+			tier++;
+		}
+		return tier;
+	}
+
+	/**
+	 * Replaces the manifest with the list of tables, newest first.
+	 */
+	private void writeManifest() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (SSTable t: tables) {
+			sb.append(t).append('\n');
+		}
+
+		File tmp = new File(directory, MANIFEST + SSTable.TMP_SUFFIX);
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), new File(directory, MANIFEST).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private File newFile(String suffix) {
+		return new File(directory, String.format("%010d", nextFileNumber.getAndIncrement()) + suffix);
+	}
+
+	/**
+	 * Writes an entry as stored in the logs and tables: the key in modified UTF-8, the length of the value or -1 for
+	 * a tombstone, and the value.
+	 */
+	static void writeEntry(DataOutput out, String key, byte[] value) throws IOException {
+		out.writeUTF(key);
+		if (value == TOMBSTONE) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(value.length);
+			out.write(value);
+		}
+	}
+
+	/**
+	 * Reads an entry written by writeEntry().
+	 */
+	static Map.Entry<String, byte[]> readEntry(DataInput in) throws IOException {
+		String key = in.readUTF();
+		return new AbstractMap.SimpleImmutableEntry<String, byte[]>(key, readValue(in));
+	}
+
+	/**
+	 * Reads the value of an entry, after its key.
+	 */
+	static byte[] readValue(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length == -1)
+			return TOMBSTONE;
+
+		byte[] value = new byte[length];
+		in.readFully(value);
+		return value;
+	}
+
+	/**
+	 * A set of puts and deletes written together (see write()).
+	 *
+	 * Not safe for use by several threads at once.
+	 */
+	public static class WriteBatch {
+
+		public void put(String key, byte[] value) {
+			entries.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(key, value));
+		}
+
+		public void delete(String key) {
+			entries.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(key, TOMBSTONE));
+		}
+
+		public boolean isEmpty() {
+			return entries.isEmpty();
+		}
+
+		private final ArrayList<Map.Entry<String, byte[]>> entries = new ArrayList<Map.Entry<String, byte[]>>();
+	}
+
+	/**
+	 * Receives the entries of scan().
+	 */
+	public interface Visitor {
+		/**
+		 * @return False to stop the scan.
+		 */
+		boolean visit(String key, byte[] value) throws IOException;
+	}
+
+	/**
+	 * Merges sorted sources, newest first, into one sorted iteration holding the newest value of each key.
+	 */
+	private static class MergingIterator implements Iterator<Map.Entry<String, byte[]>> {
+
+		/**
+		 * @param sources Sorted by key, newest source first.
+		 * @param dropTombstones True to leave out deleted keys.
+		 */
+		MergingIterator(List<Iterator<Map.Entry<String, byte[]>>> sources, boolean dropTombstones) {
+			this.dropTombstones = dropTombstones;
+			for (int i = 0; i < sources.size(); i++) {
+				Head h = new Head(sources.get(i), i);
+				if (h.advance())
+					heads.add(h);
+			}
+		}
+
+		public boolean hasNext() {
+			while (next == null && !heads.isEmpty()) {
+				Head h = heads.poll();
+				Map.Entry<String, byte[]> e = h.entry;
+				if (h.advance())
+					heads.add(h);
+
+				if (e.getKey().equals(lastKey))
+					continue; //an older value of the key just returned.
+				lastKey = e.getKey();
+				if (!dropTombstones || e.getValue() != TOMBSTONE)
+					next = e;
+			}
+			return next != null;
+		}
+
+		public Map.Entry<String, byte[]> next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			Map.Entry<String, byte[]> e = next;
+			next = null;
+			return e;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		private final boolean dropTombstones;
+		private final PriorityQueue<Head> heads = new PriorityQueue<Head>();
+		private Map.Entry<String, byte[]> next;
+		private String lastKey;
+	}
+
+	/**
+	 * The next entry of a source of MergingIterator. Orders by key, then newest source first.
+	 */
+	private static class Head implements Comparable<Head> {
+
+		Head(Iterator<Map.Entry<String, byte[]>> source, int age) {
+			this.source = source;
+			this.age = age;
+		}
+
+		boolean advance() {
+			entry = source.hasNext() ? source.next() : null;
+			return entry != null;
+		}
+
+		public int compareTo(Head h) {
+			int c = entry.getKey().compareTo(h.entry.getKey());
+			return c != 0 ? c : Integer.compare(age, h.age);
+		}
+
+		private final Iterator<Map.Entry<String, byte[]>> source;
+		private final int age;
+		private Map.Entry<String, byte[]> entry;
+	}
+
+	/**
+	 * The value of a deleted key, told apart by identity.
+	 */
+	static final byte[] TOMBSTONE = new byte[0];
+
+	/**
+	 * The newest tables are merged once this many are in the same size tier.
+	 */
+	static final int COMPACTION_TRIGGER = 4;
+
+	static final String TABLE_SUFFIX = ".sst";
+	static final String LOG_SUFFIX = ".log";
+	static final String MANIFEST = "MANIFEST";
+	static final String LOCK = "LOCK";
+
+	/**
+	 * Approximate bytes of memory taken by a memtable entry besides its key and value.
+	 */
+	private static final int ENTRY_OVERHEAD = 64;
+
+	private static final AtomicLong THREADS = new AtomicLong();
+
+	/**
+	 * The canonical paths of the directories of the trees open in this program.
+	 */
+	private static final Set<String> LOCKED = Collections.synchronizedSet(new HashSet<String>());
+
+	private final File directory;
+	private final long memtableBytes;
+	private final boolean sync;
+	private final ExecutorService background;
+	private final FileChannel lockFile;
+	private final FileLock directoryLock; //held while the tree is open.
+	private final String lockPath; //in LOCKED while the tree is open.
+
+	/**
+	 * Held to read the memtables and tables, and to replace them. Reads share it; the memtable being frozen or a
+	 * table list being replaced takes it alone.
+	 */
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Held to write: orders the batches in the log and the memtable.
+	 */
+	private final Object writeLock = new Object();
+
+	private volatile ConcurrentSkipListMap<String, byte[]> memtable = new ConcurrentSkipListMap<String, byte[]>();
+	private volatile ConcurrentSkipListMap<String, byte[]> immutable; //the frozen memtable being flushed, or null.
+	private volatile List<SSTable> tables; //newest first, never changed once published.
+	private WriteAheadLog log; //of the memtable, null once closed.
+	private long memtableSize;
+	private volatile IOException backgroundError;
+
+	private final AtomicLong nextFileNumber = new AtomicLong();
+	private final AtomicLong gets = new AtomicLong();
+	private final AtomicLong scans = new AtomicLong();
+	private final AtomicLong writes = new AtomicLong();
+	private final AtomicLong bloomSkips = new AtomicLong();
+	private final AtomicLong flushes = new AtomicLong();
+	private final AtomicLong compactions = new AtomicLong();
+}
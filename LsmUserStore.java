@@ -0,0 +1,141 @@
+//package twoogle;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the users in an LsmTree, each under the key "u" + username, so they are listed alphabetically by a scan. See
+ * LsmStorage.
+ *
+ * Safe for use by several threads at once.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class LsmUserStore implements UserStore {
+
+	LsmUserStore(LsmTree tree) {
+		this.tree = tree;
+	}
+
+	public User find(String username) throws SQLException {
+		try {
+			byte[] b = tree.get(USER + username);
+			return b == null ? null : readUser(b);
+		} catch (IOException ioe) {
+			throw LsmStorage.sqlException(ioe);
+		}
+	}
+
+	/**
+	 * Synchronized so two users can not register the same username at once.
+	 */
+	public synchronized boolean insert(User u) throws SQLException {
+		try {
+			if (tree.get(USER + u.username) != null)
+				return false;
+
+			LsmTree.WriteBatch batch = new LsmTree.WriteBatch();
+			batch.put(USER + u.username, userBytes(u));
+			tree.write(batch);
+			return true;
+		} catch (IOException ioe) {
+			throw LsmStorage.sqlException(ioe);
+		}
+	}
+
+	public synchronized void updateProfile(User u) throws SQLException {
+		try {
+			byte[] b = tree.get(USER + u.username);
+			if (b == null)
+				return; //like an update of no row.
+
+			User stored = readUser(b);
+			stored.hasProfile = u.hasProfile;
+			stored.profileVisible = u.profileVisible;
+			stored.gender = u.gender;
+			stored.birthDate = u.birthDate;
+			stored.email = u.email;
+			stored.aboutMeMessage = u.aboutMeMessage;
+
+			LsmTree.WriteBatch batch = new LsmTree.WriteBatch();
+			batch.put(USER + u.username, userBytes(stored));
+			tree.write(batch);
+		} catch (IOException ioe) {
+			throw LsmStorage.sqlException(ioe);
+		}
+	}
+
+	public List<String> usernames(String after, int limit) throws SQLException {
+		return scanUsernames(USER + after + LsmStorage.SEPARATOR, limit);
+	}
+
+	public List<String> allUsernames() throws SQLException {
+		return scanUsernames(USER, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns up to limit usernames from a key on, alphabetically.
+	 */
+	private List<String> scanUsernames(String from, final int limit) throws SQLException {
+		final ArrayList<String> usernames = new ArrayList<String>();
+		if (limit <= 0)
+			return usernames;
+
+		try {
+			tree.scan(from, LsmStorage.end(USER), new LsmTree.Visitor() {
+				public boolean visit(String key, byte[] value) {
+					usernames.add(key.substring(USER.length()));
+					return usernames.size() < limit;
+				}
+			});
+		} catch (IOException ioe) {
+			throw LsmStorage.sqlException(ioe);
+		}
+		return usernames;
+	}
+
+	private static byte[] userBytes(User u) throws IOException {
+		ByteArrayOutputStream b = new ByteArrayOutputStream(128);
+		DataOutputStream out = new DataOutputStream(b);
+		out.writeByte(FORMAT);
+		out.writeUTF(u.username);
+		LsmStorage.writeNullable(out, u.password);
+		out.writeInt(u.hasProfile);
+		out.writeInt(u.profileVisible);
+		LsmStorage.writeNullable(out, u.gender);
+		LsmStorage.writeNullable(out, u.birthDate);
+		LsmStorage.writeNullable(out, u.email);
+		LsmStorage.writeNullable(out, u.aboutMeMessage);
+		return b.toByteArray();
+	}
+
+	private static User readUser(byte[] b) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(b));
+		if (in.readByte() != FORMAT)
+			throw new IOException("A user is stored in an unknown format.");
+
+		User u = new User(in.readUTF(), LsmStorage.readNullable(in));
+		u.hasProfile = in.readInt();
+		u.profileVisible = in.readInt();
+		u.gender = LsmStorage.readNullable(in);
+		u.birthDate = LsmStorage.readNullable(in);
+		u.email = LsmStorage.readNullable(in);
+		u.aboutMeMessage = LsmStorage.readNullable(in);
+		return u;
+	}
+
+	private static final String USER = "u";
+
+	/**
+	 * Version of the format users are stored in.
+	 */
+	private static final byte FORMAT = 1;
+
+	private final LsmTree tree;
+}
@@ -0,0 +1,380 @@
+//package twoogle;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Keeps the messages in memory only, in lists sorted oldest first by timestamp and id: one per author, per user
+ * replied to, per thread and per tag, and one of all messages. A page is found with a binary search for its cursor
+ * and read backwards from there, so like a page of DerbyMessageStore it takes the same time however far back it is.
+ * See MemoryStorage.
+ *
+ * Home timelines are not copied. A page of one is merged from the messages of the users the owner is subscribed to
+ * (see MemorySubscriptionStore), so it holds all of their messages rather than only the most recent
+ * MessageService.TIMELINE_BACKFILL_LIMIT ones posted before the subscription.
+ *
+ * The messages handed out are the ones stored, whose replyCount grows as replies are posted. Callers must not
+ * change them.
+ *
+ * Safe for use by several threads at once.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class MemoryMessageStore implements MessageStore {
+
+	/**
+	 * @param subscriptions The subscriptions the home timelines are read from.
+	 */
+	MemoryMessageStore(SubscriptionStore subscriptions) {
+		this.subscriptions = subscriptions;
+	}
+
+	public synchronized void insert(List<Message> batch) {
+		for (Message m: batch) {
+			Message stored = copy(m);
+
+			add(all, stored);
+			add(byAuthor, stored.username, stored);
+			if (stored.isReply)
+				add(byRepliedTo, stored.repliedToUsername, stored);
+			add(byThread, stored.threadId, stored);
+			if (!byId.containsKey(stored.id))
+				byId.put(stored.id, stored);
+			byKey.put(key(stored.id, stored.username), stored);
+
+			if (stored.parentId != null) {
+				Message parent = byKey.get(key(stored.parentId, stored.repliedToUsername));
+				if (parent != null)
+					parent.replyCount++;
+			}
+
+			//Only public messages are listed by tag and counted, like in TABLE_MESSAGE_TAGS and TABLE_TAG_COUNTS.
+			if (m.tags != null && m.isPrivate == 0) {
+				for (String tag: m.tags) {
+					add(byTag, tag, stored);
+					Integer uses = tagCounts.get(tag);
+					tagCounts.put(tag, uses == null ? 1 : uses + 1);
+				}
+			}
+		}
+	}
+
+	public synchronized List<Message> userMessages(String username, boolean includePrivate, String cursor, int limit) {
+		return older(byAuthor.get(username), cursor, limit, includePrivate ? null : PUBLIC);
+	}
+
+	public synchronized List<Message> userMessagesSince(String username, boolean includePrivate, String since, int limit) {
+		return newer(byAuthor.get(username), since, limit, includePrivate ? null : PUBLIC);
+	}
+
+	public synchronized List<Message> replies(String username, String cursor, int limit) {
+		return older(byRepliedTo.get(username), cursor, limit, null);
+	}
+
+	public synchronized List<Message> repliesSince(String username, String since, int limit) {
+		return newer(byRepliedTo.get(username), since, limit, null);
+	}
+
+	/**
+	 * Merges the pages of the users the owner is subscribed to, private messages included.
+	 */
+	public synchronized List<Message> homeTimeline(String owner, String cursor, int limit) throws SQLException {
+		ArrayList<Message> merged = new ArrayList<Message>();
+		for (String username: subscriptions.subscribedTo(owner)) {
+			merged.addAll(older(byAuthor.get(username), cursor, limit, null));
+		}
+		return newest(merged, limit);
+	}
+
+	public synchronized List<Message> homeTimelineSince(String owner, String since, int limit) throws SQLException {
+		ArrayList<Message> merged = new ArrayList<Message>();
+		for (String username: subscriptions.subscribedTo(owner)) {
+			merged.addAll(newer(byAuthor.get(username), since, limit, null));
+		}
+		return newest(merged, limit);
+	}
+
+	public synchronized List<Message> taggedMessages(String tag, String cursor, int limit) {
+		return older(byTag.get(tag), cursor, limit, null);
+	}
+
+	/**
+	 * Scans all messages for the words, which so also match inside longer words, like DerbyMessageStore.search().
+	 */
+	public synchronized List<Message> search(final String viewer, final List<String> words, String cursor, int limit) {
+		return older(all, cursor, limit, new Filter() {
+			public boolean accept(Message m) {
+				if (m.isPrivate != 0 && !m.username.equals(viewer))
+					return false;
+
+				String contents = m.contents.toLowerCase(Locale.ROOT);
+				for (String word: words) {
+					if (!contents.contains(word))
+						return false;
+				}
+				return true;
+			}
+		});
+	}
+
+	public synchronized List<Message> thread(String id, String viewer) {
+		ArrayList<Message> r = new ArrayList<Message>();
+		Message m = byId.get(id);
+		if (m == null)
+			return r;
+
+		for (Message reply: byThread.get(m.threadId)) {
+			if (r.size() == MessageService.MAX_THREAD_MESSAGES)
+				break;
+			if (reply.isPrivate == 0 || reply.username.equals(viewer))
+				r.add(reply);
+		}
+		return r;
+	}
+
+	public synchronized Message latestMessage(String username) {
+		ArrayList<Message> messages = byAuthor.get(username);
+		return messages == null ? null : messages.get(messages.size() - 1);
+	}
+
+	public synchronized List<Message> allMessages() {
+		return new ArrayList<Message>(all);
+	}
+
+	public synchronized List<Map.Entry<String, Integer>> tagCounts() {
+		ArrayList<Map.Entry<String, Integer>> r = new ArrayList<Map.Entry<String, Integer>>(tagCounts.size());
+		for (Map.Entry<String, Integer> e: tagCounts.entrySet()) {
+			r.add(new AbstractMap.SimpleImmutableEntry<String, Integer>(e));
+		}
+		return r;
+	}
+
+	public synchronized List<Map.Entry<String, Integer>> topTags(int limit) {
+		return mostUsed(tagCounts(), limit);
+	}
+
+	/**
+	 * Counts the messages after the time in the list of each tag.
+	 */
+	public synchronized List<Map.Entry<String, Integer>> trendingTags(long since, int limit) {
+		Timestamp t = new Timestamp(since);
+		ArrayList<Map.Entry<String, Integer>> counts = new ArrayList<Map.Entry<String, Integer>>();
+		for (Map.Entry<String, ArrayList<Message>> e: byTag.entrySet()) {
+			ArrayList<Message> messages = e.getValue();
+			int uses = messages.size() - firstAfter(messages, t);
+			if (uses > 0)
+				counts.add(new AbstractMap.SimpleImmutableEntry<String, Integer>(e.getKey(), uses));
+		}
+		return mostUsed(counts, limit);
+	}
+
+	public synchronized List<Map.Entry<String, Long>> tagUsesSince(long since) {
+		Timestamp t = new Timestamp(since);
+		ArrayList<Map.Entry<String, Long>> uses = new ArrayList<Map.Entry<String, Long>>();
+		for (Map.Entry<String, ArrayList<Message>> e: byTag.entrySet()) {
+			ArrayList<Message> messages = e.getValue();
+			for (int i = firstAfter(messages, t); i < messages.size(); i++) {
+				uses.add(new AbstractMap.SimpleImmutableEntry<String, Long>(e.getKey(), messages.get(i).timestamp.getTime()));
+			}
+		}
+		return uses;
+	}
+
+	public synchronized void rebuildTagCounts() {
+		tagCounts.clear();
+		for (Map.Entry<String, ArrayList<Message>> e: byTag.entrySet()) {
+			tagCounts.put(e.getKey(), e.getValue().size());
+		}
+	}
+
+	synchronized int size() {
+		return all.size();
+	}
+
+	/**
+	 * Returns up to limit messages of a list older than a cursor, newest first.
+	 *
+	 * @param messages Oldest first, or null for none.
+	 * @param filter Which messages to return, or null for all.
+	 */
+	private static List<Message> older(List<Message> messages, String cursor, int limit, Filter filter) {
+		ArrayList<Message> r = new ArrayList<Message>(Math.min(Math.max(limit, 0), MessageService.PAGE_SIZE + 1));
+		if (messages == null)
+			return r;
+
+		Timestamp t = Page.cursorTimestamp(cursor);
+		String id = Page.cursorMessageId(cursor);
+		for (int i = firstNotBefore(messages, t, id) - 1; i >= 0 && r.size() < limit; i--) {
+			Message m = messages.get(i);
+			if (filter == null || filter.accept(m))
+				r.add(m);
+		}
+		return r;
+	}
+
+	/**
+	 * Returns the newest messages of a list, up to limit, that are newer than a cursor, newest first.
+	 *
+	 * @param messages Oldest first, or null for none.
+	 * @param since The cursor, or null to return the newest messages.
+	 * @param filter Which messages to return, or null for all.
+	 */
+	private static List<Message> newer(List<Message> messages, String since, int limit, Filter filter) {
+		ArrayList<Message> r = new ArrayList<Message>();
+		if (messages == null)
+			return r;
+
+		Timestamp t = since == null ? new Timestamp(0) : Page.cursorTimestamp(since);
+		String id = since == null ? "" : Page.cursorMessageId(since);
+		for (int i = messages.size() - 1; i >= 0 && r.size() < limit; i--) {
+			Message m = messages.get(i);
+			if (compare(m, t, id) <= 0)
+				break;
+			if (filter == null || filter.accept(m))
+				r.add(m);
+		}
+		return r;
+	}
+
+	/**
+	 * Returns the limit newest of the passed messages, newest first.
+	 */
+	static List<Message> newest(ArrayList<Message> messages, int limit) {
+		Collections.sort(messages, NEWEST_FIRST);
+		return messages.size() > limit ? new ArrayList<Message>(messages.subList(0, Math.max(0, limit))) : messages;
+	}
+
+	/**
+	 * Returns the index of the first message of a list, oldest first, that is not older than (t, id).
+	 */
+	private static int firstNotBefore(List<Message> messages, Timestamp t, String id) {
+		int low = 0, high = messages.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compare(messages.get(mid), t, id) < 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the index of the first message of a list, oldest first, posted after a time.
+	 */
+	private static int firstAfter(List<Message> messages, Timestamp t) {
+		int low = 0, high = messages.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (!messages.get(mid).timestamp.after(t))
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Compares a message to the position (t, id) in the order of the lists.
+	 */
+	private static int compare(Message m, Timestamp t, String id) {
+		int c = m.timestamp.compareTo(t);
+		return c != 0 ? c : m.id.compareTo(id);
+	}
+
+	/**
+	 * Adds a message to a list, oldest first. New messages are usually the newest, so the place is searched from the end.
+	 */
+	private static void add(ArrayList<Message> messages, Message m) {
+		int i = messages.size();
+		while (i > 0 && compare(messages.get(i - 1), m.timestamp, m.id) > 0) {
+			i--;
+		}
+		messages.add(i, m);
+	}
+
+	private static void add(HashMap<String, ArrayList<Message>> lists, String key, Message m) {
+		ArrayList<Message> messages = lists.get(key);
+		if (messages == null) {
+			messages = new ArrayList<Message>();
+			lists.put(key, messages);
+		}
+		add(messages, m);
+	}
+
+	/**
+	 * Sorts tag counts most used first, ties alphabetically, and returns the first limit.
+	 */
+	static List<Map.Entry<String, Integer>> mostUsed(List<Map.Entry<String, Integer>> counts, int limit) {
+		Collections.sort(counts, MOST_USED_FIRST);
+		return counts.size() > limit ? new ArrayList<Map.Entry<String, Integer>>(counts.subList(0, Math.max(0, limit))) : counts;
+	}
+
+	/**
+	 * Returns a copy of a new message as read back from a database, ie without its list of tags.
+	 */
+	static Message copy(Message m) {
+		Message c = new Message();
+		c.id = m.id;
+		c.timestamp = m.timestamp;
+		c.username = m.username;
+		c.tag = m.tag;
+		c.isReply = m.isReply;
+		c.repliedToUsername = m.repliedToUsername;
+		c.contents = m.contents;
+		c.isPrivate = m.isPrivate;
+		c.parentId = m.parentId;
+		c.threadId = m.threadId;
+		c.replyCount = m.replyCount;
+		return c;
+	}
+
+	private static String key(String id, String username) {
+		return id + ' ' + username;
+	}
+
+	/**
+	 * Chooses the messages of a list to return.
+	 */
+	private interface Filter {
+		boolean accept(Message m);
+	}
+
+	private static final Filter PUBLIC = new Filter() {
+		public boolean accept(Message m) {
+			return m.isPrivate == 0;
+		}
+	};
+
+	private static final Comparator<Message> NEWEST_FIRST = new Comparator<Message>() {
+		public int compare(Message a, Message b) {
+			return -MemoryMessageStore.compare(a, b.timestamp, b.id);
+		}
+	};
+
+	private static final Comparator<Map.Entry<String, Integer>> MOST_USED_FIRST = new Comparator<Map.Entry<String, Integer>>() {
+		public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+			int c = b.getValue().compareTo(a.getValue());
+			return c != 0 ? c : a.getKey().compareTo(b.getKey());
+		}
+	};
+
+	private final SubscriptionStore subscriptions;
+
+	private final ArrayList<Message> all = new ArrayList<Message>();
+	private final HashMap<String, ArrayList<Message>> byAuthor = new HashMap<String, ArrayList<Message>>();
+	private final HashMap<String, ArrayList<Message>> byRepliedTo = new HashMap<String, ArrayList<Message>>();
+	private final HashMap<String, ArrayList<Message>> byThread = new HashMap<String, ArrayList<Message>>();
+	private final HashMap<String, ArrayList<Message>> byTag = new HashMap<String, ArrayList<Message>>(); //public messages only.
+	private final HashMap<String, Message> byId = new HashMap<String, Message>(); //the first message with each id.
+	private final HashMap<String, Message> byKey = new HashMap<String, Message>(); //by key(id, author), for the parents of replies.
+	private final HashMap<String, Integer> tagCounts = new HashMap<String, Integer>(); //public messages by tag.
+}
@@ -0,0 +1,41 @@
+//package twoogle;
+
+/**
+ * Keeps the Message Service's data in the memory of this program only, ie for load tests without disk I/O or to try
+ * the Message Service out ("MessageService connectmode=memory"). Nothing is saved: the data is gone once the program
+ * exits.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class MemoryStorage implements Storage {
+
+	MemoryStorage() {
+		subscriptions = new MemorySubscriptionStore();
+		messages = new MemoryMessageStore(subscriptions);
+		users = new MemoryUserStore();
+	}
+
+	public MessageStore messages() {
+		return messages;
+	}
+
+	public UserStore users() {
+		return users;
+	}
+
+	public SubscriptionStore subscriptions() {
+		return subscriptions;
+	}
+
+	public String metrics() {
+		return "Memory storage: " + users.size() + " users, " + messages.size() + " messages, " + subscriptions.size() + " subscriptions\n" + subscriptions.metrics();
+	}
+
+	public void close() {
+		//nothing to close.
+	}
+
+	private final MemoryMessageStore messages;
+	private final MemoryUserStore users;
+	private final MemorySubscriptionStore subscriptions;
+}
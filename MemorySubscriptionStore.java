@@ -0,0 +1,53 @@
+//package twoogle;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the subscriptions in memory, in a SocialGraph: the usernames each user is subscribed to and is subscribed to
+ * by. See MemoryStorage.
+ *
+ * Safe for use by several threads at once.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class MemorySubscriptionStore implements SubscriptionStore {
+
+	/**
+	 * The subscribed to user's messages are in the subscriber's home timeline from then on, since
+	 * MemoryMessageStore reads the home timelines from the subscriptions.
+	 */
+	public boolean subscribe(String username, String subscribeToUsername) {
+		return graph.add(username, subscribeToUsername);
+	}
+
+	public List<String> subscribedTo(String username) {
+		return graph.following(username);
+	}
+
+	public int subscribedToCount(String username) {
+		return graph.followingCount(username);
+	}
+
+	public int subscriberCount(String username) {
+		return graph.followerCount(username);
+	}
+
+	public List<Map.Entry<String, String>> allSubscriptions() {
+		return graph.subscriptions();
+	}
+
+	SocialGraph graph() {
+		return graph;
+	}
+
+	int size() {
+		return graph.size();
+	}
+
+	String metrics() {
+		return graph.metrics();
+	}
+
+	private final SocialGraph graph = new SocialGraph();
+}
@@ -0,0 +1,63 @@
+//package twoogle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Keeps the users in memory, sorted by username. See MemoryStorage.
+ *
+ * Holds copies: find() returns a new copy and insert() stores one, like the UserCache, so callers can change the
+ * users they are handed.
+ *
+ * Safe for use by several threads at once.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class MemoryUserStore implements UserStore {
+
+	public synchronized User find(String username) {
+		User u = users.get(username);
+		return u == null ? null : new User(u);
+	}
+
+	public synchronized boolean insert(User u) {
+		if (users.containsKey(u.username))
+			return false;
+		users.put(u.username, new User(u));
+		return true;
+	}
+
+	public synchronized void updateProfile(User u) {
+		User stored = users.get(u.username);
+		if (stored == null)
+			return; //like an update of no row.
+
+		stored.hasProfile = u.hasProfile;
+		stored.profileVisible = u.profileVisible;
+		stored.gender = u.gender;
+		stored.birthDate = u.birthDate;
+		stored.email = u.email;
+		stored.aboutMeMessage = u.aboutMeMessage;
+	}
+
+	public synchronized List<String> usernames(String after, int limit) {
+		ArrayList<String> usernames = new ArrayList<String>(limit);
+		for (String username: users.tailMap(after, false).keySet()) {
+			if (usernames.size() == limit)
+				break;
+			usernames.add(username);
+		}
+		return usernames;
+	}
+
+	public synchronized List<String> allUsernames() {
+		return new ArrayList<String>(users.keySet());
+	}
+
+	synchronized int size() {
+		return users.size();
+	}
+
+	private final TreeMap<String, User> users = new TreeMap<String, User>();
+}
@@ -15,10 +15,14 @@ public class Message
 		timestamp = null;
 		username = null;
 		tag = null;
+		tags = null;
 		isReply = false;
 		repliedToUsername = null;
 		contents = null;
 		isPrivate = 0;
+		parentId = null;
+		threadId = null;
+		replyCount = 0;
 	}
 	
 	/**
@@ -107,4 +111,13 @@ public class Message
 	protected String repliedToUsername;
 	protected String contents;
 	protected int isPrivate;	
+	protected String parentId;
+	protected String threadId;
+	protected int replyCount;
+
+	/**
+	 * Every #tag of a new message: the leading tag (see tag) followed by the tags in its contents, each once. Stored
+	 * in MessageService.TABLE_MESSAGE_TAGS rather than as a column, so it is null for messages read from the database.
+	 */
+	protected java.util.List<String> tags;
 }
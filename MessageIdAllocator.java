@@ -0,0 +1,87 @@
+//package twoogle;
+
+import java.security.SecureRandom;
+
+/**
+ * Issues unique, time ordered 64 bit message numbers without reading the database. Message ids keep the
+ * username_N form, ie "david_5864412739584000", where N is a number from this allocator.
+ *
+ * Each number is made up of (from the highest bit to the lowest):
+ * 		41 bits	milliseconds since EPOCH_MILLIS (good for about 69 years)
+ * 		10 bits	node id of the program that issued it (0 - 1023)
+ * 		12 bits	counter for numbers issued within the same millisecond (0 - 4095)
+ *
+ * Two programs using the same database in client mode must use different node ids (see the nodeid command-line
+ * parameter of the MessageService), otherwise they can issue the same number in the same millisecond. Numbers
+ * issued before migrating to this scheme came from the messagecount column and are far smaller, so they can not
+ * collide with these.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class MessageIdAllocator {
+
+	/**
+	 * @param nodeId Id of this program amongst all programs sharing the database, 0 - MAX_NODE_ID.
+	 */
+	MessageIdAllocator(int nodeId) {
+		if (nodeId < 0 || nodeId > MAX_NODE_ID)
+			throw new IllegalArgumentException("The node id must be between 0 and " + MAX_NODE_ID + ": " + nodeId);
+
+		this.nodeId = nodeId;
+	}
+
+	/**
+	 * Creates an allocator with a random node id. Good enough in embedded mode, where this program is the only one
+	 * using the database.
+	 */
+	MessageIdAllocator() {
+		this(new SecureRandom().nextInt(MAX_NODE_ID + 1));
+	}
+
+	/**
+	 * Returns the next message number. Numbers issued by one allocator always increase, even if the system clock
+	 * is turned back.
+	 */
+	public synchronized long nextId() {
+		long now = System.currentTimeMillis();
+
+		if (now > lastMillis) {
+			lastMillis = now;
+			sequence = 0;
+		} else { //same millisecond, or the clock was turned back: keep counting from the last millisecond used.
+			sequence = (sequence + 1) & MAX_SEQUENCE;
+			if (sequence == 0) //used up this millisecond, borrow the next one.
+				lastMillis++;
+		}
+
+		return ((lastMillis - EPOCH_MILLIS) << (NODE_BITS + SEQUENCE_BITS)) | ((long) nodeId << SEQUENCE_BITS) | sequence;
+	}
+
+	/**
+	 * Returns the display form of a message id, ie "david_5864412739584000".
+	 *
+	 * @param username Author of the message.
+	 * @param id Number from nextId().
+	 */
+	public static String displayId(String username, long id) {
+		return username + "_" + id;
+	}
+
+	private final int nodeId;
+	private long lastMillis = -1;
+	private int sequence;
+
+	private static final int NODE_BITS = 10;
+	private static final int SEQUENCE_BITS = 12;
+	private static final int MAX_SEQUENCE = (1 << SEQUENCE_BITS) - 1;
+
+	/**
+	 * Largest node id that can be passed to the constructor.
+	 */
+	public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+
+	/**
+	 * Start of the timestamp part of the message numbers: 2013-01-01 00:00:00 UTC.
+	 */
+	public static final long EPOCH_MILLIS = 1356998400000L;
+}
@@ -0,0 +1,167 @@
+//package twoogle;
+
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Asynchronous message ingestion for bots and importers that post many messages. Messages submitted with submit()
+ * are parsed right away and queued; a background thread takes them off the queue and commits them in groups of up
+ * to maxBatch messages (see MessageService.commitMessages()), so the cost of a commit is shared by the whole group.
+ *
+ * A group is committed once it is full or once its first message has waited lingerMillis, whichever comes first.
+ * A longer linger makes bigger groups under light load at the cost of latency. The queue holds at most capacity
+ * messages; submit() waits for room when it is full, which slows producers down to the rate the database can take.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class MessageIngestor {
+
+	/**
+	 * Starts the background thread.
+	 *
+	 * @param service The Message Service the messages are posted through.
+	 * @param maxBatch The maximum number of messages committed together.
+	 * @param lingerMillis How long the first message of a group waits for more messages.
+	 * @param capacity The maximum number of messages waiting in the queue.
+	 */
+	MessageIngestor(MessageService service, int maxBatch, long lingerMillis, int capacity) {
+		if (maxBatch < 1)
+			throw new IllegalArgumentException("The batch size must be at least 1: " + maxBatch);
+
+		this.service = service;
+		this.maxBatch = maxBatch;
+		this.lingerMillis = lingerMillis;
+		queue = new LinkedBlockingQueue<Message>(capacity);
+
+		worker = new Thread(new Runnable() {
+			public void run() {
+				ingest();
+			}
+		}, "MessageIngestor");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Queues a message to be posted.
+	 *
+	 * @param author Username of the author, who must be registered (or the guest user).
+	 * @param message The message, ie "@david #movies *private I saw the greatest movie yesterday!"
+	 * @return False if the ingestor has been closed or the message is too long, and the message was not queued.
+	 */
+	public boolean submit(String author, String message) {
+		if (closed)
+			return false;
+
+		Message m = service.newMessage(author, message);
+		if (m == null)
+			return false;
+
+		//Queue under the read lock so close() can not run between the check of closed and the queueing, which would
+		//leave the message queued after the background thread has finished. The wait for room is timed, so close() is
+		//not held up by a full queue.
+		try {
+			while (true) {
+				closeLock.readLock().lock();
+				try {
+					if (closed || !worker.isAlive())
+						return false;
+					if (queue.offer(m, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+						submitted.incrementAndGet();
+						return true;
+					}
+				} finally {
+					closeLock.readLock().unlock();
+				}
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Stops accepting messages, commits the ones still queued and waits for the background thread to finish.
+	 */
+	public void close() {
+		closeLock.writeLock().lock();
+		try {
+			closed = true;
+		} finally {
+			closeLock.writeLock().unlock();
+		}
+
+		try {
+			worker.join();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns the ingestion statistics as a formatted string.
+	 */
+	public String metrics() {
+		long b = batches.get();
+		return "Message ingestor: " + queue.size() + " queued | submitted " + submitted.get() + ", posted " + posted.get() + ", failed " + failed.get()
+				+ " | " + b + " commits, average " + (b == 0 ? 0 : (posted.get() + failed.get()) / b) + " messages per commit";
+	}
+
+	/**
+	 * Body of the background thread: gathers groups of messages and commits them until closed and drained.
+	 */
+	private void ingest() {
+		ArrayList<Message> batch = new ArrayList<Message>(maxBatch);
+
+		try {
+			while (!closed || !queue.isEmpty()) {
+				Message first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS); //wake up now and then to notice close().
+				if (first == null)
+					continue;
+				batch.add(first);
+
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+				while (batch.size() < maxBatch) {
+					queue.drainTo(batch, maxBatch - batch.size());
+					long wait = deadline - System.nanoTime();
+					if (batch.size() >= maxBatch || wait <= 0 || closed)
+						break;
+
+					Message next = queue.poll(wait, TimeUnit.NANOSECONDS);
+					if (next != null)
+						batch.add(next);
+				}
+
+				int n = service.commitMessages(batch);
+				posted.addAndGet(n);
+				failed.addAndGet(batch.size() - n);
+				batches.incrementAndGet();
+				batch.clear();
+			}
+		} catch (InterruptedException ie) {
+			System.err.println("DEBUG: The message ingestor was interrupted with " + (queue.size() + batch.size()) + " messages not posted.");
+		}
+	}
+
+	private final MessageService service;
+	private final int maxBatch;
+	private final long lingerMillis;
+	private final LinkedBlockingQueue<Message> queue;
+	private final Thread worker;
+	private volatile boolean closed = false;
+	private final ReentrantReadWriteLock closeLock = new ReentrantReadWriteLock(); //write locked by close() to set closed.
+
+	//statistics
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong posted = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+
+	/**
+	 * How often the background thread checks whether it has been closed while the queue is empty.
+	 */
+	private static final long POLL_MILLIS = 200;
+}
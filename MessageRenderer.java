@@ -0,0 +1,187 @@
+//package twoogle;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * Formats messages for display, one row per message:
+ *
+ * 		<author @repliedto>           "contents"                                                            [#tag]    (messageid) @timestamp
+ *
+ * The columns are padded to fixed widths by hand (the author column to 30 characters, contents to 70 and the tag
+ * to 10, never truncated) and rows are appended into one StringBuilder, so rendering a page takes time linear to
+ * its length. Each thread reuses its own StringBuilder, which keeps the garbage down to the returned String.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class MessageRenderer {
+
+	private MessageRenderer() {
+	}
+
+	/**
+	 * Returns the messages formatted one per row, in reverse order of the list. The view methods read the newest
+	 * messages first and show them oldest first.
+	 *
+	 * @param messages Messages as read from the database.
+	 */
+	public static String render(List<Message> messages) {
+		StringBuilder sb = BUFFER.get();
+		sb.setLength(0);
+
+		for (int i = messages.size() - 1; i >= 0; i--) {
+			appendRow(sb, messages.get(i));
+		}
+
+		String r = sb.toString();
+		if (sb.capacity() > MAX_RETAINED_CAPACITY) //do not hold on to the buffer of an unusually large page.
+			BUFFER.remove();
+		return r;
+	}
+
+	/**
+	 * Returns a thread formatted one message per row in reading order, each reply indented below the message it
+	 * answers. Indentation stops growing at MAX_INDENT_DEPTH so a long back and forth stays readable.
+	 */
+	public static String render(MessageThread thread) {
+		final StringBuilder sb = BUFFER.get();
+		sb.setLength(0);
+
+		thread.walk(new MessageThread.Visitor() {
+			public void visit(MessageThread.Node n, int depth) {
+				for (int i = Math.min(depth, MAX_INDENT_DEPTH); i > 0; i--) {
+					sb.append(INDENT);
+				}
+				appendRow(sb, n.message);
+			}
+		});
+
+		String r = sb.toString();
+		if (sb.capacity() > MAX_RETAINED_CAPACITY)
+			BUFFER.remove();
+		return r;
+	}
+
+	/**
+	 * Writes the messages formatted one per row, in reverse order of the list, to any Appendable, ie a Writer or a
+	 * PrintStream, without building the whole text first.
+	 *
+	 * @param messages Messages as read from the database.
+	 * @param out Where the rows are written.
+	 */
+	public static void render(List<Message> messages, Appendable out) throws IOException {
+		StringBuilder sb = BUFFER.get();
+
+		for (int i = messages.size() - 1; i >= 0; i--) {
+			sb.setLength(0);
+			appendRow(sb, messages.get(i));
+			out.append(sb);
+		}
+	}
+
+	/**
+	 * Appends one formatted message row, ending with a new line.
+	 */
+	public static void appendRow(StringBuilder sb, Message m) {
+		int start = sb.length();
+		sb.append('<').append(m.username).append(" @").append(m.repliedToUsername != null ? m.repliedToUsername : "nobody").append("> ");
+		pad(sb, start, AUTHOR_WIDTH);
+
+		start = sb.length();
+		sb.append('"').append(m.contents).append("\" ");
+		pad(sb, start, CONTENTS_WIDTH);
+
+		start = sb.length();
+		if (m.tag != null)
+			sb.append('[').append(m.tag).append("] ");
+		else
+			sb.append("[no tag] ");
+		pad(sb, start, TAG_WIDTH);
+
+		sb.append('(').append(m.id).append(") @");
+		appendTimestamp(sb, m.timestamp);
+		sb.append('\n');
+	}
+
+	/**
+	 * Appends spaces until the text appended since start is at least width characters long.
+	 */
+	private static void pad(StringBuilder sb, int start, int width) {
+		for (int n = sb.length() - start; n < width; n++) {
+			sb.append(' ');
+		}
+	}
+
+	/**
+	 * Appends a timestamp in the same form as Timestamp.toString(), ie 2013-04-21 15:03:09.25, without creating
+	 * any objects.
+	 */
+	@SuppressWarnings("deprecation")
+	static void appendTimestamp(StringBuilder sb, Timestamp t) {
+		if (t == null) {
+			sb.append("null");
+			return;
+		}
+
+		appendDigits(sb, t.getYear() + 1900, 4);
+		sb.append('-');
+		appendDigits(sb, t.getMonth() + 1, 2);
+		sb.append('-');
+		appendDigits(sb, t.getDate(), 2);
+		sb.append(' ');
+		appendDigits(sb, t.getHours(), 2);
+		sb.append(':');
+		appendDigits(sb, t.getMinutes(), 2);
+		sb.append(':');
+		appendDigits(sb, t.getSeconds(), 2);
+		sb.append('.');
+
+		int nanos = t.getNanos();
+		if (nanos == 0) {
+			sb.append('0');
+			return;
+		}
+		int digits = 9;
+		while (nanos % 10 == 0) { //drop trailing zeros.
+			nanos /= 10;
+			digits--;
+		}
+		appendDigits(sb, nanos, digits);
+	}
+
+	/**
+	 * Appends a non-negative number left padded with zeros to the given number of digits.
+	 */
+	private static void appendDigits(StringBuilder sb, int value, int digits) {
+		int start = sb.length();
+		sb.append(value);
+		for (int n = sb.length() - start; n < digits; n++) {
+			sb.insert(start, '0');
+		}
+	}
+
+	/**
+	 * Widths of the padded columns.
+	 */
+	private static final int AUTHOR_WIDTH = 30;
+	private static final int CONTENTS_WIDTH = 70;
+	private static final int TAG_WIDTH = 10;
+
+	/**
+	 * Indentation of a reply in a thread per level, and the deepest level indented.
+	 */
+	private static final String INDENT = "    ";
+	private static final int MAX_INDENT_DEPTH = 8;
+
+	/**
+	 * Buffers larger than this are not kept for reuse.
+	 */
+	private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+	private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+		protected StringBuilder initialValue() {
+			return new StringBuilder(4096);
+		}
+	};
+}
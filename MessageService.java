@@ -2,11 +2,14 @@
 
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.sql.*;
 import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.ListIterator;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 /**
@@ -26,6 +29,15 @@ import java.util.Scanner;
  * database: ie "MessageService debugmode=false connectmode=client". The Derby Network Server Service must be
  * running on the machine the database was created on (see below for instructions).
  *
+ * Passing "connectmode=server" serves the Message Service to many users at once as an HTTP/JSON API on an embedded
+ * database instead of showing the menu: ie "MessageService connectmode=server port=8080" (see ApiServer).
+ *
+ * Passing "connectmode=memory" keeps all data in memory instead of a database, ie for load tests without disk I/O.
+ * Nothing is saved once the program exits. Passing "connectmode=lsm" keeps it in an embedded log-structured merge
+ * tree instead, which posts and subscribes with one append to a log rather than a Derby transaction (see LsmStorage).
+ * The MessageService only reaches its data through the MessageStore, UserStore and SubscriptionStore interfaces, so
+ * any Storage can be plugged in (see DerbyStorage, MemoryStorage and LsmStorage).
+ *
  *
  * Starting MS in embedded mode: Just start MS and leave the program running. Users can choose to logon and off.
  * 
@@ -46,6 +58,15 @@ public class MessageService {
 
 	public static void main(String[] args) {
 		boolean isEmbedded = true;
+		boolean isMemory = false;
+		boolean isLsm = false;
+		int nodeId = -1; //-1 picks a random node id.
+		int poolSize = DEFAULT_POOL_SIZE;
+		int ingestMaxBatch = DEFAULT_INGEST_MAX_BATCH;
+		long ingestLingerMillis = DEFAULT_INGEST_LINGER_MILLIS;
+		boolean isServer = false;
+		int port = DEFAULT_SERVER_PORT;
+		int serverThreads = DEFAULT_SERVER_THREADS;
 
 		//We need to hide debugging errors if the system is not being run in debugging mode before we do anything.
 		for(String s: args) {
@@ -75,6 +96,57 @@ public class MessageService {
 					if (optionValue.equalsIgnoreCase("client")) {
 						isEmbedded = false;
 					}
+					else if (optionValue.equalsIgnoreCase("server")) { //serve the API on an embedded database, see ApiServer.
+						isServer = true;
+					}
+					else if (optionValue.equalsIgnoreCase("memory")) { //keep the data in memory only, see MemoryStorage.
+						isMemory = true;
+					}
+					else if (optionValue.equalsIgnoreCase("lsm")) { //keep the data in an embedded LSM tree, see LsmStorage.
+						isLsm = true;
+					}
+					break;
+				case "port": //port of the API server.
+					try {
+						port = Integer.parseInt(optionValue);
+					} catch (NumberFormatException ne) {
+						System.err.println("Ignoring the port parameter, it is not a number: " + optionValue);
+					}
+					break;
+				case "serverthreads": //request threads of the API server when virtual threads are not available.
+					try {
+						serverThreads = Integer.parseInt(optionValue);
+					} catch (NumberFormatException ne) {
+						System.err.println("Ignoring the serverthreads parameter, it is not a number: " + optionValue);
+					}
+					break;
+				case "poolsize": //maximum number of open database connections, see ConnectionPool.
+					try {
+						poolSize = Integer.parseInt(optionValue);
+					} catch (NumberFormatException ne) {
+						System.err.println("Ignoring the poolsize parameter, it is not a number: " + optionValue);
+					}
+					break;
+				case "ingestbatch": //maximum number of messages committed together, see MessageIngestor.
+					try {
+						ingestMaxBatch = Integer.parseInt(optionValue);
+					} catch (NumberFormatException ne) {
+						System.err.println("Ignoring the ingestbatch parameter, it is not a number: " + optionValue);
+					}
+					break;
+				case "ingestlinger": //milliseconds a message waits for others to be committed with, see MessageIngestor.
+					try {
+						ingestLingerMillis = Long.parseLong(optionValue);
+					} catch (NumberFormatException ne) {
+						System.err.println("Ignoring the ingestlinger parameter, it is not a number: " + optionValue);
+					}
+					break;
+				case "nodeid": //id of this program amongst all programs sharing the database, see MessageIdAllocator.
+					try {
+						nodeId = Integer.parseInt(optionValue);
+					} catch (NumberFormatException ne) {
+						System.err.println("Ignoring the nodeid parameter, it is not a number: " + optionValue);
+					}
 					break;
 				default:
 					//run with standard options, which means the program is running in embedded mode with errors 
@@ -83,7 +155,23 @@ public class MessageService {
 			}
 		}
 
-		MessageService m = new MessageService("c:\\temp\\dbMessageService", isEmbedded);
+		if (!isEmbedded && nodeId == -1)
+			System.err.println("WARNING: No nodeid parameter was given in client mode, a random one will be used. Give each client its own nodeid (0 - " + MessageIdAllocator.MAX_NODE_ID + ") to guarantee unique message ids.");
+
+		MessageService m;
+		if (isMemory)
+			m = new MessageService(new MemoryStorage(), true, nodeId);
+		else if (isLsm)
+			m = new MessageService(new LsmStorage("c:\\temp\\lsmMessageService"), true, nodeId);
+		else
+			m = new MessageService("c:\\temp\\dbMessageService", isEmbedded, nodeId, poolSize);
+		m.ingestMaxBatch = Math.max(1, ingestMaxBatch);
+		m.ingestLingerMillis = ingestLingerMillis;
+
+		if (isServer) {
+			m.serve(port, Math.max(1, serverThreads)); //runs until the program is stopped.
+			return;
+		}
 		m.run();
 
 		m.inputStream.close(); //close input stream.
@@ -94,71 +182,51 @@ public class MessageService {
 	 * Default Constructor 
 	 * Creates a database if necessary; otherwise, connects to said database and creates needed
 	 * 	tables if they don't already exists.
-	 *  Opens a statement connection for running sql commands on the database. Opens and compiles prepared
-	 *  statements for several regularly used sql commands such as posting messages.
+	 *  Opens a pool of connections to the database, which every method borrows from to run its sql commands.
 	 */
 	MessageService (String yourDatabase, boolean isEmbedded) {
+		this(yourDatabase, isEmbedded, -1, DEFAULT_POOL_SIZE);
+	}
 
-		this.isEmbedded = isEmbedded;
-		myUser = new User(); //start out as a guest user.
-		dbOpenStatements = new ArrayList<Statement>(); //track all open statements so they can be closed later.
-
-		try {
-
-			//Connect (and create if necessary) (to) the database in embedded or client/server model mode.
-			if (isEmbedded)
-				myConnection = DriverManager.getConnection(protocolEmbedded + yourDatabase + ";create=true");
-			else
-				myConnection = DriverManager.getConnection(protocolClient + yourDatabase + ";create=true");
-			System.err.println("DEBUG: We have connected to the database, which was created if needed: " + myConnection.toString());
-
-			//Open a statement connection for running sql commands on the database.
-			s = myConnection.createStatement(); //this is opening a resource and must be closed.
-			dbOpenStatements.add(s); //hence, why we add it to our open statements collection.
-
-
-			//Create tables if they don't already exists. A table is created for users, messages, and subscriptions.
-
-			//Table to store registered users and the system guest account.
-			if (!checkIfTableExist(s, MessageService.TABLE_USERS)) { 
-				s.execute("create table " + MessageService.TABLE_USERS + "(username varchar(20), password varchar(20), messagecount int, hasprofile int, profilevisible int, gender char, birthdate varchar(15), email varchar(50), aboutme varchar(100))");
-				System.err.println("DEBUG: The table for users was created");
-			}
-
-			//Table to store messages for all users.
-			if (!checkIfTableExist(s, MessageService.TABLE_MESSAGES)) { 
-				s.execute("create table " + MessageService.TABLE_MESSAGES + "(messageid varchar(30), timestamp timestamp, username varchar(20), tag varchar(10), isreply int, repliedtousername varchar(20), contents varchar(140), isprivate int)");
-				System.err.println("DEBUG: The table for messages was created");
-			}
-
-			//Table to store subscriptions of registered users.
-			if (!checkIfTableExist(s, MessageService.TABLE_SUBSCRIPTIONS)) { 
-				s.execute("create table " + MessageService.TABLE_SUBSCRIPTIONS + "(username varchar(20), subscribedtousername varchar(20))");
-				System.err.println("DEBUG: The table for user subscriptions was created");
-			}
-
-			//Open and compile a prepared statement for inserting new users into the database.
-			psUserInsert = myConnection.prepareStatement("insert into " + MessageService.TABLE_USERS + " values (?, ?, ?, ?, ?, ?, ?, ?, ?)");
-			dbOpenStatements.add(psUserInsert); //track resource for closing
+	/**
+	 * Constructor #2 which also sets the node id used to issue message ids (see MessageIdAllocator) and the size
+	 * of the connection pool. Each program sharing a database in client mode needs its own node id.
+	 *
+	 * @param nodeId Id of this program amongst all programs sharing the database, or -1 for a random id.
+	 * @param poolSize The maximum number of open connections to the database.
+	 */
+	MessageService (String yourDatabase, boolean isEmbedded, int nodeId, int poolSize) {
+		this(new DerbyStorage(yourDatabase, isEmbedded, poolSize), isEmbedded, nodeId);
+	}
 
-			//Open and compile a prepared statement for updating profile information within the database.
-			psProfileUpdate = myConnection.prepareStatement("update " + MessageService.TABLE_USERS + " set hasprofile=?, profilevisible=?, gender=?, birthdate=?, email=?, aboutme=? where username=?");
-			dbOpenStatements.add(psProfileUpdate);
+	/**
+	 * Constructor #3 which keeps the data in any storage, ie a MemoryStorage.
+	 *
+	 * @param storage The stores of the messages, users and subscriptions, which are closed with this Message Service.
+	 * @param isEmbedded True if this program is the only one using the storage. See isEmbedded.
+	 * @param nodeId Id of this program amongst all programs sharing the storage, or -1 for a random id.
+	 */
+	MessageService (Storage storage, boolean isEmbedded, int nodeId) {
 
-			//Open and compile a prepared statement for inserting new subscriptions into the database.
-			psUserSubscribe = myConnection.prepareStatement("insert into " + MessageService.TABLE_SUBSCRIPTIONS + " values (?, ?)");
-			dbOpenStatements.add(psUserSubscribe);
+		this.storage = storage;
+		this.messages = storage.messages();
+		this.users = storage.users();
+		this.subscriptions = storage.subscriptions();
+		this.isEmbedded = isEmbedded;
+		eventBus = new EventBus(EVENT_QUEUE_CAPACITY, EventBus.Overflow.DROP_OLDEST, GraphSubscriptionStore.graphOf(subscriptions));
+		idAllocator = (nodeId == -1) ? new MessageIdAllocator() : new MessageIdAllocator(nodeId);
+		myUser = new User(); //start out as a guest user.
 
-			//Open and compile a prepared statement for inserting new or reply messages into the database.
-			psPostMessage = myConnection.prepareStatement("insert into " + MessageService.TABLE_MESSAGES + " values (?, ?, ?, ?, ?, ?, ?, ?)");
-			dbOpenStatements.add(psPostMessage);
+		loadTagCounts();
 
-			//Add system guest user.
-			registerSystemGuestUser(s, psUserInsert);
+		//Add system guest user.
+		registerSystemGuestUser();
 
-		} catch (SQLException se) {
-			System.err.println(processSqlException(se, "Default Constructor for Message Service"));
-		} 
+		if (isEmbedded) {
+			loadUsernameFilter();
+			loadSearchIndex();
+			loadTrendingTags();
+		}
 	}
 
 	/**
@@ -179,8 +247,13 @@ public class MessageService {
 	 * 11. View messages by tag
 	 * 12. View messages of subscribed to users
 	 * 13. View Tags
+	 * 13.25 View Trending Tags
+	 * 13.5 Rebuild Tag Counts
 	 * 14. View Users
 	 * 15. Subscribe to a User
+	 * 16. View Connection Pool and Cache Statistics
+	 * 17. Import Messages from a file
+	 * 18. Search Messages
 	 *
 	 * This method will close all open resources associated with your connection to the database.
 	 */
@@ -198,54 +271,73 @@ public class MessageService {
 					new TwoogleGUI(this, !myUser.isGuest);
 					break;
 				case "l": //Login
-					userLogin(s);
+					userLogin();
 					break;
 				case "lo": //logout
 					userLogout();
 					System.out.println("You have been logged out.");
 					break;
 				case "r": //Register
-					registerNewUser(this.s, this.psUserInsert);
+					registerNewUser();
 					break;
 				case "up": //update profile
-					editProfile(this.s, this.psProfileUpdate);
+					editProfile();
 					break;
 				case "vp": //view profile
-					System.out.println(viewProfile(this.s, promptForUsername(this.s, "What username's profile would you like to view? ")));
+					System.out.println(viewProfile(promptForUsername("What username's profile would you like to view? ")));
 					break;
 				case "e": //Exit
 					System.out.println("Thanks for using the Message Service. Have a nice day!");
 					System.err.println("DEBUG: You have chosen to exit.");
 					break;
 				case "pm": //Post Message
-					postMessage(this.s,this.psPostMessage);
+					postMessage();
 					break;
 				case "vum": //View User Messages
-					System.out.println(viewUserMessages(this.s));
+					viewUserMessages();
 					break;
 				case "vrm": //View Recent Messages
-					System.out.println(viewRecentMessages(s, 5));
+					System.out.println(viewRecentMessages(5));
 					break;
 				case "vu": //View Users
-					System.out.println(viewUsers(this.s));
+					printPages(new Page.Source() {
+						public Page fetch(String cursor) {
+							return viewUsers(PAGE_SIZE, cursor);
+						}
+					});
 					break;
 				case "vt": //View Tags
-					System.out.println(viewTags(this.s));
+					System.out.println(viewTags());
+					break;
+				case "tt": //View trending tags
+					System.out.println(viewTrendingTags());
+					break;
+				case "rt": //Rebuild tag counts
+					if (rebuildTagCounts())
+						System.out.println("The tag counts were rebuilt.");
+					else
+						System.out.println("The tag counts could not be rebuilt.");
 					break;
 				case "vtm": //View tagged Messages
-					System.out.println(viewMessageByTag(this.s));
+					viewMessageByTag();
 					break;
 				case "vm": //View a single message
-					System.out.println(viewMessage(this.s));
+					System.out.println(viewMessage());
+					break;
+				case "sm": //Search messages
+					searchMessages();
 					break;
 				case "vsm": //View my subscribed to messages
-					myConnection.setAutoCommit(false); //@debug @josiah do we need this with the changes to this method?
-					System.out.println(viewSubscribedToMessages(this.s));
-					myConnection.commit();
-					myConnection.setAutoCommit(true);
+					viewSubscribedToMessages();
 					break;
 				case "su": //Subscribe to user
-					subscribeToUser(this.s, this.psUserSubscribe, promptForUsername(this.s, "What username would you like to subcribe to? "));
+					subscribeToUser(promptForUsername("What username would you like to subcribe to? "));
+					break;
+				case "ps": //Connection pool and cache statistics
+					System.out.print(metrics());
+					break;
+				case "im": //Import messages
+					importMessages();
 					break;
 				default:
 					System.out.println("Your choice doesn't exists. Please refer to the menu for valid choices. Nothing was done.");
@@ -254,20 +346,67 @@ public class MessageService {
 				}
 			} while (!choice.equals("e"));
 
-		} catch (SQLException se) {
-			System.err.println(processSqlException(se, "newConnection(String yourDatabase)"));
 		} finally {
+			close();
+		}
+	}
+
+	/**
+	 * Serves the Message Service to many users at once as an HTTP/JSON API (see ApiServer) instead of running the
+	 * menu. Returns once the server is listening; the server runs until the program is stopped, ie with Ctrl-C,
+	 * which also closes the Message Service.
+	 *
+	 * @param port The port the server listens on.
+	 * @param threads The number of request threads when virtual threads are not available.
+	 * @return True if the server was started.
+	 */
+	public boolean serve(int port, int threads) {
+		final ApiServer server;
+		try {
+			server = new ApiServer(this, port, threads);
+		} catch (IOException ie) {
+			System.err.println("Could not start the API server on port " + port + ": " + ie.getMessage());
+			close();
+			return false;
+		}
 
-			//Close all open statements and PreparedStatements
-			for (Statement thisS: dbOpenStatements) {
-				closeSqlResource(thisS);
-				thisS = null;
+		Runtime.getRuntime().addShutdownHook(new Thread("twoogle-shutdown") {
+			public void run() {
+				server.stop();
+				close();
 			}
+		});
+		server.start();
+		System.out.println("The Message Service API is listening on port " + port + " (" + server.executorName() + "). Press Ctrl-C to stop.");
+		return true;
+	}
 
-			//Close Connection
-			closeSqlResource(myConnection);
-			myConnection = null; //Release object so garbage collector can reclaim resources.
-		}
+	/**
+	 * Posts the messages still waiting to be ingested and closes the storage, ie all pooled connections (and their
+	 * statements).
+	 */
+	void close() {
+		//Post the messages still waiting to be ingested.
+		if (ingestor != null)
+			ingestor.close();
+
+		storage.close();
+	}
+
+	/**
+	 * Returns the storage (ie connection pool) and cache statistics, one per line.
+	 */
+	public String metrics() {
+		String r = storage.metrics() + "\n" + userCache.metrics() + "\n" + recentMessageCache.metrics() + "\n" + eventBus.metrics() + "\n";
+		if (usernameFilter != null)
+			r += usernameFilter.metrics() + "\n";
+		if (searchIndex != null)
+			r += searchIndex.metrics() + "\n";
+		if (trendingTags != null)
+			r += trendingTags.metrics() + "\n";
+		if (ingestor != null)
+			r += ingestor.metrics() + "\n";
+		return r;
 	}
 
 	/**
@@ -275,122 +414,149 @@ public class MessageService {
 	 * to that user's private messages. This method provides direct access to subcribing to users without
 	 * prompting the user for input.
 	 * 
-	 * Assumes that s and psUserSubscribe are open connection statements. Checks that the provided
-	 * input for the username to subscribe to is actually a registered user of the Message Service.
+	 * Checks that the provided input for the username to subscribe to is actually a registered user of
+	 * the Message Service.
 	 *
 	 * WARNING: Assumes that the provided subscribeToUsername has been checked for registrations/existance
 	 * within this Message Service's database.
 	 *
-	 * @param s Open statement connection to the database to run sql commands.
-	 * @param psUserSubscribe Precompiled open prepared statement to the database to insert a new subscription.
+	 * The subscribed to user's most recent messages (up to TIMELINE_BACKFILL_LIMIT) are copied into the current
+	 * user's home timeline in the same transaction as the subscription.
+	 *
 	 * @param subscribeToUsername Username of the person the current user wishes to subscribe.
 	 */
-	public boolean subscribeToUser(Statement s, PreparedStatement psUserSubscribe, String subscribeToUsername) {
-		boolean r = false;
+	public boolean subscribeToUser(String subscribeToUsername) {
+		return subscribeToUser(myUser, subscribeToUsername);
+	}
 
-		try { 
-			psUserSubscribe.setString(1, myUser.username);
-			psUserSubscribe.setString(2, subscribeToUsername);
+	/**
+	 * Subscribes the passed user to another user. Used by the ApiServer, which serves many users at once.
+	 *
+	 * @param me The subscriber.
+	 * @param subscribeToUsername The user subscribed to.
+	 */
+	public boolean subscribeToUser(User me, String subscribeToUsername) {
+		boolean r = false;
 
-			psUserSubscribe.executeUpdate();
+		try {
+			if (subscriptions.subscribe(me.username, subscribeToUsername))
+				eventBus.followed(me.username, subscribeToUsername);
+			else
+				System.out.println("You are already subscribed to " + subscribeToUsername + ".");
 			r = true;
 
 		} catch (SQLException se) {
-			System.err.println(processSqlException(se, "subscribeToUser(Statement s, PreparedStatement psUserSubscribe)"));
+			System.err.println(processSqlException(se, "subscribeToUser(User me, String subscribeToUsername)"));
 			System.err.println("The subscription may not have been added because a sql exception was generated.");
-			r = false; 
-		} 
+			r = false;
+		}
 
 		return r;
 	}
 
 	/**
-	 * Prints to the standard out a single message string (message and any replies) associated
-	 * with the specified message id, which the user is prompted to provide.
+	 * Opens a live feed of the messages a user is interested in: the messages of the users he is subscribed to, his
+	 * own and the replies to him, as they are posted. Close the subscription when the user goes offline.
+	 *
+	 * The feed only carries messages posted by this program (see EventBus), so in client mode the database still
+	 * has to be polled for the posts of other programs.
+	 *
+	 * @param me The online user.
+	 * @return The subscription, following the users me is subscribed to.
+	 */
+	public EventBus.Subscription subscribeToEvents(User me) {
+		//Subscribe before reading the subscriptions, so a subscription added meanwhile reaches the feed through followed().
+		EventBus.Subscription events = eventBus.subscribe(me.username);
+		if (eventBus.followsSubscriptions())
+			return events; //the bus reads them from the social graph.
+
+		try {
+			for (String username: subscriptions.subscribedTo(me.username)) {
+				events.follow(username);
+			}
+		} catch (SQLException se) {
+			System.err.println(processSqlException(se, "subscribeToEvents(User me)"));
+		}
+
+		return events;
+	}
+
+	/**
+	 * True if this program is the only one using the database. See eventBus.
+	 */
+	boolean isEmbedded() {
+		return isEmbedded;
+	}
+
+	/**
+	 * Prints to the standard out the conversation (message and any replies) of the message with
+	 * the specified message id, which the user is prompted to provide.
 	 *
 	 * Format:
 	 * message_id&tag@timestamp:: "message contents"
 	 *
-	 * @param s Open statement connection to the database to run sql commands.
 	 */
-	public String viewMessage(Statement s) {
+	public String viewMessage() {
 		System.out.println("What is the message id? ");
-		return viewMessage(s, inputStream.nextLine().toLowerCase());
+		return viewMessage(inputStream.nextLine().toLowerCase());
 	}
 
 	/**
-	 * Prints to the standard out a single message string (message and any replies) associated
-	 * with the specified message id, which the user is prompted to provide.
+	 * Prints to the standard out the conversation a message is part of: the thread's first message and the tree of
+	 * replies under it, each reply indented below the message it answers.
 	 *
 	 * Format:
 	 * message_id&tag@timestamp:: "message contents"
 	 *
-	 * @param s Open statement connection to the database to run sql commands.
+	 * @param id The message id.
 	 */
-	public String viewMessage(Statement s, String id) {
-		ResultSet rs = null;
-		String m = "", r = "";
-		String t = null, ru = null;
+	public String viewMessage(String id) {
+		MessageThread thread = thread(id, myUser.username);
+		return thread == null ? "" : MessageRenderer.render(thread);
+	}
 
+	/**
+	 * Returns the thread of the message with the passed id, as much of it as a user may see: the public messages and
+	 * his own private ones. The thread is read from the MessageStore and its reply tree is built in memory.
+	 *
+	 * @param id The message id, of any message of the thread.
+	 * @param viewer Username of the user reading.
+	 * @return The thread, empty if there is no such message, or null if a sql exception was thrown.
+	 */
+	public MessageThread thread(String id, String viewer) {
 		try {
-			rs = s.executeQuery("select * from " + MessageService.TABLE_MESSAGES + " where messageid='" + id + "' and isprivate=0");
-			
-			while(rs.next()) {
-				m = "";
-				
-				t = rs.getString("tag");
-				ru = rs.getString("repliedtousername");
-				
-				if (ru != null)
-					m += String.format("%-30s", "<" + rs.getString("username") + " @" + rs.getString("repliedtousername") + "> ");
-				else
-					m += String.format("%-30s", "<" + rs.getString("username") + " @nobody> ");
-					
-				m += String.format("%-70s", "\"" + rs.getString("contents") + "\" ");
-				
-				if ( t != null) 
-					m += String.format("%-10s", "[" + t + "] ");
-				else
-					m +=  String.format("%-10s", "[no tag] ");
-				
-				m += "(" + rs.getString("messageid") + ") ";
-				m += "@" + rs.getTimestamp("timestamp") + "\n";
-				
-				r = m + r;
-			
-			}
-
+			return new MessageThread(messages.thread(id, viewer));
 		} catch (SQLException se) {
-			System.err.println(processSqlException(se, "viewMessages(Statement s)"));
-		} finally {
-			closeSqlResource(rs);
+			System.err.println(processSqlException(se, "thread(String id, String viewer)"));
 		}
-		return r;
+		return null;
 	}
 
 	/**
-	 * Prints to the standard out a specified amount of the most recent messages from a
-	 * specified user. Prompts for the username and checks if the user is valid (registered)
-	 * within this system. Prompts for the number of messages to print.
+	 * Prints to the standard out the most recent messages from a specified user one page at a time.
+	 * Prompts for the username and checks if the user is valid (registered) within this system.
+	 * Prompts for the number of messages to print on each page.
 	 *
 	 * Format:
 	 * message_id&tag@timestamp:: "message contents"
 	 *
-	 * @param s Open statement connection to the database to run sql commands.
 	 */
-	public String viewUserMessages(Statement s) {
-		int limit = 5;
-		String u;
+	public void viewUserMessages() {
+		final String u;
 
-		u = promptForUsername(s, "View messages of which username? "); //checks for valid username
+		u = promptForUsername("View messages of which username? "); //checks for valid username
 		if (u != null) {
-			System.out.println("How many messages would you like to display (default=last 5 messages)? ");
-			limit = inputStream.nextInt();
+			System.out.println("How many messages would you like to display on each page (default=last 5 messages)? ");
+			final int limit = inputStream.nextInt();
 			inputStream.nextLine(); //remove return made by user.
 
-			return viewUserMessages(s, u, limit);
+			printPages(new Page.Source() {
+				public Page fetch(String cursor) {
+					return viewUserMessages(u, limit, cursor);
+				}
+			});
 		} else {
-			return "A bad username was provided and user did not try again: viewuserMessages()";
+			System.out.println("A bad username was provided and user did not try again: viewuserMessages()");
 		}
 	}
 
@@ -401,335 +567,593 @@ public class MessageService {
 	 * Format:
 	 * message_id&tag@timestamp:: "message contents"
 	 *
-	 * @param s Open statement connection to the database to run sql commands.
 	 * @param u Username that was specified to view his/her messages. Must be valid.
 	 * @param limit The # of message to print from each user subscribed to.
 	 */
-	public String viewUserMessages(Statement s, String username, int limit) {
+	public String viewUserMessages(String username, int limit) {
+		return viewUserMessages(username, limit, null).text;
+	}
 
-		ResultSet rs = null;
-		String m = "", r = "";
-		String t = null, ru = null;
+	/**
+	 * Returns one page of the messages of the passed username, newest page first. Private messages are only
+	 * included when the user is requesting his own messages.
+	 *
+	 * @param username Username that was specified to view his/her messages.
+	 * @param limit The # of messages on the page.
+	 * @param cursor Cursor token from the previous page, or null for the first page.
+	 * @return The page, or a page containing only an error message if the user does not exist.
+	 */
+	public Page viewUserMessages(String username, int limit, String cursor) {
+		return viewUserMessages(myUser, username, limit, cursor);
+	}
+
+	/**
+	 * Returns one page of the messages of the passed username as seen by the passed user. Used by the ApiServer,
+	 * which serves many users at once.
+	 *
+	 * @param viewer The user viewing the messages, who sees the private ones if they are his own.
+	 * @param username Username that was specified to view his/her messages.
+	 * @param limit The # of messages on the page.
+	 * @param cursor Cursor token from the previous page, or null for the first page.
+	 * @return The page, or a page containing only an error message if the user does not exist.
+	 */
+	public Page viewUserMessages(User viewer, String username, int limit, String cursor) {
+		limit = Math.max(0, limit); //a negative page size shows no messages, like 0 (see messagePage()).
 
 		try {
-			User u = new User();
-			u.username = username;
-			if(u.userExists(s, TABLE_USERS)) {
-				
-				if (myUser.username.equals(u.username)) //Show private messages if the user is requesting his own messages. Otherwise, subscribes can only see private messages by viewing subscribed to messages.
-					rs = s.executeQuery("select * from " + MessageService.TABLE_MESSAGES + " where username='" + username + "' order by timestamp desc");
-				else 
-					rs = s.executeQuery("select * from " + MessageService.TABLE_MESSAGES + " where username='" + username + "' and isprivate=0 order by timestamp desc");
-				
-				int count = 1;
-				while(rs.next() && count <= limit) {
-					count++;
-					m = "";
-					
-					t = rs.getString("tag");
-					ru = rs.getString("repliedtousername");
-					
-					if (ru != null)
-						m += String.format("%-30s", "<" + rs.getString("username") + " @" + rs.getString("repliedtousername") + "> ");
-					else
-						m += String.format("%-30s", "<" + rs.getString("username") + " @nobody> ");
-						
-					m += String.format("%-70s", "\"" + rs.getString("contents") + "\" ");
-					
-					if ( t != null) 
-						m += String.format("%-10s", "[" + t + "] ");
-					else
-						m +=  String.format("%-10s", "[no tag] ");
-					
-					m += "(" + rs.getString("messageid") + ") ";
-					m += "@" + rs.getTimestamp("timestamp") + "\n";
-					
-					r = m + r;
-				
+			if(userExists(username)) {
+				//Show private messages if the user is requesting his own messages. Otherwise, subscribes can only see private messages by viewing subscribed to messages.
+				boolean includePrivate = viewer.username.equals(username);
+
+				//The first page usually comes from the author's recent messages in memory.
+				if (cursor == null && limit < RECENT_MESSAGES_PER_AUTHOR && isEmbedded) {
+					ArrayList<Message> recent = recentMessages(username, limit + 1, includePrivate);
+					if (recent != null)
+						return messagePage(recent, limit);
 				}
+
+				return messagePage(messages.userMessages(username, includePrivate, cursor, limit + 1), limit);
 			}
 			else
-				return "User does not exist.";
+				return new Page("User does not exist.", null);
 
 		} catch (SQLException se) {
-			System.err.println(processSqlException(se, "viewUserMessages(Statement s)"));
-		} finally {
-			closeSqlResource(rs);
+			System.err.println(processSqlException(se, "viewUserMessages(User viewer, String username, int limit, String cursor)"));
 		}
-		return r;
+		return new Page("", null);
+	}
+
+	/**
+	 * Returns the messages of a user posted after the passed cursor, ie the ones a view of the user's messages is
+	 * missing, so it can be brought up to date without reading again what it already shows (see Page).
+	 *
+	 * @param username The author.
+	 * @param since Cursor of the newest message already shown, or null for the newest messages.
+	 * @param limit The most messages returned. If more are new, the newest are returned.
+	 * @return The new messages, oldest first, with the cursor to pass next time.
+	 */
+	public Page viewUserMessagesSince(String username, String since, int limit) {
+		return viewUserMessagesSince(myUser, username, since, limit);
+	}
+
+	/**
+	 * Returns the messages of a user posted after the passed cursor as seen by the passed user (see
+	 * viewUserMessages(User, String, int, String)).
+	 */
+	public Page viewUserMessagesSince(User viewer, String username, String since, int limit) {
+		try {
+			boolean includePrivate = viewer.username.equals(username);
+
+			//Usually answered from the author's recent messages in memory.
+			if (isEmbedded) {
+				ArrayList<Message> recent;
+				if (since == null)
+					recent = limit <= RECENT_MESSAGES_PER_AUTHOR ? recentMessages(username, limit, includePrivate) : null;
+				else
+					recent = recentMessageCache.newer(username, Page.cursorTimestamp(since), Page.cursorMessageId(since), limit, includePrivate);
+				if (recent != null)
+					return messagesSincePage(recent, since);
+			}
+
+			return messagesSincePage(messages.userMessagesSince(username, includePrivate, since, limit), since);
+
+		} catch (SQLException se) {
+			System.err.println(processSqlException(se, "viewUserMessagesSince(User viewer, String username, String since, int limit)"));
+		}
+		return new Page("", since);
 	}
 	
 	
 	/**
 	 * Pulls all messages of users who replied to said user.
 	 * 
-	 * @param s Open statement connection to the database to run sql commands.
 	 * @param limit The number of messages to retrieve.
 	 * @return The messages retrieved in a formatted string.
 	 */
-	public String viewReplyMessages(Statement s, int limit) { 
-		ResultSet rs = null;
-		String r = "", m = "";
-		String ru = null, t = null;
-		
+	public String viewReplyMessages(int limit) { 
+		return viewReplyMessages(limit, null).text;
+	}
+
+	/**
+	 * Returns one page of the replies made to the current user, newest page first.
+	 * 
+	 * @param limit The # of messages on the page.
+	 * @param cursor Cursor token from the previous page, or null for the first page.
+	 */
+	public Page viewReplyMessages(int limit, String cursor) { 
+		return viewReplyMessages(myUser, limit, cursor);
+	}
+
+	/**
+	 * Returns one page of the replies made to the passed user, newest page first. Used by the ApiServer, which
+	 * serves many users at once.
+	 *
+	 * @param me The user replied to.
+	 * @param limit The # of messages on the page.
+	 * @param cursor Cursor token from the previous page, or null for the first page.
+	 */
+	public Page viewReplyMessages(User me, int limit, String cursor) {
+		limit = Math.max(0, limit); //a negative page size shows no messages, like 0 (see messagePage()).
 		try {
-			rs = s.executeQuery("select * from " + MessageService.TABLE_MESSAGES + " where isreply=1 and repliedtousername='" + myUser.username + "' order by timestamp desc");
-			
-			
-			int count = 1;
-			while(rs.next() && count <= limit) {
-				count++;
-				m = "";
-				
-				t = rs.getString("tag");
-				ru = rs.getString("repliedtousername");
-				
-				if (ru != null)
-					m += String.format("%-30s", "<" + rs.getString("username") + " @" + rs.getString("repliedtousername") + "> ");
-				else
-					m += String.format("%-30s", "<" + rs.getString("username") + " @nobody> ");
-					
-				m += String.format("%-70s", "\"" + rs.getString("contents") + "\" ");
-				
-				if ( t != null) 
-					m += String.format("%-10s", "[" + t + "] ");
-				else
-					m +=  String.format("%-10s", "[no tag] ");
-				
-				m += "(" + rs.getString("messageid") + ") ";
-				m += "@" + rs.getTimestamp("timestamp") + "\n";
-				
-				r = m + r;
-			
-			}
+			return messagePage(messages.replies(me.username, cursor, limit + 1), limit);
 			
 		} catch(SQLException se) {
-			System.err.println(processSqlException(se, "viewReplyMessages(Statement s, int limit)"));
-		} finally {
-			closeSqlResource(rs);
+			System.err.println(processSqlException(se, "viewReplyMessages(User me, int limit, String cursor)"));
 		}
-		return r;
+		return new Page("", null);
+	}
+
+	/**
+	 * Returns the replies made to the current user after the passed cursor (see viewUserMessagesSince()).
+	 *
+	 * @param since Cursor of the newest reply already shown, or null for the newest replies.
+	 * @param limit The most replies returned. If more are new, the newest are returned.
+	 * @return The new replies, oldest first, with the cursor to pass next time.
+	 */
+	public Page viewReplyMessagesSince(String since, int limit) {
+		return viewReplyMessagesSince(myUser, since, limit);
 	}
 
 	/**
-	 * Prints to the standard out a specified amount of the most recent messages from each of the user's subscriptions.
-	 * Each message will be printed on a separate line. Prompts the user for the number of messages to print from each
-	 * user she/he is subscribed to. For instance, if the user inputs 5 and is subscribed to Davis and Mike, than the 
-	 * 5 most recent messages from Davis and the 5 most recent messages from Mike will be printed.
+	 * Returns the replies made to the passed user after the passed cursor (see viewUserMessagesSince()).
+	 */
+	public Page viewReplyMessagesSince(User me, String since, int limit) {
+		try {
+			return messagesSincePage(messages.repliesSince(me.username, since, limit), since);
+
+		} catch (SQLException se) {
+			System.err.println(processSqlException(se, "viewReplyMessagesSince(User me, String since, int limit)"));
+		}
+		return new Page("", since);
+	}
+
+	/**
+	 * Prints to the standard out the most recent messages from the user's subscriptions one page at a time.
+	 * Each message will be printed on a separate line. Prompts the user for the number of messages to print on
+	 * each page. For instance, if the user inputs 5 and is subscribed to Davis and Mike, than the 5 most recent
+	 * messages posted by either Davis or Mike will be printed.
 	 *
 	 *
 	 * Format:
 	 * message_id&tag@timestamp:: "message contents"
 	 *
-	 * @param s Open statement connection to the database to run sql commands.
 	 */
-	public String viewSubscribedToMessages(Statement s) {
-		int limit = 5;
-
-		System.out.println("How many messages from each subscribed to user would you like to display (default=last 5 messages)? ");
-		limit = inputStream.nextInt();
+	public void viewSubscribedToMessages() {
+		System.out.println("How many messages from your subscribed to users would you like to display on each page (default=last 5 messages)? ");
+		final int limit = inputStream.nextInt();
 		inputStream.nextLine(); //remove return made by user.
 
-		return viewSubscribedToMessages(s, limit);
+		printPages(new Page.Source() {
+			public Page fetch(String cursor) {
+				return viewSubscribedToMessages(limit, cursor);
+			}
+		});
 	}
 	
 	/**
-	 * Prints to the standard out a specified amount of the most recent messages from each of the user's subscriptions.
+	 * Prints to the standard out a specified amount of the most recent messages from the user's subscriptions.
 	 * Each message will be printed on a separate line.
 	 *
 	 * Format:
 	 * message_id&tag@timestamp:: "message contents"
 	 *
-	 * @param s Open statement connection to the database to run sql commands.
-	 * @param limit The # of message to print from each user subscribed to.
+	 * @param limit The # of messages to print from all of the users subscribed to.
 	 */
-	public String viewSubscribedToMessages(Statement s, int limit) {
-		ResultSet rs = null;
-		ResultSet rsUsers = null;
-		ArrayList<String> cUsers = new ArrayList<String>();
-		
-		String r = "", m = "";
-		String ru = null, t = null;
+	public String viewSubscribedToMessages(int limit) {
+		return viewSubscribedToMessages(limit, null).text;
+	}
 
+	/**
+	 * Returns one page of the current user's home timeline, newest page first.
+	 *
+	 * Messages are read from the user's home timeline in the MessageStore, which in Derby is materialized (see
+	 * TABLE_TIMELINES) and kept up to date by postMessage and subscribeToUser, so this is a single indexed read no
+	 * matter how many users are subscribed to.
+	 *
+	 * @param limit The # of messages on the page.
+	 * @param cursor Cursor token from the previous page, or null for the first page.
+	 */
+	public Page viewSubscribedToMessages(int limit, String cursor) {
+		return viewSubscribedToMessages(myUser, limit, cursor);
+	}
+
+	/**
+	 * Returns one page of the passed user's home timeline, newest page first. Used by the ApiServer, which serves
+	 * many users at once.
+	 *
+	 * @param me The owner of the home timeline.
+	 * @param limit The # of messages on the page.
+	 * @param cursor Cursor token from the previous page, or null for the first page.
+	 */
+	public Page viewSubscribedToMessages(User me, int limit, String cursor) {
+		limit = Math.max(0, limit); //a negative page size shows no messages, like 0 (see messagePage()).
 		try {
-			//Find all usernames current user is subscribed to:
-			rsUsers = s.executeQuery("select subscribedtousername from " + MessageService.TABLE_SUBSCRIPTIONS + " where username='" + myUser.username + "'");
-			while(rsUsers.next()){
-				cUsers.add(rsUsers.getString(1));
-			}
+			return messagePage(messages.homeTimeline(me.username, cursor, limit + 1), limit);
 
-			for (String cUser: cUsers) {	
-
-				rs = s.executeQuery("select * from " + MessageService.TABLE_MESSAGES + " where username='" + cUser + "' order by timestamp desc");
-				
-				int count = 1;
-				while(rs.next() && count <= limit) {
-					count++;
-					m = "";
-					
-					t = rs.getString("tag");
-					ru = rs.getString("repliedtousername");
-					
-					if (ru != null)
-						m += String.format("%-30s", "<" + rs.getString("username") + " @" + rs.getString("repliedtousername") + "> ");
-					else
-						m += String.format("%-30s", "<" + rs.getString("username") + " @nobody> ");
-						
-					m += String.format("%-70s", "\"" + rs.getString("contents") + "\" ");
-					
-					if ( t != null) 
-						m += String.format("%-10s", "[" + t + "] ");
-					else
-						m +=  String.format("%-10s", "[no tag] ");
-					
-					m += "(" + rs.getString("messageid") + ") ";
-					m += "@" + rs.getTimestamp("timestamp") + "\n";
-					
-					r = m + r;
-				
-				}
-				closeSqlResource(rs); //New ResultSet for each iteration of the loop, which must be closed.
-				rs = null;
-			}
+		} catch (SQLException se) {
+			System.err.println(processSqlException(se, "viewSubscribedToMessages(User me, int limit, String cursor)"));
+		}
+		return new Page("", null);
+	}
+
+	/**
+	 * Returns the messages added to the current user's home timeline after the passed cursor (see
+	 * viewUserMessagesSince()).
+	 *
+	 * @param since Cursor of the newest message already shown, or null for the newest messages.
+	 * @param limit The most messages returned. If more are new, the newest are returned.
+	 * @return The new messages, oldest first, with the cursor to pass next time.
+	 */
+	public Page viewSubscribedToMessagesSince(String since, int limit) {
+		return viewSubscribedToMessagesSince(myUser, since, limit);
+	}
+
+	/**
+	 * Returns the messages added to the passed user's home timeline after the passed cursor (see
+	 * viewUserMessagesSince()).
+	 */
+	public Page viewSubscribedToMessagesSince(User me, String since, int limit) {
+		try {
+			return messagesSincePage(messages.homeTimelineSince(me.username, since, limit), since);
 
 		} catch (SQLException se) {
-			System.err.println(processSqlException(se, "viewSubscribedToMessages(Statement s)"));
-		} finally {
-			closeSqlResource(rsUsers);
-			closeSqlResource(rs); //This is already closed, unless a sql exception occurs, which is why it's closed here.
+			System.err.println(processSqlException(se, "viewSubscribedToMessagesSince(User me, String since, int limit)"));
 		}
-		return r;
+		return new Page("", since);
 	}
 
 	/**
-	 * Prints to the standard out all non-private messages marked with a specified #tag.
+	 * Prints to the standard out the non-private messages marked with a specified #tag one page at a time.
 	 * Messages will be printed with the most recent message printed to the screen last.
 	 *
 	 * Format:
 	 * message_id&tag@timestamp:: "message contents"
 	 *
-	 * @param s Open statement connection to the database to run sql commands.
 	 */
-	public String viewMessageByTag(Statement s)
+	public void viewMessageByTag()
 	{
 		System.out.println("Which tag do you want to search for? (Example: #oranges)");
-		return viewMessageByTag(s, inputStream.nextLine().toLowerCase());
+		final String tag = inputStream.nextLine().toLowerCase();
+
+		printPages(new Page.Source() {
+			public Page fetch(String cursor) {
+				return viewMessageByTag(tag, PAGE_SIZE, cursor);
+			}
+		});
 	}
 
 	/**
-	 * Prints to the standard out all non-private messages marked with a specified #tag.
+	 * Prints to the standard out the most recent PAGE_SIZE non-private messages marked with a specified #tag.
 	 * Messages will be printed with the most recent message printed to the screen last.
 	 *
 	 * Format:
 	 * message_id&tag@timestamp:: "message contents"
 	 *
-	 * @param s Open statement connection to the database to run sql commands.
 	 * @param tag String representing the tag to search for.
 	 */
-	public String viewMessageByTag(Statement s, String tag) {
-		//String q = "";
-		
-		String r = "", m = "";
-		String ru = null, t = null;
+	public String viewMessageByTag(String tag) {
+		return viewMessageByTag(tag, PAGE_SIZE, null).text;
+	}
 
-		ResultSet rs = null;
+	/**
+	 * Returns one page of the non-private messages marked with a specified #tag, newest page first. The tag may
+	 * be anywhere in a message.
+	 *
+	 * @param tag String representing the tag to search for.
+	 * @param limit The # of messages on the page.
+	 * @param cursor Cursor token from the previous page, or null for the first page.
+	 */
+	public Page viewMessageByTag(String tag, int limit, String cursor) {
+		limit = Math.max(0, limit); //a negative page size shows no messages, like 0 (see messagePage()).
+		tag = normalizeTag(tag);
+		if (tag == null)
+			return messagePage(new ArrayList<Message>(), limit); //no message has it.
 
 		try {
-			rs = s.executeQuery("select * from " + MessageService.TABLE_MESSAGES + " where tag='" + tag + "' and isprivate=0");
-			/*while (rs.next()) {
-				m = "";
-				String t = null;
-				m += rs.getString("messageid");
-				t = rs.getString("tag");
-				if ( t != null) 
-					m += "&" + t;
-				m += "@" + rs.getTimestamp("timestamp");
-				m += ":: \"" + rs.getString("contents") + "\"";
-
-				q += m + "\n";
-			}*/
+			return messagePage(messages.taggedMessages(tag, cursor, limit + 1), limit);
 			
+		} catch(SQLException se) {
+			System.err.println(processSqlException(se, "viewMessageByTag(String tag, int limit, String cursor)"));
+		}
+		return new Page("", null);
+	}
 
-			while(rs.next()) {
-				m = "";
-				
-				t = rs.getString("tag");
-				ru = rs.getString("repliedtousername");
-				
-				if (ru != null)
-					m += String.format("%-30s", "<" + rs.getString("username") + " @" + rs.getString("repliedtousername") + "> ");
-				else
-					m += String.format("%-30s", "<" + rs.getString("username") + " @nobody> ");
-					
-				m += String.format("%-70s", "\"" + rs.getString("contents") + "\" ");
-				
-				if ( t != null) 
-					m += String.format("%-10s", "[" + t + "] ");
-				else
-					m +=  String.format("%-10s", "[no tag] ");
-				
-				m += "(" + rs.getString("messageid") + ") ";
-				m += "@" + rs.getTimestamp("timestamp") + "\n";
-				
-				r = m + r;
-			
+	/**
+	 * Prints to the standard out the messages containing every word the user enters, one page at a time.
+	 * Messages will be printed with the most recent message printed to the screen last.
+	 */
+	public void searchMessages() {
+		System.out.println("Which words do you want to search for? (Example: great movie)");
+		final String query = inputStream.nextLine();
+
+		printPages(new Page.Source() {
+			public Page fetch(String cursor) {
+				return searchMessages(query, PAGE_SIZE, cursor);
 			}
-			
-			
+		});
+	}
+
+	/**
+	 * Returns one page of the messages the current user may see that contain every word of a query, newest page
+	 * first.
+	 *
+	 * @param query The words searched for, ie "great movie". Case and punctuation are ignored.
+	 * @param limit The # of messages on the page.
+	 * @param cursor Cursor token from the previous page, or null for the first page.
+	 */
+	public Page searchMessages(String query, int limit, String cursor) {
+		return searchMessages(myUser, query, limit, cursor);
+	}
+
+	/**
+	 * Returns one page of the messages a user may see, the public ones and his own private ones, that contain every
+	 * word of a query. Only the first MAX_SEARCH_WORDS words are searched for.
+	 *
+	 * In embedded mode the searchIndex answers without reading the storage. In client mode other programs post
+	 * messages too, so the MessageStore is searched instead, which also matches the words inside longer words.
+	 *
+	 * @param viewer The user searching.
+	 * @param query The words searched for.
+	 * @param limit The # of messages on the page.
+	 * @param cursor Cursor token from the previous page, or null for the first page.
+	 */
+	public Page searchMessages(User viewer, String query, int limit, String cursor) {
+		limit = Math.max(0, limit); //a negative page size shows no messages, like 0 (see messagePage()).
+		List<String> words = SearchIndex.terms(query);
+		if (words.isEmpty())
+			return new Page("Please enter at least one word to search for.", null);
+		if (words.size() > MAX_SEARCH_WORDS)
+			words = words.subList(0, MAX_SEARCH_WORDS);
+
+		SearchIndex index = searchIndex;
+		if (index != null)
+			return messagePage(index.search(words, viewer.username, cursor, limit + 1), limit);
+
+		try {
+			return messagePage(messages.search(viewer.username, words, cursor, limit + 1), limit);
+
 		} catch(SQLException se) {
-			System.err.println(processSqlException(se, "viewMessageByTag(Statement s, String tag)"));
-		} finally {
-			closeSqlResource(rs);
+			System.err.println(processSqlException(se, "searchMessages(User viewer, String query, int limit, String cursor)"));
 		}
-		return r;
+		return new Page("", null);
 	}
 
 	/**
-	 * Prints to the standard out a list of all previously used non-private #tags within this system.
+	 * Makes a page of the first limit messages of the passed list. A message past the limit means there is a next page.
 	 *
-	 * @param s Open statement connection to the database to run sql commands.
+	 * @param messages Up to limit + 1 messages, newest first, as read from the MessageStore.
+	 * @param limit The # of messages on the page. The view methods read one message more, which is not shown and
+	 * 		only signals that there is a next page. A page of no messages (limit <= 0) is empty and has no next page.
 	 */
-	public String viewTags(Statement s)
+	private static Page messagePage(List<Message> messages, int limit) {
+		if (limit <= 0)
+			return new Page("", null, new ArrayList<Message>());
+
+		String cursor = null;
+		if (messages.size() > limit) { //There is at least one more row, so there is a next page.
+			messages = messages.subList(0, limit);
+			Message last = messages.get(limit - 1);
+			cursor = Page.messageCursor(last.timestamp, last.id);
+		}
+		return new Page(MessageRenderer.render(messages), cursor, messages);
+	}
+
+	/**
+	 * Makes the page of the messages posted after a cursor. Its cursor is the one of the newest message, or the
+	 * passed one if there are none, so the next call picks up where this one stopped.
+	 *
+	 * @param messages The new messages, newest first.
+	 * @param since The cursor the messages were read after.
+	 */
+	private static Page messagesSincePage(List<Message> messages, String since) {
+		if (messages.isEmpty())
+			return new Page("", since, messages);
+
+		Message newest = messages.get(0);
+		return new Page(MessageRenderer.render(messages), Page.messageCursor(newest.timestamp, newest.id), messages);
+	}
+
+	/**
+	 * Returns an author's newest messages from the recentMessageCache, loading the author into the cache if needed.
+	 *
+	 * @param author Username of the author.
+	 * @param count The number of messages wanted, at most RECENT_MESSAGES_PER_AUTHOR.
+	 * @param includePrivate False to skip the author's private messages.
+	 * @return count messages (fewer if the author has no more), or null if the cache could not answer.
+	 */
+	private ArrayList<Message> recentMessages(String author, int count, boolean includePrivate) {
+		ArrayList<Message> cached = recentMessageCache.newest(author, count, includePrivate);
+		if (cached != null || !recentMessageCache.startLoad(author))
+			return cached;
+
+		List<Message> newest;
+
+		try {
+			newest = messages.userMessages(author, true, null, RECENT_MESSAGES_PER_AUTHOR + 1); //private messages too.
+		} catch (SQLException se) {
+			recentMessageCache.cancelLoad(author);
+			System.err.println(processSqlException(se, "recentMessages(String author, int count, boolean includePrivate)"));
+			return null;
+		}
+
+		boolean complete = newest.size() <= RECENT_MESSAGES_PER_AUTHOR;
+		recentMessageCache.finishLoad(author, complete ? newest : newest.subList(0, RECENT_MESSAGES_PER_AUTHOR), complete);
+		return recentMessageCache.newest(author, count, includePrivate);
+	}
+
+	/**
+	 * Prints pages to the standard out until there are no more pages or the user does not want to see more.
+	 *
+	 * @param source Fetches each page given the cursor of the previous one.
+	 */
+	private void printPages(Page.Source source) {
+		Page p = source.fetch(null);
+		System.out.println(p.text);
+
+		while (p.hasMore() && getAnswer("Show more? ")) {
+			p = source.fetch(p.nextCursor);
+			System.out.println(p.text);
+		}
+	}
+
+	/**
+	 * Prints to the standard out a list of the PAGE_SIZE most used non-private #tags within this system.
+	 *
+	 */
+	public String viewTags()
 	{
-		ResultSet rs = null;
-		String tag;
-		LinkedList<String> tagList = new LinkedList<String>();
-		LinkedList<Integer> tagCount = new LinkedList<Integer>();
-		// Count of the number of times the tag appears will be stored in the
-		// same index in tagCount as the tag appears in tagList
+		return viewTags(PAGE_SIZE);
+	}
+
+	/**
+	 * Returns a list of the most used non-private #tags within this system, most used first.
+	 *
+	 * In embedded mode this program is the only one writing to the database, so the counts are read from the
+	 * in-memory tagHistogram. In client mode other users may have posted since start up, so the counts are read
+	 * from the MessageStore instead.
+	 *
+	 * @param limit The maximum number of tags to list.
+	 */
+	public String viewTags(int limit)
+	{
+		String output = "";
+
+		output += "Format: #tag (number of times used)\n";
+
+		List<Map.Entry<String, Integer>> tags = topTags(limit);
+		if (tags == null)
+			return "";
+
+		for (Map.Entry<String, Integer> e: tags) {
+			output += e.getKey() + " (" + e.getValue() + ")\n";
+		}
+		return output;
+	}
+
+	/**
+	 * Returns the most used tags with their number of uses, most used first.
+	 *
+	 * @param limit The number of tags returned.
+	 * @return The tags, or null if a sql exception was thrown.
+	 */
+	public List<Map.Entry<String, Integer>> topTags(int limit) {
+		if (isEmbedded)
+			return tagHistogram.top(limit);
 
 		try {
-			rs = s.executeQuery("select tag from " + MessageService.TABLE_MESSAGES + " where tag<>'null' and isprivate=0");
+			return messages.topTags(limit);
+		} catch (SQLException se) {
+			System.err.println(processSqlException(se, "topTags(int limit)"));
+			return null;
+		}
+	}
 
-			while(rs.next()) {
-				tag = rs.getString(1);
-				if(tagList.contains(tag)) {
-					tagCount.set(tagList.indexOf(tag), tagCount.get(tagList.indexOf(tag)) + 1);
-					// increment the count by 1 at the index of the tag.
-				}
-				else {
-					tagList.add(tag);
-					tagCount.add(1);
-					// set the count to 1.
-				}
-			}
+	/**
+	 * Prints to the standard out the PAGE_SIZE most used non-private #tags of the last 15 minutes, hour or day, which
+	 * the user is prompted for.
+	 */
+	public String viewTrendingTags() {
+		TrendingTags.Window window = null;
+		while (window == null) {
+			System.out.println("Trending over the last 15 minutes, hour or day? (15m/1h/1d) ");
+			window = TrendingTags.Window.parse(inputStream.nextLine());
+		}
+		return viewTrendingTags(window, PAGE_SIZE);
+	}
+
+	/**
+	 * Returns a list of the most used non-private #tags of a recent window of time, most used first.
+	 *
+	 * @param window The span counted, ending now.
+	 * @param limit The maximum number of tags to list.
+	 */
+	public String viewTrendingTags(TrendingTags.Window window, int limit) {
+		List<Map.Entry<String, Integer>> tags = trendingTags(window, limit);
+		if (tags == null)
+			return "";
+
+		StringBuilder output = new StringBuilder("Tags trending in the last " + window.description + ". Format: #tag (number of times used)\n");
+		for (Map.Entry<String, Integer> e: tags) {
+			output.append(e.getKey()).append(" (").append(e.getValue()).append(")\n");
+		}
+		return output.toString();
+	}
+
+	/**
+	 * Returns the most used tags of a recent window of time with their number of uses, most used first.
+	 *
+	 * In embedded mode they are read from the in-memory trendingTags, which counts the tags as messages are posted.
+	 * In client mode other programs post too, so the uses within the window are counted by the MessageStore.
+	 *
+	 * @param window The span counted, ending now.
+	 * @param limit The number of tags returned, at most TrendingTags.CANDIDATES.
+	 * @return The tags, or null if a sql exception was thrown.
+	 */
+	public List<Map.Entry<String, Integer>> trendingTags(TrendingTags.Window window, int limit) {
+		limit = Math.min(limit, TrendingTags.CANDIDATES);
+		TrendingTags trending = trendingTags;
+		if (trending != null)
+			return trending.top(window, limit);
+
+		try {
+			return messages.trendingTags(System.currentTimeMillis() - window.minutes * 60000L, limit);
+		} catch (SQLException se) {
+			System.err.println(processSqlException(se, "trendingTags(TrendingTags.Window window, int limit)"));
+			return null;
+		}
+	}
 
-			ListIterator<String> itS = tagList.listIterator();
-			ListIterator<Integer> itI = tagCount.listIterator();
+	/**
+	 * Recounts the uses of every tag from the stored messages and reloads the in-memory tag counts. Only needed if
+	 * the counts were changed outside of this program, since postMessage keeps them up to date.
+	 *
+	 * @return True if the counts were rebuilt.
+	 */
+	public boolean rebuildTagCounts() {
+		try {
+			messages.rebuildTagCounts();
+		} catch (SQLException se) {
+			System.err.println(processSqlException(se, "rebuildTagCounts()"));
+			return false;
+		}
 
-			String output = "";
+		loadTagCounts();
+		return true;
+	}
 
-			output += "Format: #tag (number of times used)\n";
+	/**
+	 * Loads the tag counts kept by the MessageStore into the in-memory tagHistogram.
+	 */
+	private void loadTagCounts() {
+		try {
+			List<Map.Entry<String, Integer>> counts = messages.tagCounts();
 
-			while(itS.hasNext()) {
-				output += itS.next() + " (" + itI.next() + ")\n";
+			tagHistogram.clear();
+			for (Map.Entry<String, Integer> e: counts) {
+				tagHistogram.put(e.getKey(), e.getValue());
 			}
-			return output;
 		} catch (SQLException se) {
-			System.err.println(processSqlException(se, "viewTags(Statement s)"));
-			return "";
-		} finally {
-			closeSqlResource(rs);
+			System.err.println(processSqlException(se, "loadTagCounts()"));
 		}
 	}
 
@@ -745,74 +1169,94 @@ public class MessageService {
 	 * 3. Birthday
 	 * 4. Email Address
 	 * 5. About me message
+	 * 6. The number of users he is subscribed to and subscribed to him
 	 *
-	 * @param s Open statement connection to the database to run sql commands.
+	 * @param profileUser Username of the profile to view.
 	 */
-	public String viewProfile(Statement s, String profileUser) {
-		ResultSet rs = null;
-		User u = new User();
-		u.username = profileUser;
+	public String viewProfile(String profileUser) {
+		User u = findUser(profileUser);
 
 		//Should really only pass valid registered users, but we check anyway.
-		if (u.userExists(s, TABLE_USERS)) {
-
-			try {
-
-				rs = s.executeQuery("select * from " + MessageService.TABLE_USERS  + " where username='" +u.username + "'");
-				boolean queryReturned = rs.next();
+		if (u == null)
+			return "Sorry this user does not exist.";
 
-				if (queryReturned) {
-					u.profileVisible = rs.getInt("profileVisible");
-					u.hasProfile = rs.getInt("hasprofile");
+		if (!isProfileVisible(u, myUser))
+			return "Sorry this user either does not have a profile, or it is set to private.";
 
-					if((u.profileVisible == 1 || u.username.equals(myUser.username) && u.hasProfile == 1)) { //profile must not be private (unless it's his own profile) and must exists
+		return u.toString(true) + "Subscribed to " + subscribedToCount(u.username) + " users, " + subscriberCount(u.username) + " subscribers\n";
+	}
 
-						//Grab profile information
-						u.profileVisible = rs.getInt("profilevisible");
-						u.gender = rs.getString("gender");
-						u.birthDate = rs.getString("birthdate");
-						u.email = rs.getString("email");
-						u.aboutMeMessage = rs.getString("aboutme");
-						
-					} else {
-						return "Sorry this user either does not have a profile, or it is set to private.";
-					}
-				}
-			} catch (SQLException se) {
-				processSqlException(se, "viewProfile(Statement s, String profileUser)");
-			} finally {
-				closeSqlResource(rs);
-			}
+	/**
+	 * Returns the number of users a user is subscribed to.
+	 */
+	public int subscribedToCount(String username) {
+		try {
+			return subscriptions.subscribedToCount(username);
+		} catch (SQLException se) {
+			System.err.println(processSqlException(se, "subscribedToCount(String username)"));
+			return 0;
 		}
-		else {
-			return "Sorry this user does not exist.";
+	}
+
+	/**
+	 * Returns the number of users subscribed to a user.
+	 */
+	public int subscriberCount(String username) {
+		try {
+			return subscriptions.subscriberCount(username);
+		} catch (SQLException se) {
+			System.err.println(processSqlException(se, "subscriberCount(String username)"));
+			return 0;
 		}
-		return u.toString(true);
 	}
 
 	/**
-	 * Returns a string containing a list of all registered users within this system.
+	 * True if the passed user may see the profile of a user.
+	 *
+	 * @param u The user whose profile is viewed.
+	 * @param viewer The user viewing the profile.
+	 */
+	static boolean isProfileVisible(User u, User viewer) {
+		//profile must not be private (unless it's his own profile) and must exists
+		return u.profileVisible == 1 || u.username.equals(viewer.username) && u.hasProfile == 1;
+	}
+
+	/**
+	 * Returns a string containing the first PAGE_SIZE registered users within this system.
 	 *
-	 * @param s Open statement connection to the database to run sql commands.
 	 * @return string containing new-line-seperated list of users.
 	 */
-	public String viewUsers(Statement s)
+	public String viewUsers()
+	{
+		return viewUsers(PAGE_SIZE, null).text;
+	}
+
+	/**
+	 * Returns one page of the registered users within this system in alphabetical order.
+	 *
+	 * @param limit The # of users on the page.
+	 * @param cursor Cursor token from the previous page, or null for the first page.
+	 * @return page containing new-line-seperated list of users.
+	 */
+	public Page viewUsers(int limit, String cursor)
 	{
-		ResultSet rs = null;
 		String toRet = "";
+		String last = null;
 
 		try {
-			rs = s.executeQuery("select username from " + MessageService.TABLE_USERS);
-
-			while (rs.next()) {	
-				toRet += (rs.getString(1)) + "\n";
+			//the cursor is the last username of the previous page.
+			int count = 0;
+			for (String username: users.usernames(cursor == null ? "" : cursor, limit + 1)) {
+				if (count == limit)
+					return new Page(toRet, last);
+				count++;
+				last = username;
+				toRet += last + "\n";
 			}
 		} catch (SQLException se) {
-			System.err.println(processSqlException(se, "viewUsers(Statement s)"));
-		} finally {
-			closeSqlResource(rs);
+			System.err.println(processSqlException(se, "viewUsers(int limit, String cursor)"));
 		}
-		return toRet;
+		return new Page(toRet, null);
 	}
 
 	/**
@@ -820,10 +1264,8 @@ public class MessageService {
 	 * Prompts the user for each piece of information within his profile.
 	 * User can only update certain parts.
 	 *
-	 * @param s Open statement connection to the database for running sql commands.
-	 * @param psProfileUpdate Open prepared statement to the database for updating profile information.
 	 */
-	public void editProfile(Statement s, PreparedStatement psProfileUpdate)
+	public void editProfile()
 	{
 		boolean updated = false;
 		if(myUser.hasProfile == 1) {
@@ -890,53 +1332,36 @@ public class MessageService {
 				System.out.println("Returning to menu.");
 			}
 		}
-		if(updated) {
-			try {
-				psProfileUpdate.setInt(1, myUser.hasProfile);
-				psProfileUpdate.setInt(2, myUser.profileVisible);
-				psProfileUpdate.setString(3, myUser.gender);
-				psProfileUpdate.setString(4, myUser.birthDate);
-				psProfileUpdate.setString(5, myUser.email);
-				psProfileUpdate.setString(6, myUser.aboutMeMessage);
-				psProfileUpdate.setString(7, myUser.username);
-
-				psProfileUpdate.executeUpdate();
-
-			} catch (SQLException se) {
-				System.err.println(processSqlException(se, "editProfile(Statement s, PreparedStatement psInsertUser)"));
-			}
-		}
+		if(updated)
+			editProfileGUI(myUser);
 	}
 	
-	public void editProfileGUI(Statement s, PreparedStatement psProfileUpdate, User u) {
+	/**
+	 * Saves the profile information of the passed user to the UserStore. Used by the GUI, which collects the
+	 * information itself.
+	 *
+	 * @param u The user whose profile is saved.
+	 */
+	public void editProfileGUI(User u) {
 		try {
-			psProfileUpdate.setInt(1, u.hasProfile);
-			psProfileUpdate.setInt(2, u.profileVisible);
-			psProfileUpdate.setString(3, u.gender);
-			psProfileUpdate.setString(4, u.birthDate);
-			psProfileUpdate.setString(5, u.email);
-			psProfileUpdate.setString(6, u.aboutMeMessage);
-			psProfileUpdate.setString(7, u.username);
-
-			psProfileUpdate.executeUpdate();
+			users.updateProfile(u);
+			userCache.remove(u.username); //read again with the new profile on the next lookup.
 
 		} catch (SQLException se) {
-			System.err.println(processSqlException(se, "editProfile(Statement s, PreparedStatement psInsertUser)"));
+			System.err.println(processSqlException(se, "editProfileGUI(User u)"));
 		}
 	}
 
 	/**
 	 * Lets registered and guest users post messages to the database. Prompts users for messages, which can specify a reply to another user's last message with @someusername.
-	 * 		The user can also specify a grouping tag, hashtag, by using #somedescription. @username must be the very first item if specified followed by the #hashtag if specified.
-	 * 		That is: [@username] [#hashtag] [*private] message contents
+	 * 		The user can also specify a grouping tag, hashtag, by using #somedescription. The @username, #hashtag and *private prefixes may come in any order
+	 * 		before the contents (see PostParser). That is: [@username] [#hashtag] [*private] message contents
 	 * 
 	 * Please refer to MessageService.TABLE_MESSAGES for information pertaining to the database table.
 	 * 
-	 * @param s
-	 * @param psPostMessage
-	 * @return
+	 * @return True if the message was posted.
 	 */
-	public boolean postMessage(Statement s, PreparedStatement psPostMessage) {
+	public boolean postMessage() {
 
 		//Start prompting user for message information
 		System.out.println("Example: @david #movies *private I saw the greatest movie yesterday!");
@@ -947,90 +1372,278 @@ public class MessageService {
 		System.out.println("Format: [@someuser] [#sometag] [*private] message contents");
 		System.out.println("Message: ");
 
-		return postMessage(s, psPostMessage, inputStream.nextLine());
+		return postMessage(inputStream.nextLine());
 
 	}
 
 	/**
 	 * Lets registered and guest users post messages to the database. Prompts users for messages, which can specify a reply to another user's last message with @someusername.
-	 * 		The user can also specify a grouping tag, hashtag, by using #somedescription. @username must be the very first item if specified followed by the #hashtag if specified.
-	 * 		That is: [@username] [#hashtag] [*private] message contents
+	 * 		The user can also specify a grouping tag, hashtag, by using #somedescription. The @username, #hashtag and *private prefixes may come in any order
+	 * 		before the contents (see PostParser). That is: [@username] [#hashtag] [*private] message contents
 	 * 
 	 * Please refer to MessageService.TABLE_MESSAGES for information pertaining to the database table.
 	 * 
-	 * @param s
-	 * @param psPostMessage
-	 * @return
+	 * @param message The message, ie "@david #movies *private I saw the greatest movie yesterday!"
+	 * @return True if the message was posted.
+	 */
+	public boolean postMessage(String message) {
+		return postMessage(myUser, message);
+	}
+
+	/**
+	 * Posts a message as the passed user. Used by the ApiServer, which serves many users at once.
+	 *
+	 * @param author The user posting.
+	 * @param message The message, ie "@david #movies *private I saw the greatest movie yesterday!"
+	 * @return True if the message was posted.
+	 */
+	public boolean postMessage(User author, String message) {
+		Message m = newMessage(author.username, message);
+		if (m == null)
+			return false;
+
+		ArrayList<Message> batch = new ArrayList<Message>(1);
+		batch.add(m);
+		return commitMessages(batch) == 1;
+	}
+
+	/**
+	 * Prompts for a text file and posts each of its lines as a message by the current user (see postMessages()).
+	 */
+	public void importMessages() {
+		System.out.print("Path of the file to import, one message per line: ");
+		String path = inputStream.nextLine();
+
+		try {
+			List<String> lines = java.nio.file.Files.readAllLines(java.nio.file.Paths.get(path), java.nio.charset.StandardCharsets.UTF_8);
+			ArrayList<String> messages = new ArrayList<String>(lines.size());
+			for (String line: lines) {
+				if (!line.trim().isEmpty())
+					messages.add(line);
+			}
+
+			long start = System.currentTimeMillis();
+			int posted = postMessages(messages);
+			System.out.println("Posted " + posted + " of " + messages.size() + " messages in " + (System.currentTimeMillis() - start) + "ms.");
+		} catch (java.io.IOException ie) {
+			System.out.println("The file could not be read: " + ie.getMessage());
+		}
+	}
+
+	/**
+	 * Posts many messages by the current user at once. The messages are committed in groups of up to ingestMaxBatch,
+	 * which is far cheaper than posting them one by one. A message that can not be posted (ie too long) does not stop
+	 * the others.
+	 *
+	 * @param messages The messages, each in the format of postMessage(String message).
+	 * @return The number of messages posted.
+	 */
+	public int postMessages(List<String> messages) {
+		int r = 0;
+		ArrayList<Message> batch = new ArrayList<Message>(Math.min(messages.size(), ingestMaxBatch));
+
+		for (String message: messages) {
+			Message m = newMessage(myUser.username, message);
+			if (m == null)
+				continue;
+
+			batch.add(m);
+			if (batch.size() == ingestMaxBatch) {
+				r += commitMessages(batch);
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty())
+			r += commitMessages(batch);
+
+		return r;
+	}
+
+	/**
+	 * Queues a message by the current user to be posted in the background (see MessageIngestor). Returns right away.
+	 *
+	 * @param message The message, in the format of postMessage(String message).
+	 * @return False if the message could not be queued because it is too long or the Message Service is shutting down.
+	 */
+	public boolean postMessageAsync(String message) {
+		return ingestor().submit(myUser.username, message);
+	}
+
+	/**
+	 * Returns the background message ingestor, starting it on first use.
+	 */
+	public synchronized MessageIngestor ingestor() {
+		if (ingestor == null)
+			ingestor = new MessageIngestor(this, ingestMaxBatch, ingestLingerMillis, INGEST_QUEUE_CAPACITY);
+		return ingestor;
+	}
+
+	/**
+	 * Builds a new message from what the author typed, ie "@david #movies *private I saw the greatest movie yesterday!".
+	 * Gives it its id and timestamp but does not store it. The length of the contents is checked before the database
+	 * is read for the message replied to.
+	 *
+	 * @param author Username of the author.
+	 * @param message The message as typed by the author, see PostParser.
+	 * @return The message, or null if its contents are longer than PostParser.MAX_CONTENTS_LENGTH.
 	 */
-	public boolean postMessage(Statement s, PreparedStatement psPostMessage, String message) {
+	Message newMessage(String author, String message) {
+		Message m = new Message();
+		PostParser post = PostParser.forThread().parse(message);
+		m.username = author;
 
-		boolean r = false;
-		ResultSet rs = null;
-		int mCount = 0;
+		m.contents = post.contents();
 
-		Message m = new Message();
-		String [] splitMessage = null;
+		//Is the message tagged? A leading tag that is too long stays part of the contents.
+		if (post.hasTag()) {
+			m.tag = normalizeTag(post.tag());
+			if (m.tag == null)
+				m.contents = post.tag() + (m.contents.isEmpty() ? "" : " " + m.contents);
+		}
 
-		splitMessage = extractMessageInfo(message);
+		if (m.contents.length() > PostParser.MAX_CONTENTS_LENGTH) {
+			System.out.println("You have tried to post a message that is over the " + PostParser.MAX_CONTENTS_LENGTH + " character limit for this system. Please try to shorten your message.");
+			return null;
+		}
+		m.tags = messageTags(m.tag, m.contents);
+
+		//Is the message private and only meant for subscribers?
+		m.isPrivate = post.isPrivate() ? 1 : 0; //Flag 1 is private 0 is public.
 
 		//Is it a reply?
-		if (!splitMessage[0].equals("@null")) {
+		m.id = MessageIdAllocator.displayId(author, idAllocator.nextId());
+		if (post.isReply()) {
 			m.isReply = true;
-			m.repliedToUsername = splitMessage[0].substring(1, splitMessage[0].length()); //removes @ to get just username of parent.
-			getMessageId(s, m.repliedToUsername, m); //Updates message, m, id.
+			m.repliedToUsername = post.replyTo();
+
+			//The reply joins the thread of the replied to user's latest message, or starts one if he has not posted yet.
+			String[] parent = getReplyParent(m.repliedToUsername);
+			if (parent != null) {
+				m.parentId = parent[0];
+				m.threadId = parent[1];
+			} else {
+				m.threadId = m.id;
+			}
 
 		} else {
 			m.isReply = false;
 			m.repliedToUsername = null;
-			mCount = getMessageId(s, myUser.username, m); //Updates message, m, id.
+			m.threadId = m.id;
 		}
 
-		//Is the message tagged?
-		if (!splitMessage[1].equals("#null"))
-			m.tag = splitMessage[1];
+		m.timestamp = new Timestamp(new java.util.Date().getTime());
 
-		//Is the message private and only meant for subscribers?
-		if (!splitMessage[2].equals("*null")) //*private was not supplied
-			m.isPrivate = 1; //Flag 1 is private 0 is public.
-		else
-			m.isPrivate = 0; //*private was supplied.
+		return m;
+	}
 
-		m.contents = splitMessage[3]; //store actual message;
+	/**
+	 * Returns a tag as stored: the # followed by the letters, digits and underscores that follow it, in lower case,
+	 * ie "#movies" for "#Movies!".
+	 *
+	 * @param tag The tag as typed, starting with #.
+	 * @return The tag, or null if it is empty or longer than MAX_TAG_LENGTH.
+	 */
+	static String normalizeTag(String tag) {
+		if (tag == null || !tag.startsWith("#"))
+			return null;
 
-		m.timestamp = new Timestamp(new java.util.Date().getTime());
+		int end = 1;
+		while (end < tag.length() && isTagChar(tag.charAt(end))) {
+			end++;
+		}
+		if (end == 1 || end > MAX_TAG_LENGTH)
+			return null;
+		return tag.substring(0, end).toLowerCase();
+	}
 
-		//Add values to prepared statement.
-		try {
-			psPostMessage.setString(1, m.id);
-			psPostMessage.setTimestamp(2, m.timestamp);
-			psPostMessage.setString(3, myUser.username); //user posting a message or a reply
-			psPostMessage.setString(4, m.tag);
-			psPostMessage.setInt(5, m.returnReplyFlag());
-			psPostMessage.setString(6, m.repliedToUsername); //user being replied to, ie parent message to this reply message.
-			psPostMessage.setString(7, m.contents);
-			psPostMessage.setInt(8, m.isPrivate);
+	/**
+	 * Returns every tag of a message: its leading tag, followed by each #tag in its contents that starts a word,
+	 * each once.
+	 *
+	 * @param leadingTag The tag stripped from the start of the message, or null.
+	 * @param contents The message contents.
+	 */
+	static List<String> messageTags(String leadingTag, String contents) {
+		LinkedHashSet<String> tags = new LinkedHashSet<String>();
+		String tag = normalizeTag(leadingTag);
+		if (tag != null)
+			tags.add(tag);
+
+		if (contents != null) {
+			for (int i = contents.indexOf('#'); i != -1; i = contents.indexOf('#', i + 1)) {
+				if (i > 0 && !Character.isWhitespace(contents.charAt(i - 1)))
+					continue; //ie "C#", not a tag.
+
+				int end = i + 1;
+				while (end < contents.length() && isTagChar(contents.charAt(end))) {
+					end++;
+				}
+				tag = normalizeTag(contents.substring(i, end));
+				if (tag != null)
+					tags.add(tag);
+			}
+		}
+		return new ArrayList<String>(tags);
+	}
 
-			psPostMessage.executeUpdate(); //content pushed to database.
+	static boolean isTagChar(char ch) {
+		return Character.isLetterOrDigit(ch) || ch == '_';
+	}
 
+	/**
+	 * Stores a group of new messages, their home timeline copies and their tag counts together (see
+	 * MessageStore.insert()). If the group fails, each message is retried on its own so that one bad message only
+	 * loses itself.
+	 *
+	 * @param batch Messages from newMessage().
+	 * @return The number of messages stored.
+	 */
+	int commitMessages(List<Message> batch) {
+		try {
+			messages.insert(batch);
 
-			//Now we must update the value of the latest message index count for the user.
-			if (!m.isReply) {
-				s.executeUpdate("update " + MessageService.TABLE_USERS + " set messagecount=" + mCount + " where username='" + myUser.username + "'");
+		} catch (SQLException se) {
+			if (batch.size() > 1) { //find the bad message(s).
+				int r = 0;
+				for (Message m: batch) {
+					r += commitMessages(Collections.singletonList(m));
+				}
+				return r;
 			}
 
-			r = true;
-		} catch (SQLException se) {
-			
-			if (se.getSQLState().equals("22001")) {
+			if ("22001".equals(sqlState(se))) {
 				System.out.println("You have tried to post a message that is over the 140 character limit for this system. Please try to shorten your message.");
 			} else {
-				System.err.println(processSqlException(se, "postMessage(Statement s, PreparedStatement psPostMessage)"));
+				System.err.println(processSqlException(se, "commitMessages(List<Message> batch)"));
 			}
-		} finally {
-			closeSqlResource(rs);
+			return 0;
 		}
 
-		return r;
+		countTags(batch);
+		SearchIndex index = searchIndex;
+		for (Message m: batch) {
+			recentMessageCache.add(m);
+			if (index != null)
+				index.add(m);
+			eventBus.publish(m);
+		}
+		return batch.size();
+	}
+
+	/**
+	 * Adds the tags of committed messages to the in-memory tagHistogram and trendingTags.
+	 */
+	private void countTags(List<Message> batch) {
+		TrendingTags trending = trendingTags;
+		for (Message m: batch) {
+			if (m.tags != null && m.isPrivate == 0) {
+				for (String tag: m.tags) {
+					tagHistogram.increment(tag);
+					if (trending != null)
+						trending.add(tag, m.timestamp.getTime());
+				}
+			}
+		}
 	}
 
 
@@ -1038,25 +1651,24 @@ public class MessageService {
 	 * Prints the most recent five messages from each user he/she is subscribed to (if logged in), his most recent five messages (if logged in), the guest
 	 * users most recent messages. Private messages from his subscriptions are printed also (if logged in).
 	 * 
-	 * @param s An open statement connection to the database for running Sql commands.'
 	 * @param limit The number of recent messages you wish to show.
 	 */
-	public String viewRecentMessages(Statement s, int limit) {
+	public String viewRecentMessages(int limit) {
 
 		String toRet = "";
 		if (!myUser.isGuest) {
 			toRet += "My Recent Messages:\n";
-			toRet += viewUserMessages(s, myUser.username, limit);
+			toRet += viewUserMessages(myUser.username, limit);
 			
 			toRet += "\nSubscribed To Messages:\n";
-			toRet += viewSubscribedToMessages(s, limit) + "\n";
+			toRet += viewSubscribedToMessages(limit) + "\n";
 			
 			toRet += "\nReplies to Me:\n";
-			toRet += viewReplyMessages(s, limit);
+			toRet += viewReplyMessages(limit);
 		}
 
 		toRet += "\nGuest Messages:\n";
-		toRet += viewUserMessages(s, USER_GUEST, limit);
+		toRet += viewUserMessages(USER_GUEST, limit);
 		return toRet;
 	}
 
@@ -1072,58 +1684,46 @@ public class MessageService {
 	 * messages from each user he/she is subscribed to, his most recent five messages, the guest
 	 * users most recent messages. Private messages from his subscriptions are printed also.
 
-	 * @param s An open statement connection to the database for running Sql commands.'
 	 * @param u A User object with username and password information.
 	 * @param limit The number of recent messages you wish to show.
 	 */
-	public boolean userLoginGUI(Statement s, User u, int limit) {
+	public boolean userLoginGUI(User u, int limit) {
+
+		if (!authenticate(u))
+			return false;
+
+		myUser = u; //User is now fully logged in.
+		return true;
+	}
+
+	/**
+	 * Checks the username and password of the passed user and, if they match, fills in the rest of the user's
+	 * information, without logging him in. Used by userLoginGUI() and by the ApiServer, which serves many users at
+	 * once.
+	 *
+	 * @param u A User object with username and password information.
+	 * @return True if the username and password match.
+	 */
+	public boolean authenticate(User u) {
 
-		ResultSet rs = null;
-		
 		if (u == null || u.username == null || u.password == null) { //no user information provided.
 				return false;
-		} else {
+		}
 
-			try {
-				//This query will be used later to pull profile information if the correct username was provided.
-				rs = s.executeQuery("select * from " + MessageService.TABLE_USERS  + " where username='" + u.username + "'");
+		User registered = findUser(u.username);
 
-				//Our query above should return one row.
-				//rs.next() basically moves the cursor from row 0 (just a placeholder) to the first row
-				// returned, which in our case is the only row.
-				boolean queryReturned = rs.next();
+		//If no user was found than our username is incorrect.
+		//Check if our passwords don't match.
+		//Either case, we need to double-back to the user to get the incorrect info.
+		if (registered == null || !u.password.equals(registered.password))
+			return false;
 
-				//If our query did not return a result than our username is incorrect.
-				//Check if our passwords don't match.
-				//Either case, we need to double-back to the user to get the incorrect info.
-				if (!queryReturned || !u.password.equals(rs.getString("password"))) {
-					return false;
-				}
-				else {
-					u.isGuest = false;
-					u.hasProfile = rs.getInt("hasprofile"); //check for a profile.
-						
-					//CHeck if user has a profile pull rest of his/her information.
-					if (u.hasProfile == 1) { //login was successful	
-	
-						//Grab profile information and print it.
-						u.profileVisible = rs.getInt("profilevisible");
-						u.gender = rs.getString("gender");
-						u.birthDate = rs.getString("birthdate");
-						u.email = rs.getString("email");
-						u.aboutMeMessage = rs.getString("aboutme");
-					}
-					myUser = u; //User is now fully logged in.
-					//Print User's messages
-					viewRecentMessages(s, limit);
-				}
+		u.isGuest = false;
+		u.hasProfile = registered.hasProfile; //check for a profile.
 
-			} catch (SQLException se) {
-				System.err.println(processSqlException(se, "login(Statement s)"));
-			} finally {
-				closeSqlResource(rs);
-			}
-		} //end while
+		//CHeck if user has a profile pull rest of his/her information.
+		if (u.hasProfile == 1)
+			copyProfile(registered, u);
 
 		return true;
 	}
@@ -1133,11 +1733,9 @@ public class MessageService {
 	 * messages from each user he/she is subscribed to, his most recent five messages, the guest
 	 * users most recent messages. Private messages from his subscriptions are printed also.
 
-	 * @param s An open statement connection to the database for running Sql commands.
 	 */
-	public boolean userLogin(Statement s) {
+	public boolean userLogin() {
 		int limit = 5;
-		ResultSet rs = null;
 		boolean badCredentials = true;
 		int attempts = 0;
 
@@ -1156,47 +1754,26 @@ public class MessageService {
 			System.out.print("Password: ");
 			myUser.password = inputStream.nextLine();
 
-			try {
-				//This query will be used later to pull profile information if the correct username was provided.
-				rs = s.executeQuery("select * from " + MessageService.TABLE_USERS  + " where username='" + myUser.username + "'");
+			User registered = findUser(myUser.username);
 
-				//Our query above should return one row.
-				//rs.next() basically moves the cursor from row 0 (just a placeholder) to the first row
-				// returned, which in our case is the only row.
-				boolean queryReturned = rs.next();
-
-				//If our query did not return a result than our username is incorrect.
-				//Check if our passwords don't match.
-				//Either case, we need to double-back to the user to get the incorrect info.
-				if (!queryReturned || !myUser.password.equals(rs.getString("password"))) {
-					badCredentials = true;
-				}
-				else {
-					badCredentials = false; //good username and password
-					myUser.isGuest = false;
-					myUser.hasProfile = rs.getInt("hasprofile"); //check for a profile.
-				
-
-					//The login was a success and user has a profile pull rest of his/her information.
-					if (myUser.hasProfile == 1) { //login was successful	
-	
-						//Grab profile information and print it.
-						myUser.profileVisible = rs.getInt("profilevisible");
-						myUser.gender = rs.getString("gender");
-						myUser.birthDate = rs.getString("birthdate");
-						myUser.email = rs.getString("email");
-						myUser.aboutMeMessage = rs.getString("aboutme");
-						System.out.println(myUser.toString(true));
-					}
-					//Print User's messages
-					System.out.println(viewRecentMessages(s, limit));
-				
+			//If no user was found than our username is incorrect.
+			//Check if our passwords don't match.
+			//Either case, we need to double-back to the user to get the incorrect info.
+			if (registered == null || !myUser.password.equals(registered.password)) {
+				badCredentials = true;
+			}
+			else {
+				badCredentials = false; //good username and password
+				myUser.isGuest = false;
+				myUser.hasProfile = registered.hasProfile; //check for a profile.
+
+				//The login was a success and user has a profile pull rest of his/her information.
+				if (myUser.hasProfile == 1) { //login was successful
+					copyProfile(registered, myUser);
+					System.out.println(myUser.toString(true));
 				}
-
-			} catch (SQLException se) {
-				System.err.println(processSqlException(se, "login(Statement s)"));
-			} finally {
-				closeSqlResource(rs);
+				//Print User's messages
+				System.out.println(viewRecentMessages(limit));
 			}
 		} //end while
 
@@ -1210,12 +1787,10 @@ public class MessageService {
 	 * Checks to see if the username already is in use. Checks to see the username only
 	 * contains letters (no numbers or special characters).
 	 *  
-	 * @param s - An open statement connection to the database for running sql commands
-	 * @param psInsertUser - an open preparedstatement for inserting into the users table of the database.
 	 * @return - true if the user didn't already exists, if the username didn't already exists, and if no sql
 	 * 			exception was thrown when adding the user to the database.
 	 */
-	public boolean registerNewUser(Statement s, PreparedStatement psInsertUser) {
+	public boolean registerNewUser() {
 		User u = new User();
 
 		//Start prompting user for information.
@@ -1225,7 +1800,7 @@ public class MessageService {
 		//Check if the user already exist or if the username is already in use.
 
 		//@josiah @debug
-		while (u.userExists(s, MessageService.TABLE_USERS) ) { //@josiah @debug || u.username.contains(check for charactors only
+		while (userExists(u.username)) { //@josiah @debug || u.username.contains(check for charactors only
 			if (getAnswer("Username already exists, would you like to choose another? ")) {
 				System.out.println("username? ");
 				u.username = inputStream.nextLine().toLowerCase();
@@ -1254,7 +1829,7 @@ public class MessageService {
 			System.out.print("Write a short message about yourself: ");
 			u.aboutMeMessage = inputStream.nextLine();
 		}
-		return registerNewUser(s, psInsertUser, u);
+		return registerNewUser(u);
 	}
 
 
@@ -1265,36 +1840,42 @@ public class MessageService {
 	 * Checks to see if the username already is in use. Checks to see the username only
 	 * contains letters (no numbers or special characters). @debug implement this
 	 * 
-	 * @param s - An open statement connection to the database for running sql commands.
-	 * @param psInsertUser - an open preparedstatement for inserting into the users table of the database.
 	 * @param u - A user object to register.
 	 * @return - true if the user didn't already exists, if the username didn't already exists, and if no sql
 	 * 			exception was thrown when adding the user to the database.
 	 */
-	public boolean registerNewUser(Statement s, PreparedStatement psInsertUser, User u) {
-		boolean r = false;
+	public boolean registerNewUser(User u) {
 		myUser = u;
 
-		//add to database:
-		try {
-			psInsertUser.setString(1, myUser.username);
-			psInsertUser.setString(2, myUser.password);
-			psInsertUser.setInt(3, 0); //New users have not posted any messages.
-			psInsertUser.setInt(4, myUser.hasProfile);
-			psInsertUser.setInt(5, myUser.profileVisible);
-			psInsertUser.setString(6, myUser.gender);
-			psInsertUser.setString(7, myUser.birthDate);
-			psInsertUser.setString(8, myUser.email);
-			psInsertUser.setString(9, myUser.aboutMeMessage);
+		int r = addUser(u);
+		if (r == ADD_USER_TAKEN)
+			System.out.println("Sorry, the username " + u.username + " is already taken.");
+		return r == ADD_USER_ADDED;
+	}
+
+	/**
+	 * Adds a user to the database without logging him in. Used by registerNewUser() and by the ApiServer, which
+	 * serves many users at once.
+	 *
+	 * @param u A user object to register, which is no longer a guest once added.
+	 * @return ADD_USER_ADDED, ADD_USER_TAKEN if someone registered the username first or ADD_USER_FAILED if a sql
+	 * 		exception was thrown.
+	 */
+	public int addUser(User u) {
+		int r = ADD_USER_FAILED;
 
-			psInsertUser.executeUpdate();
+		//add to the user store:
+		try {
+			if (!users.insert(u))
+				return ADD_USER_TAKEN; //someone else registered the username first.
 
-			r = true; //user was added.
+			r = ADD_USER_ADDED; //user was added.
 
-			myUser.isGuest = false; //no longer a guest.
+			u.isGuest = false; //no longer a guest.
+			userCache.put(u);
+			addToUsernameFilter(u.username);
 		} catch (SQLException se) {
-			r = false;
-			System.err.println(processSqlException(se, "registerNewUser(Statement s, PreparedStatement psInsertUser)"));
+			System.err.println(processSqlException(se, "addUser(User u)"));
 		}
 		return r;
 	}
@@ -1305,34 +1886,26 @@ public class MessageService {
 	 * constant MessageService.USER_GUEST. The guest account has no profile or
 	 * password associated with it.
 	 *
-	 * @param s An open statement connection to the database for running sql commands.
-	 * @param psInsertUser An open preparedstatement connection for inserting into the users table of the database.
 	 */
-	private boolean registerSystemGuestUser(Statement s, PreparedStatement psInsertUser) {
+	private boolean registerSystemGuestUser() {
 		boolean r = false;
 
 		myUser.username = MessageService.USER_GUEST;
 
 		try {
 			//Check if the system guest user has been created.
-			if (!myUser.userExists(s, MessageService.TABLE_USERS)) {
-				psInsertUser.setString(1, myUser.username);
-				psInsertUser.setString(2, null);
-				psInsertUser.setInt(3, 0); //New users have not posted any messages.
-				psInsertUser.setInt(4, 0); //No profile for guest users.
-				psInsertUser.setInt(5, 0);
-				psInsertUser.setString(6, null);
-				psInsertUser.setString(7, null);
-				psInsertUser.setString(8, null);
-				psInsertUser.setString(9, null);
-
-				psInsertUser.executeUpdate();
+			if (!myUser.userExists(users)) {
+				User guest = new User(myUser.username, null);
+				guest.hasProfile = 0; //No profile for guest users.
+				guest.profileVisible = 0;
+
+				users.insert(guest); //false if another program added it meanwhile.
 				r = true; //added guest user.
 			} else
 				r = true; //user already exists.
 			
 		} catch (SQLException se) {
-			System.err.println(processSqlException(se, "registerSystemGuestUser(Statement s, PreparedStatement psInsertUser)"));
+			System.err.println(processSqlException(se, "registerSystemGuestUser()"));
 		}
 		return r;
 	}
@@ -1355,10 +1928,14 @@ public class MessageService {
 	 * 9.5 View most recent messages (logged in or guest)
 	 * 10. View a list of registered users
 	 * 11. View a list of previously used tags
+	 * 11.25 View the tags trending in the last 15 minutes, hour or day
+	 * 11.5 Rebuild the tag counts
 	 * 12. View messages tagged with #sometag
 	 * 13. View a chain of messages (message and any replies)
 	 * 14. Subcribe to a user's messages
 	 * 15. View messages from your subscriptions
+	 * 16. View database connection pool and cache statistics
+	 * 17. Import messages from a file
 	 * 
 	 * @param isGuest True if the current user of the system is a guest or not logged in, false otherwise.
 	 * @return a valid menu choice.
@@ -1384,13 +1961,18 @@ public class MessageService {
 			System.out.println("* Press: 'VRM' to view most recent messages");
 			System.out.println("* Press: 'VU' to view a list of users");
 			System.out.println("* Press 'VT' to view a list of tags");
+			System.out.println("* Press: 'TT' to view trending tags");
+			System.out.println("* Press: 'RT' to rebuild the tag counts");
 			System.out.println("* Press: 'VTM' to view messages with a tag");
 			System.out.println("* Press: 'VM' to view a message by its ID");
+			System.out.println("* Press: 'SM' to search messages");
 
 			if (!isGuest) {
 				System.out.println("* Press: 'SU' to subcribe to a user");
 				System.out.println("* Press: 'VSM' to view messages from users you have subscribed to");
 			}
+			System.out.println("* Press: 'IM' to import messages from a file");
+			System.out.println("* Press: 'PS' to view database connection pool and cache statistics");
 			System.out.println("**************************************************");
 			System.out.println();
 
@@ -1411,8 +1993,13 @@ public class MessageService {
 				case "vrm":
 				case "vu":
 				case "vt":
+				case "tt":
+				case "rt":
 				case "vtm":
 				case "vm":
+				case "sm":
+				case "im":
+				case "ps":
 					break; //Stop the fall through, no more valid choices.
 				default:
 					System.out.println("I'm sorry I don't recognize that option. Please select an option from the menu: ");
@@ -1430,10 +2017,15 @@ public class MessageService {
 				case "vrm":
 				case "vu":
 				case "vt":
+				case "tt":
+				case "rt":
 				case "vtm":
 				case "vm":
+				case "sm":
 				case "su":
 				case "vsm":
+				case "im":
+				case "ps":
 					break; //Stop the fall through, no more valid choices.
 				default:
 					System.out.println("I'm sorry I don't recognize that option. Please select an option from the menu: ");
@@ -1499,6 +2091,33 @@ public class MessageService {
 		}
 	}
 
+	/**
+	 * Rolls back the current transaction of the passed connection. Used in catch blocks, so any exception
+	 * thrown by the rollback itself is only logged.
+	 *
+	 * @param c A connection borrowed from the pool, or null if borrowing it failed.
+	 */
+	public static void rollback(PooledConnection c) {
+		try {
+			if (c != null && !c.connection.getAutoCommit())
+				c.connection.rollback();
+		} catch (SQLException se) {
+			System.err.println(processSqlException(se, "rollback(PooledConnection c)"));
+		}
+	}
+
+	/**
+	 * Returns the SQLState of the passed exception. A BatchUpdateException may not have one itself, in which case the
+	 * SQLState of the first exception chained to it that does is returned.
+	 */
+	public static String sqlState(SQLException se) {
+		for (SQLException e = se; e != null; e = e.getNextException()) {
+			if (e.getSQLState() != null)
+				return e.getSQLState();
+		}
+		return null;
+	}
+
 	/**
 	 * Returns a formatted string of the information associated with the passed Sql exception.
 	 * If the exception is chained, the chain will be following and appended to the returned string.
@@ -1527,10 +2146,9 @@ public class MessageService {
 	 * Prompts for a username and checks if it is registered in the system. If the username 
 	 * is valid (registered) than the name is returned. Otherwise, null is returned.
 	 *
-	 * @param s Open statement connenction to the database to run sql commands.
 	 * @param promptMessage A message to be used as a prompt to the user for requesting a username.
 	 */
-	public String promptForUsername (Statement s, String promptMessage) {
+	public String promptForUsername (String promptMessage) {
 		User tempUser;
 		boolean userExists = false;
 
@@ -1540,7 +2158,7 @@ public class MessageService {
 			System.out.println(promptMessage);
 			tempUser.username = inputStream.nextLine().toLowerCase();
 
-			userExists = tempUser.userExists(s, MessageService.TABLE_USERS);
+			userExists = userExists(tempUser.username);
 		} while (!userExists && getAnswer("Im sorry that username is not registered in our system. Try again? "));
 
 		if (userExists)
@@ -1551,127 +2169,164 @@ public class MessageService {
 	}
 
 	/**
-	 * Get's the current message index for the registered user or the system built in guest and increments it by one. The username and the new message index is returned as the message id.
-	 * 		If the message is a reply it retains the message id of the replied to user's last message, or the parent message. In this case, the message index will not be incremented.
-	 * 
-	 * Example: david_34
-	 * 	
-	 * @param s open SQL Statement
-	 * @param username Message Id based off of this username. Pass the replying username when message is a reply and not the parent username. 
-	 * @param isReply - True if message is a reply to another message, false otherwise.
-	 * @return Updated users message count
+	 * Checks the database for the username to see if it exists.
+	 *
+	 * @param username The username to look for.
+	 * @return True if the username was found in the database and false otherwise.
 	 */
-	private int getMessageId(Statement s, String username, Message m) {
-		ResultSet rs = null;
-		int index = 0;
-
-		try {
-			rs = s.executeQuery("select messagecount from " + MessageService.TABLE_USERS + " where username='" + username + "'");	
-
-			//The sql query should have selected one row and one column and should contain exactly on result.
-			boolean hasItem = rs.next();
+	public boolean userExists(String username) {
+		//Definitely not registered. Only used in embedded mode, since in client mode other programs register users too.
+		UsernameFilter filter = usernameFilter;
+		if (filter != null && !filter.mightContain(username))
+			return false;
 
-			assert hasItem: "You should only be passing the system guest username, or a registered username"; //@cleanup do we still want asserts?
+		//Users are never removed, so a cached user still exists even if another program changed its row.
+		if (userCache.get(username) != null)
+			return true;
 
-			index = rs.getInt("messagecount"); //get last message count for username.
+		return loadUser(username) != null;
+	}
 
-			if (!m.isReply) //Replies keep parent id so we only need to increment for regular messages.
-				index++;
+	/**
+	 * Returns the row of a registered user, password and profile included. In embedded mode the row comes from the
+	 * userCache when it is there; in client mode it is always read from the database, since another program may
+	 * have changed it.
+	 *
+	 * @param username The username to look for.
+	 * @return A copy of the user, or null if the username is not registered.
+	 */
+	public User findUser(String username) {
+		if (isEmbedded) {
+			User u = userCache.get(username);
+			if (u != null)
+				return u;
+		}
+		return loadUser(username);
+	}
 
-			m.id = username + "_" + index;
+	/**
+	 * Reads a user from the UserStore and caches it.
+	 *
+	 * @param username The username to look for.
+	 * @return The user, or null if the username is not registered (or the query failed).
+	 */
+	private User loadUser(String username) {
+		try {
+			User u = users.find(username);
+			if (u == null)
+				return null;
 
+			u.isGuest = u.username.equals(USER_GUEST);
+			userCache.put(u);
+			return u;
 		} catch (SQLException se) {
-			System.err.println(processSqlException(se, "getMessageId(Statement s, String username, boolean isReply) "));
-		} finally {
-			closeSqlResource(rs);
+			System.err.println(processSqlException(se, "loadUser(String username)"));
+			return null;
 		}
+	}
 
-		assert m.id != null: "Some fatal error prevented the method from getting a message id"; //@cleanup do we still want asserts?
+	/**
+	 * Builds the usernameFilter from all registered usernames, sized for twice as many users (at least
+	 * USERNAME_FILTER_MIN_CAPACITY) so it has room to grow.
+	 */
+	private void loadUsernameFilter() {
+		try {
+			List<String> usernames = users.allUsernames();
 
-		return index;
+			UsernameFilter filter = new UsernameFilter(Math.max(USERNAME_FILTER_MIN_CAPACITY, 2 * usernames.size()), USERNAME_FILTER_FALSE_POSITIVE_RATE);
+			for (String username: usernames) {
+				filter.add(username);
+			}
+			usernameFilter = filter;
+		} catch (SQLException se) {
+			usernameFilter = null; //without a complete filter every check goes to the user store.
+			System.err.println(processSqlException(se, "loadUsernameFilter()"));
+		}
 	}
 
 	/**
-	 * Accepts a user's input message string and extracts the reply/hashtag/private information from the message.
-	 * 		The information is returned in a String array of length 3:
-	 * 			Index 0: @username
-	 * 			Index 1: #hashtag
-	 * 			Index 2: *private
-	 * 			Index 3: message contents stripped of the three parts above.
-	 * 
-	 * Messages must be in the form:
-	 * 		Reply  					 @david I want to go out for pizza
-	 * 		Reply w/ hashtag	     @sarah #movies I loved that chick flic
-	 * 		Reg. w/ hashtag			 #funny Knock Knock Who's there?
-	 * 		Reg message				 I can't wait for Friday! 
-	 * 		Reg message w/private	 *private I love the weekends.
-	 * 		Reg messages w/ ht w/pri #ihatemondays *private Justin, my boss is such a prick.
-	 * 
-	 * @param m User's message input.
-	 * @return String Array of length 4 with @username, #hashtag, *private, message contents. Uses values "@null" to indicate no reply,
-	 * "#null" if no hashtag was present, and "*null" if no private was present.
-	 */
-	private String[] extractMessageInfo(String m) {
-		int endingIndex;
-		String[] r = new String[4];
-		String tempM = m.trim(); //remove trailing/leading white space.
-
-		assert m != null: "Do not pass null messages to this extract method. Handle bad input in calling class"; //@cleanup do we still want asserts?
-
-		//Extract Reply information
-		if (tempM.startsWith("@")) {
-			endingIndex = tempM.indexOf(' ', 0);
-			r[0] = tempM.substring(0, endingIndex);
-			tempM = tempM.substring(endingIndex + 1, tempM.length()); //Remove the @user tag from beginning of message.
-		} else {
-			r[0] = "@null";
-		}
+	 * Counts the public tag uses of the last day into a new trendingTags.
+	 */
+	private void loadTrendingTags() {
+		long now = System.currentTimeMillis();
+		TrendingTags trending = new TrendingTags(now);
 
-		//Extract hashtag information
-		tempM.trim();
-		if (tempM.startsWith("#")) {
-			endingIndex = tempM.indexOf(' ', 0);
-			r[1] = tempM.substring(0, endingIndex);
-			tempM = tempM.substring(endingIndex + 1, tempM.length()); //Remove the #hashname tag from beginning of message.
-		} else {
-			r[1] = "#null";
+		try {
+			for (Map.Entry<String, Long> use: messages.tagUsesSince(now - TrendingTags.MINUTES * 60000L)) {
+				trending.add(use.getKey(), use.getValue());
+			}
+			trendingTags = trending;
+		} catch (SQLException se) {
+			trendingTags = null; //incomplete counts would be wrong for a day, count from the message store instead.
+			System.err.println(processSqlException(se, "loadTrendingTags()"));
 		}
+	}
 
-		//Extract private information
-		tempM.trim();
-		if (tempM.startsWith("*")) {
-			endingIndex = tempM.indexOf(' ', 0); 
-			r[2] = tempM.substring(0, endingIndex);
-			tempM = tempM.substring(endingIndex + 1, tempM.length()); //Remove the *private designation from beginning of message.
-		} else {
-			r[2] = "*null";
+	/**
+	 * Builds the searchIndex from all messages, tokenizing them on a thread per processor.
+	 */
+	private void loadSearchIndex() {
+		try {
+			searchIndex = SearchIndex.build(messages.allMessages(), Runtime.getRuntime().availableProcessors());
+		} catch (SQLException se) {
+			searchIndex = null; //an incomplete index would miss messages, search the message store instead.
+			System.err.println(processSqlException(se, "loadSearchIndex()"));
+		} catch (InterruptedException ie) {
+			searchIndex = null;
+			Thread.currentThread().interrupt();
 		}
-		r[3] = tempM.trim(); //Actual message contents. Trim removes possible whitespace after removing tag/reply.
+	}
 
-		return r; //An string array: (@username, #hashtag, *private, message contents)
+	/**
+	 * Adds a newly registered username to the usernameFilter, rebuilding the filter bigger once it is full.
+	 */
+	private void addToUsernameFilter(String username) {
+		UsernameFilter filter = usernameFilter;
+		if (filter == null)
+			return;
+
+		filter.add(username);
+		if (filter.isFull()) {
+			synchronized (this) {
+				if (filter != usernameFilter)
+					return; //another thread rebuilt it.
+
+				loadUsernameFilter();
+			}
+		}
 	}
 
-	/*
-	 * Check if a table has already been created within the database.
-	 *
-	 * @param s Open statement connection to the database for running sql commands.
+	/**
+	 * Copies the profile information (profile visibility, gender, birthdate, email and about me) from one user to another.
 	 */
-	private boolean checkIfTableExist(Statement s, String tableName) {
-		boolean r = true;
-		ResultSet rs = null;
+	private static void copyProfile(User from, User to) {
+		to.profileVisible = from.profileVisible;
+		to.gender = from.gender;
+		to.birthDate = from.birthDate;
+		to.email = from.email;
+		to.aboutMeMessage = from.aboutMeMessage;
+	}
 
+	/**
+	 * Returns the message a reply to the passed user answers, which is that user's most recent message, reply or not.
+	 * Replying back and forth so builds up a reply tree within one thread.
+	 * 
+	 * Example: {"david_5864412739584000", "sarah_5864412739580000"}
+	 * 	
+	 * @param username The username being replied to.
+	 * @return The parent's message id and thread id, or null if the user has not posted yet.
+	 */
+	private String[] getReplyParent(String username) {
 		try {
-			rs = s.executeQuery("select * from " + tableName);
+			Message latest = messages.latestMessage(username);
+			if (latest != null)
+				return new String[] {latest.id, latest.threadId};
+
 		} catch (SQLException se) {
-			if (se.getSQLState().equals("42X05"))
-				r = false;
-			else
-				System.err.println(processSqlException(se, "checkIfTableExist(Connection c, String tableName)"));
-		} finally {
-			closeSqlResource(rs);
+			System.err.println(processSqlException(se, "getReplyParent(String username)"));
 		}
 
-		return r;
+		return null;
 	}
 
 	/**
@@ -1689,47 +2344,76 @@ public class MessageService {
 	public User myUser; 
 
 
-	//database
-	private boolean isEmbedded = true; //@cleanup not used?
-	private String protocolEmbedded = "jdbc:derby:";
-	private String protocolClient = "jdbc:derby://localhost:1527/";
+	//storage
+	private boolean isEmbedded = true; //True if this program is the only one using the storage, so in-memory copies of its data stay current.
+
+	/**
+	 * Where the messages, users and subscriptions are kept. Every method reaches them through the three stores, each
+	 * method call of which stands on its own, so several can run at the same time.
+	 */
+	final Storage storage;
+	final MessageStore messages;
+	final UserStore users;
+	final SubscriptionStore subscriptions;
+
+	/**
+	 * In-memory copy of the tag counts of the MessageStore, loaded by the constructor and updated after each public
+	 * tagged message is committed.
+	 */
+	final TagHistogram tagHistogram = new TagHistogram();
+
+	/**
+	 * Issues the ids of new messages without reading the database.
+	 */
+	final MessageIdAllocator idAllocator;
 
 	/**
-	 * Collection used to track open database resources that need to be closed before
-	 * the program quits.
+	 * All registered usernames, for answering "definitely not registered" without the database. Only kept in
+	 * embedded mode, otherwise null. See userExists().
 	 */
-	ArrayList<Statement> dbOpenStatements;
+	volatile UsernameFilter usernameFilter;
 
 	/**
-	 * Variable to access the connection, which will be made to the database.
+	 * Recently used rows of TABLE_USERS. See findUser() and userExists().
 	 */
-	Connection myConnection;
+	final UserCache userCache = new UserCache(USER_CACHE_SIZE);
 
 	/**
-	 * Variable to open a statement connection to the database to run sql commmands.
+	 * The newest messages of recently viewed authors, for the first page of viewUserMessages(). Only used in
+	 * embedded mode, since in client mode other programs post messages too.
 	 */
-	Statement s;
+	final RecentMessageCache recentMessageCache = new RecentMessageCache(RECENT_MESSAGES_PER_AUTHOR, RECENT_MESSAGES_MAX_AUTHORS);
 
 	/**
-	 * A variable to access a prepared statement, which can be used to insert a user row into the database.
-	 * See the default constructor for further information (statement connection opened and compiled there).
-	 */ 
-	PreparedStatement psUserInsert;
+	 * Words of the messages, for searchMessages(). Only used in embedded mode, since in client mode other programs
+	 * post messages too; null then.
+	 */
+	volatile SearchIndex searchIndex;
+
+	/**
+	 * Public tag uses of the last day, for trendingTags(). Only used in embedded mode, like the searchIndex; null then.
+	 */
+	volatile TrendingTags trendingTags;
+
+	/**
+	 * Delivers committed messages to the online users interested in them. See subscribeToEvents().
+	 */
+	final EventBus eventBus;
+
 	/**
-	 * A variable to access a prepared statement, which can be used to update a profile associated with a user into the database.
-	 * See the default constructor for further information (statement connection opened and compiled there).
-	 */ 
-	PreparedStatement psProfileUpdate;
+	 * Posts queued messages in the background. Started by the first call to ingestor().
+	 */
+	private MessageIngestor ingestor;
+
 	/**
-	 * A variable to access a prepared statement, which can be used to insert a message row into the database.
-	 * See the default constructor for further information (statement connection opened and compiled there).
-	 */ 
-	PreparedStatement psPostMessage;
+	 * The maximum number of messages committed together by postMessages() and the ingestor.
+	 */
+	int ingestMaxBatch = DEFAULT_INGEST_MAX_BATCH;
+
 	/**
-	 * A variable to access a prepared statement, which can be used to insert a user subscription row into the database.
-	 * See the default constructor for further information (statement connection opened and compiled there).
-	 */ 
-	PreparedStatement psUserSubscribe;
+	 * How long the ingestor lets a message wait for others to be committed with it.
+	 */
+	long ingestLingerMillis = DEFAULT_INGEST_LINGER_MILLIS;
 
 	/**
 	 *The name of the table within the database that messages are stored.
@@ -1745,8 +2429,15 @@ public class MessageService {
 	 *	should be specified for every message.
 	 *
 	 *IE: (column #, column name) and (column name SQL datatype,...,column name SQL datatype)
-	 *(1, messageid), (2, timestamp), (3, username), (4, tag), (5, isreply), (6, messagerepliedto), (7, contents), (8, isprivate)
-	 *(messageid int, timestamp java.sql.timestamp, username varchar(20), tag varchar(10), isreply int, messagerepliedto int, contents varchar(140), isprivate int)
+	 *(1, messageid), (2, timestamp), (3, username), (4, tag), (5, isreply), (6, messagerepliedto), (7, contents), (8, isprivate), (9, parentid), (10, threadid), (11, replycount)
+	 *(messageid varchar(40), timestamp java.sql.timestamp, username varchar(20), tag varchar(30), isreply int, messagerepliedto int, contents varchar(140), isprivate int,
+	 *	parentid varchar(40), threadid varchar(40), replycount int)
+	 *
+	 *The tag column holds the tag a message starts with. All of a message's tags are in TABLE_MESSAGE_TAGS.
+	 *
+	 *parentid is the id of the message a reply answers (null if it is not a reply), threadid the id of the first message
+	 *	of its conversation (its own id if it starts one) and replycount the number of its direct replies. Replies posted
+	 *	before schema version 7 share the id of their parent, so their parentid is their own id (see MessageThread).
 	 *
 	 *SQL Example syntax:
 	 *
@@ -1767,6 +2458,9 @@ public class MessageService {
 	 *	within this table (all registered users) will have the first 3 columns specified.
 	 *	Columns 4-8 are considered profile information and is considered optional.
 	 *
+	 *The messagecount column is no longer updated. It held the number used in the user's last message id before
+	 *	message ids were issued by the MessageIdAllocator.
+	 *
 	 *IE: (column #, column name) and (column name SQL datatype,...,column name SQL datatype)
 	 *((1, username), (2, password), (3, messagecount), (4, hasprofile), (5, profilevisible), (6, gender), (7, birthdate), (8, email), (9, aboutme)
 	 *(username varchar(20), password varchar(20), messagecount int, hasprofile int, gender char, birthdate date, email varchar(50), aboutme varchar(100)
@@ -1816,6 +2510,142 @@ public class MessageService {
 	 */
 	public static final String TABLE_SUBSCRIPTIONS = "table_subscriptions";
 
+	/**
+	 * The name of the table within the database that stores the materialized home timeline of each user.
+	 *
+	 * When a message is posted a copy of its row is added for every subscriber of the author (fan-out on write), so
+	 * a user's home timeline is a single indexed range read instead of one query per subscribed to user. Subscribing
+	 * to a user backfills the subscriber's timeline with the most recent TIMELINE_BACKFILL_LIMIT messages.
+	 *
+	 * IE: (column #, column name)
+	 *   (1, ownerusername) followed by the same columns as TABLE_MESSAGES. The replycount of a copy is the one of the
+	 *   message when it was copied.
+	 *
+	 *SQL Example syntax:
+	 * 1) "Select * from table_timelines where ownerusername='david' order by timestamp desc" returns David's home timeline.
+	 */
+	public static final String TABLE_TIMELINES = "table_timelines";
+
+	/**
+	 * The name of the table within the database that stores how many public messages are marked with each tag.
+	 *
+	 * postMessage increments the count in the same transaction as the message is inserted. The counts can be
+	 * recomputed from TABLE_MESSAGE_TAGS with DerbyMessageStore.SQL_REBUILD_TAG_COUNTS (menu choice 'RT').
+	 *
+	 * IE: (column #, column name) and (column name SQL datatype,...,column name SQL datatype)
+	 *   ((1, tag), (2, usecount))
+	 *   (tag varchar(30) primary key, usecount int)
+	 */
+	public static final String TABLE_TAG_COUNTS = "table_tagcounts";
+
+	/**
+	 * The name of the table within the database that stores each distinct tag once, with a number (tagid) that
+	 * TABLE_MESSAGE_TAGS refers to it by.
+	 *
+	 * IE: (column #, column name) and (column name SQL datatype,...,column name SQL datatype)
+	 *   ((1, tagid), (2, tag))
+	 *   (tagid int generated always as identity primary key, tag varchar(30) unique)
+	 */
+	public static final String TABLE_TAGS = "table_tags";
+
+	/**
+	 * The name of the table within the database that stores which messages carry which tags, one row per tag of a
+	 * message. A message can have several tags (see messageTags()).
+	 *
+	 * The index on (tagid, isprivate, timestamp desc, messageid desc, username) holds every column a tag's message
+	 * page needs to find its messages, newest first, so the page is one range scan of the index followed by a
+	 * lookup per message.
+	 *
+	 * IE: (column #, column name) and (column name SQL datatype,...,column name SQL datatype)
+	 *   ((1, tagid), (2, timestamp), (3, messageid), (4, username), (5, isprivate))
+	 *   (tagid int, timestamp timestamp, messageid varchar(40), username varchar(20), isprivate int)
+	 */
+	public static final String TABLE_MESSAGE_TAGS = "table_message_tags";
+
+	/**
+	 * The longest tag, including the #. See normalizeTag().
+	 */
+	public static final int MAX_TAG_LENGTH = 30;
+
+	/**
+	 * The number of a user's most recent messages copied into a subscriber's home timeline when subscribing.
+	 */
+	public static final int TIMELINE_BACKFILL_LIMIT = 200;
+
+	/**
+	 * Default number of rows on a page of messages or users.
+	 */
+	public static final int PAGE_SIZE = 20;
+
+	/**
+	 * Results of addUser().
+	 */
+	public static final int ADD_USER_ADDED = 0, ADD_USER_TAKEN = 1, ADD_USER_FAILED = 2;
+
+	/**
+	 * Default maximum number of open database connections (see the poolsize command-line parameter).
+	 */
+	public static final int DEFAULT_POOL_SIZE = 8;
+
+	/**
+	 * Defaults of the API server (see the port and serverthreads command-line parameters and ApiServer).
+	 */
+	public static final int DEFAULT_SERVER_PORT = 8080;
+	public static final int DEFAULT_SERVER_THREADS = 64;
+
+	/**
+	 * How long a method waits for a free database connection before giving up.
+	 */
+	public static final long POOL_MAX_WAIT_MILLIS = 10 * 1000;
+
+	/**
+	 * How long an unused database connection is kept open.
+	 */
+	public static final long POOL_IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+	/**
+	 * Smallest number of usernames the usernameFilter is sized for, and its false positive rate at that size.
+	 */
+	public static final int USERNAME_FILTER_MIN_CAPACITY = 10000;
+	public static final double USERNAME_FILTER_FALSE_POSITIVE_RATE = 0.01;
+
+	/**
+	 * The number of messages the recentMessageCache keeps for each author, and the maximum number of authors.
+	 */
+	public static final int RECENT_MESSAGES_PER_AUTHOR = 50;
+	public static final int RECENT_MESSAGES_MAX_AUTHORS = 1000;
+
+	/**
+	 * The number of messages the eventBus queues for each online user before dropping the oldest.
+	 */
+	public static final int EVENT_QUEUE_CAPACITY = 256;
+
+	/**
+	 * The most words of a query searchMessages() searches for.
+	 */
+	public static final int MAX_SEARCH_WORDS = 5;
+
+	/**
+	 * The most messages of a thread read by thread(), the oldest ones.
+	 */
+	public static final int MAX_THREAD_MESSAGES = 10000;
+
+	/**
+	 * The maximum number of users kept in the userCache.
+	 */
+	public static final int USER_CACHE_SIZE = 10000;
+
+	/**
+	 * Defaults for the ingestbatch and ingestlinger command-line parameters. See MessageIngestor.
+	 */
+	public static final int DEFAULT_INGEST_MAX_BATCH = 500;
+	public static final long DEFAULT_INGEST_LINGER_MILLIS = 20;
+
+	/**
+	 * The maximum number of messages waiting in the MessageIngestor's queue.
+	 */
+	public static final int INGEST_QUEUE_CAPACITY = 10000;
+
 	/**
 	 * Built in account to store/track messages made by unregistered guest users.
 	 */
@@ -0,0 +1,125 @@
+//package twoogle;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where the messages are kept, together with everything read back from them: the home timelines, the threads, the
+ * tags and their counts. The MessageService only reaches its messages through this interface, so the same service
+ * runs on Derby (DerbyMessageStore) or entirely in memory (MemoryMessageStore). See Storage.
+ *
+ * Pages are read with the keyset cursors of Page. A page returns up to limit messages older than the cursor, ie
+ * the cursor of the last message of the previous page, newest first; a null cursor reads from the newest message. A
+ * "since" read returns up to limit messages newer than the cursor, the newest ones, newest first; a null cursor reads
+ * the newest messages. Messages are ordered by timestamp and then by id.
+ *
+ * Failures are thrown as a SQLException whatever keeps the data, so the MessageService reports them the same way
+ * for every store.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public interface MessageStore {
+
+	/**
+	 * Stores new messages together: the messages, their home timeline copies, the reply counts of the messages they
+	 * answer, their tags and the tag counts. Either all of them are stored or, if an exception is thrown, none.
+	 *
+	 * @param batch Messages from MessageService.newMessage(), with their tags.
+	 */
+	void insert(List<Message> batch) throws SQLException;
+
+	/**
+	 * Returns a page of the messages a user posted.
+	 *
+	 * @param includePrivate False to leave out the user's private messages.
+	 */
+	List<Message> userMessages(String username, boolean includePrivate, String cursor, int limit) throws SQLException;
+
+	/**
+	 * Returns the messages a user posted after a cursor.
+	 */
+	List<Message> userMessagesSince(String username, boolean includePrivate, String since, int limit) throws SQLException;
+
+	/**
+	 * Returns a page of the replies to a user.
+	 */
+	List<Message> replies(String username, String cursor, int limit) throws SQLException;
+
+	/**
+	 * Returns the replies to a user posted after a cursor.
+	 */
+	List<Message> repliesSince(String username, String since, int limit) throws SQLException;
+
+	/**
+	 * Returns a page of a user's home timeline: the messages, private ones included, of the users he is subscribed to.
+	 */
+	List<Message> homeTimeline(String owner, String cursor, int limit) throws SQLException;
+
+	/**
+	 * Returns the messages added to a user's home timeline after a cursor.
+	 */
+	List<Message> homeTimelineSince(String owner, String since, int limit) throws SQLException;
+
+	/**
+	 * Returns a page of the public messages with a tag anywhere in them.
+	 *
+	 * @param tag The tag, as returned by MessageService.normalizeTag().
+	 */
+	List<Message> taggedMessages(String tag, String cursor, int limit) throws SQLException;
+
+	/**
+	 * Returns a page of the messages a user may see, the public ones and his own private ones, whose contents contain
+	 * every word, in any case.
+	 *
+	 * @param words 1 to MessageService.MAX_SEARCH_WORDS words in lower case.
+	 */
+	List<Message> search(String viewer, List<String> words, String cursor, int limit) throws SQLException;
+
+	/**
+	 * Returns the first MessageService.MAX_THREAD_MESSAGES messages of the thread of a message that a user may see,
+	 * oldest first.
+	 *
+	 * @param id The id of any message of the thread.
+	 * @return The messages, none if there is no message with the id.
+	 */
+	List<Message> thread(String id, String viewer) throws SQLException;
+
+	/**
+	 * Returns the most recent message of a user, reply or not, or null if he has not posted yet.
+	 */
+	Message latestMessage(String username) throws SQLException;
+
+	/**
+	 * Returns every message, in no particular order.
+	 */
+	List<Message> allMessages() throws SQLException;
+
+	/**
+	 * Returns the number of public messages with each tag.
+	 */
+	List<Map.Entry<String, Integer>> tagCounts() throws SQLException;
+
+	/**
+	 * Returns the most used tags with their number of public messages, most used first. Ties are listed alphabetically.
+	 */
+	List<Map.Entry<String, Integer>> topTags(int limit) throws SQLException;
+
+	/**
+	 * Returns the tags most used by public messages posted after a time, most used first, like topTags().
+	 *
+	 * @param since The time in milliseconds.
+	 */
+	List<Map.Entry<String, Integer>> trendingTags(long since, int limit) throws SQLException;
+
+	/**
+	 * Returns each use of a tag by a public message posted after a time, with the time of the message in
+	 * milliseconds, in no particular order. Used to load TrendingTags.
+	 */
+	List<Map.Entry<String, Long>> tagUsesSince(long since) throws SQLException;
+
+	/**
+	 * Counts the public messages of every tag again, replacing the stored counts.
+	 */
+	void rebuildTagCounts() throws SQLException;
+}
@@ -0,0 +1,124 @@
+//package twoogle;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A conversation: the messages of one thread arranged as a reply tree, each reply under the message it answers (see
+ * MessageService.thread()).
+ *
+ * The tree is built in memory from the thread's rows in two passes, so the rows need no particular order: the first
+ * indexes the messages by id and author, the second hangs each one under its parent, ie the message with its parentid
+ * by the user it replied to. Replies posted before schema version 7 share the id of their parent, which is why the
+ * author is part of the key. A message whose parent is not among the rows, ie a private message the viewer may not
+ * see, is shown as a root instead.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class MessageThread {
+
+	/**
+	 * @param messages The messages of the thread, oldest first.
+	 */
+	MessageThread(List<Message> messages) {
+		HashMap<String, Node> byKey = new HashMap<String, Node>(messages.size() * 2);
+		ArrayList<Node> nodes = new ArrayList<Node>(messages.size());
+		for (Message m: messages) {
+			Node n = new Node(m);
+			nodes.add(n);
+			String key = key(m.id, m.username);
+			if (!byKey.containsKey(key))
+				byKey.put(key, n);
+		}
+
+		ArrayList<Node> roots = new ArrayList<Node>();
+		for (Node n: nodes) {
+			Message m = n.message;
+			Node parent = m.parentId == null ? null : byKey.get(key(m.parentId, m.repliedToUsername));
+			if (parent != null && parent != n)
+				parent.replies.add(n);
+			else
+				roots.add(n);
+		}
+		this.roots = Collections.unmodifiableList(roots);
+		this.size = nodes.size();
+	}
+
+	/**
+	 * The thread's messages without a parent in it, oldest first: normally just the message that started it.
+	 */
+	public final List<Node> roots;
+
+	/**
+	 * The number of messages in the thread.
+	 */
+	public final int size;
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the messages in reading order: each message followed by its replies, oldest first, depth first.
+	 */
+	public List<Message> messages() {
+		final ArrayList<Message> messages = new ArrayList<Message>(size);
+		walk(new Visitor() {
+			public void visit(Node n, int depth) {
+				messages.add(n.message);
+			}
+		});
+		return messages;
+	}
+
+	/**
+	 * Visits the messages in reading order. Iterative, so a long back and forth does not overflow the stack.
+	 */
+	public void walk(Visitor v) {
+		ArrayDeque<Object[]> stack = new ArrayDeque<Object[]>(); //(node, depth)
+		for (int i = roots.size() - 1; i >= 0; i--) {
+			stack.push(new Object[] {roots.get(i), 0});
+		}
+
+		while (!stack.isEmpty()) {
+			Object[] top = stack.pop();
+			Node n = (Node) top[0];
+			int depth = (Integer) top[1];
+			v.visit(n, depth);
+			for (int i = n.replies.size() - 1; i >= 0; i--) {
+				stack.push(new Object[] {n.replies.get(i), depth + 1});
+			}
+		}
+	}
+
+	private static String key(String id, String username) {
+		return id + ' ' + username;
+	}
+
+	/**
+	 * Receives the messages of a thread from walk().
+	 */
+	public interface Visitor {
+		/**
+		 * @param n The message and its replies.
+		 * @param depth 0 for a root, 1 for its replies and so on.
+		 */
+		void visit(Node n, int depth);
+	}
+
+	/**
+	 * A message of the thread and its replies, oldest first.
+	 */
+	public static class Node {
+
+		Node(Message message) {
+			this.message = message;
+		}
+
+		public final Message message;
+		public final List<Node> replies = new ArrayList<Node>();
+	}
+}
@@ -0,0 +1,117 @@
+//package twoogle;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * One page of a timeline or listing returned by the keyset (cursor) paginated view methods of the MessageService.
+ *
+ * A page holds the formatted text of its rows and an opaque cursor token for the next page. The token records the
+ * sort key of the last row on the page, ie (timestamp, messageid) for messages or the username for users, so the next
+ * page is read with a "less than cursor" predicate and costs the same no matter how deep the user has scrolled.
+ * Callers should only pass the token back to the method that produced it and never build or parse one themselves.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class Page {
+
+	/**
+	 * @param text Formatted rows of this page.
+	 * @param nextCursor Cursor token for the next page, or null if this is the last page.
+	 */
+	Page(String text, String nextCursor) {
+		this(text, nextCursor, null);
+	}
+
+	/**
+	 * @param text Formatted rows of this page.
+	 * @param nextCursor Cursor token for the next page, or null if this is the last page.
+	 * @param messages The messages of this page in the order they were read, or null if it is not a page of messages.
+	 */
+	Page(String text, String nextCursor, List<Message> messages) {
+		this.text = text;
+		this.nextCursor = nextCursor;
+		this.messages = messages;
+	}
+
+	/**
+	 * @return True if there is another page after this one.
+	 */
+	public boolean hasMore() {
+		return nextCursor != null;
+	}
+
+	/**
+	 * Returns the formatted text of this page.
+	 */
+	public String toString() {
+		return text;
+	}
+
+	/**
+	 * Builds the cursor token for a message row.
+	 *
+	 * @param timestamp Timestamp of the last message on the page.
+	 * @param messageId Message id of the last message on the page.
+	 */
+	static String messageCursor(Timestamp timestamp, String messageId) {
+		return Long.toString(timestamp.getTime(), 36) + "." + Integer.toString(timestamp.getNanos(), 36) + "." + messageId;
+	}
+
+	/**
+	 * Returns the timestamp stored in a message cursor token. A null token (the first page) returns a timestamp
+	 * that is later than any message.
+	 */
+	static Timestamp cursorTimestamp(String cursor) {
+		if (cursor == null)
+			return FIRST_PAGE_TIMESTAMP;
+
+		int first = cursor.indexOf('.');
+		int second = cursor.indexOf('.', first + 1);
+		Timestamp t = new Timestamp(Long.parseLong(cursor.substring(0, first), 36));
+		t.setNanos(Integer.parseInt(cursor.substring(first + 1, second), 36));
+		return t;
+	}
+
+	/**
+	 * Returns the message id stored in a message cursor token. A null token (the first page) returns an empty string.
+	 */
+	static String cursorMessageId(String cursor) {
+		if (cursor == null)
+			return "";
+
+		return cursor.substring(cursor.indexOf('.', cursor.indexOf('.') + 1) + 1);
+	}
+
+	/**
+	 * Fetches a page given the cursor of the previous one. Lets the command-line menu and the GUI ask for the next
+	 * page of whatever was last viewed without knowing which view it was.
+	 */
+	public interface Source {
+		/**
+		 * @param cursor Cursor token from the previous page, or null for the first page.
+		 */
+		Page fetch(String cursor);
+	}
+
+	/**
+	 * Formatted rows of this page.
+	 */
+	public final String text;
+
+	/**
+	 * Cursor token for the next page, or null if this is the last page.
+	 */
+	public final String nextCursor;
+
+	/**
+	 * The messages of this page in the order they were read (newest first), for callers that format them
+	 * themselves, ie the ApiServer. Null if this is not a page of messages.
+	 */
+	public final List<Message> messages;
+
+	/**
+	 * Upper bound used in place of a cursor for the first page of a message view.
+	 */
+	private static final Timestamp FIRST_PAGE_TIMESTAMP = Timestamp.valueOf("9999-12-31 23:59:59.999999999");
+}
@@ -0,0 +1,95 @@
+//package twoogle;
+
+import java.sql.*;
+import java.util.HashMap;
+
+/**
+ * A connection borrowed from a ConnectionPool. Closing it gives the connection back to the pool instead of closing it.
+ *
+ * Each connection keeps a registry of the statements prepared on it, keyed by their sql, so a query is compiled by the
+ * database once per connection instead of on every call. The statements stay open while the connection sits idle in
+ * the pool and are closed when the connection itself is closed. Callers only need to close their ResultSets. A
+ * ResultSet stays open until the statement that produced it runs another query, so prepare a different query for
+ * nested queries.
+ *
+ * Only pass constant sql (with ? for each value) to prepare(), never sql built from user input: besides being open
+ * to sql injection, every distinct string would add a statement to the registry.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class PooledConnection implements AutoCloseable {
+
+	PooledConnection(ConnectionPool pool, Connection connection) {
+		this.pool = pool;
+		this.connection = connection;
+		lastUsed = System.currentTimeMillis();
+	}
+
+	/**
+	 * Returns a statement for running sql commands that have no parameters, opened on first use and kept with the connection.
+	 */
+	public Statement statement() throws SQLException {
+		if (statement == null)
+			statement = connection.createStatement();
+		return statement;
+	}
+
+	/**
+	 * Returns the prepared statement for the passed sql from this connection's registry, preparing it on first use.
+	 * Parameters bound by a previous caller are cleared.
+	 *
+	 * @param sql Constant sql command with ? for each parameter.
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement ps = prepared.get(sql);
+		if (ps == null) {
+			ps = connection.prepareStatement(sql);
+			prepared.put(sql, ps);
+			pool.statementPrepared();
+		} else {
+			ps.clearParameters();
+			pool.statementReused();
+		}
+		return ps;
+	}
+
+	/**
+	 * Gives the connection back to the pool.
+	 */
+	public void close() {
+		pool.release(this);
+	}
+
+	/**
+	 * Closes the statements in the registry.
+	 */
+	private void closeStatements() {
+		MessageService.closeSqlResource(statement);
+		statement = null;
+
+		for (PreparedStatement ps: prepared.values()) {
+			MessageService.closeSqlResource(ps);
+		}
+		prepared.clear();
+	}
+
+	/**
+	 * Closes the statements and the underlying connection. Called by the pool when the connection is removed.
+	 */
+	void closeAll() {
+		closeStatements();
+		MessageService.closeSqlResource(connection);
+	}
+
+	/**
+	 * The underlying connection. Use it for transactions (setAutoCommit, commit, rollback) but do not close it.
+	 */
+	public final Connection connection;
+
+	private final ConnectionPool pool;
+	private Statement statement;
+	private final HashMap<String, PreparedStatement> prepared = new HashMap<String, PreparedStatement>();
+
+	volatile long lastUsed; //time this connection was last given back to the pool.
+	volatile boolean borrowed;
+}
@@ -0,0 +1,140 @@
+//package twoogle;
+
+/**
+ * Splits a message as typed by its author into its prefixes and its contents, ie
+ *
+ * 		@david #movies *private I saw the greatest movie yesterday!
+ *
+ * is a reply to david, tagged #movies, private, with the contents "I saw the greatest movie yesterday!". The
+ * prefixes are optional, may come in any order and each is taken once; the first word that is not a prefix starts the
+ * contents. A word only counts as a prefix if it is one: "@" followed by a name, "#" followed by a letter, digit or
+ * underscore, or "*private" in any case. Otherwise it is part of the contents, ie "*sigh* Monday again" is public.
+ *
+ * The message is read once, from left to right, and only the offsets of the parts are kept. Parsing creates no
+ * objects, so a parser reused for many messages (see forThread()) makes no garbage; the accessors returning a String
+ * create it on demand.
+ *
+ * Not safe for use by several threads at once.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class PostParser {
+
+	/**
+	 * Returns this thread's parser. The values it returns are only valid until it parses the next message.
+	 */
+	static PostParser forThread() {
+		return PARSER.get();
+	}
+
+	/**
+	 * Parses a message, replacing the values of the previous one.
+	 *
+	 * @param message The message as typed, ie "@david #movies *private I saw the greatest movie yesterday!".
+	 * @return This parser.
+	 */
+	public PostParser parse(String message) {
+		this.message = message;
+		replyStart = replyEnd = tagStart = tagEnd = -1;
+		isPrivate = false;
+
+		int length = message.length();
+		int i = skipSpace(message, 0, length);
+		while (i < length) {
+			int end = i;
+			while (end < length && message.charAt(end) > ' ') {
+				end++;
+			}
+
+			char ch = message.charAt(i);
+			if (ch == '@' && replyStart == -1 && end > i + 1) {
+				replyStart = i + 1;
+				replyEnd = end;
+			} else if (ch == '#' && tagStart == -1 && end > i + 1 && MessageService.isTagChar(message.charAt(i + 1))) {
+				tagStart = i;
+				tagEnd = end;
+			} else if (ch == '*' && !isPrivate && end - i == PRIVATE.length() && message.regionMatches(true, i, PRIVATE, 0, PRIVATE.length())) {
+				isPrivate = true;
+			} else {
+				break; //the contents start here.
+			}
+			i = skipSpace(message, end, length);
+		}
+
+		contentsStart = i;
+		contentsEnd = length;
+		while (contentsEnd > contentsStart && message.charAt(contentsEnd - 1) <= ' ') {
+			contentsEnd--;
+		}
+		return this;
+	}
+
+	/**
+	 * True if the message replies to a user.
+	 */
+	public boolean isReply() {
+		return replyStart != -1;
+	}
+
+	/**
+	 * Returns the username replied to, without the @, or null if the message is not a reply.
+	 */
+	public String replyTo() {
+		return replyStart == -1 ? null : message.substring(replyStart, replyEnd);
+	}
+
+	/**
+	 * True if the message has a leading tag.
+	 */
+	public boolean hasTag() {
+		return tagStart != -1;
+	}
+
+	/**
+	 * Returns the leading tag as typed, including the #, or null if there is none. See MessageService.normalizeTag().
+	 */
+	public String tag() {
+		return tagStart == -1 ? null : message.substring(tagStart, tagEnd);
+	}
+
+	/**
+	 * True if the message is private, ie only meant for the author's subscribers.
+	 */
+	public boolean isPrivate() {
+		return isPrivate;
+	}
+
+	/**
+	 * Returns the contents: the message without its prefixes and the white space around them.
+	 */
+	public String contents() {
+		return message.substring(contentsStart, contentsEnd);
+	}
+
+	private static int skipSpace(String s, int i, int length) {
+		while (i < length && s.charAt(i) <= ' ') {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * The longest contents a message may have, the size of the contents column of MessageService.TABLE_MESSAGES.
+	 * Checked by MessageService.newMessage() once a leading tag that is too long is put back into the contents.
+	 */
+	public static final int MAX_CONTENTS_LENGTH = 140;
+
+	private static final String PRIVATE = "*private";
+
+	private static final ThreadLocal<PostParser> PARSER = new ThreadLocal<PostParser>() {
+		protected PostParser initialValue() {
+			return new PostParser();
+		}
+	};
+
+	private String message;
+	private int replyStart, replyEnd; //the username after the @, or -1.
+	private int tagStart, tagEnd; //the tag including the #, or -1.
+	private boolean isPrivate;
+	private int contentsStart, contentsEnd;
+}
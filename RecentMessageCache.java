@@ -0,0 +1,254 @@
+//package twoogle;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the most recent messages of each active author in memory, so the first page of an author's messages (see
+ * MessageService.viewUserMessages()), and the messages posted since a view of them was last refreshed (see
+ * MessageService.viewUserMessagesSince()), are served without sql. Each author has a ring buffer of the newest
+ * messagesPerAuthor messages, newest first. New messages are added as they are posted; the buffer of an author is
+ * loaded from the database the first time it is read. When more than maxAuthors authors are cached, the least
+ * recently read or posted to is dropped.
+ *
+ * An author's buffer is loaded in two steps, startLoad() and finishLoad(), so that messages posted while the
+ * database is read are not lost: they are added to the buffer between the two steps and merged with what was read.
+ *
+ * Safe for use by several threads at once.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class RecentMessageCache {
+
+	/**
+	 * @param messagesPerAuthor The number of messages kept for each author.
+	 * @param maxAuthors The maximum number of authors kept.
+	 */
+	RecentMessageCache(int messagesPerAuthor, final int maxAuthors) {
+		this.messagesPerAuthor = messagesPerAuthor;
+		authors = new LinkedHashMap<String, Ring>(16, 0.75f, true) { //access order, least recently used first.
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<String, Ring> eldest) {
+				if (size() > maxAuthors) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns the newest messages of an author, newest first, if the cache can answer.
+	 *
+	 * @param author Username of the author.
+	 * @param count The number of messages wanted.
+	 * @param includePrivate False to skip the author's private messages.
+	 * @return count messages, or fewer if the author has no more; null if the author is not cached or the buffer
+	 * 		does not hold enough messages to tell.
+	 */
+	public synchronized ArrayList<Message> newest(String author, int count, boolean includePrivate) {
+		Ring r = authors.get(author);
+		if (r == null || r.loading) {
+			misses++;
+			return null;
+		}
+
+		ArrayList<Message> messages = new ArrayList<Message>(count);
+		for (int i = 0; i < r.size && messages.size() < count; i++) {
+			Message m = r.get(i);
+			if (includePrivate || m.isPrivate == 0)
+				messages.add(m);
+		}
+
+		if (messages.size() < count && !r.complete) { //older messages were dropped from the buffer.
+			misses++;
+			return null;
+		}
+		hits++;
+		return messages;
+	}
+
+	/**
+	 * Returns the messages of an author posted after a (timestamp, message id) cursor, newest first, if the cache can
+	 * answer.
+	 *
+	 * @param author Username of the author.
+	 * @param timestamp Timestamp of the cursor.
+	 * @param messageId Message id of the cursor.
+	 * @param count The most messages returned; if more are newer, the newest count are.
+	 * @param includePrivate False to skip the author's private messages.
+	 * @return The newer messages; null if the author is not cached or older messages were dropped from the buffer
+	 * 		before reaching the cursor.
+	 */
+	public synchronized ArrayList<Message> newer(String author, Timestamp timestamp, String messageId, int count, boolean includePrivate) {
+		Ring r = authors.get(author);
+		if (r == null || r.loading) {
+			misses++;
+			return null;
+		}
+
+		ArrayList<Message> messages = new ArrayList<Message>();
+		int i = 0;
+		for (; i < r.size && messages.size() < count; i++) {
+			Message m = r.get(i);
+			int c = m.timestamp.compareTo(timestamp);
+			if (c < 0 || (c == 0 && m.id.compareTo(messageId) <= 0))
+				break; //reached the cursor.
+			if (includePrivate || m.isPrivate == 0)
+				messages.add(m);
+		}
+
+		if (i == r.size && messages.size() < count && !r.complete) { //messages between the cursor and the buffer were dropped.
+			misses++;
+			return null;
+		}
+		hits++;
+		return messages;
+	}
+
+	/**
+	 * Adds a newly posted message to its author's buffer. Ignored if the author is not cached.
+	 */
+	public synchronized void add(Message m) {
+		Ring r = authors.get(m.username);
+		if (r != null)
+			r.insert(m);
+	}
+
+	/**
+	 * Starts loading an author: messages posted from now on are kept until finishLoad().
+	 *
+	 * @return False if the author is already cached or being loaded.
+	 */
+	public synchronized boolean startLoad(String author) {
+		if (authors.containsKey(author))
+			return false;
+
+		Ring r = new Ring(messagesPerAuthor);
+		r.loading = true;
+		authors.put(author, r);
+		return true;
+	}
+
+	/**
+	 * Finishes loading an author with the messages read from the database.
+	 *
+	 * @param author Username of the author.
+	 * @param newestFirst The author's newest messages, private ones included, newest first.
+	 * @param complete True if newestFirst holds all of the author's messages.
+	 */
+	public synchronized void finishLoad(String author, List<Message> newestFirst, boolean complete) {
+		Ring r = authors.get(author);
+		if (r == null || !r.loading)
+			return; //evicted while loading.
+
+		r.complete = complete;
+		for (Message m: newestFirst) {
+			r.insert(m);
+		}
+		r.loading = false;
+		loads++;
+	}
+
+	/**
+	 * Drops an author whose load failed, so the next read tries again.
+	 */
+	public synchronized void cancelLoad(String author) {
+		Ring r = authors.get(author);
+		if (r != null && r.loading)
+			authors.remove(author);
+	}
+
+	/**
+	 * Returns the cache statistics as a formatted string.
+	 */
+	public synchronized String metrics() {
+		long reads = hits + misses;
+		return "Recent message cache: " + authors.size() + " authors, " + messagesPerAuthor + " messages each | " + hits + " hits, " + misses + " misses ("
+				+ (reads == 0 ? 0 : hits * 100 / reads) + "% hit rate), " + loads + " loads, " + evictions + " evictions";
+	}
+
+	/**
+	 * Ring buffer of one author's newest messages, kept in the same order as the database pages them: timestamp then
+	 * message id, newest first. Logical index 0 is the newest message.
+	 */
+	private static class Ring {
+
+		Ring(int capacity) {
+			buffer = new Message[capacity];
+		}
+
+		Message get(int i) {
+			return buffer[(head + i) % buffer.length];
+		}
+
+		private void set(int i, Message m) {
+			buffer[(head + i) % buffer.length] = m;
+		}
+
+		/**
+		 * Inserts a message in order. Posting order is the usual case, which just moves the head back one slot.
+		 */
+		void insert(Message m) {
+			int p = 0;
+			while (p < size && newestFirst(get(p), m) < 0) {
+				p++;
+			}
+			if (p < size && newestFirst(get(p), m) == 0)
+				return; //already there, ie posted while loading and also read from the database.
+
+			if (size == buffer.length) {
+				complete = false; //the oldest message is dropped.
+				if (p == size)
+					return; //older than everything kept.
+				size--;
+			}
+
+			if (p == 0) {
+				head = (head - 1 + buffer.length) % buffer.length;
+			} else {
+				for (int i = size; i > p; i--) {
+					set(i, get(i - 1));
+				}
+			}
+			set(p, m);
+			size++;
+		}
+
+		/**
+		 * Negative if a comes before b in newest first order.
+		 */
+		private static int newestFirst(Message a, Message b) {
+			int c = b.timestamp.compareTo(a.timestamp);
+			return c != 0 ? c : b.id.compareTo(a.id);
+		}
+
+		private final Message[] buffer;
+		private int head;
+		int size;
+
+		/**
+		 * True if the buffer holds all of the author's messages, so a short answer is the whole answer.
+		 */
+		boolean complete = true;
+
+		/**
+		 * True between startLoad() and finishLoad().
+		 */
+		boolean loading;
+	}
+
+	private final int messagesPerAuthor;
+	private final LinkedHashMap<String, Ring> authors;
+
+	//statistics
+	private long hits;
+	private long misses;
+	private long loads;
+	private long evictions;
+}
@@ -0,0 +1,135 @@
+//package twoogle;
+
+import java.util.ArrayList;
+
+import javax.swing.JTextArea;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+
+/**
+ * The recent messages shown on the GUI home screen: a header (the user's profile) followed by titled sections, ie
+ * "My Recent Messages:" and "Guest Messages:", each listing messages oldest first.
+ *
+ * The view is kept up to date by refresh(), which only reads the messages posted since the newest one each section
+ * shows (see MessageService.viewUserMessagesSince()) and inserts them at the end of their section, leaving the rest
+ * of the text area alone. The end of each section is tracked by a Position of the text area's document, which moves
+ * along as text is inserted before it.
+ *
+ * fetch() may be called on any thread; all other methods must be called on the event dispatch thread.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class RecentMessagesView {
+
+	/**
+	 * @param output The text area the view is shown in.
+	 */
+	RecentMessagesView(JTextArea output) {
+		this.output = output;
+	}
+
+	/**
+	 * Adds a section. Sections are shown in the order they are added.
+	 *
+	 * @param title Title line of the section.
+	 * @param since Fetches the section's messages posted after a cursor, ie MessageService.viewUserMessagesSince().
+	 */
+	public void addSection(String title, Page.Source since) {
+		sections.add(new Section(title, since));
+	}
+
+	/**
+	 * Returns the cursors of the sections, to pass to fetch().
+	 */
+	public String[] cursors() {
+		String[] cursors = new String[sections.size()];
+		for (int i = 0; i < cursors.length; i++) {
+			cursors[i] = sections.get(i).cursor;
+		}
+		return cursors;
+	}
+
+	/**
+	 * Reads the messages of each section posted after its cursor. Safe to call off the event dispatch thread.
+	 *
+	 * @param cursors The section cursors, as returned by cursors().
+	 */
+	public Page[] fetch(String[] cursors) {
+		Page[] pages = new Page[cursors.length];
+		for (int i = 0; i < pages.length; i++) {
+			pages[i] = sections.get(i).since.fetch(cursors[i]);
+		}
+		return pages;
+	}
+
+	/**
+	 * Replaces the text area contents with the view.
+	 *
+	 * @param header Text shown above the sections.
+	 * @param pages The first messages of each section, as returned by fetch() with no cursors.
+	 */
+	public void show(String header, Page[] pages) {
+		StringBuilder sb = new StringBuilder(header);
+		int[] ends = new int[pages.length];
+		for (int i = 0; i < pages.length; i++) {
+			Section s = sections.get(i);
+			if (i > 0)
+				sb.append('\n');
+			sb.append(s.title).append('\n').append(pages[i].text);
+			ends[i] = sb.length();
+			s.cursor = pages[i].nextCursor;
+		}
+		output.setText(sb.toString());
+		headerLength = header.length();
+
+		try {
+			for (int i = 0; i < pages.length; i++) {
+				sections.get(i).end = output.getDocument().createPosition(ends[i]);
+			}
+		} catch (BadLocationException e) {
+			throw new IllegalStateException(e); //the offsets are within the text just set.
+		}
+	}
+
+	/**
+	 * Inserts the new messages of each section at its end.
+	 *
+	 * @param pages The new messages of each section, as returned by fetch().
+	 */
+	public void insert(Page[] pages) {
+		for (int i = 0; i < pages.length; i++) {
+			Section s = sections.get(i);
+			if (pages[i].text.length() > 0)
+				output.insert(pages[i].text, s.end.getOffset());
+			s.cursor = pages[i].nextCursor;
+		}
+	}
+
+	/**
+	 * Replaces the header, ie after the user edited their profile.
+	 */
+	public void setHeader(String header) {
+		output.replaceRange(header, 0, headerLength);
+		headerLength = header.length();
+	}
+
+	/**
+	 * One titled list of messages.
+	 */
+	private static class Section {
+
+		Section(String title, Page.Source since) {
+			this.title = title;
+			this.since = since;
+		}
+
+		final String title;
+		final Page.Source since;
+		String cursor; //cursor of the newest message shown, null until shown.
+		Position end; //end of the section's messages in the document.
+	}
+
+	private final JTextArea output;
+	private final ArrayList<Section> sections = new ArrayList<Section>();
+	private int headerLength;
+}
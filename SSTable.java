@@ -0,0 +1,353 @@
+//package twoogle;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable file of keys and their values, sorted by key, written by LsmTree when it flushes its memtable or
+ * compacts tables. A deleted key is kept as a tombstone (LsmTree.TOMBSTONE) so it hides the key in older tables.
+ *
+ * The file holds, in order:
+ * 1. Data blocks of about BLOCK_SIZE bytes, each a run of entries (see LsmTree.writeEntry()).
+ * 2. The block index: the number of blocks, then the first key, position and length of each block.
+ * 3. The Bloom filter of all keys (see BloomFilter).
+ * 4. A footer of FOOTER_SIZE bytes: the positions of the index and the filter, the number of entries and MAGIC.
+ *
+ * The index and the filter are read into memory when the table is opened. Looking up a key that is not in the table
+ * so usually reads nothing, and one that is reads a single block. Blocks are read with RandomAccessFile rather than
+ * a FileChannel, which would be closed for every thread when one thread reading it is interrupted.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class SSTable {
+
+	private SSTable(File file, RandomAccessFile raf, String[] firstKeys, long[] offsets, int[] lengths, BloomFilter bloom, long count) {
+		this.file = file;
+		this.raf = raf;
+		this.firstKeys = firstKeys;
+		this.offsets = offsets;
+		this.lengths = lengths;
+		this.bloom = bloom;
+		this.count = count;
+	}
+
+	/**
+	 * Writes the entries to a new table and opens it. The table is written under a temporary name, forced to disk
+	 * and then renamed, so a table file is either complete or absent after a crash.
+	 *
+	 * @param entries Sorted by key, each key once.
+	 * @param expectedKeys About the number of entries, to size the Bloom filter.
+	 */
+	static SSTable write(File file, Iterator<Map.Entry<String, byte[]>> entries, long expectedKeys) throws IOException {
+		File tmp = new File(file.getPath() + TMP_SUFFIX);
+		FileOutputStream fos = new FileOutputStream(tmp);
+
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024));
+			BloomFilter filter = new BloomFilter((int) Math.min(expectedKeys, Integer.MAX_VALUE / BLOOM_BITS_PER_KEY), BLOOM_BITS_PER_KEY);
+			ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_SIZE + 1024);
+			DataOutputStream blockOut = new DataOutputStream(block);
+			ByteArrayOutputStream index = new ByteArrayOutputStream();
+			DataOutputStream indexOut = new DataOutputStream(index);
+			int blocks = 0;
+			long position = 0, count = 0;
+			String firstKey = null;
+
+			while (entries.hasNext()) {
+				Map.Entry<String, byte[]> e = entries.next();
+				if (firstKey == null)
+					firstKey = e.getKey();
+				LsmTree.writeEntry(blockOut, e.getKey(), e.getValue());
+				filter.add(e.getKey());
+				count++;
+
+				if (block.size() >= BLOCK_SIZE) {
+					indexOut.writeUTF(firstKey);
+					indexOut.writeLong(position);
+					indexOut.writeInt(block.size());
+					blocks++;
+					position += block.size();
+					block.writeTo(out);
+					block.reset();
+					firstKey = null;
+				}
+			}
+			if (block.size() > 0) {
+				indexOut.writeUTF(firstKey);
+				indexOut.writeLong(position);
+				indexOut.writeInt(block.size());
+				blocks++;
+				position += block.size();
+				block.writeTo(out);
+			}
+
+			long indexOffset = position;
+			out.writeInt(blocks);
+			index.writeTo(out);
+			long bloomOffset = indexOffset + 4 + index.size();
+			out.write(filter.toBytes());
+
+			out.writeLong(indexOffset);
+			out.writeLong(bloomOffset);
+			out.writeLong(count);
+			out.writeLong(MAGIC);
+			out.flush();
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		return open(file);
+	}
+
+	/**
+	 * Opens a table written by write(), reading its index and Bloom filter.
+	 */
+	static SSTable open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		boolean isOpen = false;
+
+		try {
+			long length = raf.length();
+			if (length < FOOTER_SIZE)
+				throw new IOException("The table " + file + " is too short to be a table.");
+
+			DataInputStream footer = new DataInputStream(new ByteArrayInputStream(read(raf, length - FOOTER_SIZE, FOOTER_SIZE)));
+			long indexOffset = footer.readLong();
+			long bloomOffset = footer.readLong();
+			long count = footer.readLong();
+			if (footer.readLong() != MAGIC || indexOffset < 0 || bloomOffset < indexOffset || bloomOffset > length - FOOTER_SIZE)
+				throw new IOException("The table " + file + " is damaged: its footer is not valid.");
+
+			DataInputStream index = new DataInputStream(new ByteArrayInputStream(read(raf, indexOffset, (int) (bloomOffset - indexOffset))));
+			int blocks = index.readInt();
+			String[] firstKeys = new String[blocks];
+			long[] offsets = new long[blocks];
+			int[] lengths = new int[blocks];
+			for (int i = 0; i < blocks; i++) {
+				firstKeys[i] = index.readUTF();
+				offsets[i] = index.readLong();
+				lengths[i] = index.readInt();
+			}
+			BloomFilter bloom = BloomFilter.fromBytes(read(raf, bloomOffset, (int) (length - FOOTER_SIZE - bloomOffset)));
+
+			SSTable t = new SSTable(file, raf, firstKeys, offsets, lengths, bloom, count);
+			isOpen = true;
+			return t;
+		} finally {
+			if (!isOpen)
+				raf.close();
+		}
+	}
+
+	/**
+	 * @return False if the key is surely not in this table.
+	 */
+	boolean mightContain(String key) {
+		return bloom.mightContain(key);
+	}
+
+	/**
+	 * Returns the value of a key.
+	 *
+	 * @return The value, LsmTree.TOMBSTONE if the key was deleted, or null if the key is not in this table.
+	 */
+	byte[] get(String key) throws IOException {
+		int b = blockOf(key);
+		if (b == -1)
+			return null;
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(readBlock(b)));
+		while (in.available() > 0) {
+			String k = in.readUTF();
+			int c = k.compareTo(key);
+			byte[] value = LsmTree.readValue(in);
+			if (c == 0)
+				return value;
+			if (c > 0)
+				break;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the entries from a key on, sorted by key, tombstones included. The blocks are read as the iterator
+	 * reaches them, so the table must stay open until the iteration is over. A failed read is thrown as an
+	 * UncheckedIOException.
+	 *
+	 * @param from The first key returned if it is in the table.
+	 */
+	Iterator<Map.Entry<String, byte[]>> iterator(final String from) {
+		return new Iterator<Map.Entry<String, byte[]>>() {
+			public boolean hasNext() {
+				while (next == null) {
+					if (entries != null && position < entries.size()) {
+						next = entries.get(position++);
+						if (next.getKey().compareTo(from) < 0)
+							next = null;
+					} else if (block < firstKeys.length) {
+						try {
+							entries = readEntries(block++);
+							position = 0;
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					} else {
+						return false;
+					}
+				}
+				return true;
+			}
+
+			public Map.Entry<String, byte[]> next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				Map.Entry<String, byte[]> e = next;
+				next = null;
+				return e;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+			private int block = Math.max(0, blockOf(from));
+			private List<Map.Entry<String, byte[]>> entries;
+			private int position;
+			private Map.Entry<String, byte[]> next;
+		};
+	}
+
+	/**
+	 * Returns the number of entries, tombstones included.
+	 */
+	long count() {
+		return count;
+	}
+
+	/**
+	 * Returns the size of the table file in bytes.
+	 */
+	long length() {
+		return file.length();
+	}
+
+	/**
+	 * Returns the number of blocks read from this table so far.
+	 */
+	long blocksRead() {
+		synchronized (this) {
+			return blocksRead;
+		}
+	}
+
+	void close() {
+		try {
+			raf.close();
+		} catch (IOException ioe) {
+			System.err.println("ERROR: The table " + file + " could not be closed: " + ioe.getMessage());
+		}
+	}
+
+	/**
+	 * Closes the table and deletes its file, ie once it was compacted into another.
+	 */
+	void delete() {
+		close();
+		if (!file.delete())
+			System.err.println("ERROR: The table " + file + " could not be deleted.");
+	}
+
+	public String toString() {
+		return file.getName();
+	}
+
+	/**
+	 * Returns the index of the block that would hold a key: the last block whose first key is not after it, or -1
+	 * if the key is before the first key of the table.
+	 */
+	private int blockOf(String key) {
+		int low = 0, high = firstKeys.length - 1, r = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (firstKeys[mid].compareTo(key) <= 0) {
+				r = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return r;
+	}
+
+	private byte[] readBlock(int b) throws IOException {
+		synchronized (this) {
+			blocksRead++;
+		}
+		return read(raf, offsets[b], lengths[b]);
+	}
+
+	private List<Map.Entry<String, byte[]>> readEntries(int b) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(readBlock(b)));
+		ArrayList<Map.Entry<String, byte[]>> entries = new ArrayList<Map.Entry<String, byte[]>>();
+		while (in.available() > 0) {
+			entries.add(LsmTree.readEntry(in));
+		}
+		return entries;
+	}
+
+	/**
+	 * Reads length bytes from a position. The file is locked for the seek and the read, which must not be separated.
+	 */
+	private static byte[] read(RandomAccessFile raf, long position, int length) throws IOException {
+		byte[] b = new byte[length];
+		synchronized (raf) {
+			raf.seek(position);
+			raf.readFully(b);
+		}
+		return b;
+	}
+
+	/**
+	 * Data blocks are cut once they reach this many bytes.
+	 */
+	static final int BLOCK_SIZE = 4096;
+
+	/**
+	 * Bits of the Bloom filter per key, for about 1% false positives.
+	 */
+	static final int BLOOM_BITS_PER_KEY = 10;
+
+	/**
+	 * Suffix of a table file while it is being written.
+	 */
+	static final String TMP_SUFFIX = ".tmp";
+
+	private static final int FOOTER_SIZE = 32;
+	private static final long MAGIC = 0x54776f6f676c6553L; //"TwoogleS"
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final String[] firstKeys;
+	private final long[] offsets;
+	private final int[] lengths;
+	private final BloomFilter bloom;
+	private final long count;
+	private long blocksRead;
+}
@@ -0,0 +1,375 @@
+//package twoogle;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
+/**
+ * Versioned schema migrations for the Message Service database. The MessageService constructor creates the bare
+ * tables (if needed) and then runs migrate(), which upgrades the database in place one version at a time.
+ *
+ * The current version is stored in a one row table, TABLE_SCHEMA_VERSION. A database created before migrations
+ * existed has no version table and is treated as version 0. Each version is applied within a single transaction,
+ * so a failed step leaves the database at the previous version and it will be retried on the next start up. The
+ * Message Service does not start on a database it could not bring up to LATEST_VERSION, since its sql commands
+ * expect the latest tables and keys.
+ *
+ * To add a migration: increase LATEST_VERSION and add a case to applyVersion() for the new version number. Never
+ * change a version that has already been released since existing databases will not run it again.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class SchemaMigration {
+
+	/**
+	 * @param c Open connection to the database. Auto commit is turned off while a version is applied and restored afterwards.
+	 */
+	SchemaMigration(Connection c) {
+		this.c = c;
+	}
+
+	/**
+	 * Brings the database up to LATEST_VERSION. Versions are applied in order and each one is committed on its own.
+	 *
+	 * @return The version the database is at after migrating, ie LATEST_VERSION.
+	 * @throws IllegalStateException If the database could not be brought up to LATEST_VERSION.
+	 */
+	public int migrate() {
+		Statement s = null;
+		int version = 0;
+
+		try {
+			s = c.createStatement();
+			version = readVersion(s);
+
+			while (version < LATEST_VERSION) {
+				int next = version + 1;
+				boolean autoCommit = c.getAutoCommit();
+
+				try {
+					c.setAutoCommit(false);
+					applyVersion(s, next);
+					s.executeUpdate("update " + TABLE_SCHEMA_VERSION + " set version=" + next);
+					c.commit();
+					version = next;
+					System.err.println("DEBUG: The database schema was migrated to version " + version);
+				} catch (SQLException se) {
+					c.rollback();
+					System.err.println(MessageService.processSqlException(se, "SchemaMigration.migrate() version " + next));
+					throw new IllegalStateException("The database schema could not be migrated to version " + next + " and is still at version " + version
+							+ ". The migration will be retried on the next start up.", se);
+				} finally {
+					c.setAutoCommit(autoCommit);
+				}
+			}
+		} catch (SQLException se) {
+			System.err.println(MessageService.processSqlException(se, "SchemaMigration.migrate()"));
+			throw new IllegalStateException("The database schema could not be migrated from version " + version + ".", se);
+		} finally {
+			MessageService.closeSqlResource(s);
+		}
+		return version;
+	}
+
+	/**
+	 * Reads the current schema version, creating the version table (at version 0) if it does not exist.
+	 *
+	 * @param s Open statement connection to the database for running sql commands.
+	 */
+	private int readVersion(Statement s) throws SQLException {
+		ResultSet rs = null;
+
+		try {
+			rs = s.executeQuery("select version from " + TABLE_SCHEMA_VERSION);
+			if (rs.next())
+				return rs.getInt(1);
+		} catch (SQLException se) {
+			if (!se.getSQLState().equals("42X05")) //42X05 is table does not exist.
+				throw se;
+		} finally {
+			MessageService.closeSqlResource(rs);
+		}
+
+		s.execute("create table " + TABLE_SCHEMA_VERSION + "(version int not null)");
+		s.executeUpdate("insert into " + TABLE_SCHEMA_VERSION + " values (0)");
+		System.err.println("DEBUG: The table for the schema version was created");
+		return 0;
+	}
+
+	/**
+	 * Applies the changes for one schema version. Runs inside the transaction opened by migrate().
+	 *
+	 * @param s Open statement connection to the database for running sql commands.
+	 * @param version The version to upgrade the database to.
+	 */
+	private void applyVersion(Statement s, int version) throws SQLException {
+		switch (version) {
+
+		case 1:
+			//Primary key on users so login and userExists are index lookups. Older databases may hold rows without a
+			//username, which no one can log in as, or the same user more than once (ie the guest registered by two
+			//programs starting at once), which would fail the primary key.
+			s.executeUpdate("delete from " + MessageService.TABLE_USERS + " where username is null");
+			removeDuplicateUsers(s);
+			s.execute("alter table " + MessageService.TABLE_USERS + " alter column username not null");
+			s.execute("alter table " + MessageService.TABLE_USERS + " add constraint pk_users primary key (username)");
+
+			//Replies reuse the message id of their parent, so messageid can not be a primary key. Index it instead.
+			s.execute("create index idx_messages_id on " + MessageService.TABLE_MESSAGES + "(messageid)");
+			s.execute("create index idx_messages_user on " + MessageService.TABLE_MESSAGES + "(username, timestamp)");
+			s.execute("create index idx_messages_tag on " + MessageService.TABLE_MESSAGES + "(tag, isprivate, timestamp)");
+			s.execute("create index idx_messages_reply on " + MessageService.TABLE_MESSAGES + "(repliedtousername, isreply, timestamp)");
+
+			//Older databases may hold the same subscription more than once, which would fail the unique index.
+			removeDuplicateSubscriptions(s);
+			s.execute("create unique index idx_subscriptions on " + MessageService.TABLE_SUBSCRIPTIONS + "(username, subscribedtousername)");
+			break;
+
+		case 2:
+			//Materialized home timelines: one copy of a message per subscriber of its author.
+			s.execute("create table " + MessageService.TABLE_TIMELINES + "(ownerusername varchar(20) not null, messageid varchar(30), timestamp timestamp, username varchar(20), tag varchar(10), isreply int, repliedtousername varchar(20), contents varchar(140), isprivate int)");
+			s.execute("create index idx_timelines_owner on " + MessageService.TABLE_TIMELINES + "(ownerusername, timestamp)");
+
+			//Backfill the timelines from the existing subscriptions.
+			s.executeUpdate("insert into " + MessageService.TABLE_TIMELINES + " select sub.username, msg.* from " + MessageService.TABLE_SUBSCRIPTIONS + " sub, "
+					+ MessageService.TABLE_MESSAGES + " msg where msg.username=sub.subscribedtousername");
+			break;
+
+		case 3:
+			//Append messageid to the timeline indexes so keyset pagination on (timestamp, messageid) is read straight from the index.
+			s.execute("drop index idx_messages_user");
+			s.execute("create index idx_messages_user on " + MessageService.TABLE_MESSAGES + "(username, timestamp, messageid)");
+			s.execute("drop index idx_messages_tag");
+			s.execute("create index idx_messages_tag on " + MessageService.TABLE_MESSAGES + "(tag, isprivate, timestamp, messageid)");
+			s.execute("drop index idx_messages_reply");
+			s.execute("create index idx_messages_reply on " + MessageService.TABLE_MESSAGES + "(repliedtousername, isreply, timestamp, messageid)");
+			s.execute("drop index idx_timelines_owner");
+			s.execute("create index idx_timelines_owner on " + MessageService.TABLE_TIMELINES + "(ownerusername, timestamp, messageid)");
+			break;
+
+		case 4:
+			//Incrementally maintained count of public messages per tag, so viewTags does not scan the messages table.
+			s.execute("create table " + MessageService.TABLE_TAG_COUNTS + "(tag varchar(10) not null primary key, usecount int not null)");
+			s.executeUpdate("insert into " + MessageService.TABLE_TAG_COUNTS + " select tag, count(*) from " + MessageService.TABLE_MESSAGES
+					+ " where tag is not null and isprivate=0 group by tag"); //as counted before version 6.
+			break;
+
+		case 5:
+			//Message ids from the MessageIdAllocator are username_N with N up to 19 digits.
+			s.execute("alter table " + MessageService.TABLE_MESSAGES + " alter column messageid set data type varchar(40)");
+			s.execute("alter table " + MessageService.TABLE_TIMELINES + " alter column messageid set data type varchar(40)");
+			break;
+
+		case 6:
+			//Messages can have several tags, anywhere in their contents: a tag dictionary and a message to tag join table.
+			s.execute("create table " + MessageService.TABLE_TAGS + "(tagid int generated always as identity primary key, tag varchar(" + MessageService.MAX_TAG_LENGTH
+					+ ") not null unique)");
+			s.execute("create table " + MessageService.TABLE_MESSAGE_TAGS + "(tagid int not null, timestamp timestamp, messageid varchar(40), username varchar(20), isprivate int)");
+			//Newest first, so a tag page is read in index order without sorting all the tag's messages.
+			s.execute("create index idx_message_tags on " + MessageService.TABLE_MESSAGE_TAGS + "(tagid, isprivate, timestamp desc, messageid desc, username)");
+
+			//Tag pages are read from the join table now.
+			s.execute("drop index idx_messages_tag");
+
+			s.execute("alter table " + MessageService.TABLE_MESSAGES + " alter column tag set data type varchar(" + MessageService.MAX_TAG_LENGTH + ")");
+			s.execute("alter table " + MessageService.TABLE_TIMELINES + " alter column tag set data type varchar(" + MessageService.MAX_TAG_LENGTH + ")");
+			s.execute("alter table " + MessageService.TABLE_TAG_COUNTS + " alter column tag set data type varchar(" + MessageService.MAX_TAG_LENGTH + ")");
+
+			//Tag the existing messages, including the tags in their contents, and count them again.
+			addMessageTags(s);
+			s.executeUpdate("delete from " + MessageService.TABLE_TAG_COUNTS);
+			s.executeUpdate("insert into " + MessageService.TABLE_TAG_COUNTS + " select t.tag, count(*) from " + MessageService.TABLE_MESSAGE_TAGS + " mt, "
+					+ MessageService.TABLE_TAGS + " t where mt.tagid=t.tagid and mt.isprivate=0 group by t.tag");
+			break;
+
+		case 7:
+			//Conversation threads: each message points to the message it replies to and to the first message of its thread,
+			//and counts its direct replies. Timelines hold copies of message rows (msg.*) so they get the same columns.
+			for (String table: new String[] {MessageService.TABLE_MESSAGES, MessageService.TABLE_TIMELINES}) {
+				s.execute("alter table " + table + " add column parentid varchar(40)");
+				s.execute("alter table " + table + " add column threadid varchar(40)");
+				s.execute("alter table " + table + " add column replycount int not null default 0");
+
+				//Until now a reply shared the id of its parent, which was never a reply itself: threads one level deep.
+				s.executeUpdate("update " + table + " set threadid=messageid");
+				s.executeUpdate("update " + table + " set parentid=messageid where isreply=1");
+				s.executeUpdate("update " + table + " set replycount=(select count(*) from " + MessageService.TABLE_MESSAGES + " r where r.isreply=1 and r.messageid="
+						+ table + ".messageid) where isreply=0");
+			}
+			//A whole thread is one range of this index, oldest first.
+			s.execute("create index idx_messages_thread on " + MessageService.TABLE_MESSAGES + "(threadid, timestamp, messageid)");
+			break;
+
+		case 8:
+			//Trending tags count the tag uses of a recent window of time.
+			s.execute("create index idx_message_tags_time on " + MessageService.TABLE_MESSAGE_TAGS + "(timestamp, isprivate, tagid)");
+			break;
+
+		default:
+			throw new SQLException("No migration is defined for schema version " + version);
+		}
+	}
+
+	/**
+	 * Keeps one row of each username in the users table: the one with the highest messagecount.
+	 *
+	 * @param s Open statement connection to the database for running sql commands.
+	 */
+	private void removeDuplicateUsers(Statement s) throws SQLException {
+		ResultSet rs = null;
+		PreparedStatement ps = null;
+		ArrayList<String> usernames = new ArrayList<String>();
+
+		try {
+			rs = s.executeQuery("select username from " + MessageService.TABLE_USERS + " group by username having count(*) > 1");
+			while (rs.next()) {
+				usernames.add(rs.getString(1));
+			}
+			MessageService.closeSqlResource(rs);
+			rs = null;
+
+			for (String username: usernames) {
+				//Read the row to keep, whichever columns this version of the table has.
+				ps = c.prepareStatement("select * from " + MessageService.TABLE_USERS + " where username=? order by messagecount desc nulls last");
+				ps.setString(1, username);
+				rs = ps.executeQuery();
+				rs.next();
+				Object[] row = new Object[rs.getMetaData().getColumnCount()];
+				int[] types = new int[row.length];
+				for (int i = 0; i < row.length; i++) {
+					row[i] = rs.getObject(i + 1);
+					types[i] = rs.getMetaData().getColumnType(i + 1);
+				}
+				MessageService.closeSqlResource(rs);
+				rs = null;
+				MessageService.closeSqlResource(ps);
+
+				ps = c.prepareStatement("delete from " + MessageService.TABLE_USERS + " where username=?");
+				ps.setString(1, username);
+				ps.executeUpdate();
+				MessageService.closeSqlResource(ps);
+
+				StringBuilder values = new StringBuilder("?");
+				for (int i = 1; i < row.length; i++) {
+					values.append(", ?");
+				}
+				ps = c.prepareStatement("insert into " + MessageService.TABLE_USERS + " values (" + values + ")");
+				for (int i = 0; i < row.length; i++) {
+					if (row[i] == null)
+						ps.setNull(i + 1, types[i]);
+					else
+						ps.setObject(i + 1, row[i]);
+				}
+				ps.executeUpdate();
+				MessageService.closeSqlResource(ps);
+				ps = null;
+
+				System.err.println("DEBUG: The duplicate rows of user " + username + " were removed");
+			}
+		} finally {
+			MessageService.closeSqlResource(rs);
+			MessageService.closeSqlResource(ps);
+		}
+	}
+
+	/**
+	 * Rewrites the subscriptions table so that every (username, subscribedtousername) pair occurs once.
+	 *
+	 * @param s Open statement connection to the database for running sql commands.
+	 */
+	private void removeDuplicateSubscriptions(Statement s) throws SQLException {
+		ResultSet rs = null;
+		PreparedStatement ps = null;
+		ArrayList<String[]> pairs = new ArrayList<String[]>();
+
+		try {
+			rs = s.executeQuery("select distinct username, subscribedtousername from " + MessageService.TABLE_SUBSCRIPTIONS);
+			while (rs.next()) {
+				pairs.add(new String[] {rs.getString(1), rs.getString(2)});
+			}
+			MessageService.closeSqlResource(rs);
+			rs = null;
+
+			s.executeUpdate("delete from " + MessageService.TABLE_SUBSCRIPTIONS);
+
+			ps = c.prepareStatement("insert into " + MessageService.TABLE_SUBSCRIPTIONS + " values (?, ?)");
+			for (String[] pair: pairs) {
+				ps.setString(1, pair[0]);
+				ps.setString(2, pair[1]);
+				ps.addBatch();
+			}
+			ps.executeBatch();
+		} finally {
+			MessageService.closeSqlResource(rs);
+			MessageService.closeSqlResource(ps);
+		}
+	}
+
+	/**
+	 * Fills TABLE_TAGS and TABLE_MESSAGE_TAGS from the existing messages: the tag column and the #tags in the contents.
+	 *
+	 * @param s Open statement connection to the database for running sql commands.
+	 */
+	private void addMessageTags(Statement s) throws SQLException {
+		ResultSet rs = null;
+		PreparedStatement ps = null;
+		ArrayList<Object[]> rows = new ArrayList<Object[]>(); //(tag, timestamp, messageid, username, isprivate)
+		LinkedHashSet<String> tags = new LinkedHashSet<String>();
+
+		try {
+			rs = s.executeQuery("select tag, contents, timestamp, messageid, username, isprivate from " + MessageService.TABLE_MESSAGES + " where tag is not null or contents like '%#%'");
+			while (rs.next()) {
+				for (String tag: MessageService.messageTags(rs.getString(1), rs.getString(2))) {
+					rows.add(new Object[] {tag, rs.getTimestamp(3), rs.getString(4), rs.getString(5), rs.getInt(6)});
+					tags.add(tag);
+				}
+			}
+			MessageService.closeSqlResource(rs);
+			rs = null;
+
+			ps = c.prepareStatement("insert into " + MessageService.TABLE_TAGS + " (tag) values (?)");
+			for (String tag: tags) {
+				ps.setString(1, tag);
+				ps.addBatch();
+			}
+			ps.executeBatch();
+			MessageService.closeSqlResource(ps);
+			ps = null;
+
+			HashMap<String, Integer> tagIds = new HashMap<String, Integer>();
+			rs = s.executeQuery("select tag, tagid from " + MessageService.TABLE_TAGS);
+			while (rs.next()) {
+				tagIds.put(rs.getString(1), rs.getInt(2));
+			}
+			MessageService.closeSqlResource(rs);
+			rs = null;
+
+			ps = c.prepareStatement("insert into " + MessageService.TABLE_MESSAGE_TAGS + " values (?, ?, ?, ?, ?)");
+			for (Object[] row: rows) {
+				ps.setInt(1, tagIds.get(row[0]));
+				ps.setTimestamp(2, (Timestamp) row[1]);
+				ps.setString(3, (String) row[2]);
+				ps.setString(4, (String) row[3]);
+				ps.setInt(5, (Integer) row[4]);
+				ps.addBatch();
+			}
+			ps.executeBatch();
+		} finally {
+			MessageService.closeSqlResource(rs);
+			MessageService.closeSqlResource(ps);
+		}
+	}
+
+	private Connection c;
+
+	/**
+	 * The schema version this build of the Message Service expects.
+	 */
+	public static final int LATEST_VERSION = 8;
+
+	/**
+	 * The name of the table within the database that stores the schema version (one row, one column).
+	 */
+	public static final String TABLE_SCHEMA_VERSION = "table_schema_version";
+}
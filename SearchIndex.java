@@ -0,0 +1,281 @@
+//package twoogle;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Inverted index over the words of message contents, so messages can be searched without scanning table_messages
+ * (see MessageService.searchMessages()).
+ *
+ * Each indexed message gets a document number, in the order it was added. Each word (term) maps to its posting
+ * list: the ascending numbers of the messages containing it. A search for several words intersects their posting
+ * lists, walking the shortest one and looking the others up by binary search, then keeps the newest matches the
+ * viewer may see. Document numbers are used instead of message ids since a reply shares the id of the message it
+ * replies to.
+ *
+ * The index is built from all messages when the Message Service starts (see build()), tokenizing them on several
+ * threads, and new messages are added as they are committed. It holds the indexed messages in memory.
+ *
+ * Safe for use by several threads at once: searches run in parallel, adds wait for them.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class SearchIndex {
+
+	SearchIndex() {
+	}
+
+	/**
+	 * Builds the index of existing messages, splitting them amongst several threads which each index their share
+	 * into a partial index. The partial indexes are then appended in order, which keeps the posting lists sorted.
+	 *
+	 * @param messages The messages, in any order.
+	 * @param threads The number of threads tokenizing.
+	 */
+	static SearchIndex build(final List<Message> messages, int threads) throws InterruptedException {
+		SearchIndex index = new SearchIndex();
+		index.docs.addAll(messages);
+
+		int chunks = Math.max(1, Math.min(threads, messages.size() / MIN_CHUNK_SIZE));
+		ExecutorService executor = Executors.newFixedThreadPool(chunks, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "twoogle-search-index");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		try {
+			ArrayList<Future<HashMap<String, Postings>>> partials = new ArrayList<Future<HashMap<String, Postings>>>();
+			for (int i = 0; i < chunks; i++) {
+				final int from = (int) ((long) messages.size() * i / chunks);
+				final int to = (int) ((long) messages.size() * (i + 1) / chunks);
+				partials.add(executor.submit(new Callable<HashMap<String, Postings>>() {
+					public HashMap<String, Postings> call() {
+						HashMap<String, Postings> partial = new HashMap<String, Postings>();
+						for (int doc = from; doc < to; doc++) {
+							addPostings(partial, doc, messages.get(doc));
+						}
+						return partial;
+					}
+				}));
+			}
+
+			for (Future<HashMap<String, Postings>> partial: partials) {
+				for (Map.Entry<String, Postings> e: partial.get().entrySet()) {
+					Postings p = index.postings.get(e.getKey());
+					if (p == null)
+						index.postings.put(e.getKey(), e.getValue());
+					else
+						p.addAll(e.getValue());
+				}
+			}
+		} catch (ExecutionException ee) {
+			throw new IllegalStateException("Could not build the search index", ee.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return index;
+	}
+
+	/**
+	 * Adds a newly committed message.
+	 */
+	public void add(Message m) {
+		lock.writeLock().lock();
+		try {
+			docs.add(m);
+			addPostings(postings, docs.size() - 1, m);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the newest messages containing every one of some words that a user may see: the public ones and his
+	 * own private ones.
+	 *
+	 * @param terms The words searched for, as returned by terms(), ie terms("Great movie!").
+	 * @param viewer Username of the user searching.
+	 * @param cursor Only messages older than this cursor (see Page) are returned, or null for the newest.
+	 * @param count The most messages returned.
+	 * @return The messages, newest first.
+	 */
+	public ArrayList<Message> search(List<String> terms, String viewer, String cursor, int count) {
+		long start = System.nanoTime();
+		Timestamp before = Page.cursorTimestamp(cursor);
+		String beforeId = Page.cursorMessageId(cursor);
+
+		//Oldest match on top, so it is the one dropped when a newer one is found.
+		PriorityQueue<Message> newest = new PriorityQueue<Message>(count + 1, Collections.reverseOrder(NEWEST_FIRST));
+
+		lock.readLock().lock();
+		try {
+			Postings[] lists = new Postings[terms.size()];
+			for (int i = 0; i < lists.length; i++) {
+				lists[i] = postings.get(terms.get(i));
+				if (lists[i] == null)
+					lists = new Postings[0]; //a word no message contains, nothing matches.
+				if (lists.length == 0)
+					break;
+			}
+
+			if (lists.length > 0) {
+				Arrays.sort(lists, SHORTEST_FIRST);
+				Postings shortest = lists[0];
+				next:
+				for (int i = 0; i < shortest.size; i++) {
+					int doc = shortest.docs[i];
+					for (int j = 1; j < lists.length; j++) {
+						if (!lists[j].contains(doc))
+							continue next;
+					}
+
+					Message m = docs.get(doc);
+					if (m.isPrivate != 0 && !m.username.equals(viewer))
+						continue;
+					if (!isBefore(m, before, beforeId))
+						continue;
+
+					newest.add(m);
+					if (newest.size() > count)
+						newest.poll();
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		ArrayList<Message> messages = new ArrayList<Message>(newest);
+		Collections.sort(messages, NEWEST_FIRST);
+
+		searches.incrementAndGet();
+		searchNanos.addAndGet(System.nanoTime() - start);
+		return messages;
+	}
+
+	/**
+	 * Splits text into the words indexed and searched for: runs of letters and digits, in lower case, each once.
+	 */
+	static List<String> terms(String text) {
+		LinkedHashSet<String> terms = new LinkedHashSet<String>();
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++) {
+			boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if (inWord && start == -1) {
+				start = i;
+			} else if (!inWord && start != -1) {
+				terms.add(text.substring(start, i).toLowerCase());
+				start = -1;
+			}
+		}
+		return new ArrayList<String>(terms);
+	}
+
+	/**
+	 * Returns the index statistics as a formatted string.
+	 */
+	public String metrics() {
+		long n = searches.get();
+		lock.readLock().lock();
+		try {
+			return "Search index: " + docs.size() + " messages, " + postings.size() + " words | " + n + " searches, average "
+					+ (n == 0 ? 0 : searchNanos.get() / n / 1000) + "us";
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private static void addPostings(HashMap<String, Postings> index, int doc, Message m) {
+		if (m.contents == null)
+			return;
+
+		for (String term: terms(m.contents)) {
+			Postings p = index.get(term);
+			if (p == null) {
+				p = new Postings();
+				index.put(term, p);
+			}
+			p.add(doc);
+		}
+	}
+
+	/**
+	 * True if a message sorts after the cursor (timestamp, messageid) in newest first order.
+	 */
+	private static boolean isBefore(Message m, Timestamp before, String beforeId) {
+		int c = m.timestamp.compareTo(before);
+		return c < 0 || (c == 0 && m.id.compareTo(beforeId) < 0);
+	}
+
+	/**
+	 * The ascending document numbers of the messages containing a word.
+	 */
+	private static class Postings {
+
+		void add(int doc) {
+			if (size == docs.length)
+				docs = Arrays.copyOf(docs, size * 2);
+			docs[size++] = doc;
+		}
+
+		/**
+		 * Appends the documents of another list, which must all be greater than the ones of this list.
+		 */
+		void addAll(Postings other) {
+			if (size + other.size > docs.length)
+				docs = Arrays.copyOf(docs, Math.max(size * 2, size + other.size));
+			System.arraycopy(other.docs, 0, docs, size, other.size);
+			size += other.size;
+		}
+
+		boolean contains(int doc) {
+			return Arrays.binarySearch(docs, 0, size, doc) >= 0;
+		}
+
+		int[] docs = new int[2];
+		int size;
+	}
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final ArrayList<Message> docs = new ArrayList<Message>(); //the indexed messages by document number.
+	private final HashMap<String, Postings> postings = new HashMap<String, Postings>();
+
+	//statistics
+	private final AtomicLong searches = new AtomicLong();
+	private final AtomicLong searchNanos = new AtomicLong();
+
+	/**
+	 * The fewest messages a build thread indexes, so small databases are indexed on one thread.
+	 */
+	private static final int MIN_CHUNK_SIZE = 10000;
+
+	private static final Comparator<Message> NEWEST_FIRST = new Comparator<Message>() {
+		public int compare(Message a, Message b) {
+			int c = b.timestamp.compareTo(a.timestamp);
+			return c != 0 ? c : b.id.compareTo(a.id);
+		}
+	};
+
+	private static final Comparator<Postings> SHORTEST_FIRST = new Comparator<Postings>() {
+		public int compare(Postings a, Postings b) {
+			return Integer.compare(a.size, b.size);
+		}
+	};
+}
@@ -0,0 +1,448 @@
+//package twoogle;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The subscriptions held in memory as a graph of int ids, so the users someone is subscribed to (following) or the
+ * users subscribed to someone (followers) are read from a slice of an int array instead of a table or a set per user
+ * (see GraphSubscriptionStore). The following of a user are his subscriptions and make up his home timeline; the
+ * followers of an author are who the EventBus delivers his new messages to. Both are counted on profiles.
+ *
+ * Each username is interned to a dense id, in the order it is first seen. Each direction of the graph is held in
+ * compressed sparse row form: one array of all edges, grouped by user, and the start and size of each user's slice
+ * of it. A slice is kept sorted, so an edge is found by binary search. Unlike plain compressed sparse rows, a slice
+ * also has a capacity, so a new subscription is added in place while its slice has room; a full slice is moved to the
+ * end of the array with twice the room. Once more than a third of the array is left behind by moved slices it is
+ * compacted.
+ *
+ * The graph is built from all subscriptions when the storage opens (see build()), on several threads, and new
+ * subscriptions are added as they are made.
+ *
+ * Safe for use by several threads at once: lookups run in parallel, adds wait for them.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class SocialGraph {
+
+	SocialGraph() {
+		this(new HashMap<String, Integer>(), new ArrayList<String>(), new Adjacency(), new Adjacency());
+	}
+
+	private SocialGraph(HashMap<String, Integer> ids, ArrayList<String> usernames, Adjacency following, Adjacency followers) {
+		this.ids = ids;
+		this.usernames = usernames;
+		this.following = following;
+		this.followers = followers;
+	}
+
+	/**
+	 * Builds the graph of existing subscriptions. The usernames are interned on this thread; the edges are then
+	 * counted per user, placed in their slices and sorted by several threads, each working on its share of the
+	 * subscriptions or of the users.
+	 *
+	 * @param subscriptions The subscriptions as (subscriber, subscribed to), in any order, each once.
+	 * @param threads The number of threads building the arrays.
+	 */
+	static SocialGraph build(List<Map.Entry<String, String>> subscriptions, int threads) throws InterruptedException {
+		HashMap<String, Integer> ids = new HashMap<String, Integer>();
+		ArrayList<String> usernames = new ArrayList<String>();
+		final int[] from = new int[subscriptions.size()];
+		final int[] to = new int[subscriptions.size()];
+		for (int i = 0; i < from.length; i++) {
+			Map.Entry<String, String> s = subscriptions.get(i);
+			from[i] = intern(ids, usernames, s.getKey());
+			to[i] = intern(ids, usernames, s.getValue());
+		}
+
+		final int users = usernames.size();
+		final AtomicIntegerArray followingSizes = new AtomicIntegerArray(users);
+		final AtomicIntegerArray followerSizes = new AtomicIntegerArray(users);
+		final int chunks = Math.max(1, Math.min(threads, from.length / MIN_CHUNK_SIZE));
+		ExecutorService executor = Executors.newFixedThreadPool(chunks, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "twoogle-social-graph");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		try {
+			//Count the edges of each user.
+			run(executor, chunks, from.length, new Slice() {
+				public void run(int start, int end) {
+					for (int i = start; i < end; i++) {
+						followingSizes.incrementAndGet(from[i]);
+						followerSizes.incrementAndGet(to[i]);
+					}
+				}
+			});
+
+			//Lay out the slices one after the other.
+			final int[] followingStarts = new int[users];
+			final int[] followerStarts = new int[users];
+			for (int u = 1; u < users; u++) {
+				followingStarts[u] = followingStarts[u - 1] + followingSizes.get(u - 1);
+				followerStarts[u] = followerStarts[u - 1] + followerSizes.get(u - 1);
+			}
+
+			//Place each edge in the next free place of its slice.
+			final int[] followingEdges = new int[from.length];
+			final int[] followerEdges = new int[from.length];
+			final AtomicIntegerArray followingNext = new AtomicIntegerArray(followingStarts);
+			final AtomicIntegerArray followerNext = new AtomicIntegerArray(followerStarts);
+			run(executor, chunks, from.length, new Slice() {
+				public void run(int start, int end) {
+					for (int i = start; i < end; i++) {
+						followingEdges[followingNext.getAndIncrement(from[i])] = to[i];
+						followerEdges[followerNext.getAndIncrement(to[i])] = from[i];
+					}
+				}
+			});
+
+			//Sort each slice, so edges are found by binary search.
+			final int[] followingSizeArray = toArray(followingSizes);
+			final int[] followerSizeArray = toArray(followerSizes);
+			run(executor, chunks, users, new Slice() {
+				public void run(int start, int end) {
+					for (int u = start; u < end; u++) {
+						Arrays.sort(followingEdges, followingStarts[u], followingStarts[u] + followingSizeArray[u]);
+						Arrays.sort(followerEdges, followerStarts[u], followerStarts[u] + followerSizeArray[u]);
+					}
+				}
+			});
+
+			return new SocialGraph(ids, usernames, new Adjacency(followingStarts, followingSizeArray, followingEdges),
+					new Adjacency(followerStarts, followerSizeArray, followerEdges));
+
+		} catch (ExecutionException ee) {
+			throw new IllegalStateException("Could not build the social graph", ee.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Adds a new subscription.
+	 *
+	 * @return False if it was already in the graph.
+	 */
+	public boolean add(String subscriber, String subscribedTo) {
+		lock.writeLock().lock();
+		try {
+			int from = intern(ids, usernames, subscriber);
+			int to = intern(ids, usernames, subscribedTo);
+			if (!following.add(from, to))
+				return false;
+			followers.add(to, from);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the usernames a user is subscribed to.
+	 */
+	public List<String> following(String username) {
+		return usernames(following, username);
+	}
+
+	/**
+	 * Returns the usernames subscribed to a user.
+	 */
+	public List<String> followers(String username) {
+		return usernames(followers, username);
+	}
+
+	/**
+	 * Returns the number of users a user is subscribed to.
+	 */
+	public int followingCount(String username) {
+		return size(following, username);
+	}
+
+	/**
+	 * Returns the number of users subscribed to a user.
+	 */
+	public int followerCount(String username) {
+		return size(followers, username);
+	}
+
+	public boolean isFollowing(String subscriber, String subscribedTo) {
+		lock.readLock().lock();
+		try {
+			Integer from = ids.get(subscriber);
+			Integer to = ids.get(subscribedTo);
+			return from != null && to != null && following.contains(from, to);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns every subscription as (subscriber, subscribed to), grouped by subscriber.
+	 */
+	public List<Map.Entry<String, String>> subscriptions() {
+		lock.readLock().lock();
+		try {
+			ArrayList<Map.Entry<String, String>> r = new ArrayList<Map.Entry<String, String>>(following.edgeCount);
+			for (int u = 0; u < usernames.size(); u++) {
+				for (int i = following.start(u), end = i + following.size(u); i < end; i++) {
+					r.add(new AbstractMap.SimpleImmutableEntry<String, String>(usernames.get(u), usernames.get(following.edges[i])));
+				}
+			}
+			return r;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of subscriptions.
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return following.edgeCount;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the graph statistics as a formatted string.
+	 */
+	public String metrics() {
+		lock.readLock().lock();
+		try {
+			long bytes = 4L * (following.edges.length + followers.edges.length + 3 * (following.starts.length + followers.starts.length));
+			return "Social graph: " + usernames.size() + " users, " + following.edgeCount + " subscriptions | " + bytes / 1024 + "KB of arrays, "
+					+ (following.unused + followers.unused) + " edge places left by moved slices, " + (following.compactions + followers.compactions) + " compactions";
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private List<String> usernames(Adjacency a, String username) {
+		lock.readLock().lock();
+		try {
+			Integer u = ids.get(username);
+			if (u == null)
+				return new ArrayList<String>();
+
+			int start = a.start(u), size = a.size(u);
+			ArrayList<String> r = new ArrayList<String>(size);
+			for (int i = start; i < start + size; i++) {
+				r.add(usernames.get(a.edges[i]));
+			}
+			return r;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private int size(Adjacency a, String username) {
+		lock.readLock().lock();
+		try {
+			Integer u = ids.get(username);
+			return u == null ? 0 : a.size(u);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the id of a username, giving it the next id if it has none yet.
+	 */
+	private static int intern(HashMap<String, Integer> ids, ArrayList<String> usernames, String username) {
+		Integer id = ids.get(username);
+		if (id == null) {
+			id = usernames.size();
+			ids.put(username, id);
+			usernames.add(username);
+		}
+		return id;
+	}
+
+	/**
+	 * Splits the range [0, n) into chunks, runs each on the executor and waits for all of them.
+	 */
+	private static void run(ExecutorService executor, int chunks, int n, final Slice slice) throws InterruptedException, ExecutionException {
+		ArrayList<Future<Void>> done = new ArrayList<Future<Void>>();
+		for (int i = 0; i < chunks; i++) {
+			final int start = (int) ((long) n * i / chunks);
+			final int end = (int) ((long) n * (i + 1) / chunks);
+			done.add(executor.submit(new Callable<Void>() {
+				public Void call() {
+					slice.run(start, end);
+					return null;
+				}
+			}));
+		}
+		for (Future<Void> f: done) {
+			f.get();
+		}
+	}
+
+	private static int[] toArray(AtomicIntegerArray a) {
+		int[] r = new int[a.length()];
+		for (int i = 0; i < r.length; i++) {
+			r[i] = a.get(i);
+		}
+		return r;
+	}
+
+	/**
+	 * A share of the work of build(), from start (inclusive) to end (exclusive).
+	 */
+	private interface Slice {
+		void run(int start, int end);
+	}
+
+	/**
+	 * One direction of the graph: the sorted slice of edges of each user in one array.
+	 */
+	private static class Adjacency {
+
+		Adjacency() {
+			this(new int[0], new int[0], new int[0]);
+		}
+
+		/**
+		 * @param starts Where each user's slice starts in edges.
+		 * @param sizes The number of edges of each user, which fill their slices.
+		 */
+		Adjacency(int[] starts, int[] sizes, int[] edges) {
+			int users = Math.max(starts.length, MIN_USERS);
+			this.starts = Arrays.copyOf(starts, users);
+			this.sizes = Arrays.copyOf(sizes, users);
+			this.capacities = Arrays.copyOf(sizes, users);
+			this.edges = edges;
+			this.end = edges.length;
+			this.edgeCount = edges.length;
+		}
+
+		int start(int u) {
+			return u < starts.length ? starts[u] : 0;
+		}
+
+		int size(int u) {
+			return u < sizes.length ? sizes[u] : 0;
+		}
+
+		boolean contains(int u, int v) {
+			return Arrays.binarySearch(edges, start(u), start(u) + size(u), v) >= 0;
+		}
+
+		/**
+		 * Adds the edge u -> v to the slice of u, in order.
+		 *
+		 * @return False if it was already there.
+		 */
+		boolean add(int u, int v) {
+			if (u >= starts.length) {
+				int users = Math.max(u + 1, starts.length * 2);
+				starts = Arrays.copyOf(starts, users);
+				sizes = Arrays.copyOf(sizes, users);
+				capacities = Arrays.copyOf(capacities, users);
+			}
+
+			int i = Arrays.binarySearch(edges, starts[u], starts[u] + sizes[u], v);
+			if (i >= 0)
+				return false;
+
+			if (sizes[u] == capacities[u]) {
+				grow(u);
+				i = Arrays.binarySearch(edges, starts[u], starts[u] + sizes[u], v);
+			}
+			i = -i - 1;
+			System.arraycopy(edges, i, edges, i + 1, starts[u] + sizes[u] - i);
+			edges[i] = v;
+			sizes[u]++;
+			edgeCount++;
+			return true;
+		}
+
+		/**
+		 * Gives the full slice of u twice the room (at least MIN_SLICE), moving it to the end of the edges unless it
+		 * is there already.
+		 */
+		private void grow(int u) {
+			int capacity = Math.max(MIN_SLICE, capacities[u] * 2);
+			boolean isLast = starts[u] + capacities[u] == end;
+			if (!isLast && unused > end / 3) {
+				compact();
+				isLast = starts[u] + capacities[u] == end;
+			}
+
+			int needed = isLast ? starts[u] + capacity : end + capacity;
+			if (needed > edges.length)
+				edges = Arrays.copyOf(edges, Math.max(needed, edges.length + edges.length / 2));
+
+			if (!isLast) {
+				System.arraycopy(edges, starts[u], edges, end, sizes[u]);
+				unused += capacities[u];
+				starts[u] = end;
+			}
+			capacities[u] = capacity;
+			end = starts[u] + capacity;
+		}
+
+		/**
+		 * Moves the slices together, each with the room it has, dropping the places left by moved slices.
+		 */
+		private void compact() {
+			int[] compacted = new int[end - unused];
+			int next = 0;
+			for (int u = 0; u < starts.length; u++) {
+				System.arraycopy(edges, starts[u], compacted, next, sizes[u]);
+				starts[u] = next;
+				next += capacities[u];
+			}
+			edges = compacted;
+			end = next;
+			unused = 0;
+			compactions++;
+		}
+
+		int[] starts;
+		int[] sizes;
+		int[] capacities;
+		int[] edges;
+		int end; //the places of edges in use by slices or left by moved slices.
+		int unused; //the places left by moved slices.
+		int edgeCount;
+		int compactions;
+	}
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final HashMap<String, Integer> ids;
+	private final ArrayList<String> usernames; //by id.
+	private final Adjacency following; //the users each user is subscribed to.
+	private final Adjacency followers; //the users subscribed to each user.
+
+	/**
+	 * The fewest subscriptions a build thread handles, so small graphs are built on one thread.
+	 */
+	private static final int MIN_CHUNK_SIZE = 10000;
+
+	/**
+	 * The room a slice gets when it first grows.
+	 */
+	private static final int MIN_SLICE = 4;
+
+	private static final int MIN_USERS = 16;
+}
@@ -0,0 +1,26 @@
+//package twoogle;
+
+/**
+ * The stores a MessageService keeps its data in, opened together since they usually share a database: DerbyStorage
+ * keeps them in Apache Derby and MemoryStorage in the memory of this program only.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public interface Storage {
+
+	MessageStore messages();
+
+	UserStore users();
+
+	SubscriptionStore subscriptions();
+
+	/**
+	 * Returns the statistics of the storage, ie of its connection pool, one per line.
+	 */
+	String metrics();
+
+	/**
+	 * Closes the storage, after which the stores can not be used.
+	 */
+	void close();
+}
@@ -0,0 +1,42 @@
+//package twoogle;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where the subscriptions of the users are kept. See MessageStore and Storage.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public interface SubscriptionStore {
+
+	/**
+	 * Subscribes a user to another. The subscriber's home timeline (see MessageStore.homeTimeline()) shows the
+	 * messages of the user subscribed to from then on, and at least his most recent MessageService.TIMELINE_BACKFILL_LIMIT
+	 * messages.
+	 *
+	 * @return False if the user was already subscribed, in which case nothing is changed.
+	 */
+	boolean subscribe(String username, String subscribeToUsername) throws SQLException;
+
+	/**
+	 * Returns the usernames a user is subscribed to.
+	 */
+	List<String> subscribedTo(String username) throws SQLException;
+
+	/**
+	 * Returns the number of users a user is subscribed to.
+	 */
+	int subscribedToCount(String username) throws SQLException;
+
+	/**
+	 * Returns the number of users subscribed to a user.
+	 */
+	int subscriberCount(String username) throws SQLException;
+
+	/**
+	 * Returns every subscription as (subscriber, subscribed to), in no particular order, ie to build a SocialGraph.
+	 */
+	List<Map.Entry<String, String>> allSubscriptions() throws SQLException;
+}
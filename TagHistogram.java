@@ -0,0 +1,92 @@
+//package twoogle;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory copy of the tag counts stored in MessageService.TABLE_TAG_COUNTS. The MessageService loads it at start up
+ * and increments it after each public tagged message is committed, so listing the most used tags never has to scan
+ * the messages table.
+ *
+ * Safe for use by several threads at once.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class TagHistogram {
+
+	/**
+	 * Adds one use of the passed tag.
+	 *
+	 * @param tag The tag, including the leading #.
+	 */
+	public void increment(String tag) {
+		AtomicInteger count = counts.get(tag);
+		if (count == null) {
+			AtomicInteger newCount = new AtomicInteger();
+			count = counts.putIfAbsent(tag, newCount);
+			if (count == null)
+				count = newCount;
+		}
+		count.incrementAndGet();
+	}
+
+	/**
+	 * Sets the count of the passed tag. Used when loading the counts from the database.
+	 *
+	 * @param tag The tag, including the leading #.
+	 * @param count Number of public messages marked with the tag.
+	 */
+	public void put(String tag, int count) {
+		counts.put(tag, new AtomicInteger(count));
+	}
+
+	/**
+	 * Removes all counts. Used before reloading the counts from the database.
+	 */
+	public void clear() {
+		counts.clear();
+	}
+
+	/**
+	 * Returns the most used tags, most used first. Ties are listed alphabetically. Runs in time linear to the
+	 * number of distinct tags.
+	 *
+	 * @param limit The maximum number of tags to return.
+	 */
+	public ArrayList<Map.Entry<String, Integer>> top(int limit) {
+		PriorityQueue<Map.Entry<String, Integer>> heap = new PriorityQueue<Map.Entry<String, Integer>>(Math.max(1, limit), LEAST_USED_FIRST);
+
+		for (Map.Entry<String, AtomicInteger> e: counts.entrySet()) {
+			Map.Entry<String, Integer> entry = new AbstractMap.SimpleImmutableEntry<String, Integer>(e.getKey(), e.getValue().get());
+
+			if (heap.size() < limit)
+				heap.add(entry);
+			else if (limit > 0 && LEAST_USED_FIRST.compare(entry, heap.peek()) > 0) {
+				heap.poll();
+				heap.add(entry);
+			}
+		}
+
+		ArrayList<Map.Entry<String, Integer>> r = new ArrayList<Map.Entry<String, Integer>>(heap);
+		Collections.sort(r, Collections.reverseOrder(LEAST_USED_FIRST));
+		return r;
+	}
+
+	private final ConcurrentHashMap<String, AtomicInteger> counts = new ConcurrentHashMap<String, AtomicInteger>();
+
+	/**
+	 * Orders tags by count, least used first, with ties broken in reverse alphabetical order.
+	 */
+	private static final Comparator<Map.Entry<String, Integer>> LEAST_USED_FIRST = new Comparator<Map.Entry<String, Integer>>() {
+		public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+			int c = a.getValue().compareTo(b.getValue());
+			return c != 0 ? c : b.getKey().compareTo(a.getKey());
+		}
+	};
+}
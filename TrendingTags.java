@@ -0,0 +1,300 @@
+//package twoogle;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The most used public tags of the last 15 minutes, hour or day (see MessageService.trendingTags()), kept up to date
+ * as messages are posted so listing them never reads the database.
+ *
+ * Tag uses are counted per minute in a ring of MINUTES buckets, one day's worth. Each window keeps a running total of
+ * the minutes it covers in a count-min sketch: a use is added when it is posted and subtracted again when its minute
+ * slides out of the window. The sketch takes the same memory however many distinct tags there are, at the cost of
+ * counts that may be slightly too high for the rare tags sharing its cells. Each window also keeps the CANDIDATES
+ * tags with the highest counts seen, which is where the top tags are read from, so a query takes the same time
+ * however many tags and messages there are.
+ *
+ * Safe for use by several threads at once.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class TrendingTags {
+
+	/**
+	 * The spans trending tags are counted over.
+	 */
+	public enum Window {
+		QUARTER_HOUR("15m", "15 minutes", 15),
+		HOUR("1h", "hour", 60),
+		DAY("1d", "day", MINUTES);
+
+		Window(String code, String description, int minutes) {
+			this.code = code;
+			this.description = description;
+			this.minutes = minutes;
+		}
+
+		/**
+		 * Returns the window with a code, ie "1h", or null if there is none.
+		 */
+		public static Window parse(String code) {
+			for (Window w: values()) {
+				if (w.code.equalsIgnoreCase(code.trim()))
+					return w;
+			}
+			return null;
+		}
+
+		/**
+		 * Short name, ie "15m", "1h" or "1d".
+		 */
+		public final String code;
+
+		/**
+		 * As in "the last hour".
+		 */
+		public final String description;
+
+		public final int minutes;
+	}
+
+	TrendingTags() {
+		this(System.currentTimeMillis());
+	}
+
+	/**
+	 * @param now The current time in milliseconds, which the windows end at.
+	 */
+	TrendingTags(long now) {
+		current = minute(now);
+		for (int i = 0; i < MINUTES; i++) {
+			buckets.add(new HashMap<String, Integer>());
+		}
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = new WindowCounts();
+		}
+	}
+
+	/**
+	 * Adds one use of a tag by a public message.
+	 *
+	 * @param tag The tag, including the leading #.
+	 * @param time When the message was posted, in milliseconds. Uses older than a day are ignored.
+	 */
+	public synchronized void add(String tag, long time) {
+		long minute = minute(time);
+		advance(minute);
+		if (minute <= current - MINUTES)
+			return;
+
+		HashMap<String, Integer> bucket = buckets.get(slot(minute));
+		Integer n = bucket.get(tag);
+		bucket.put(tag, n == null ? 1 : n + 1);
+
+		Window[] windows = Window.values();
+		for (int i = 0; i < windows.length; i++) {
+			if (minute > current - windows[i].minutes)
+				counts[i].add(tag);
+		}
+		uses++;
+	}
+
+	/**
+	 * Returns the most used tags of a window ending now, most used first. Ties are listed alphabetically.
+	 *
+	 * @param window The span counted.
+	 * @param limit The maximum number of tags to return, at most CANDIDATES.
+	 */
+	public List<Map.Entry<String, Integer>> top(Window window, int limit) {
+		return top(window, limit, System.currentTimeMillis());
+	}
+
+	/**
+	 * Returns the most used tags of a window ending at a time, which must not be before the latest add().
+	 */
+	synchronized List<Map.Entry<String, Integer>> top(Window window, int limit, long now) {
+		advance(minute(now));
+
+		ArrayList<Map.Entry<String, Integer>> r = new ArrayList<Map.Entry<String, Integer>>();
+		for (Map.Entry<String, Integer> e: counts[window.ordinal()].candidates.entrySet()) {
+			r.add(new AbstractMap.SimpleImmutableEntry<String, Integer>(e));
+		}
+		Collections.sort(r, MOST_USED_FIRST);
+		return r.size() > limit ? r.subList(0, Math.max(0, limit)) : r;
+	}
+
+	/**
+	 * Returns the statistics as a formatted string.
+	 */
+	public synchronized String metrics() {
+		int tags = 0;
+		for (HashMap<String, Integer> bucket: buckets) {
+			tags += bucket.size();
+		}
+		return "Trending tags: " + uses + " uses counted, " + tags + " (minute, tag) counts held";
+	}
+
+	/**
+	 * Moves the end of the windows forward to a minute, sliding the minutes that fall out of each window out of its
+	 * counts. Runs in time linear to the tag uses slid out, which is at most the uses added.
+	 */
+	private void advance(long minute) {
+		if (minute <= current)
+			return;
+
+		Window[] windows = Window.values();
+		if (minute - current >= MINUTES) { //nothing counted is within a day any more.
+			for (HashMap<String, Integer> bucket: buckets) {
+				bucket.clear();
+			}
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = new WindowCounts();
+			}
+			current = minute;
+			return;
+		}
+
+		for (long m = current + 1; m <= minute; m++) {
+			for (int i = 0; i < windows.length; i++) {
+				for (Map.Entry<String, Integer> e: buckets.get(slot(m - windows[i].minutes)).entrySet()) {
+					counts[i].sketch.add(e.getKey(), -e.getValue());
+				}
+			}
+			buckets.get(slot(m)).clear(); //the minute that just left the day, reused for m.
+		}
+		current = minute;
+
+		for (WindowCounts c: counts) {
+			c.refresh();
+		}
+	}
+
+	private static long minute(long time) {
+		return Math.floorDiv(time, 60000L);
+	}
+
+	private static int slot(long minute) {
+		return (int) Math.floorMod(minute, (long) MINUTES);
+	}
+
+	/**
+	 * The running counts of one window.
+	 */
+	private static class WindowCounts {
+
+		void add(String tag) {
+			sketch.add(tag, 1);
+			int n = sketch.estimate(tag);
+
+			if (candidates.containsKey(tag) || candidates.size() < CANDIDATES) {
+				candidates.put(tag, n);
+				return;
+			}
+
+			//Replace the least used candidate if this tag is now used more.
+			Map.Entry<String, Integer> least = null;
+			for (Map.Entry<String, Integer> e: candidates.entrySet()) {
+				if (least == null || e.getValue() < least.getValue())
+					least = e;
+			}
+			if (n > least.getValue()) {
+				candidates.remove(least.getKey());
+				candidates.put(tag, n);
+			}
+		}
+
+		/**
+		 * Reads the counts of the candidates again after minutes slid out of the window.
+		 */
+		void refresh() {
+			Iterator<Map.Entry<String, Integer>> i = candidates.entrySet().iterator();
+			while (i.hasNext()) {
+				Map.Entry<String, Integer> e = i.next();
+				int n = sketch.estimate(e.getKey());
+				if (n <= 0)
+					i.remove();
+				else
+					e.setValue(n);
+			}
+		}
+
+		final CountMinSketch sketch = new CountMinSketch();
+		final HashMap<String, Integer> candidates = new HashMap<String, Integer>();
+	}
+
+	/**
+	 * Counts of any number of tags in a fixed DEPTH x WIDTH table. A tag has one cell per row, chosen by a different
+	 * hash each row; its count is the smallest of its cells, which other tags may have added to but never taken from.
+	 */
+	private static class CountMinSketch {
+
+		void add(String tag, int n) {
+			int h1 = tag.hashCode();
+			int h2 = spread(h1);
+			for (int row = 0; row < DEPTH; row++) {
+				cells[row][cell(h1, h2, row)] += n;
+			}
+		}
+
+		int estimate(String tag) {
+			int h1 = tag.hashCode();
+			int h2 = spread(h1);
+			int min = Integer.MAX_VALUE;
+			for (int row = 0; row < DEPTH; row++) {
+				min = Math.min(min, cells[row][cell(h1, h2, row)]);
+			}
+			return min;
+		}
+
+		/**
+		 * The cell of a row, from two hashes combined as h1 + row * h2 (double hashing).
+		 */
+		private static int cell(int h1, int h2, int row) {
+			return (h1 + row * h2) & (WIDTH - 1);
+		}
+
+		/**
+		 * A second hash, odd so every row picks a different cell.
+		 */
+		private static int spread(int h) {
+			h *= 0x9E3779B9;
+			return (h ^ (h >>> 16)) | 1;
+		}
+
+		private final int[][] cells = new int[DEPTH][WIDTH];
+	}
+
+	private final ArrayList<HashMap<String, Integer>> buckets = new ArrayList<HashMap<String, Integer>>(MINUTES); //tag uses by minute, ring indexed by slot().
+	private final WindowCounts[] counts = new WindowCounts[Window.values().length]; //by Window.ordinal().
+	private long current; //the last minute of the windows.
+	private long uses;
+
+	/**
+	 * The minutes of the longest window.
+	 */
+	static final int MINUTES = 24 * 60;
+
+	/**
+	 * The number of tags each window keeps counts of, and so the most it lists.
+	 */
+	static final int CANDIDATES = 100;
+
+	/**
+	 * Size of the count-min sketches. The width is a power of 2.
+	 */
+	private static final int DEPTH = 4;
+	private static final int WIDTH = 2048;
+
+	private static final Comparator<Map.Entry<String, Integer>> MOST_USED_FIRST = new Comparator<Map.Entry<String, Integer>>() {
+		public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+			int c = b.getValue().compareTo(a.getValue());
+			return c != 0 ? c : a.getKey().compareTo(b.getKey());
+		}
+	};
+}
@@ -6,30 +6,26 @@ import java.awt.*;
 import java.awt.event.*;
 import java.io.File;
 import java.io.IOException;
-import java.sql.*;
+import java.util.concurrent.Callable;
 
 
 /**
  * Provide GUI access to the commandline functions of the MessageService.
+ *
+ * Every call into the MessageService runs on a worker thread (see BackgroundTasks), never on the Swing event
+ * dispatch thread, so the window stays responsive while the database works.
  * 
  * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
  *
  */
 public class TwoogleGUI {
 
-	private Statement s;
 	private MessageService m;
-	private PreparedStatement psUserInsert, psProfileUpdate, psPostMessage, psUserSubscribe;
 	JFrame homePageFrame, logInFrame;
 
 	public TwoogleGUI(MessageService ms, boolean loggedIn)
 	{
 		m = ms;
-		s = ms.s;
-		psUserInsert = ms.psUserInsert;
-		psProfileUpdate = ms.psProfileUpdate;
-		psPostMessage = ms.psPostMessage;
-		psUserSubscribe = ms.psUserSubscribe;
 		//initialize both frames so that init methods are reusable (ends with a .dispose())
 		homePageFrame = new JFrame();
 		logInFrame = new JFrame();
@@ -52,6 +48,8 @@ public class TwoogleGUI {
 				else {
 					logInFrame.dispose();
 					homePageFrame.dispose();
+					stopRefresh();
+					tasks.close();
 				}
 			}
 		});
@@ -93,14 +91,22 @@ public class TwoogleGUI {
 		login.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
 				//Action on Login button press
-				User u = new User(user.getText().toLowerCase(), new String(pass.getPassword()));
-				if(m.userLoginGUI(s, u, 5)) {
-					user.setText("");
-					pass.setText("");
-					initHomeScreen();
-				}
-				else
-					JOptionPane.showMessageDialog(null, "Username and password do not match. Please try again.", "Incorrect login info", JOptionPane.ERROR_MESSAGE);
+				final User u = new User(user.getText().toLowerCase(), new String(pass.getPassword()));
+				tasks.submit("login", new BackgroundTasks.Task<Boolean>() {
+					protected Boolean call() {
+						return m.userLoginGUI(u, 5);
+					}
+
+					protected void succeeded(Boolean loggedIn) {
+						if(loggedIn) {
+							user.setText("");
+							pass.setText("");
+							initHomeScreen();
+						}
+						else
+							JOptionPane.showMessageDialog(null, "Username and password do not match. Please try again.", "Incorrect login info", JOptionPane.ERROR_MESSAGE);
+					}
+				});
 			}
 		});
 		register.addActionListener(new ActionListener() {
@@ -122,6 +128,8 @@ public class TwoogleGUI {
 				else {
 					logInFrame.dispose();
 					homePageFrame.dispose();
+					stopRefresh();
+					tasks.close();
 				}
 			}
 		});
@@ -132,7 +140,11 @@ public class TwoogleGUI {
 		bPan.add(guest);
 		bPan.add(exit);
 
-		outerPan.add(bPan, BorderLayout.SOUTH); //add button container to outer container
+		JPanel southPan = new JPanel(new BorderLayout()); //buttons above the busy indicator.
+		southPan.add(bPan, BorderLayout.CENTER);
+		southPan.add(newBusyIndicator(), BorderLayout.SOUTH);
+
+		outerPan.add(southPan, BorderLayout.SOUTH); //add button container to outer container
 
 		logInFrame.add(outerPan); //add outer container to frame.
 		logInFrame.pack();
@@ -267,8 +279,8 @@ public class TwoogleGUI {
 		JPanel bPan = new JPanel();
 
 		if(!edit) { //if not in edit mode, add registration buttons.
-			JButton register = new JButton("Register");
-			JButton registerWithoutProfile = new JButton("Register (No Profile)");
+			final JButton register = new JButton("Register");
+			final JButton registerWithoutProfile = new JButton("Register (No Profile)");
 
 
 			register.addActionListener(new ActionListener() {
@@ -276,24 +288,13 @@ public class TwoogleGUI {
 					//Action taken on pressing register button
 					//System.err.println("Debug: " + user.getText() + "::" + pass.getText());
 					User guiUser = new User(user.getText().toLowerCase(), pass.getText());
-
-					if(!guiUser.userExists(s, MessageService.TABLE_USERS)) {
-						guiUser.aboutMeMessage = aboutMe.getText();
-						guiUser.birthDate = month.getText() + "/" + day.getText() + "/" + year.getText();
-						guiUser.email = em.getText();
-						guiUser.gender = (maleButton.isSelected()) ? "M" : "F";
-						guiUser.profileVisible = (visButton.isSelected()) ? 1 : 0;
-						guiUser.hasProfile = 1;
-						if(m.registerNewUser(s, psUserInsert, guiUser)) {
-							/** After registering, get rid of the registration frame and log the user in */
-							regFrame.dispose();
-							if(m.userLoginGUI(s, guiUser, 5))
-								initHomeScreen();
-						} else
-							JOptionPane.showMessageDialog(null, "Error registering.", "Registration error", JOptionPane.ERROR_MESSAGE);
-					} else {
-						JOptionPane.showMessageDialog(null, "This username already exists. Please pick another.", "Username Taken", JOptionPane.ERROR_MESSAGE);
-					}
+					guiUser.aboutMeMessage = aboutMe.getText();
+					guiUser.birthDate = month.getText() + "/" + day.getText() + "/" + year.getText();
+					guiUser.email = em.getText();
+					guiUser.gender = (maleButton.isSelected()) ? "M" : "F";
+					guiUser.profileVisible = (visButton.isSelected()) ? 1 : 0;
+					guiUser.hasProfile = 1;
+					registerInBackground(guiUser, regFrame, register, registerWithoutProfile);
 				}
 			});
 
@@ -302,17 +303,7 @@ public class TwoogleGUI {
 					//Action taken on pressing register button
 					//System.err.println("Debug: " + user.getText() + "::" + pass.getText());
 					User guiUser = new User(user.getText().toLowerCase(), pass.getText());
-
-					if (!guiUser.userExists(s, MessageService.TABLE_USERS)) {
-						if(m.registerNewUser(s, psUserInsert, guiUser)) {
-							/** After registering, get rid of the registration frame and log the user in */
-							regFrame.dispose();
-							if(m.userLoginGUI(s, guiUser, 5))
-								initHomeScreen();
-						} else
-							JOptionPane.showMessageDialog(null, "Error registering.", "Registration error", JOptionPane.ERROR_MESSAGE);
-					} else
-						JOptionPane.showMessageDialog(null, "This username already exists. Please pick another.", "Username Taken", JOptionPane.ERROR_MESSAGE);
+					registerInBackground(guiUser, regFrame, register, registerWithoutProfile);
 				}
 			});
 
@@ -350,7 +341,7 @@ public class TwoogleGUI {
 					m.myUser.gender = (maleButton.isSelected()) ? "M" : "F";
 					m.myUser.hasProfile = 1;
 					m.myUser.profileVisible = (visButton.isSelected()) ? 1 : 0;
-					m.editProfileGUI(s, psProfileUpdate, m.myUser);
+					saveProfileInBackground(new User(m.myUser));
 					regFrame.dispose();
 				}
 			});
@@ -364,7 +355,7 @@ public class TwoogleGUI {
 					m.myUser.email = null;
 					m.myUser.gender = null;
 					m.myUser.profileVisible = 0;
-					m.editProfileGUI(s, psProfileUpdate, m.myUser);
+					saveProfileInBackground(new User(m.myUser));
 					regFrame.dispose();
 				}
 			});
@@ -422,7 +413,7 @@ public class TwoogleGUI {
 		JScrollPane scroll = new JScrollPane(newPost);
 		newPostPan.add(scroll);
 
-		JButton submitPost = new JButton("Post!");
+		final JButton submitPost = new JButton("Post!");
 		submitPost.setPreferredSize(new Dimension(submitPost.getPreferredSize().width, newPost.getPreferredSize().height));
 		submitPost.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
@@ -435,9 +426,31 @@ public class TwoogleGUI {
 							"No message entered", JOptionPane.ERROR_MESSAGE);
 				else {
 					//Post message
-					m.postMessage(s, psPostMessage, newPost.getText());
-					newPost.setText("Format: @user #tag *private message");
-					output.setText("Message successfully posted!");
+					final String message = newPost.getText();
+					submitPost.setEnabled(false); //no double posts while this one is saved.
+					tasks.submit(new BackgroundTasks.Task<Boolean>() {
+						protected Boolean call() {
+							return m.postMessage(message);
+						}
+
+						protected void succeeded(Boolean posted) {
+							submitPost.setEnabled(true);
+							if(posted) {
+								newPost.setText("Format: @user #tag *private message");
+								if(recentView != null)
+									refreshRecentMessages(); //the new post shows up in "My Recent Messages".
+								else
+									output.setText("Message successfully posted!");
+							}
+							else
+								output.setText("Could not post the message, please try again.");
+						}
+
+						protected void failed(Throwable t) {
+							submitPost.setEnabled(true);
+							super.failed(t);
+						}
+					});
 				}
 			}
 		});
@@ -456,7 +469,7 @@ public class TwoogleGUI {
 		JPanel outputPan = new JPanel();
 		output.setLineWrap(true);
 		output.setEditable(false);
-		output.setText(m.myUser.toString(true) + m.viewRecentMessages(s, 5));
+		showRecentMessages();
 		JScrollPane outputScroll = new JScrollPane(output);
 		outputPan.add(outputScroll);
 
@@ -469,7 +482,7 @@ public class TwoogleGUI {
 
 		String[] options = {"View Profile", "View User Messages", "View Recent Messages",
 				"View Users", "View Tags", "View Tagged Messages", "View Message by ID", 
-				"View Subscribed Messages", "Subscribe to User"};			
+				"View Subscribed Messages", "Subscribe to User", "Search Messages", "View Trending Tags"};			
 
 		final JComboBox<String> selections = new JComboBox<String>(options);
 		selections.setSelectedIndex(-1);
@@ -480,61 +493,160 @@ public class TwoogleGUI {
 		JButton go = new JButton("Go");
 		go.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
+				tasks.cancel(OUTPUT); //this view replaces the one still loading, if any.
+				tasks.cancel(REFRESH);
+				recentView = null; //the recent messages are no longer shown, case 2 shows them again.
+				pageSource = null; //only paged views below enable the more button.
+				more.setEnabled(false);
+
 				switch (selections.getSelectedIndex()) {
 				case 0:
 					if(info.getText().length() == 0)
 						output.setText("Please enter a user in the field below.");
-					else
-						output.setText(m.viewProfile(m.s, info.getText().toLowerCase()));
+					else {
+						final String user = info.getText().toLowerCase();
+						show(new Callable<String>() {
+							public String call() {
+								return m.viewProfile(user);
+							}
+						});
+					}
 					break;
 				case 1: 
 					if(info.getText().length() == 0)
 						output.setText("Please enter a user in the field below.");
-					else
-						output.setText(m.viewUserMessages(m.s, info.getText().toLowerCase(), 5));
+					else {
+						final String user = info.getText().toLowerCase();
+						showFirstPage(new Page.Source() {
+							public Page fetch(String cursor) {
+								return m.viewUserMessages(user, 5, cursor);
+							}
+						});
+					}
 					break;
-				case 2:	output.setText(m.viewRecentMessages(m.s, 5));
+				case 2:	showRecentMessages();
 				break;
-				case 3: output.setText(m.viewUsers(m.s));
+				case 3: showFirstPage(new Page.Source() {
+							public Page fetch(String cursor) {
+								return m.viewUsers(MessageService.PAGE_SIZE, cursor);
+							}
+						});
 				break;
-				case 4: output.setText(m.viewTags(m.s));
+				case 4: show(new Callable<String>() {
+							public String call() {
+								return m.viewTags();
+							}
+						});
 				break;
 				case 5: 
-					if(info.getText().charAt(0) != '#')
+					if(info.getText().length() == 0 || info.getText().charAt(0) != '#')
 						output.setText("Please enter a tag in the field below. Format: #tag");
-					else
-						output.setText(m.viewMessageByTag(m.s, info.getText().toLowerCase()));
+					else {
+						final String tag = info.getText().toLowerCase();
+						showFirstPage(new Page.Source() {
+							public Page fetch(String cursor) {
+								return m.viewMessageByTag(tag, MessageService.PAGE_SIZE, cursor);
+							}
+						});
+					}
 					break;
 				case 6: 
 					if(info.getText().length() == 0)
 						output.setText("Please enter a message ID in the field below.");
-					else
-						output.setText(m.viewMessage(s, info.getText().toLowerCase()));
+					else {
+						final String id = info.getText().toLowerCase();
+						show(new Callable<String>() {
+							public String call() {
+								return m.viewMessage(id);
+							}
+						});
+					}
 					break;
-				case 7: output.setText(m.viewSubscribedToMessages(m.s, 5));
+				case 7: showFirstPage(new Page.Source() {
+							public Page fetch(String cursor) {
+								return m.viewSubscribedToMessages(5, cursor);
+							}
+						});
 				break;
 				case 8:	
 					if(m.myUser.isGuest) 
 						output.setText("Please log in to subscribe to other users.");
 					else {
-						User u = new User();
-						u.username = info.getText().toLowerCase();
-						//short circuited, if they don't exist subscribeToUser() won't be called.
-						if(u.userExists(m.s, MessageService.TABLE_USERS) &&
-								m.subscribeToUser(m.s, psUserSubscribe, info.getText().toLowerCase()))
-							output.setText("Successfully subscribed to: " + info.getText().toLowerCase() + ".");
-						else
-							output.append("Could not subscribe to: " + info.getText().toLowerCase() + 
-									", are you sure this user exists?");
+						final String user = info.getText().toLowerCase();
+						tasks.submit(OUTPUT, new BackgroundTasks.Task<Boolean>() {
+							protected Boolean call() {
+								//short circuited, if they don't exist subscribeToUser() won't be called.
+								return m.userExists(user) && m.subscribeToUser(user);
+							}
+
+							protected void succeeded(Boolean subscribed) {
+								if(subscribed)
+									output.setText("Successfully subscribed to: " + user + ".");
+								else
+									output.append("Could not subscribe to: " + user + 
+											", are you sure this user exists?");
+							}
+						});
+					}
+					break;
+				case 9:
+					if(info.getText().trim().length() == 0)
+						output.setText("Please enter the words to search for in the field below.");
+					else {
+						final String query = info.getText();
+						showFirstPage(new Page.Source() {
+							public Page fetch(String cursor) {
+								return m.searchMessages(query, MessageService.PAGE_SIZE, cursor);
+							}
+						});
+					}
+					break;
+				case 10:
+					final TrendingTags.Window window = info.getText().trim().length() == 0 ? TrendingTags.Window.HOUR : TrendingTags.Window.parse(info.getText());
+					if(window == null)
+						output.setText("Please enter the span in the field below: 15m, 1h or 1d.");
+					else {
+						show(new Callable<String>() {
+							public String call() {
+								return m.viewTrendingTags(window, MessageService.PAGE_SIZE);
+							}
+						});
 					}
 				}
 			}
 		});
 
+		more = new JButton("More");
+		more.setEnabled(false);
+		more.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				//Append the next page of the last paged view.
+				if (pageSource != null && nextCursor != null) {
+					final Page.Source source = pageSource;
+					final String cursor = nextCursor;
+					more.setEnabled(false); //until this page is in.
+					tasks.submit(OUTPUT, new BackgroundTasks.Task<Page>() {
+						protected Page call() {
+							return source.fetch(cursor);
+						}
+
+						protected void succeeded(Page p) {
+							output.append(p.text);
+							nextCursor = p.nextCursor;
+							more.setEnabled(p.hasMore());
+						}
+					});
+				}
+			}
+		});
+
 		bottomPan.add(selections);
 		bottomPan.add(info);
 		bottomPan.add(go);
-		bottomPan.add(Box.createHorizontalStrut(275));
+		bottomPan.add(more);
+		bottomPan.add(Box.createHorizontalStrut(60));
+		bottomPan.add(newBusyIndicator());
+		bottomPan.add(Box.createHorizontalStrut(40));
 
 		if(!m.myUser.isGuest) { //if the user is not a guest, show the edit profile button
 			JButton editProfile = new JButton("Edit Profile");
@@ -542,7 +654,10 @@ public class TwoogleGUI {
 			editProfile.addActionListener(new ActionListener() {
 				public void actionPerformed(ActionEvent e) {
 					initProfile(true);
-					output.setText(m.myUser.toString(true) + m.viewRecentMessages(s,  5));
+					if(recentView != null)
+						recentView.setHeader(m.myUser.toString(true)); //only the profile changed.
+					else
+						showRecentMessages();
 				}
 			});
 			bottomPan.add(editProfile);
@@ -554,6 +669,8 @@ public class TwoogleGUI {
 		logout.setAlignmentX(Component.BOTTOM_ALIGNMENT);
 		logout.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
+				tasks.cancel(OUTPUT); //whatever is loading was for the user logging out.
+				stopRefresh();
 				output.setText(null); //Reset to blank output screen when a new user logs in.
 				m.userLogout();
 				initLoginGUI();
@@ -564,10 +681,322 @@ public class TwoogleGUI {
 		outerPan.add(bottomPan);
 
 
+		startLiveUpdates();
+
 		homePageFrame.add(outerPan);
 		homePageFrame.pack();
 		logInFrame.dispose();
 		homePageFrame.setVisible(true);
 	}
+
+	/**
+	 * Shows the first page of a paged view in the output area and remembers the view so the more button can
+	 * append the following pages.
+	 *
+	 * @param source Fetches each page given the cursor of the previous one.
+	 */
+	private void showFirstPage(final Page.Source source) {
+		tasks.submit(OUTPUT, new BackgroundTasks.Task<Page>() {
+			protected Page call() {
+				return source.fetch(null);
+			}
+
+			protected void succeeded(Page p) {
+				output.setText(p.text);
+				pageSource = source;
+				nextCursor = p.nextCursor;
+				more.setEnabled(p.hasMore());
+			}
+		});
+	}
+
+	/**
+	 * Shows the text of a view that is not paged in the output area.
+	 *
+	 * @param view Reads the text, off the event dispatch thread.
+	 */
+	private void show(final Callable<String> view) {
+		tasks.submit(OUTPUT, new BackgroundTasks.Task<String>() {
+			protected String call() throws Exception {
+				return view.call();
+			}
+
+			protected void succeeded(String text) {
+				output.setText(text);
+			}
+		});
+	}
+
+	/**
+	 * Shows the current user and their recent messages, as on logging in. The view is then kept up to date by
+	 * refreshRecentMessages() until something else is shown in the output area.
+	 */
+	private void showRecentMessages() {
+		final String header = m.myUser.toString(true);
+		final RecentMessagesView view = new RecentMessagesView(output);
+
+		if(!m.myUser.isGuest) {
+			final String me = m.myUser.username;
+			view.addSection("My Recent Messages:", new Page.Source() {
+				public Page fetch(String since) {
+					return m.viewUserMessagesSince(me, since, since == null ? RECENT_LIMIT : REFRESH_LIMIT);
+				}
+			});
+			view.addSection("Subscribed To Messages:", new Page.Source() {
+				public Page fetch(String since) {
+					return m.viewSubscribedToMessagesSince(since, since == null ? RECENT_LIMIT : REFRESH_LIMIT);
+				}
+			});
+			view.addSection("Replies to Me:", new Page.Source() {
+				public Page fetch(String since) {
+					return m.viewReplyMessagesSince(since, since == null ? RECENT_LIMIT : REFRESH_LIMIT);
+				}
+			});
+		}
+		view.addSection("Guest Messages:", new Page.Source() {
+			public Page fetch(String since) {
+				return m.viewUserMessagesSince(MessageService.USER_GUEST, since, since == null ? RECENT_LIMIT : REFRESH_LIMIT);
+			}
+		});
+
+		final String[] cursors = view.cursors();
+		tasks.cancel(REFRESH);
+		tasks.submit(OUTPUT, new BackgroundTasks.Task<Page[]>() {
+			protected Page[] call() {
+				return view.fetch(cursors);
+			}
+
+			protected void succeeded(Page[] pages) {
+				view.show(header, pages);
+				recentView = view;
+			}
+		});
+	}
+
+	/**
+	 * Inserts the messages posted since the last refresh into the recent messages view, if it is shown.
+	 */
+	private void refreshRecentMessages() {
+		final RecentMessagesView view = recentView;
+		if(view == null)
+			return;
+
+		final String[] cursors = view.cursors();
+		tasks.submit(REFRESH, new BackgroundTasks.Task<Page[]>() {
+			protected Page[] call() {
+				return view.fetch(cursors);
+			}
+
+			protected void succeeded(Page[] pages) {
+				if(recentView == view) //still shown.
+					view.insert(pages);
+			}
+		});
+	}
+
+	/**
+	 * Keeps the recent messages view up to date while the home screen is up. The user's live feed from the
+	 * Message Service's event bus (see MessageService.subscribeToEvents()) triggers a refresh whenever a message
+	 * the view shows is posted, so the database is only read when there is something new. In client mode other
+	 * programs post to the database too, so the view is also refreshed every REFRESH_MILLIS.
+	 */
+	private void startLiveUpdates() {
+		final User me = m.myUser;
+		final Object session = new Object();
+		liveSession = session;
+
+		tasks.submit(new BackgroundTasks.Task<EventBus.Subscription>() {
+			protected EventBus.Subscription call() {
+				EventBus.Subscription events = m.subscribeToEvents(me);
+				events.follow(MessageService.USER_GUEST); //"Guest Messages:"
+				return events;
+			}
+
+			protected void succeeded(EventBus.Subscription events) {
+				if(liveSession != session) { //the home screen went away meanwhile.
+					events.close();
+					return;
+				}
+				liveEvents = events;
+				listen(events);
+			}
+		});
+
+		if(!m.isEmbedded()) {
+			refreshTimer = new Timer(REFRESH_MILLIS, new ActionListener() {
+				public void actionPerformed(ActionEvent e) {
+					refreshRecentMessages();
+				}
+			});
+			refreshTimer.start();
+		}
+	}
+
+	/**
+	 * Waits for messages on a live feed until it is closed, refreshing the recent messages view when some arrive.
+	 * The messages themselves are not shown: the refresh reads them, along with any the feed dropped.
+	 */
+	private void listen(final EventBus.Subscription events) {
+		final Runnable refresh = new Runnable() {
+			public void run() {
+				refreshRecentMessages();
+			}
+		};
+
+		Thread listener = new Thread("twoogle-gui-events") {
+			public void run() {
+				try {
+					while(!events.isClosed()) {
+						boolean arrived = !events.poll(LISTEN_MILLIS).isEmpty();
+						if(events.takeDropped() > 0 || arrived)
+							SwingUtilities.invokeLater(refresh);
+					}
+				} catch (InterruptedException ie) {
+					events.close();
+				}
+			}
+		};
+		listener.setDaemon(true);
+		listener.start();
+	}
+
+	/**
+	 * Stops refreshing the recent messages, ie when the home screen goes away.
+	 */
+	private void stopRefresh() {
+		recentView = null;
+		tasks.cancel(REFRESH);
+		liveSession = null;
+		if(liveEvents != null) {
+			liveEvents.close(); //ends the listener thread.
+			liveEvents = null;
+		}
+		if(refreshTimer != null) {
+			refreshTimer.stop();
+			refreshTimer = null;
+		}
+	}
+
+	/**
+	 * Registers a user and logs them in, off the event dispatch thread. The registration buttons are disabled
+	 * until the database answers.
+	 *
+	 * @param guiUser The new user, with their profile if they entered one.
+	 * @param regFrame The registration dialog, closed once registered.
+	 * @param buttons The registration buttons.
+	 */
+	private void registerInBackground(final User guiUser, final JDialog regFrame, final JButton... buttons) {
+		for (JButton b: buttons) {
+			b.setEnabled(false);
+		}
+
+		tasks.submit(new BackgroundTasks.Task<Integer>() {
+			protected Integer call() {
+				if (m.userExists(guiUser.username))
+					return USERNAME_TAKEN;
+				if (!m.registerNewUser(guiUser))
+					return REGISTER_FAILED;
+				return m.userLoginGUI(guiUser, 5) ? LOGGED_IN : REGISTERED;
+			}
+
+			protected void succeeded(Integer outcome) {
+				for (JButton b: buttons) {
+					b.setEnabled(true);
+				}
+
+				switch (outcome) {
+				case USERNAME_TAKEN:
+					JOptionPane.showMessageDialog(null, "This username already exists. Please pick another.", "Username Taken", JOptionPane.ERROR_MESSAGE);
+					break;
+				case REGISTER_FAILED:
+					JOptionPane.showMessageDialog(null, "Error registering.", "Registration error", JOptionPane.ERROR_MESSAGE);
+					break;
+				default:
+					/** After registering, get rid of the registration frame and log the user in */
+					regFrame.dispose();
+					if (outcome == LOGGED_IN)
+						initHomeScreen();
+				}
+			}
+
+			protected void failed(Throwable t) {
+				for (JButton b: buttons) {
+					b.setEnabled(true);
+				}
+				super.failed(t);
+			}
+		});
+	}
+
+	/**
+	 * Saves the current user's profile off the event dispatch thread.
+	 *
+	 * @param profile A copy of the current user, so later edits do not race the save.
+	 */
+	private void saveProfileInBackground(final User profile) {
+		tasks.submit(new BackgroundTasks.Task<Void>() {
+			protected Void call() {
+				m.editProfileGUI(profile);
+				return null;
+			}
+
+			protected void succeeded(Void nothing) {
+			}
+		});
+	}
+
+	/**
+	 * Returns a progress bar that runs while database work is in flight, and makes it the indicator for the frame
+	 * being built.
+	 */
+	private JProgressBar newBusyIndicator() {
+		JProgressBar busy = new JProgressBar();
+		busy.setStringPainted(true);
+		busy.setString("");
+		tasks.setIndicator(busy);
+		return busy;
+	}
+
 	private final JTextArea output = new JTextArea(18, 75); //output area on home screen.
+	private JButton more; //shows the next page of the last paged view.
+	private Page.Source pageSource; //last paged view shown in the output area, null if the output is not paged.
+	private String nextCursor; //cursor of the next page of pageSource.
+	private final BackgroundTasks tasks = new BackgroundTasks(WORKER_THREADS); //runs the database work.
+	private RecentMessagesView recentView; //recent messages shown in the output area, null if something else is shown.
+	private Object liveSession; //identifies the home screen startLiveUpdates() was called for, null once it is gone.
+	private EventBus.Subscription liveEvents; //live feed of the home screen's user, null until subscribed.
+	private Timer refreshTimer; //refreshes recentView in client mode while the home screen is up.
+
+	/**
+	 * Channel of the tasks that fill the output area; a new view supersedes the one still loading.
+	 */
+	private static final String OUTPUT = "output";
+
+	/**
+	 * Channel of the recent messages refreshes; a refresh still pending is superseded by the next.
+	 */
+	private static final String REFRESH = "refresh";
+
+	/**
+	 * How often the recent messages are refreshed in client mode, the number of messages first shown in each section
+	 * and the most new messages a refresh adds to a section.
+	 */
+	private static final int REFRESH_MILLIS = 5000;
+	private static final int RECENT_LIMIT = 5;
+	private static final int REFRESH_LIMIT = MessageService.PAGE_SIZE;
+
+	/**
+	 * The longest the live feed listener waits for messages before checking whether the feed was closed.
+	 */
+	private static final long LISTEN_MILLIS = 30000;
+
+	/**
+	 * Threads running database work for the GUI. Two, so a post does not wait behind a slow view.
+	 */
+	private static final int WORKER_THREADS = 2;
+
+	/**
+	 * Outcomes of registerInBackground().
+	 */
+	private static final int USERNAME_TAKEN = 0, REGISTER_FAILED = 1, REGISTERED = 2, LOGGED_IN = 3;
 }
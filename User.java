@@ -1,6 +1,6 @@
 //package twoogle;
 
-import java.sql.*;
+import java.sql.SQLException;
 
 /**
  * A basic User class to control user information while the program is being accessed by an end user. All user information is eventually stored
@@ -46,32 +46,37 @@ public class User {
 	}
 
 	/**
-	 * Checks the database for the username to see if it exists.
+	 * Copy constructor. Used to hand out copies of cached users (see UserCache).
 	 * 
-	 * @param s Open statement connection to the database for running sql commands.
-	 * @param tableUsers The table name within the database that the users are stored.
+	 * @param u The user to copy.
+	 */
+	User(User u){
+		username = u.username;
+		password = u.password;
+		hasProfile = u.hasProfile;
+		profileVisible = u.profileVisible;
+		email = u.email;
+		gender = u.gender;
+		aboutMeMessage = u.aboutMeMessage;
+		birthDate = u.birthDate;
+		isGuest = u.isGuest;
+	}
+
+	/**
+	 * Checks the user store for the username to see if it exists.
+	 * 
+	 * @param users The MessageService's user store.
 	 * 
-	 * @return True if the username was found in the database and false otherwise.
+	 * @return True if the username was found in the user store and false otherwise.
 	 */
-	public boolean userExists(Statement s, String tableUsers){
+	public boolean userExists(UserStore users){
 		boolean r = false;
 
-		ResultSet rs = null;
-
-
 		try {
-			rs = s.executeQuery("Select * FROM " + tableUsers + " where username='" + this.username + "'");	
-
-			if (rs.next()) { //user exists already
-				r = true;
-			} else {
-				r = false;
-			}
+			r = users.find(this.username) != null; //user exists already
 
 		} catch (SQLException se) {
-			System.err.println(MessageService.processSqlException(se, "User.userExists(Statement s, String tableUsers)"));
-		} finally {
-			MessageService.closeSqlResource(rs);
+			System.err.println(MessageService.processSqlException(se, "User.userExists(UserStore users)"));
 		}
 		return r;
 	}
@@ -0,0 +1,82 @@
+//package twoogle;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of rows of MessageService.TABLE_USERS, keyed by username, so checking that a user exists or reading
+ * a profile does not cost a trip to the database every time. When full, the least recently used user is evicted.
+ *
+ * The cache holds copies: get() returns a new copy and put() stores one, so callers can change the users they are
+ * given (ie myUser) without changing the cache. Safe for use by several threads at once.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class UserCache {
+
+	/**
+	 * @param capacity The maximum number of users kept.
+	 */
+	UserCache(final int capacity) {
+		users = new LinkedHashMap<String, User>(16, 0.75f, true) { //access order, least recently used first.
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<String, User> eldest) {
+				if (size() > capacity) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns a copy of the cached user, or null if the user is not cached.
+	 *
+	 * @param username Username of the user.
+	 */
+	public synchronized User get(String username) {
+		User u = users.get(username);
+		if (u == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return new User(u);
+	}
+
+	/**
+	 * Caches a copy of the passed user, replacing any cached copy.
+	 *
+	 * @param u A user as stored in the database, ie just registered or read from the database.
+	 */
+	public synchronized void put(User u) {
+		users.put(u.username, new User(u));
+	}
+
+	/**
+	 * Removes a user from the cache. Used when the user's row changes so the next lookup reads it again.
+	 *
+	 * @param username Username of the user.
+	 */
+	public synchronized void remove(String username) {
+		users.remove(username);
+	}
+
+	/**
+	 * Returns the cache statistics as a formatted string.
+	 */
+	public synchronized String metrics() {
+		long lookups = hits + misses;
+		return "User cache: " + users.size() + " users | " + hits + " hits, " + misses + " misses (" + (lookups == 0 ? 0 : hits * 100 / lookups) + "% hit rate), "
+				+ evictions + " evictions";
+	}
+
+	private final LinkedHashMap<String, User> users;
+
+	//statistics
+	private long hits;
+	private long misses;
+	private long evictions;
+}
@@ -0,0 +1,44 @@
+//package twoogle;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Where the registered users and their profiles are kept. See MessageStore and Storage.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public interface UserStore {
+
+	/**
+	 * Returns a registered user, password and profile included.
+	 *
+	 * @return A new User, or null if the username is not registered.
+	 */
+	User find(String username) throws SQLException;
+
+	/**
+	 * Registers a user with his password and profile.
+	 *
+	 * @return False if the username is already registered, in which case nothing is changed.
+	 */
+	boolean insert(User u) throws SQLException;
+
+	/**
+	 * Saves the profile of a registered user: hasProfile, profileVisible, gender, birthDate, email and aboutMeMessage.
+	 */
+	void updateProfile(User u) throws SQLException;
+
+	/**
+	 * Returns a page of the registered usernames in alphabetical order.
+	 *
+	 * @param after The last username of the previous page, or "" for the first page.
+	 * @param limit The most usernames returned.
+	 */
+	List<String> usernames(String after, int limit) throws SQLException;
+
+	/**
+	 * Returns every registered username, in no particular order.
+	 */
+	List<String> allUsernames() throws SQLException;
+}
@@ -0,0 +1,83 @@
+//package twoogle;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bloom filter over the registered usernames. mightContain() answers "definitely not registered" or "possibly
+ * registered", so most checks for a free username (ie while registering) never touch the database; only possible
+ * positives are looked up.
+ *
+ * The filter is sized for a number of usernames (its capacity) and a false positive rate. Adding more usernames
+ * than the capacity still works but the false positive rate rises, so the MessageService builds a bigger filter
+ * when isFull() (see MessageService.loadUsernameFilter()). Usernames can not be removed, which is fine since users
+ * are never deleted. The bits and hashes are those of a BloomFilter.
+ *
+ * Safe for use by several threads at once.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class UsernameFilter {
+
+	/**
+	 * @param capacity The number of usernames the filter is sized for.
+	 * @param falsePositiveRate The wanted chance that mightContain() returns true for a username that was never
+	 * 		added, while the filter holds no more than capacity usernames, ie 0.01.
+	 */
+	UsernameFilter(int capacity, double falsePositiveRate) {
+		this.capacity = Math.max(1, capacity);
+		filter = BloomFilter.withFalsePositiveRate(this.capacity, falsePositiveRate);
+	}
+
+	/**
+	 * Adds a username.
+	 */
+	public void add(String username) {
+		filter.add(username);
+		count.incrementAndGet();
+	}
+
+	/**
+	 * Returns false if the username was definitely never added, and true if it may have been.
+	 */
+	public boolean mightContain(String username) {
+		if (filter.mightContain(username))
+			return true;
+
+		negatives.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * True once more usernames have been added than the filter was sized for.
+	 */
+	public boolean isFull() {
+		return count.get() > capacity;
+	}
+
+	/**
+	 * Returns the number of usernames added.
+	 */
+	public long size() {
+		return count.get();
+	}
+
+	/**
+	 * Returns the expected false positive rate for the number of usernames added so far.
+	 */
+	public double expectedFalsePositiveRate() {
+		return filter.expectedFalsePositiveRate(count.get());
+	}
+
+	/**
+	 * Returns the filter statistics as a formatted string.
+	 */
+	public String metrics() {
+		return "Username filter: " + count.get() + " of " + capacity + " usernames, " + filter.size() / 1024 + "KB, " + filter.hashes() + " hashes, "
+				+ String.format("%.3f", expectedFalsePositiveRate() * 100) + "% false positives | " + negatives.get() + " lookups skipped";
+	}
+
+	private final int capacity;
+	private final BloomFilter filter;
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong negatives = new AtomicLong(); //mightContain() calls that returned false.
+}
@@ -0,0 +1,141 @@
+//package twoogle;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The log an LsmTree appends every write batch to before applying it to its memtable, so the memtable can be
+ * rebuilt after a crash. Each memtable has its own log, deleted once the memtable is flushed to an SSTable.
+ *
+ * A record is a whole batch: its length, the CRC32 of its contents and its contents (the number of entries, then the
+ * entries, see LsmTree.writeEntry()). A batch is so replayed entirely or not at all. Replaying stops at the first
+ * record that is cut short or fails its checksum, ie the one being written when the program stopped, which was never
+ * acknowledged.
+ *
+ * Not safe for use by several threads at once: LsmTree appends while holding its write lock.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+public class WriteAheadLog {
+
+	/**
+	 * Creates a new log.
+	 *
+	 * @param sync True to force each record to disk before append() returns, false to leave it to the operating
+	 * 	system, which is faster but may lose the last batches if the computer (not only the program) stops.
+	 */
+	WriteAheadLog(File file, boolean sync) throws IOException {
+		this.file = file;
+		this.sync = sync;
+		out = new FileOutputStream(file, true);
+	}
+
+	/**
+	 * Appends a batch as one record.
+	 */
+	void append(List<Map.Entry<String, byte[]>> entries) throws IOException {
+		record.reset();
+		record.write(new byte[8]); //room for the length and checksum.
+		recordOut.writeInt(entries.size());
+		for (Map.Entry<String, byte[]> e: entries) {
+			LsmTree.writeEntry(recordOut, e.getKey(), e.getValue());
+		}
+
+		byte[] b = record.toByteArray();
+		crc.reset();
+		crc.update(b, 8, b.length - 8);
+		putInt(b, 0, b.length - 8);
+		putInt(b, 4, (int) crc.getValue());
+
+		out.write(b);
+		if (sync)
+			out.getFD().sync();
+		length += b.length;
+	}
+
+	/**
+	 * Returns the number of bytes appended by this program.
+	 */
+	long length() {
+		return length;
+	}
+
+	void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Applies the batches of a log to a memtable, in the order they were appended.
+	 *
+	 * @return The number of batches replayed.
+	 */
+	static int replay(File file, Map<String, byte[]> memtable) throws IOException {
+		int batches = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+
+		try {
+			CRC32 crc = new CRC32();
+			while (true) {
+				int length, checksum;
+				byte[] b;
+				try {
+					length = in.readInt();
+					checksum = in.readInt();
+					if (length < 4 || length > MAX_RECORD_SIZE)
+						break;
+					b = new byte[length];
+					in.readFully(b);
+				} catch (EOFException eof) {
+					break;
+				}
+
+				crc.reset();
+				crc.update(b, 0, b.length);
+				if ((int) crc.getValue() != checksum)
+					break;
+
+				DataInputStream record = new DataInputStream(new ByteArrayInputStream(b));
+				for (int n = record.readInt(); n > 0; n--) {
+					Map.Entry<String, byte[]> e = LsmTree.readEntry(record);
+					memtable.put(e.getKey(), e.getValue());
+				}
+				batches++;
+			}
+		} finally {
+			in.close();
+		}
+
+		return batches;
+	}
+
+	private static void putInt(byte[] b, int i, int v) {
+		b[i] = (byte) (v >>> 24);
+		b[i + 1] = (byte) (v >>> 16);
+		b[i + 2] = (byte) (v >>> 8);
+		b[i + 3] = (byte) v;
+	}
+
+	/**
+	 * A record longer than this is taken for a damaged length rather than read.
+	 */
+	private static final int MAX_RECORD_SIZE = 256 * 1024 * 1024;
+
+	final File file;
+	private final boolean sync;
+	private final FileOutputStream out;
+	private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+	private final DataOutputStream recordOut = new DataOutputStream(record);
+	private final CRC32 crc = new CRC32();
+	private long length;
+}
@@ -0,0 +1,24 @@
+#!/bin/sh
+# Builds the Message Service and the benchmarks and runs them. Any arguments are passed on to JMH, ie
+#
+#	bench/run.sh ReadBenchmarks -prof gc
+#	bench/run.sh -p users=1000 -p messagesPerUser=200 -rf json -rff baseline.json
+#
+# The jars are looked up in the local maven repository. Set DERBY_JAR and JMH_CP to use other copies.
+
+set -e
+
+HERE=$(cd "$(dirname "$0")" && pwd)
+M2=${M2:-$HOME/.m2/repository}
+DERBY_JAR=${DERBY_JAR:-$M2/org/apache/derby/derby/10.14.2.0/derby-10.14.2.0.jar}
+JMH_CP=${JMH_CP:-$M2/org/openjdk/jmh/jmh-core/1.37/jmh-core-1.37.jar:$M2/org/openjdk/jmh/jmh-generator-annprocess/1.37/jmh-generator-annprocess-1.37.jar:$M2/net/sf/jopt-simple/jopt-simple/5.0.4/jopt-simple-5.0.4.jar:$M2/org/apache/commons/commons-math3/3.6.1/commons-math3-3.6.1.jar}
+BUILD=${BUILD:-$HERE/build}
+
+rm -rf "$BUILD"
+mkdir -p "$BUILD/app" "$BUILD/bench"
+
+javac -nowarn -d "$BUILD/app" -cp "$DERBY_JAR" "$HERE"/../*.java
+javac -nowarn -d "$BUILD/bench" -cp "$BUILD/app:$JMH_CP" "$HERE"/src/bench/*.java
+
+cd "$BUILD"
+exec java -cp "$BUILD/bench:$BUILD/app:$DERBY_JAR:$JMH_CP" org.openjdk.jmh.Main "$@"
@@ -0,0 +1,124 @@
+package bench;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A Message Service on a fresh in-memory Derby database (jdbc:derby:memory:), filled once per trial with users,
+ * subscriptions and messages. The sizes are JMH parameters and can be changed on the command line, ie
+ * -p users=1000 -p messagesPerUser=200.
+ *
+ * User i is subscribed to the next subscriptionsPerUser users (wrapping around), every user posts
+ * messagesPerUser messages spread over the tags #tag0 to #tag(tags - 1), and every tenth message is a reply to
+ * the previous user. The benchmarks run as user0, who is logged in.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+@State(Scope.Benchmark)
+public class DatabaseState {
+
+	@Param({"100"})
+	public int users;
+
+	@Param({"50"})
+	public int messagesPerUser;
+
+	@Param({"20"})
+	public int subscriptionsPerUser;
+
+	@Param({"20"})
+	public int tags;
+
+	@Param({"4"})
+	public int poolSize;
+
+	/**
+	 * The Message Service, with user0 logged in.
+	 */
+	Object service;
+
+	/**
+	 * The logged in user.
+	 */
+	Object user0;
+
+	String[] usernames;
+	String[] tagNames;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		database = "memory:bench" + DATABASES.incrementAndGet();
+		service = Twoogle.newMessageService(database, poolSize);
+
+		usernames = new String[users];
+		for (int i = 0; i < users; i++) {
+			usernames[i] = username(i);
+			Twoogle.registerNewUser(service, Twoogle.newUser(usernames[i], PASSWORD));
+		}
+
+		tagNames = new String[tags];
+		for (int t = 0; t < tags; t++) {
+			tagNames[t] = "#tag" + t;
+		}
+
+		for (int i = 0; i < users; i++) {
+			Twoogle.setCurrentUser(service, Twoogle.newUser(usernames[i], PASSWORD));
+			for (int s = 1; s <= Math.min(subscriptionsPerUser, users - 1); s++) {
+				Twoogle.subscribeToUser(service, usernames[(i + s) % users]);
+			}
+		}
+
+		int n = 0;
+		for (int i = 0; i < users; i++) {
+			Twoogle.setCurrentUser(service, Twoogle.newUser(usernames[i], PASSWORD));
+
+			ArrayList<String> messages = new ArrayList<String>(messagesPerUser);
+			for (int m = 0; m < messagesPerUser; m++, n++) {
+				messages.add(message(n, i));
+			}
+			Twoogle.postMessages(service, messages);
+		}
+
+		user0 = Twoogle.newUser(usernames[0], PASSWORD);
+		Twoogle.userLoginGUI(service, user0, 5);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Twoogle.close(service);
+		try {
+			DriverManager.getConnection("jdbc:derby:" + database + ";drop=true");
+		} catch (SQLException se) {
+			//Derby reports a successful drop with an exception (SQLState 08006).
+		}
+	}
+
+	/**
+	 * Returns the n'th generated message of the passed author, ie "@user4 #tag7 message number 120 from user5".
+	 */
+	String message(int n, int author) {
+		String tag = tags > 0 ? tagNames[n % tags] + " " : "";
+		if (n % 10 == 0 && users > 1)
+			return "@" + usernames[(author + users - 1) % users] + " " + tag + "reply number " + n;
+		return tag + "message number " + n + " from " + usernames[author];
+	}
+
+	static String username(int i) {
+		return "user" + i;
+	}
+
+	private String database;
+
+	static final String PASSWORD = "secret";
+
+	private static final AtomicInteger DATABASES = new AtomicInteger();
+}
@@ -0,0 +1,40 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of splitting a posted message into its reply, tag, private flag and contents with a PostParser, reused
+ * as the Message Service reuses it. Does not touch the database. Run with -prof gc to see that parsing allocates
+ * nothing (gc.alloc.rate.norm near 0 bytes per call).
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmarks {
+
+	@Param({"@david #movies *private I saw the greatest movie yesterday!", "I can't wait for Friday!"})
+	public String message;
+
+	private final Object parser = Twoogle.newPostParser();
+
+	@Benchmark
+	public int parse() {
+		return Twoogle.parse(parser, message);
+	}
+}
@@ -0,0 +1,69 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the Message Service read paths, as used by the command-line menu and the GUI. Each call reads a
+ * different user or tag in turn so the benchmark does not keep hitting the same rows.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadBenchmarks {
+
+	@Benchmark
+	public String viewUserMessages(DatabaseState db) {
+		return Twoogle.viewUserMessages(db.service, db.usernames[next(db.users)], 20);
+	}
+
+	@Benchmark
+	public String viewSubscribedToMessages(DatabaseState db) {
+		return Twoogle.viewSubscribedToMessages(db.service, 20);
+	}
+
+	@Benchmark
+	public String viewMessageByTag(DatabaseState db) {
+		return Twoogle.viewMessageByTag(db.service, db.tagNames[next(db.tags)]);
+	}
+
+	@Benchmark
+	public String viewTags(DatabaseState db) {
+		return Twoogle.viewTags(db.service);
+	}
+
+	@Benchmark
+	public String viewRecentMessages(DatabaseState db) {
+		return Twoogle.viewRecentMessages(db.service, 5);
+	}
+
+	@Benchmark
+	public boolean userLoginGUI(DatabaseState db) {
+		return Twoogle.userLoginGUI(db.service, db.user0, 5);
+	}
+
+	/**
+	 * Returns the next index in 0 - (size - 1), cycling.
+	 */
+	private int next(int size) {
+		if (++i >= size)
+			i = 0;
+		return i;
+	}
+
+	private int i;
+}
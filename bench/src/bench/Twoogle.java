@@ -0,0 +1,231 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+/**
+ * Calls into the Message Service from the benchmarks. JMH does not allow benchmarks in the default package, and
+ * classes in a named package can not refer to the default package classes (MessageService, User, ...) by name, so
+ * the benchmarks go through the method handles below instead. The handles are static finals, which the JIT treats
+ * as constants, so calling through them costs about the same as a direct call.
+ *
+ * Message Service objects are passed around as Object.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+final class Twoogle {
+
+	private Twoogle() {
+	}
+
+	/**
+	 * Creates a Message Service on an embedded database, ie "memory:bench" for an in-memory one.
+	 */
+	static Object newMessageService(String database, int poolSize) {
+		try {
+			return (Object) NEW_SERVICE.invokeExact(database, true, 0, poolSize);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	static Object newUser(String username, String password) {
+		try {
+			return (Object) NEW_USER.invokeExact(username, password);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	/**
+	 * Makes the passed user the current user without checking the password.
+	 */
+	static void setCurrentUser(Object service, Object user) {
+		try {
+			SET_MY_USER.invokeExact(service, user);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	static boolean registerNewUser(Object service, Object user) {
+		try {
+			return (boolean) REGISTER.invokeExact(service, user);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	static boolean subscribeToUser(Object service, String username) {
+		try {
+			return (boolean) SUBSCRIBE.invokeExact(service, username);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	static boolean postMessage(Object service, String message) {
+		try {
+			return (boolean) POST.invokeExact(service, message);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	static int postMessages(Object service, List<String> messages) {
+		try {
+			return (int) POST_ALL.invokeExact(service, messages);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	static String viewUserMessages(Object service, String username, int limit) {
+		try {
+			return (String) VIEW_USER.invokeExact(service, username, limit);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	static String viewSubscribedToMessages(Object service, int limit) {
+		try {
+			return (String) VIEW_SUBSCRIBED.invokeExact(service, limit);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	static String viewMessageByTag(Object service, String tag) {
+		try {
+			return (String) VIEW_TAG.invokeExact(service, tag);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	static String viewTags(Object service) {
+		try {
+			return (String) VIEW_TAGS.invokeExact(service);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	static String viewRecentMessages(Object service, int limit) {
+		try {
+			return (String) VIEW_RECENT.invokeExact(service, limit);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	static boolean userLoginGUI(Object service, Object user, int limit) {
+		try {
+			return (boolean) LOGIN.invokeExact(service, user, limit);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	static Object newPostParser() {
+		try {
+			return (Object) NEW_PARSER.invokeExact();
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	/**
+	 * Parses a message with a PostParser and returns the length of its contents.
+	 */
+	static int parse(Object parser, String message) {
+		try {
+			return (int) CONTENTS_LENGTH.invokeExact(PARSE.invokeExact(parser, message));
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	/**
+	 * Closes the Message Service and its storage.
+	 */
+	static void close(Object service) {
+		try {
+			CLOSE.invokeExact(service);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	private static RuntimeException rethrow(Throwable t) {
+		if (t instanceof RuntimeException)
+			return (RuntimeException) t;
+		if (t instanceof Error)
+			throw (Error) t;
+		return new RuntimeException(t);
+	}
+
+	/**
+	 * Finds a method of a default package class.
+	 */
+	private static MethodHandle virtual(Class<?> c, String name, Class<?> returnType, Class<?>... parameterTypes) throws ReflectiveOperationException {
+		return hide(MethodHandles.privateLookupIn(c, MethodHandles.lookup()).findVirtual(c, name, MethodType.methodType(returnType, parameterTypes)));
+	}
+
+	/**
+	 * Changes the default package types in the type of the passed handle to Object.
+	 */
+	private static MethodHandle hide(MethodHandle mh) {
+		MethodType t = mh.type();
+		for (int i = 0; i < t.parameterCount(); i++) {
+			if (isDefaultPackage(t.parameterType(i)))
+				t = t.changeParameterType(i, Object.class);
+		}
+		if (isDefaultPackage(t.returnType()))
+			t = t.changeReturnType(Object.class);
+		return mh.asType(t);
+	}
+
+	private static boolean isDefaultPackage(Class<?> c) {
+		return !c.isPrimitive() && !c.isArray() && c.getPackageName().isEmpty();
+	}
+
+	private static final MethodHandle NEW_SERVICE, NEW_USER, SET_MY_USER, CLOSE;
+	private static final MethodHandle REGISTER, SUBSCRIBE, POST, POST_ALL;
+	private static final MethodHandle VIEW_USER, VIEW_SUBSCRIBED, VIEW_TAG, VIEW_TAGS, VIEW_RECENT, LOGIN;
+	private static final MethodHandle NEW_PARSER, PARSE, CONTENTS_LENGTH;
+
+	static {
+		try {
+			Class<?> service = Class.forName("MessageService");
+			Class<?> user = Class.forName("User");
+			MethodHandles.Lookup l = MethodHandles.privateLookupIn(service, MethodHandles.lookup());
+
+			NEW_SERVICE = hide(l.findConstructor(service, MethodType.methodType(void.class, String.class, boolean.class, int.class, int.class)));
+			NEW_USER = hide(MethodHandles.privateLookupIn(user, MethodHandles.lookup()).findConstructor(user, MethodType.methodType(void.class, String.class, String.class)));
+			SET_MY_USER = hide(l.findSetter(service, "myUser", user));
+			CLOSE = virtual(service, "close", void.class);
+
+			REGISTER = virtual(service, "registerNewUser", boolean.class, user);
+			SUBSCRIBE = virtual(service, "subscribeToUser", boolean.class, String.class);
+			POST = virtual(service, "postMessage", boolean.class, String.class);
+			POST_ALL = virtual(service, "postMessages", int.class, List.class);
+			VIEW_USER = virtual(service, "viewUserMessages", String.class, String.class, int.class);
+			VIEW_SUBSCRIBED = virtual(service, "viewSubscribedToMessages", String.class, int.class);
+			VIEW_TAG = virtual(service, "viewMessageByTag", String.class, String.class);
+			VIEW_TAGS = virtual(service, "viewTags", String.class);
+			VIEW_RECENT = virtual(service, "viewRecentMessages", String.class, int.class);
+			LOGIN = virtual(service, "userLoginGUI", boolean.class, user, int.class);
+
+			Class<?> parser = Class.forName("PostParser");
+			NEW_PARSER = hide(MethodHandles.privateLookupIn(parser, MethodHandles.lookup()).findConstructor(parser, MethodType.methodType(void.class)));
+			PARSE = virtual(parser, "parse", parser, String.class);
+			CONTENTS_LENGTH = virtual(parser, "contentsLength", int.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+}
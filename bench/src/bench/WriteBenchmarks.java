@@ -0,0 +1,49 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of posting messages, one at a time and in groups through postMessages(). The scores of both are in
+ * messages per second. The database keeps growing during the run, as it would in use.
+ *
+ * @author Cody Reibsome, Josh Stemmler, Josiah Neuberger
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteBenchmarks {
+
+	@Benchmark
+	public boolean postMessage(DatabaseState db) {
+		return Twoogle.postMessage(db.service, db.message(n++, 0));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public int postMessages(DatabaseState db) {
+		ArrayList<String> messages = new ArrayList<String>(BATCH);
+		for (int m = 0; m < BATCH; m++) {
+			messages.add(db.message(n++, 0));
+		}
+		return Twoogle.postMessages(db.service, messages);
+	}
+
+	private int n;
+
+	private static final int BATCH = 100;
+}